@@ -0,0 +1,24 @@
+package com.soc;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Entry point of target/benchmarks.jar: the normal JMH command line,
+ * with the GC/allocation profiler added unless another -prof is given.
+ *
+ *   java -jar target/benchmarks.jar                      (all benchmarks)
+ *   java -jar target/benchmarks.jar Decode -p points=20000
+ */
+public class BenchmarkMain {
+
+    public static void main(String[] args) throws Exception {
+        List<String> all = new ArrayList<>(Arrays.asList(args));
+        if (!all.contains("-prof")) {
+            all.add("-prof");
+            all.add("gc");
+        }
+        org.openjdk.jmh.Main.main(all.toArray(new String[0]));
+    }
+}
@@ -0,0 +1,70 @@
+package com.soc;
+
+import org.jxmapviewer.JXMapViewer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Bounding box + zoom choice of MapViewerApp.centerAndZoom, and the route length computed by RouteGeometry,
+ * with the Vector API kernel (the fork gets --add-modules jdk.incubator.vector) and with the scalar one.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "--add-modules", "jdk.incubator.vector"})
+public class BoundsBenchmark {
+
+    @Param({ItineraryFixtures.SMALL, ItineraryFixtures.LARGE, ItineraryFixtures.HUGE})
+    public int points;
+
+    private List<RouteSegment> segments;
+    private JXMapViewer map;
+
+    @Setup
+    public void setup() {
+        segments = ItineraryFixtures.segments(points);
+        map = ItineraryFixtures.viewer(segments, 7, 1200, 800);
+    }
+
+    @Benchmark
+    public int centerAndZoom() {
+        MapViewerApp.centerAndZoom(map, segments);
+        return map.getZoom();
+    }
+
+    @Benchmark
+    public double routeLengthVector() {
+        return RouteGeometry.lengthMeters(segments);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dgeometry.scalar=true"})
+    public double routeLengthScalar() {
+        return RouteGeometry.lengthMeters(segments);
+    }
+
+    @Benchmark
+    public RouteGeometry.Bounds boundsVector() {
+        return RouteGeometry.bounds(segments);
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"-Djava.awt.headless=true", "-Dgeometry.scalar=true"})
+    public RouteGeometry.Bounds boundsScalar() {
+        return RouteGeometry.bounds(segments);
+    }
+}
@@ -0,0 +1,53 @@
+package com.soc;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JSON response -> List<RouteSegment>: the streaming decoder used by RoutingRestClient
+ * against the original String + readTree path, on the same bytes.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecodeBenchmark {
+
+    @Param({ItineraryFixtures.SMALL, ItineraryFixtures.LARGE, ItineraryFixtures.HUGE})
+    public int points;
+
+    private byte[] body;
+
+    @Setup
+    public void setup() {
+        body = ItineraryFixtures.json(points);
+    }
+
+    @Benchmark
+    public List<RouteSegment> streaming() throws IOException {
+        return ItineraryStreamDecoder.decodeSegments(new ByteArrayInputStream(body));
+    }
+
+    @Benchmark
+    public List<RouteSegment> stringAndTree() throws IOException {
+        // what BodyHandlers.ofString() + readTree did: decode the whole body to a String first
+        return ItineraryTreeDecoder.parseSegments(new String(body, StandardCharsets.UTF_8));
+    }
+}
@@ -0,0 +1,84 @@
+package com.soc;
+
+import org.jxmapviewer.JXMapViewer;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Route-density heatmap: aggregation of a batch of itineraries into a RouteDensityGrid,
+ * in the fork-join pool (addAll) and on one thread (add), and the repaint of a viewer-sized frame
+ * when the counts changed (the image is rebuilt from the grid) or not (only drawn).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class DensityBenchmark {
+
+    @Param({"1000"})
+    public int itineraries;
+
+    private List<List<RouteSegment>> batch;
+    private RouteDensityGrid filled;
+    private RouteDensityPainter painter;
+    private JXMapViewer map;
+    private Graphics2D g;
+
+    @Setup
+    public void setup() {
+        batch = ItineraryFixtures.itineraries(itineraries, Integer.parseInt(ItineraryFixtures.SMALL));
+        filled = new RouteDensityGrid();
+        filled.addAll(batch);
+        painter = new RouteDensityPainter();
+        painter.setGrid(filled);
+        map = ItineraryFixtures.viewer(batch.get(0), 9, 1200, 800);
+        g = new BufferedImage(1200, 800, BufferedImage.TYPE_INT_ARGB).createGraphics();
+    }
+
+    @Benchmark
+    public long addAllParallel() {
+        RouteDensityGrid grid = new RouteDensityGrid();
+        grid.addAll(batch);
+        return grid.getVersion();
+    }
+
+    @Benchmark
+    public long addSequential() {
+        RouteDensityGrid grid = new RouteDensityGrid();
+        for (List<RouteSegment> itinerary : batch) {
+            grid.add(itinerary);
+        }
+        return grid.getVersion();
+    }
+
+    @Benchmark
+    public RouteDensityPainter paintChanged() {
+        // a painter per call: its image is rebuilt, as after new counts
+        RouteDensityPainter fresh = new RouteDensityPainter();
+        fresh.setGrid(filled);
+        fresh.paint(g, map, 1200, 800);
+        return fresh;
+    }
+
+    @Benchmark
+    public RouteDensityPainter paintCached() {
+        painter.paint(g, map, 1200, 800);
+        return painter;
+    }
+}
@@ -0,0 +1,70 @@
+package com.soc;
+
+import org.jxmapviewer.JXMapViewer;
+import org.jxmapviewer.viewer.DefaultTileFactory;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Itinerary fixtures for the benchmarks.
+ * They are produced by the same generator as StubItineraryServer with a fixed seed, so every run
+ * (and every machine) measures exactly the same JSON bytes for a given size.
+ */
+final class ItineraryFixtures {
+
+    /* Sizes we see in practice: a city trip, Toulouse -> Paris class, and a stress case */
+    static final String SMALL = "500";
+    static final String LARGE = "20000";
+    static final String HUGE = "100000";
+
+    private ItineraryFixtures() {
+    }
+
+    static byte[] json(int points) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(points * 80);
+        try {
+            StubItineraryServer.writeItinerary(out, 42L + points, points);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+        return out.toByteArray();
+    }
+
+    static List<RouteSegment> segments(int points) {
+        try {
+            return ItineraryStreamDecoder.decodeSegments(new ByteArrayInputStream(json(points)));
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    /** Many different itineraries (one seed each), as the route-density heatmap reads them from the archive. */
+    static List<List<RouteSegment>> itineraries(int count, int points) {
+        List<List<RouteSegment>> itineraries = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(points * 80);
+            try {
+                StubItineraryServer.writeItinerary(out, 1000L + i, points);
+                itineraries.add(ItineraryStreamDecoder.decodeSegments(new ByteArrayInputStream(out.toByteArray())));
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+        }
+        return itineraries;
+    }
+
+    /** A viewer the size of the MapViewerApp window, centered on the route at the given zoom (no tiles are loaded). */
+    static JXMapViewer viewer(List<RouteSegment> segments, int zoom, int width, int height) {
+        JXMapViewer map = new JXMapViewer();
+        map.setTileFactory(new DefaultTileFactory(MapViewerApp.createTileFactoryInfo()));
+        map.setSize(width, height);
+        MapViewerApp.centerAndZoom(map, segments);
+        map.setZoom(zoom);
+        return map;
+    }
+}
@@ -0,0 +1,85 @@
+package com.soc;
+
+import org.jxmapviewer.JXMapViewer;
+import org.jxmapviewer.viewer.TileFactoryInfo;
+import org.jxmapviewer.viewer.util.GeoUtil;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One repaint of the route overlay into an offscreen image the size of the MapViewerApp window,
+ * and the pixel projection of all vertices on its own.
+ * Zoom levels are JXMapViewer levels: 2 = street, 7 = city, 11 = country (what centerAndZoom picks).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 1, jvmArgsAppend = "-Djava.awt.headless=true")
+public class PaintBenchmark {
+
+    private static final int WIDTH = 1200;
+    private static final int HEIGHT = 800;
+
+    @Param({ItineraryFixtures.SMALL, ItineraryFixtures.LARGE})
+    public int points;
+
+    @Param({"2", "7", "11"})
+    public int zoom;
+
+    private List<RouteSegment> segments;
+    private JXMapViewer map;
+    private SegmentedRoutePainter painter;
+    private BufferedImage image;
+    private Graphics2D graphics;
+
+    @Setup(Level.Trial)
+    public void setup() {
+        segments = ItineraryFixtures.segments(points);
+        map = ItineraryFixtures.viewer(segments, zoom, WIDTH, HEIGHT);
+        painter = new SegmentedRoutePainter(segments);
+        image = new BufferedImage(WIDTH, HEIGHT, BufferedImage.TYPE_INT_ARGB);
+        graphics = image.createGraphics();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        graphics.dispose();
+    }
+
+    @Benchmark
+    public BufferedImage paint() {
+        painter.paint(graphics, map, WIDTH, HEIGHT);
+        return image;
+    }
+
+    @Benchmark
+    public void project(Blackhole bh) {
+        TileFactoryInfo info = map.getTileFactory().getInfo();
+        for (RouteSegment seg : segments) {
+            for (int i = 0; i < seg.size(); i++) {
+                Point2D pt = GeoUtil.getBitmapCoordinate(seg.getLat(i), seg.getLon(i), zoom, info);
+                bh.consume(pt);
+            }
+        }
+    }
+}
@@ -0,0 +1,106 @@
+package com.soc;
+
+import com.soap.proxycache.client.generated.ProxyService;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * ProxyCacheService calls (status) against StubProxyServer on localhost, with the ports of a
+ * ProxyServicePool or a port built for each call: from the shared ProxyService (the WSDL model is reused),
+ * or with a new ProxyService as well (what a client that creates its port on demand pays).
+ * The concurrent variants send BURST calls at once on virtual threads, like a station poller.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ProxyPoolBenchmark {
+
+    private static final int BURST = 100;
+    private static final Duration CONNECT_TIMEOUT = Duration.ofSeconds(5);
+    private static final Duration REQUEST_TIMEOUT = Duration.ofSeconds(30);
+
+    private StubProxyServer stub;
+    private ProxyServicePool pool;
+    private ProxyService service;
+    private ExecutorService executor;
+
+    @Setup
+    public void setup() throws IOException {
+        stub = new StubProxyServer(0, 0);
+        pool = new ProxyServicePool(16, stub.getEndpoint(), CONNECT_TIMEOUT, REQUEST_TIMEOUT, Duration.ofSeconds(30));
+        service = new ProxyService();
+        executor = Executors.newVirtualThreadPerTaskExecutor();
+    }
+
+    @TearDown
+    public void tearDown() {
+        executor.close();
+        pool.close();
+        stub.close();
+    }
+
+    @Benchmark
+    public String pooled() {
+        return pool.status();
+    }
+
+    @Benchmark
+    public String portPerCall() {
+        return ProxyServicePool.newPort(service, stub.getEndpoint(), CONNECT_TIMEOUT, REQUEST_TIMEOUT).status();
+    }
+
+    @Benchmark
+    public String servicePerCall() {
+        return ProxyServicePool.newPort(new ProxyService(), stub.getEndpoint(), CONNECT_TIMEOUT, REQUEST_TIMEOUT).status();
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int pooledConcurrent() {
+        List<CompletableFuture<String>> calls = new ArrayList<>(BURST);
+        for (int i = 0; i < BURST; i++) {
+            calls.add(pool.statusAsync());
+        }
+        return joinAll(calls);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BURST)
+    public int portPerCallConcurrent() {
+        List<CompletableFuture<String>> calls = new ArrayList<>(BURST);
+        for (int i = 0; i < BURST; i++) {
+            calls.add(CompletableFuture.supplyAsync(() -> portPerCall(), executor));
+        }
+        return joinAll(calls);
+    }
+
+    private static int joinAll(List<CompletableFuture<String>> calls) {
+        int chars = 0;
+        for (CompletableFuture<String> call : calls) {
+            chars += call.join().length();
+        }
+        return chars;
+    }
+}
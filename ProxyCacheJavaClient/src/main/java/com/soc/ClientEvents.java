@@ -0,0 +1,167 @@
+package com.soc;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+
+/**
+ * JDK Flight Recorder events of the client, created and committed by ClientMetrics.
+ * They show up under "ProxyCache Client" in JDK Mission Control, next to the GC and thread events,
+ * e.g. with java -XX:StartFlightRecording=filename=client.jfr ...
+ * Without a recording they cost next to nothing.
+ */
+public final class ClientEvents {
+
+    private static final String CATEGORY = "ProxyCache Client";
+
+    private ClientEvents() {
+    }
+
+    /* Start time for the histograms (JFR keeps its own, which we cannot read back) */
+    abstract static class Timed extends Event {
+        transient long startNanos;
+    }
+
+    @Name("com.soc.ItineraryFetch")
+    @Label("Itinerary HTTP Call")
+    @Description("POST /itinerary, until the response headers are received (the body is read by the decode)")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class ItineraryFetch extends Timed {
+        @Label("Origin")
+        String origin;
+
+        @Label("Destination")
+        String destination;
+
+        @Label("Status Code")
+        @Description("HTTP status, -1 if the call failed")
+        int statusCode;
+    }
+
+    @Name("com.soc.ItineraryDecode")
+    @Label("Itinerary Decode")
+    @Description("Streaming decode of the /itinerary body, and the simplification of its segments")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class ItineraryDecode extends Timed {
+        @Label("Segments")
+        int segments;
+
+        @Label("Points")
+        int points;
+    }
+
+    @Name("com.soc.DistanceMismatch")
+    @Label("Segment Distance Mismatch")
+    @Description("A decoded segment whose geometry length differs from the DistanceMeters of the service "
+            + "(checked with -Dgeometry.checkDistances=true)")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class DistanceMismatch extends Event {
+        @Label("Segment")
+        int segment;
+
+        @Label("Mode")
+        String mode;
+
+        @Label("Geometry Meters")
+        double geometryMeters;
+
+        @Label("Announced Meters")
+        double announcedMeters;
+    }
+
+    @Name("com.soc.RoutePaint")
+    @Label("Route Paint")
+    @Description("One frame of a route painter")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class RoutePaint extends Timed {
+        @Label("Painter")
+        String painter;
+
+        @Label("Zoom")
+        int zoom;
+
+        @Label("Chunks")
+        @Description("Route chunks (or raster tiles) drawn")
+        int chunks;
+
+        @Label("Vertices")
+        @Description("Vertices drawn, or rendered into new raster tiles")
+        int vertices;
+    }
+
+    @Name("com.soc.TileLoad")
+    @Label("Map Tile Load")
+    @Description("One map tile loaded by the tile factory (from the tile store or the network)")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class TileLoad extends Timed {
+        @Label("Pending Tiles")
+        int pendingTiles;
+    }
+
+    @Name("com.soc.SoapCall")
+    @Label("SOAP Call")
+    @Description("One call through the ProxyCacheService port")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class SoapCall extends Timed {
+        @Label("Operation")
+        String operation;
+
+        @Label("Failed")
+        boolean failed;
+    }
+
+    @Name("com.soc.StorageError")
+    @Label("Local Storage Error")
+    @Description("A failure of the viewer's local storage (itinerary archive, tile store, density map) "
+            + "that the viewer worked around")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class StorageError extends Event {
+        @Label("Store")
+        String store;
+
+        @Label("Operation")
+        String operation;
+
+        @Label("Error")
+        String error;
+    }
+
+    @Name("com.soc.ItineraryRevalidationFailure")
+    @Label("Itinerary Revalidation Failure")
+    @Description("A background reload of a stale cached itinerary that failed; the stale one is still served")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class ItineraryRevalidationFailure extends Event {
+        @Label("Origin")
+        String origin;
+
+        @Label("Destination")
+        String destination;
+
+        @Label("Error")
+        String error;
+    }
+
+    @Name("com.soc.StationRefreshFailure")
+    @Label("Station Refresh Failure")
+    @Description("A refresh of a JCDecaux contract that failed; StationStore keeps the previous snapshot")
+    @Category(CATEGORY)
+    @StackTrace(false)
+    public static final class StationRefreshFailure extends Event {
+        @Label("Contract")
+        String contract;
+
+        @Label("Error")
+        String error;
+    }
+}
@@ -0,0 +1,368 @@
+package com.soc;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timers and counters of the client hot paths: HTTP calls and decoding in RoutingRestClient,
+ * route painting (time and vertices per frame), map tile loading and SOAP calls,
+ * and the failures of the viewer's local storage, of the itinerary cache revalidations and of the station refreshes.
+ *
+ * Each path records into a LatencyHistogram and a LongAdder (lock-free, a few atomic adds per call),
+ * and emits the matching ClientEvents event for Flight Recorder.
+ * The numbers are published as the MXBean com.soc:type=ClientMetrics when the class is first used.
+ * Call sites use the begin/end pairs: begin returns the JFR event, which also carries the start time.
+ */
+public final class ClientMetrics implements ClientMetricsMXBean {
+
+    public static final String OBJECT_NAME = "com.soc:type=ClientMetrics";
+
+    private static final ClientMetrics INSTANCE = new ClientMetrics();
+
+    static {
+        try {
+            ManagementFactory.getPlatformMBeanServer().registerMBean(INSTANCE, new ObjectName(OBJECT_NAME));
+        } catch (JMException ex) {
+            System.err.println("Client metrics not published over JMX: " + ex.getMessage());
+        }
+    }
+
+    private final LongAdder httpCalls = new LongAdder();
+    private final LongAdder httpErrors = new LongAdder();
+    private final LongAdder httpBytes = new LongAdder();
+    private final LongAdder decodes = new LongAdder();
+    private final LongAdder distanceMismatches = new LongAdder();
+    private final LongAdder frames = new LongAdder();
+    private final LongAdder tilesLoaded = new LongAdder();
+    private final LongAdder soapCalls = new LongAdder();
+    private final LongAdder soapErrors = new LongAdder();
+    private final LongAdder storageErrors = new LongAdder();
+    private final LongAdder revalidationErrors = new LongAdder();
+    private final LongAdder stationRefreshErrors = new LongAdder();
+
+    private final LatencyHistogram httpTime = new LatencyHistogram();
+    private final LatencyHistogram decodeTime = new LatencyHistogram();
+    private final LatencyHistogram paintTime = new LatencyHistogram();
+    // plain counts, not microseconds: the histogram works for any positive value
+    private final LatencyHistogram verticesPerFrame = new LatencyHistogram();
+    private final LatencyHistogram tileTime = new LatencyHistogram();
+    private final LatencyHistogram soapTime = new LatencyHistogram();
+
+    private ClientMetrics() {
+    }
+
+    public static ClientMetrics get() {
+        return INSTANCE;
+    }
+
+    static ClientEvents.ItineraryFetch beginFetch(String origin, String destination) {
+        ClientEvents.ItineraryFetch event = new ClientEvents.ItineraryFetch();
+        event.origin = origin;
+        event.destination = destination;
+        start(event);
+        return event;
+    }
+
+    /** statusCode -1 when the call failed without a response. */
+    static void endFetch(ClientEvents.ItineraryFetch event, int statusCode) {
+        INSTANCE.httpCalls.increment();
+        if (statusCode != 200) {
+            INSTANCE.httpErrors.increment();
+        }
+        event.statusCode = statusCode;
+        finish(event, INSTANCE.httpTime);
+    }
+
+    /** Response body bytes as received, before decompression (see ItineraryTransport). */
+    static void recordBytesReceived(long bytes) {
+        INSTANCE.httpBytes.add(bytes);
+    }
+
+    static ClientEvents.ItineraryDecode beginDecode() {
+        ClientEvents.ItineraryDecode event = new ClientEvents.ItineraryDecode();
+        start(event);
+        return event;
+    }
+
+    static void endDecode(ClientEvents.ItineraryDecode event, List<RouteSegment> segments) {
+        INSTANCE.decodes.increment();
+        if (segments != null) {
+            int points = 0;
+            for (RouteSegment seg : segments) {
+                points += seg.size();
+            }
+            event.segments = segments.size();
+            event.points = points;
+        }
+        finish(event, INSTANCE.decodeTime);
+    }
+
+    /** A decoded segment that does not match its DistanceMeters (RouteGeometry.checkDistances). */
+    static void recordDistanceMismatch(int segment, RouteSegment.Mode mode, double geometryMeters,
+                                       double announcedMeters) {
+        INSTANCE.distanceMismatches.increment();
+        ClientEvents.DistanceMismatch event = new ClientEvents.DistanceMismatch();
+        if (event.isEnabled()) {
+            event.segment = segment;
+            event.mode = String.valueOf(mode);
+            event.geometryMeters = geometryMeters;
+            event.announcedMeters = announcedMeters;
+            event.commit();
+        }
+    }
+
+    /** A local store (archive, tile store, density map) failed; the viewer goes on without it. */
+    static void recordStorageError(String store, String operation, Exception ex) {
+        INSTANCE.storageErrors.increment();
+        ClientEvents.StorageError event = new ClientEvents.StorageError();
+        if (event.isEnabled()) {
+            event.store = store;
+            event.operation = operation;
+            event.error = String.valueOf(ex);
+            event.commit();
+        }
+    }
+
+    /** A background reload of a stale ItineraryCache entry failed; the stale entry is still served. */
+    static void recordRevalidationError(String origin, String destination, Exception ex) {
+        INSTANCE.revalidationErrors.increment();
+        ClientEvents.ItineraryRevalidationFailure event = new ClientEvents.ItineraryRevalidationFailure();
+        if (event.isEnabled()) {
+            event.origin = origin;
+            event.destination = destination;
+            event.error = String.valueOf(ex);
+            event.commit();
+        }
+    }
+
+    /** A StationStore refresh failed; the previous snapshot of the contract stays in use. */
+    static void recordStationRefreshError(String contract, Exception ex) {
+        INSTANCE.stationRefreshErrors.increment();
+        ClientEvents.StationRefreshFailure event = new ClientEvents.StationRefreshFailure();
+        if (event.isEnabled()) {
+            event.contract = contract;
+            event.error = String.valueOf(ex);
+            event.commit();
+        }
+    }
+
+    static ClientEvents.RoutePaint beginPaint(String painter) {
+        ClientEvents.RoutePaint event = new ClientEvents.RoutePaint();
+        event.painter = painter;
+        start(event);
+        return event;
+    }
+
+    static void endPaint(ClientEvents.RoutePaint event, int zoom, int chunks, int vertices) {
+        INSTANCE.frames.increment();
+        INSTANCE.verticesPerFrame.recordMicros(vertices);
+        event.zoom = zoom;
+        event.chunks = chunks;
+        event.vertices = vertices;
+        finish(event, INSTANCE.paintTime);
+    }
+
+    static ClientEvents.TileLoad beginTileLoad() {
+        ClientEvents.TileLoad event = new ClientEvents.TileLoad();
+        start(event);
+        return event;
+    }
+
+    static void endTileLoad(ClientEvents.TileLoad event, int pendingTiles) {
+        INSTANCE.tilesLoaded.increment();
+        event.pendingTiles = pendingTiles;
+        finish(event, INSTANCE.tileTime);
+    }
+
+    /**
+     * Wraps a SOAP port (e.g. IProxyService) so that every call is timed.
+     * The proxy implements all the interfaces of the port, so it can still be cast to BindingProvider.
+     */
+    @SuppressWarnings("unchecked")
+    public static <T> T instrumentSoap(T port, Class<T> type) {
+        InvocationHandler handler = (proxy, method, args) -> {
+            if (method.getDeclaringClass() == Object.class) {
+                return method.invoke(port, args);
+            }
+            ClientEvents.SoapCall event = new ClientEvents.SoapCall();
+            event.operation = method.getName();
+            start(event);
+            try {
+                return method.invoke(port, args);
+            } catch (InvocationTargetException ex) {
+                event.failed = true;
+                throw ex.getCause();
+            } finally {
+                INSTANCE.soapCalls.increment();
+                if (event.failed) {
+                    INSTANCE.soapErrors.increment();
+                }
+                finish(event, INSTANCE.soapTime);
+            }
+        };
+        Class<?>[] interfaces = type.isInstance(port) ? port.getClass().getInterfaces() : new Class<?>[]{type};
+        return (T) Proxy.newProxyInstance(type.getClassLoader(), interfaces, handler);
+    }
+
+    private static void start(ClientEvents.Timed event) {
+        event.startNanos = System.nanoTime();
+        event.begin();
+    }
+
+    private static void finish(ClientEvents.Timed event, LatencyHistogram histogram) {
+        histogram.recordNanos(System.nanoTime() - event.startNanos);
+        event.end();
+        if (event.shouldCommit()) {
+            event.commit();
+        }
+    }
+
+    @Override
+    public long getHttpCalls() {
+        return httpCalls.sum();
+    }
+
+    @Override
+    public long getHttpErrors() {
+        return httpErrors.sum();
+    }
+
+    @Override
+    public long getHttpBytesReceived() {
+        return httpBytes.sum();
+    }
+
+    @Override
+    public double getHttpP50Millis() {
+        return httpTime.percentileMicros(50) / 1000.0;
+    }
+
+    @Override
+    public double getHttpP99Millis() {
+        return httpTime.percentileMicros(99) / 1000.0;
+    }
+
+    @Override
+    public long getDecodes() {
+        return decodes.sum();
+    }
+
+    @Override
+    public double getDecodeP99Millis() {
+        return decodeTime.percentileMicros(99) / 1000.0;
+    }
+
+    @Override
+    public long getDistanceMismatches() {
+        return distanceMismatches.sum();
+    }
+
+    @Override
+    public long getFramesPainted() {
+        return frames.sum();
+    }
+
+    @Override
+    public double getPaintP50Millis() {
+        return paintTime.percentileMicros(50) / 1000.0;
+    }
+
+    @Override
+    public double getPaintP99Millis() {
+        return paintTime.percentileMicros(99) / 1000.0;
+    }
+
+    @Override
+    public double getPaintMaxMillis() {
+        return paintTime.getMaxMicros() / 1000.0;
+    }
+
+    @Override
+    public long getVerticesPerFrameP50() {
+        return verticesPerFrame.percentileMicros(50);
+    }
+
+    @Override
+    public long getVerticesPerFrameP99() {
+        return verticesPerFrame.percentileMicros(99);
+    }
+
+    @Override
+    public long getTilesLoaded() {
+        return tilesLoaded.sum();
+    }
+
+    @Override
+    public double getTileLoadP99Millis() {
+        return tileTime.percentileMicros(99) / 1000.0;
+    }
+
+    @Override
+    public long getSoapCalls() {
+        return soapCalls.sum();
+    }
+
+    @Override
+    public long getSoapErrors() {
+        return soapErrors.sum();
+    }
+
+    @Override
+    public double getSoapP99Millis() {
+        return soapTime.percentileMicros(99) / 1000.0;
+    }
+
+    @Override
+    public long getStorageErrors() {
+        return storageErrors.sum();
+    }
+
+    @Override
+    public long getRevalidationErrors() {
+        return revalidationErrors.sum();
+    }
+
+    @Override
+    public long getStationRefreshErrors() {
+        return stationRefreshErrors.sum();
+    }
+
+    public LatencyHistogram getPaintTime() {
+        return paintTime;
+    }
+
+    public LatencyHistogram getVerticesPerFrame() {
+        return verticesPerFrame;
+    }
+
+    @Override
+    public String summary() {
+        return "http   " + httpTime.summary() + " errors=" + httpErrors.sum() + " bytes=" + httpBytes.sum() + "\n"
+                + "decode " + decodeTime.summary() + " distance mismatches=" + distanceMismatches.sum() + "\n"
+                + "paint  " + paintTime.summary() + "\n"
+                + "vertices/frame p50=" + getVerticesPerFrameP50() + " p99=" + getVerticesPerFrameP99()
+                + " max=" + verticesPerFrame.getMaxMicros() + "\n"
+                + "tiles  " + tileTime.summary() + "\n"
+                + "soap   " + soapTime.summary() + " errors=" + soapErrors.sum() + "\n"
+                + "storage errors=" + storageErrors.sum() + " revalidation errors=" + revalidationErrors.sum()
+                + " station refresh errors=" + stationRefreshErrors.sum();
+    }
+
+    @Override
+    public void reset() {
+        for (LongAdder a : new LongAdder[]{httpCalls, httpErrors, httpBytes, decodes, distanceMismatches, frames,
+                tilesLoaded, soapCalls, soapErrors, storageErrors, revalidationErrors, stationRefreshErrors}) {
+            a.reset();
+        }
+        for (LatencyHistogram h : new LatencyHistogram[]{httpTime, decodeTime, paintTime, verticesPerFrame,
+                tileTime, soapTime}) {
+            h.reset();
+        }
+    }
+}
@@ -0,0 +1,62 @@
+package com.soc;
+
+/**
+ * JMX view of ClientMetrics (ObjectName com.soc:type=ClientMetrics), e.g. in JConsole or VisualVM.
+ * Times are in milliseconds; the percentiles cover everything recorded since the start or the last reset().
+ */
+public interface ClientMetricsMXBean {
+
+    long getHttpCalls();
+
+    long getHttpErrors();
+
+    /** Itinerary response bytes read from the network (compressed size when the server compresses). */
+    long getHttpBytesReceived();
+
+    double getHttpP50Millis();
+
+    double getHttpP99Millis();
+
+    long getDecodes();
+
+    double getDecodeP99Millis();
+
+    /** Decoded segments whose geometry does not match their DistanceMeters (only with -Dgeometry.checkDistances=true). */
+    long getDistanceMismatches();
+
+    long getFramesPainted();
+
+    double getPaintP50Millis();
+
+    double getPaintP99Millis();
+
+    double getPaintMaxMillis();
+
+    long getVerticesPerFrameP50();
+
+    long getVerticesPerFrameP99();
+
+    long getTilesLoaded();
+
+    double getTileLoadP99Millis();
+
+    long getSoapCalls();
+
+    long getSoapErrors();
+
+    double getSoapP99Millis();
+
+    /** Failures of the itinerary archive, the tile store or the density map that the viewer worked around. */
+    long getStorageErrors();
+
+    /** Background reloads of stale cached itineraries (ItineraryCache) that failed. */
+    long getRevalidationErrors();
+
+    /** Station refreshes (StationStore) that failed and kept the previous snapshot. */
+    long getStationRefreshErrors();
+
+    /** One line per histogram, as printed by the load generator. */
+    String summary();
+
+    void reset();
+}
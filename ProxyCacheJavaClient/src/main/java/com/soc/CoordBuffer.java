@@ -0,0 +1,71 @@
+package com.soc;
+
+import org.jxmapviewer.viewer.GeoPosition;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Growable interleaved lat/lon array used while decoding,
+ * so coordinates go straight into the storage that RouteSegment keeps.
+ */
+final class CoordBuffer {
+
+    private double[] data;
+    private int size;
+
+    CoordBuffer() {
+        this(64);
+    }
+
+    CoordBuffer(int initialPoints) {
+        data = new double[Math.max(2, initialPoints * 2)];
+    }
+
+    void add(double lat, double lon) {
+        if (size * 2 == data.length) {
+            data = Arrays.copyOf(data, data.length * 2);
+        }
+        data[size * 2] = lat;
+        data[size * 2 + 1] = lon;
+        size++;
+    }
+
+    void addAll(CoordBuffer other) {
+        int needed = (size + other.size) * 2;
+        if (needed > data.length) {
+            data = Arrays.copyOf(data, Math.max(needed, data.length * 2));
+        }
+        System.arraycopy(other.data, 0, data, size * 2, other.size * 2);
+        size += other.size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /**
+     * Hands the array over to a segment, trimmed only when it wastes more than a quarter
+     * of its length (a copy is cheaper than keeping a half-empty array alive for the whole session).
+     * The buffer must not be reused afterwards.
+     */
+    RouteSegment toSegment(RouteSegment.Mode mode) {
+        double[] packed = data.length - size * 2 > data.length / 4
+                ? Arrays.copyOf(data, size * 2)
+                : data;
+        return new RouteSegment(mode, packed, size);
+    }
+
+    List<GeoPosition> toPositions() {
+        List<GeoPosition> list = new ArrayList<>(size);
+        for (int i = 0; i < size; i++) {
+            list.add(new GeoPosition(data[2 * i], data[2 * i + 1]));
+        }
+        return list;
+    }
+}
@@ -0,0 +1,411 @@
+package com.soc;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Append-only file of itineraries (origin, destination and their RouteSegments) in a compact binary format,
+ * read back through a MappedByteBuffer.
+ *
+ * Each itinerary is one record: magic, payload length and CRC, then the payload. In the payload coordinates
+ * are micro-degrees (1e-6, as RouteSegment.quantize()) stored as zigzag varint deltas from the previous point,
+ * so a vertex of a street-level route takes 2 to 4 bytes instead of about 40 characters of JSON.
+ * Each segment has a mode tag and the details of the routing service (distance, duration, names, contract).
+ *
+ * Opening an archive only walks the record headers to build the offset table (no payload is decoded),
+ * so get(n) is a direct read of the nth record. A record cut by a crash is dropped at open
+ * and overwritten by the next append. Files are limited to 2 GB (one mapping).
+ */
+public class ItineraryArchive implements Closeable {
+
+    private static final int FILE_MAGIC = 0x50434941;    // "PCIA"
+    private static final int VERSION = 1;
+    private static final int FILE_HEADER = 16;           // magic, version, unused (long)
+    private static final int RECORD_MAGIC = 0x4954494E;  // "ITIN"
+    private static final int RECORD_HEADER = 12;         // magic, length, crc
+
+    private static final double QUANTUM = 1e-6;
+
+    // segment detail flags
+    private static final int HAS_DISTANCE = 1;
+    private static final int HAS_DURATION = 2;
+    private static final int HAS_FROM = 4;
+    private static final int HAS_TO = 8;
+    private static final int HAS_CONTRACT = 16;
+
+    private final Path file;
+    private final FileChannel channel;
+
+    private long[] offsets = new long[64];  // record start, by index
+    private int count;
+    private long end;                       // where the next record goes
+
+    private MappedByteBuffer mapped;        // covers [0, mapped.capacity()), remapped when the file grew
+
+    /** One itinerary read back from the archive. */
+    public static final class Entry {
+        private final String origin;
+        private final String destination;
+        private final Instant savedAt;
+        private final List<RouteSegment> segments;
+
+        Entry(String origin, String destination, Instant savedAt, List<RouteSegment> segments) {
+            this.origin = origin;
+            this.destination = destination;
+            this.savedAt = savedAt;
+            this.segments = segments;
+        }
+
+        public String getOrigin() {
+            return origin;
+        }
+
+        public String getDestination() {
+            return destination;
+        }
+
+        public Instant getSavedAt() {
+            return savedAt;
+        }
+
+        /** Quantized segments with their details; the list cannot be modified. */
+        public List<RouteSegment> getSegments() {
+            return segments;
+        }
+    }
+
+    /** Opens the archive, creating it (and its directory) if needed. */
+    public ItineraryArchive(Path file) throws IOException {
+        this.file = file;
+        Path dir = file.toAbsolutePath().getParent();
+        if (dir != null) {
+            Files.createDirectories(dir);
+        }
+        channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        try {
+            if (channel.size() == 0) {
+                ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+                header.putInt(FILE_MAGIC).putInt(VERSION).putLong(0).flip();
+                channel.write(header, 0);
+            }
+            scan();
+        } catch (IOException ex) {
+            channel.close();
+            throw ex;
+        }
+    }
+
+    /** -Dviewer.archive=<file>, or ~/.proxycache/itineraries.bin */
+    public static Path defaultFile() {
+        String f = System.getProperty("viewer.archive");
+        return f != null ? Path.of(f) : Path.of(System.getProperty("user.home"), ".proxycache", "itineraries.bin");
+    }
+
+    public Path getFile() {
+        return file;
+    }
+
+    /** Adds an itinerary at the end of the archive and returns its index. */
+    public synchronized int append(String origin, String destination, List<RouteSegment> segments) throws IOException {
+        byte[] payload = encode(origin, destination, Instant.now(), segments);
+        if (end + RECORD_HEADER + payload.length > Integer.MAX_VALUE) {
+            throw new IOException("Itinerary archive full (2 GB): " + file);
+        }
+
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        // followed by a zero int, so that the scan at open stops there even over a dropped torn record
+        ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + payload.length + 4);
+        record.putInt(RECORD_MAGIC).putInt(payload.length).putInt((int) crc.getValue()).put(payload).putInt(0).flip();
+
+        long position = end;
+        while (record.hasRemaining()) {
+            position += channel.write(record, position);
+        }
+
+        if (count == offsets.length) {
+            offsets = Arrays.copyOf(offsets, count * 2);
+        }
+        offsets[count] = end;
+        end = position - 4;
+        return count++;
+    }
+
+    public synchronized int size() {
+        return count;
+    }
+
+    /** Bytes used on disk. */
+    public synchronized long sizeBytes() {
+        return end;
+    }
+
+    /** The nth itinerary (0 is the oldest). */
+    public synchronized Entry get(int n) throws IOException {
+        if (n < 0 || n >= count) {
+            throw new IndexOutOfBoundsException("Index " + n + " out of bounds for " + count + " itineraries");
+        }
+        long offset = offsets[n];
+        long next = n + 1 < count ? offsets[n + 1] : end;
+        ByteBuffer buf = map(next);
+
+        int start = (int) offset + RECORD_HEADER;
+        int length = buf.getInt((int) offset + 4);
+        int expectedCrc = buf.getInt((int) offset + 8);
+        ByteBuffer payload = buf.slice(start, length);
+
+        CRC32 crc = new CRC32();
+        crc.update(payload.duplicate());
+        if ((int) crc.getValue() != expectedCrc) {
+            throw new IOException("Corrupted itinerary " + n + " in " + file);
+        }
+        return decode(payload);
+    }
+
+    /** The most recently appended itinerary, or null if the archive is empty. */
+    public synchronized Entry last() throws IOException {
+        return count == 0 ? null : get(count - 1);
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        mapped = null;
+        channel.close();
+    }
+
+    /* Read-only view of the file covering at least [0, limit) */
+    private ByteBuffer map(long limit) throws IOException {
+        if (mapped == null || mapped.capacity() < limit) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, end);
+        }
+        return mapped;
+    }
+
+    /* Builds the offset table from the record headers; stops at the first incomplete or foreign record */
+    private void scan() throws IOException {
+        long fileSize = channel.size();
+        if (fileSize > Integer.MAX_VALUE) {
+            throw new IOException("Itinerary archive larger than 2 GB: " + file);
+        }
+        ByteBuffer header = ByteBuffer.allocate(FILE_HEADER);
+        channel.read(header, 0);
+        if (fileSize < FILE_HEADER || header.getInt(0) != FILE_MAGIC || header.getInt(4) != VERSION) {
+            throw new IOException("Not an itinerary archive (or another version): " + file);
+        }
+
+        MappedByteBuffer buf = channel.map(FileChannel.MapMode.READ_ONLY, 0, fileSize);
+        long offset = FILE_HEADER;
+        while (offset + RECORD_HEADER <= fileSize && buf.getInt((int) offset) == RECORD_MAGIC) {
+            int length = buf.getInt((int) offset + 4);
+            if (length < 0 || offset + RECORD_HEADER + length > fileSize) {
+                break;
+            }
+            if (count == offsets.length) {
+                offsets = Arrays.copyOf(offsets, count * 2);
+            }
+            offsets[count++] = offset;
+            offset += RECORD_HEADER + length;
+        }
+        end = offset;
+        mapped = buf;
+
+        // only the last record can have been cut while its bytes were written: check its CRC
+        if (count > 0) {
+            long last = offsets[count - 1];
+            int length = buf.getInt((int) last + 4);
+            CRC32 crc = new CRC32();
+            crc.update(buf.slice((int) last + RECORD_HEADER, length));
+            if ((int) crc.getValue() != buf.getInt((int) last + 8)) {
+                end = last;
+                count--;
+            }
+        }
+    }
+
+    static byte[] encode(String origin, String destination, Instant savedAt, List<RouteSegment> segments) {
+        Output out = new Output(64 + segments.size() * 32);
+        out.writeVarLong(savedAt.toEpochMilli());
+        out.writeString(origin);
+        out.writeString(destination);
+        out.writeVarLong(segments.size());
+
+        // deltas run across segments: a segment usually starts where the previous one ended
+        int prevLat = 0;
+        int prevLon = 0;
+        for (RouteSegment seg : segments) {
+            double distance = seg.getDistanceMeters();
+            double duration = seg.getDurationSec();
+            int flags = 0;
+            if (distance >= 0) flags |= HAS_DISTANCE;
+            if (duration >= 0) flags |= HAS_DURATION;
+            if (seg.getFromName() != null) flags |= HAS_FROM;
+            if (seg.getToName() != null) flags |= HAS_TO;
+            if (seg.getContract() != null) flags |= HAS_CONTRACT;
+
+            out.writeByte(seg.getMode().ordinal());
+            out.writeByte(flags);
+            // distances in decimetres, durations in tenths of a second
+            if ((flags & HAS_DISTANCE) != 0) out.writeVarLong(Math.round(distance * 10));
+            if ((flags & HAS_DURATION) != 0) out.writeVarLong(Math.round(duration * 10));
+            if ((flags & HAS_FROM) != 0) out.writeString(seg.getFromName());
+            if ((flags & HAS_TO) != 0) out.writeString(seg.getToName());
+            if ((flags & HAS_CONTRACT) != 0) out.writeString(seg.getContract());
+
+            int n = seg.size();
+            out.writeVarLong(n);
+            for (int i = 0; i < n; i++) {
+                int lat = (int) Math.round(seg.getLat(i) / QUANTUM);
+                int lon = (int) Math.round(seg.getLon(i) / QUANTUM);
+                out.writeVarLong(zigzag(lat - prevLat));
+                out.writeVarLong(zigzag(lon - prevLon));
+                prevLat = lat;
+                prevLon = lon;
+            }
+        }
+        return out.toByteArray();
+    }
+
+    static Entry decode(ByteBuffer payload) throws IOException {
+        Input in = new Input(payload);
+        Instant savedAt = Instant.ofEpochMilli(in.readVarLong());
+        String origin = in.readString();
+        String destination = in.readString();
+        int segmentCount = in.readCount(2);
+
+        RouteSegment.Mode[] modes = RouteSegment.Mode.values();
+        List<RouteSegment> segments = new ArrayList<>(segmentCount);
+        int prevLat = 0;
+        int prevLon = 0;
+        for (int s = 0; s < segmentCount; s++) {
+            int mode = in.readByte();
+            int flags = in.readByte();
+            if (mode >= modes.length) {
+                throw new IOException("Unknown segment mode " + mode);
+            }
+            double distance = (flags & HAS_DISTANCE) != 0 ? in.readVarLong() / 10.0 : Double.NaN;
+            double duration = (flags & HAS_DURATION) != 0 ? in.readVarLong() / 10.0 : Double.NaN;
+            String fromName = (flags & HAS_FROM) != 0 ? in.readString() : null;
+            String toName = (flags & HAS_TO) != 0 ? in.readString() : null;
+            String contract = (flags & HAS_CONTRACT) != 0 ? in.readString() : null;
+
+            int n = in.readCount(2);
+            int[] points = new int[n * 2];
+            for (int k = 0; k < points.length; k += 2) {
+                prevLat += unzigzag(in.readVarLong());
+                prevLon += unzigzag(in.readVarLong());
+                points[k] = prevLat;
+                points[k + 1] = prevLon;
+            }
+            segments.add(RouteSegment.ofMicroDegrees(modes[mode], points, n)
+                    .withDetails(distance, duration, fromName, toName, contract));
+        }
+        return new Entry(origin, destination, savedAt, Collections.unmodifiableList(segments));
+    }
+
+    private static long zigzag(long v) {
+        return (v << 1) ^ (v >> 63);
+    }
+
+    private static int unzigzag(long v) {
+        return (int) ((v >>> 1) ^ -(v & 1));
+    }
+
+    /* Growable byte array with varint and string writers */
+    private static final class Output {
+        private byte[] data;
+        private int size;
+
+        Output(int capacity) {
+            data = new byte[capacity];
+        }
+
+        void writeByte(int b) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, data.length * 2);
+            }
+            data[size++] = (byte) b;
+        }
+
+        /* 7 bits per byte, low bits first, high bit set when more bytes follow */
+        void writeVarLong(long v) {
+            while ((v & ~0x7FL) != 0) {
+                writeByte((int) ((v & 0x7F) | 0x80));
+                v >>>= 7;
+            }
+            writeByte((int) v);
+        }
+
+        void writeString(String s) {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeVarLong(bytes.length);
+            if (size + bytes.length > data.length) {
+                data = Arrays.copyOf(data, Math.max(size + bytes.length, data.length * 2));
+            }
+            System.arraycopy(bytes, 0, data, size, bytes.length);
+            size += bytes.length;
+        }
+
+        byte[] toByteArray() {
+            return Arrays.copyOf(data, size);
+        }
+    }
+
+    /* Reader over a record payload; a truncated or inconsistent payload is reported as an IOException */
+    private static final class Input {
+        private final ByteBuffer buf;
+        private int pos;
+
+        Input(ByteBuffer buf) {
+            this.buf = buf;
+        }
+
+        int readByte() throws IOException {
+            if (pos >= buf.limit()) {
+                throw new IOException("Truncated itinerary record");
+            }
+            return buf.get(pos++) & 0xFF;
+        }
+
+        long readVarLong() throws IOException {
+            long v = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                int b = readByte();
+                v |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return v;
+                }
+            }
+            throw new IOException("Malformed varint in itinerary record");
+        }
+
+        /* A length or count of items taking at least bytesPerItem bytes each, which must fit in the bytes left */
+        int readCount(int bytesPerItem) throws IOException {
+            long n = readVarLong();
+            if (n < 0 || n > (buf.limit() - pos) / bytesPerItem) {
+                throw new IOException("Invalid count " + n + " in itinerary record");
+            }
+            return (int) n;
+        }
+
+        String readString() throws IOException {
+            int length = readCount(1);
+            byte[] bytes = new byte[length];
+            buf.get(pos, bytes);
+            pos += length;
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+    }
+}
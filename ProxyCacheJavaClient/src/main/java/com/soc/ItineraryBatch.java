@@ -0,0 +1,224 @@
+package com.soc;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+
+/**
+ * Runs many itinerary requests concurrently, one virtual thread per request.
+ * At most "concurrency" requests are in flight at the same time (the input stream is consumed
+ * lazily, so thousands of pairs are never all queued at once) and each request has its own timeout.
+ * Requests are not shared with identical ones in flight (cached itineraries aside): a request that times out
+ * or is interrupted aborts its own HTTP exchange, and its permit is freed only once the exchange has ended.
+ * Results can be delivered in input order or as soon as they complete.
+ */
+public class ItineraryBatch {
+
+    /** One origin/destination pair to compute. */
+    public static final class Pair {
+        private final String origin;
+        private final String destination;
+
+        public Pair(String origin, String destination) {
+            this.origin = origin;
+            this.destination = destination;
+        }
+
+        public String getOrigin() {
+            return origin;
+        }
+
+        public String getDestination() {
+            return destination;
+        }
+
+        @Override
+        public String toString() {
+            return origin + " -> " + destination;
+        }
+    }
+
+    /** Outcome of one pair: the segments, or the error if the call failed or timed out. */
+    public static final class Result {
+        private final long index;
+        private final Pair pair;
+        private final List<RouteSegment> segments;
+        private final Throwable error;
+        private final long elapsedNanos;
+
+        Result(long index, Pair pair, List<RouteSegment> segments, Throwable error, long elapsedNanos) {
+            this.index = index;
+            this.pair = pair;
+            this.segments = segments;
+            this.error = error;
+            this.elapsedNanos = elapsedNanos;
+        }
+
+        /** Position of the pair in the input (0-based). */
+        public long getIndex() {
+            return index;
+        }
+
+        public Pair getPair() {
+            return pair;
+        }
+
+        public boolean isSuccess() {
+            return error == null;
+        }
+
+        public List<RouteSegment> getSegments() {
+            return segments;
+        }
+
+        public Throwable getError() {
+            return error;
+        }
+
+        public Duration getElapsed() {
+            return Duration.ofNanos(elapsedNanos);
+        }
+    }
+
+    private final int concurrency;
+    private final Duration timeout;
+
+    /**
+     * @param concurrency maximum number of requests in flight
+     * @param timeout     limit for each request (request + decoding), null for no limit; a request that
+     *                    reaches it is aborted and fails with an HttpTimeoutException
+     */
+    public ItineraryBatch(int concurrency, Duration timeout) {
+        if (concurrency <= 0) {
+            throw new IllegalArgumentException("concurrency must be positive");
+        }
+        this.concurrency = concurrency;
+        this.timeout = timeout;
+    }
+
+    /** Computes all pairs and returns the results in input order. */
+    public List<Result> run(List<Pair> pairs) throws InterruptedException {
+        List<Result> results = new ArrayList<>(pairs.size());
+        run(pairs.stream(), true, results::add);
+        return results;
+    }
+
+    /**
+     * Computes all pairs of the stream and hands every result to sink.
+     * The sink is never called by two threads at the same time.
+     * With ordered = true results arrive in input order; a slow request then holds back the later ones,
+     * and its permit is kept until it is delivered, so at most "concurrency" results wait in memory.
+     * Returns when every result has been delivered. If the sink throws, no more pairs are started,
+     * the requests in flight are interrupted and their results dropped, and run rethrows the sink's exception.
+     */
+    public void run(Stream<Pair> pairs, boolean ordered, Consumer<Result> sink) throws InterruptedException {
+        Semaphore permits = new Semaphore(concurrency);
+        Delivery delivery = new Delivery(ordered, sink, permits);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            long index = 0;
+            Iterator<Pair> it = pairs.iterator();
+            while (it.hasNext() && !delivery.hasFailed()) {
+                Pair pair = it.next();
+                permits.acquire();
+                if (delivery.hasFailed()) {
+                    break;
+                }
+
+                long i = index++;
+                executor.submit(() -> delivery.deliver(call(i, pair)));
+            }
+            if (delivery.hasFailed()) {
+                executor.shutdownNow();
+            }
+        } // close() waits for all the submitted requests
+
+        delivery.rethrowFailure();
+    }
+
+    /* One timed call, not shared with identical ones: it returns once its HTTP exchange has ended, so the permit does too */
+    private Result call(long index, Pair pair) {
+        long start = System.nanoTime();
+        try {
+            List<RouteSegment> segments = RoutingRestClient.fetchSegments(pair.getOrigin(), pair.getDestination(), timeout);
+            return new Result(index, pair, segments, null, System.nanoTime() - start);
+        } catch (IOException | RuntimeException ex) {
+            return new Result(index, pair, null, ex, System.nanoTime() - start);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return new Result(index, pair, null, ex, System.nanoTime() - start);
+        }
+    }
+
+    /** Hands results to the sink, reordering them by index when needed; stops at the first sink failure. */
+    private static final class Delivery {
+        private final boolean ordered;
+        private final Consumer<Result> sink;
+        private final Semaphore permits;
+        private final Map<Long, Result> pending = new HashMap<>();
+        private long next;
+        private volatile Throwable failure;
+
+        Delivery(boolean ordered, Consumer<Result> sink, Semaphore permits) {
+            this.ordered = ordered;
+            this.sink = sink;
+            this.permits = permits;
+        }
+
+        boolean hasFailed() {
+            return failure != null;
+        }
+
+        synchronized void deliver(Result result) {
+            if (failure != null) {
+                permits.release();
+                return;
+            }
+            if (!ordered) {
+                accept(result);
+                return;
+            }
+
+            pending.put(result.getIndex(), result);
+            Result r;
+            while (failure == null && (r = pending.remove(next)) != null) {
+                next++;
+                accept(r);
+            }
+            if (failure != null) {
+                // the results waiting behind the failed one will never be delivered: free their permits
+                permits.release(pending.size());
+                pending.clear();
+            }
+        }
+
+        private void accept(Result r) {
+            try {
+                sink.accept(r);
+            } catch (RuntimeException | Error ex) {
+                failure = ex;
+            } finally {
+                permits.release();
+            }
+        }
+
+        void rethrowFailure() {
+            Throwable ex = failure;
+            if (ex instanceof RuntimeException re) {
+                throw re;
+            }
+            if (ex instanceof Error err) {
+                throw err;
+            }
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package com.soc;
+
+import java.io.IOException;
+import java.text.Normalizer;
+import java.time.Duration;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Bounded in-memory cache of itineraries, in front of the POST /itinerary call.
+ * - key: normalized origin/destination (trimmed, single spaces, lower case, NFC)
+ * - expiration: absolute TTL from the moment the itinerary was loaded; an expired entry stays until it is
+ *   reloaded or evicted, so getLastKnown can still answer while the routing service is down
+ * - eviction: least recently used entry first, when there are too many entries or too many bytes
+ * - optional stale-while-revalidate: an expired entry is still returned during a grace period
+ *   while a background thread reloads it
+ * Only non-empty results are cached (like the proxy cache only keeps HTTP 200 responses).
+ */
+public class ItineraryCache {
+
+    /** Loads an itinerary on a miss (normally the HTTP call to the routing service). */
+    @FunctionalInterface
+    public interface Loader {
+        List<RouteSegment> load(String origin, String destination) throws IOException, InterruptedException;
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final long ttlNanos;
+    private final long staleNanos;
+
+    // access-order LinkedHashMap = LRU order, the eldest entry is the least recently used
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long bytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong staleHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * @param maxEntries           maximum number of itineraries kept
+     * @param maxBytes             maximum estimated size of all cached coordinates
+     * @param ttl                  how long an itinerary is fresh
+     * @param staleWhileRevalidate how long after the TTL an entry may still be served while it is reloaded
+     *                             (Duration.ZERO disables it)
+     */
+    public ItineraryCache(int maxEntries, long maxBytes, Duration ttl, Duration staleWhileRevalidate) {
+        if (maxEntries <= 0 || maxBytes <= 0) {
+            throw new IllegalArgumentException("maxEntries and maxBytes must be positive");
+        }
+        if (ttl.isNegative() || staleWhileRevalidate.isNegative()) {
+            throw new IllegalArgumentException("ttl and staleWhileRevalidate must not be negative");
+        }
+        this.maxEntries = maxEntries;
+        this.maxBytes = maxBytes;
+        this.ttlNanos = ttl.toNanos();
+        this.staleNanos = staleWhileRevalidate.toNanos();
+    }
+
+    /**
+     * Returns the cached itinerary for origin/destination, or loads it with the loader on a miss.
+     * A fresh entry is a HIT; an expired entry inside the stale window is returned as is
+     * and refreshed in the background; anything else is a MISS.
+     * The list returned cannot be modified, on a miss too (it is the copy kept in the cache).
+     */
+    public List<RouteSegment> get(String origin, String destination, Loader loader)
+            throws IOException, InterruptedException {
+
+        String key = key(origin, destination);
+        long now = System.nanoTime();
+
+        Entry stale = null;
+        synchronized (this) {
+            Entry e = entries.get(key);
+            if (e != null) {
+                long age = now - e.loadedAt;
+                if (age <= ttlNanos) {
+                    hits.incrementAndGet();
+                    return e.segments;
+                }
+                if (age <= ttlNanos + staleNanos) {
+                    staleHits.incrementAndGet();
+                    stale = e;
+                }
+            }
+        }
+
+        if (stale != null) {
+            revalidate(key, stale, origin, destination, loader);
+            return stale.segments;
+        }
+
+        misses.incrementAndGet();
+        return put(key, loader.load(origin, destination));
+    }
+
+    /** Stores an itinerary loaded elsewhere (e.g. by an asynchronous call). */
+    public void put(String origin, String destination, List<RouteSegment> segments) {
+        put(key(origin, destination), segments);
+    }
+
+    /**
+     * Returns the cached itinerary if it is still fresh, without loading anything.
+     * A null result counts as a MISS: the caller is expected to load the itinerary and put() it.
+     */
+    public synchronized List<RouteSegment> getIfPresent(String origin, String destination) {
+        Entry e = entries.get(key(origin, destination));
+        if (e == null || System.nanoTime() - e.loadedAt > ttlNanos) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return e.segments;
+    }
+
+    /**
+     * The itinerary last loaded for origin/destination however old it is, or null; nothing is loaded or counted.
+     * For when the routing service cannot answer (see RoutingResilience): an old route beats an error.
+     */
+    public synchronized List<RouteSegment> getLastKnown(String origin, String destination) {
+        Entry e = entries.get(key(origin, destination));
+        return e != null ? e.segments : null;
+    }
+
+    public synchronized void evict(String origin, String destination) {
+        remove(key(origin, destination));
+    }
+
+    public synchronized void clear() {
+        entries.clear();
+        bytes = 0;
+    }
+
+    /**
+     * Same idea as the Status() operation of the ProxyCacheService: a small JSON blob with the counters.
+     * "items" is the current number of cached itineraries.
+     */
+    public synchronized String status() {
+        return "{\"hits\":" + hits.get()
+                + ",\"staleHits\":" + staleHits.get()
+                + ",\"misses\":" + misses.get()
+                + ",\"evictions\":" + evictions.get()
+                + ",\"items\":" + entries.size()
+                + ",\"bytes\":" + bytes + "}";
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    static String key(String origin, String destination) {
+        return normalize(origin) + '\u0000' + normalize(destination);
+    }
+
+    private static String normalize(String s) {
+        String n = Normalizer.normalize(s, Normalizer.Form.NFC);
+        return n.trim().replaceAll("\\s+", " ").toLowerCase(Locale.ROOT);
+    }
+
+    private void revalidate(String key, Entry stale, String origin, String destination, Loader loader) {
+        synchronized (this) {
+            if (stale.refreshing) {
+                return;
+            }
+            stale.refreshing = true;
+        }
+
+        Thread.ofVirtual().name("itinerary-revalidate").start(() -> {
+            try {
+                put(key, loader.load(origin, destination));
+            } catch (Exception ex) {
+                // keep serving the stale entry until it leaves the stale window
+                ClientMetrics.recordRevalidationError(origin, destination, ex);
+            } finally {
+                synchronized (this) {
+                    stale.refreshing = false;
+                }
+            }
+        });
+    }
+
+    /* Keeps an unmodifiable copy of segments (not an empty or oversized one) and returns that copy */
+    private synchronized List<RouteSegment> put(String key, List<RouteSegment> segments) {
+        if (segments == null) {
+            return null;
+        }
+        List<RouteSegment> copy = List.copyOf(segments);
+        if (copy.isEmpty()) {
+            return copy;
+        }
+        long size = estimateBytes(copy);
+        if (size > maxBytes) {
+            return copy; // would evict everything else and still not fit
+        }
+
+        remove(key);
+        entries.put(key, new Entry(copy, size, System.nanoTime()));
+        bytes += size;
+
+        Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+        while ((entries.size() > maxEntries || bytes > maxBytes) && it.hasNext()) {
+            Map.Entry<String, Entry> eldest = it.next();
+            if (eldest.getKey().equals(key)) {
+                continue;
+            }
+            bytes -= eldest.getValue().bytes;
+            it.remove();
+            evictions.incrementAndGet();
+        }
+        return copy;
+    }
+
+    private void remove(String key) {
+        Entry old = entries.remove(key);
+        if (old != null) {
+            bytes -= old.bytes;
+        }
+    }
+
+    /** Rough heap size of the segments: object headers + the packed coordinate arrays. */
+    static long estimateBytes(List<RouteSegment> segments) {
+        long total = 64;
+        for (RouteSegment seg : segments) {
+            total += 48 + (long) seg.size() * (seg.isQuantized() ? 8 : 16);
+        }
+        return total;
+    }
+
+    private static final class Entry {
+        final List<RouteSegment> segments;
+        final long bytes;
+        final long loadedAt;
+        boolean refreshing;
+
+        Entry(List<RouteSegment> segments, long bytes, long loadedAt) {
+            this.segments = segments;
+            this.bytes = bytes;
+            this.loadedAt = loadedAt;
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package com.soc;
+
+import org.jxmapviewer.viewer.GeoPosition;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Encoding of the /itinerary response body (JSON, or a binary encoding of the same model).
+ *
+ * Implementations are found with ServiceLoader (META-INF/services/com.soc.ItineraryCodec), so another
+ * encoding can be added with a jar on the classpath. ItineraryTransport lists the codecs it accepts in the
+ * Accept header and picks the one matching the Content-Type of each response (see ItineraryCodecs).
+ */
+public interface ItineraryCodec {
+
+    /** Short name used in the configuration, e.g. -Drouting.codecs=smile,json */
+    String name();
+
+    /** Media type sent in Accept and matched against Content-Type (without parameters). */
+    String mediaType();
+
+    /** Same contract as ItineraryStreamDecoder.decodeSegments(in, onSegment); onSegment may be null. */
+    List<RouteSegment> decodeSegments(InputStream in, Consumer<RouteSegment> onSegment) throws IOException;
+
+    /** Same contract as ItineraryStreamDecoder.decodeRoute(in). */
+    List<GeoPosition> decodeRoute(InputStream in) throws IOException;
+}
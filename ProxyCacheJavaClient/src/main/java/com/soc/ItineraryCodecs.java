@@ -0,0 +1,132 @@
+package com.soc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.dataformat.cbor.CBORFactory;
+import com.fasterxml.jackson.dataformat.smile.SmileFactory;
+import org.jxmapviewer.viewer.GeoPosition;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.ServiceConfigurationError;
+import java.util.ServiceLoader;
+import java.util.function.Consumer;
+
+/**
+ * The ItineraryCodec implementations of the client, and their lookup.
+ *
+ * All three run the same streaming decoder (ItineraryStreamDecoder) over a different Jackson JsonFactory.
+ * Smile and CBOR carry the same fields as the JSON, but the coordinates as 8-byte doubles instead of
+ * ~18 characters of digits: the body is about half the size and decoding skips the text-to-double parsing.
+ */
+public final class ItineraryCodecs {
+
+    private ItineraryCodecs() {
+    }
+
+    /**
+     * Codecs registered with ServiceLoader, in registration order. JSON is always there, even if the
+     * service file is missing; a codec whose library is not on the classpath is left out.
+     */
+    public static List<ItineraryCodec> installed() {
+        List<ItineraryCodec> codecs = new ArrayList<>();
+        Iterator<ItineraryCodec> it = ServiceLoader.load(ItineraryCodec.class).iterator();
+        while (true) {
+            try {
+                if (!it.hasNext()) {
+                    break;
+                }
+                codecs.add(it.next());
+            } catch (ServiceConfigurationError | LinkageError ex) {
+                System.err.println("Itinerary codec not available: " + ex.getMessage());
+            }
+        }
+        if (codecs.stream().noneMatch(c -> c instanceof Json)) {
+            codecs.add(new Json());
+        }
+        return codecs;
+    }
+
+    /** The installed codec of that name (case-insensitive), or null. */
+    public static ItineraryCodec named(String name) {
+        for (ItineraryCodec codec : installed()) {
+            if (codec.name().equalsIgnoreCase(name)) {
+                return codec;
+            }
+        }
+        return null;
+    }
+
+    /** Media type of a Content-Type / Accept value: parameters dropped, lower case. */
+    static String mediaTypeOf(String contentType) {
+        int semicolon = contentType.indexOf(';');
+        String type = semicolon < 0 ? contentType : contentType.substring(0, semicolon);
+        return type.trim().toLowerCase(Locale.ROOT);
+    }
+
+    /** Codec over a Jackson format: the decoder only uses the token API, which every format implements. */
+    public abstract static class Jackson implements ItineraryCodec {
+
+        private final String name;
+        private final String mediaType;
+        private final JsonFactory factory;
+
+        protected Jackson(String name, String mediaType, JsonFactory factory) {
+            this.name = name;
+            this.mediaType = mediaType;
+            this.factory = factory;
+        }
+
+        @Override
+        public String name() {
+            return name;
+        }
+
+        @Override
+        public String mediaType() {
+            return mediaType;
+        }
+
+        /** Also used by StubItineraryServer to write responses in this format. */
+        public JsonFactory getFactory() {
+            return factory;
+        }
+
+        @Override
+        public List<RouteSegment> decodeSegments(InputStream in, Consumer<RouteSegment> onSegment) throws IOException {
+            return ItineraryStreamDecoder.decodeSegments(factory, in, onSegment);
+        }
+
+        @Override
+        public List<GeoPosition> decodeRoute(InputStream in) throws IOException {
+            return ItineraryStreamDecoder.decodeRoute(factory, in);
+        }
+
+        @Override
+        public String toString() {
+            return name + " (" + mediaType + ")";
+        }
+    }
+
+    /** The text JSON every RoutingServiceREST version answers. */
+    public static final class Json extends Jackson {
+        public Json() {
+            super("json", "application/json", new JsonFactory());
+        }
+    }
+
+    public static final class Smile extends Jackson {
+        public Smile() {
+            super("smile", "application/x-jackson-smile", new SmileFactory());
+        }
+    }
+
+    public static final class Cbor extends Jackson {
+        public Cbor() {
+            super("cbor", "application/cbor", new CBORFactory());
+        }
+    }
+}
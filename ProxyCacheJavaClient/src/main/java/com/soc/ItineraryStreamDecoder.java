@@ -0,0 +1,269 @@
+package com.soc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import org.jxmapviewer.viewer.GeoPosition;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Consumer;
+
+/**
+ * Streaming decoder for the JSON returned by the RoutingServiceREST /itinerary endpoint.
+ * It walks the tokens with a Jackson JsonParser and copies every [lat, lon] pair straight
+ * into the packed array of its RouteSegment, so we never build a JsonNode tree,
+ * keep the whole body as a String or create a GeoPosition per vertex.
+ * Fields we don't draw (instructions, debug stations, ...) are skipped token by token.
+ * Segments can also be handed out one by one as soon as each is read (decodeSegments with a callback),
+ * and decoding stops with an InterruptedIOException when the thread is interrupted.
+ * The walk only uses the Jackson token API, so the same code reads the binary encodings
+ * of the same model (Smile, CBOR) when given their JsonFactory (see ItineraryCodec).
+ */
+public final class ItineraryStreamDecoder {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private ItineraryStreamDecoder() {
+    }
+
+    /**
+     * Same result as the tree-based parsing of fetchSegments:
+     * the "Segments" field if present, otherwise one BIKE segment built from the simple lists.
+     */
+    public static List<RouteSegment> decodeSegments(InputStream in) throws IOException {
+        return decodeSegments(in, null);
+    }
+
+    /**
+     * Same as decodeSegments(in), and onSegment receives each segment as soon as it is complete,
+     * on the decoding thread, while the rest of the body is still being read
+     * (the single fallback segment is only known at the end).
+     */
+    public static List<RouteSegment> decodeSegments(InputStream in, Consumer<RouteSegment> onSegment)
+            throws IOException {
+        return decodeSegments(FACTORY, in, onSegment);
+    }
+
+    /** Same as decodeSegments(in, onSegment), for a body in the format of the given factory (JSON, Smile, CBOR...). */
+    public static List<RouteSegment> decodeSegments(JsonFactory factory, InputStream in,
+                                                    Consumer<RouteSegment> onSegment) throws IOException {
+        try (JsonParser parser = factory.createParser(in)) {
+            Decoded d = decode(parser, onSegment);
+            List<RouteSegment> segments = d.toSegments();
+            if (onSegment != null && d.segments.isEmpty()) {
+                segments.forEach(onSegment);
+            }
+            return segments;
+        }
+    }
+
+    /**
+     * Same result as the tree-based parsing of fetchRoute:
+     * Walk1Coords + BikeCoords + Walk2Coords, or origin -> destination if they are all empty.
+     */
+    public static List<GeoPosition> decodeRoute(InputStream in) throws IOException {
+        return decodeRoute(FACTORY, in);
+    }
+
+    public static List<GeoPosition> decodeRoute(JsonFactory factory, InputStream in) throws IOException {
+        try (JsonParser parser = factory.createParser(in)) {
+            return decode(parser, null).toRoute();
+        }
+    }
+
+    private static Decoded decode(JsonParser p, Consumer<RouteSegment> onSegment) throws IOException {
+        if (p.nextToken() != JsonToken.START_OBJECT) {
+            throw new JsonParseException(p, "Expected the itinerary JSON object");
+        }
+
+        Decoded d = new Decoded();
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String name = p.currentName();
+            p.nextToken();
+
+            switch (name) {
+                case "Segments" -> readSegments(p, d.segments, onSegment);
+                case "Walk1Coords" -> readCoords(p, d.walk1);
+                case "BikeCoords" -> readCoords(p, d.bike);
+                case "Walk2Coords" -> readCoords(p, d.walk2);
+                case "OriginResolvedLat" -> d.originLat = readDouble(p);
+                case "OriginResolvedLon" -> d.originLon = readDouble(p);
+                case "DestResolvedLat" -> d.destLat = readDouble(p);
+                case "DestResolvedLon" -> d.destLon = readDouble(p);
+                default -> p.skipChildren();
+            }
+        }
+
+        return d;
+    }
+
+    private static void readSegments(JsonParser p, List<RouteSegment> target, Consumer<RouteSegment> onSegment)
+            throws IOException {
+        if (p.currentToken() != JsonToken.START_ARRAY) {
+            p.skipChildren();
+            return;
+        }
+
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            if (p.currentToken() != JsonToken.START_OBJECT) {
+                p.skipChildren();
+                continue;
+            }
+
+            String modeStr = "walk";
+            CoordBuffer pts = new CoordBuffer();
+            double distance = Double.NaN;
+            double duration = Double.NaN;
+            String fromName = null;
+            String toName = null;
+            String contract = null;
+
+            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                String name = p.currentName();
+                p.nextToken();
+
+                if ("Mode".equals(name)) {
+                    modeStr = p.getValueAsString("walk");
+                    p.skipChildren();
+                } else if ("Coords".equals(name)) {
+                    readCoords(p, pts);
+                } else {
+                    switch (name) {
+                        case "DistanceMeters" -> distance = readOptionalDouble(p);
+                        case "DurationSec" -> duration = readOptionalDouble(p);
+                        case "FromName" -> fromName = readString(p);
+                        case "ToName" -> toName = readString(p);
+                        case "Contract" -> contract = readString(p);
+                        default -> p.skipChildren();
+                    }
+                }
+            }
+
+            RouteSegment.Mode mode =
+                    "bike".equalsIgnoreCase(modeStr)
+                            ? RouteSegment.Mode.BIKE
+                            : RouteSegment.Mode.WALK;
+
+            if (!pts.isEmpty()) {
+                RouteSegment segment = pts.toSegment(mode).withDetails(distance, duration, fromName, toName, contract);
+                target.add(segment);
+                if (onSegment != null) {
+                    onSegment.accept(segment);
+                }
+            }
+        }
+    }
+
+    /**
+     * Reads an array of [lat, lon] pairs. Like the tree version, entries that are not arrays
+     * or that have fewer than 2 values are ignored.
+     */
+    private static void readCoords(JsonParser p, CoordBuffer target) throws IOException {
+        if (p.currentToken() != JsonToken.START_ARRAY) {
+            p.skipChildren();
+            return;
+        }
+
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+            if (p.currentToken() != JsonToken.START_ARRAY) {
+                p.skipChildren();
+                continue;
+            }
+            // a cancelled request (new itinerary asked meanwhile) stops here rather than after the whole body
+            if (Thread.currentThread().isInterrupted()) {
+                throw new InterruptedIOException("Itinerary decoding interrupted");
+            }
+
+            double lat = 0;
+            double lon = 0;
+            int count = 0;
+
+            while (p.nextToken() != JsonToken.END_ARRAY) {
+                if (count == 0) {
+                    lat = readDouble(p);
+                } else if (count == 1) {
+                    lon = readDouble(p);
+                } else {
+                    p.skipChildren();
+                }
+                count++;
+            }
+
+            if (count >= 2) {
+                target.add(lat, lon);
+            }
+        }
+    }
+
+    /** Same leniency as JsonNode.asDouble(): numbers, numeric strings and booleans, 0 otherwise. */
+    private static double readDouble(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.START_ARRAY || t == JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return 0.0;
+        }
+        return p.getValueAsDouble(0.0);
+    }
+
+    /* Like readDouble, but NaN (unknown) for null, non-numeric or non-scalar values */
+    private static double readOptionalDouble(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.START_ARRAY || t == JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return Double.NaN;
+        }
+        return t == JsonToken.VALUE_NULL ? Double.NaN : p.getValueAsDouble(Double.NaN);
+    }
+
+    /* Text value, null for null or a non-scalar value */
+    private static String readString(JsonParser p) throws IOException {
+        JsonToken t = p.currentToken();
+        if (t == JsonToken.START_ARRAY || t == JsonToken.START_OBJECT) {
+            p.skipChildren();
+            return null;
+        }
+        return t == JsonToken.VALUE_NULL ? null : p.getValueAsString();
+    }
+
+    private static final class Decoded {
+        final List<RouteSegment> segments = new ArrayList<>();
+        final CoordBuffer walk1 = new CoordBuffer();
+        final CoordBuffer bike = new CoordBuffer();
+        final CoordBuffer walk2 = new CoordBuffer();
+        double originLat, originLon, destLat, destLon;
+
+        List<RouteSegment> toSegments() {
+            if (!segments.isEmpty()) {
+                return segments;
+            }
+
+            /* fallback: if we don't have "Segments", we build a unique segment from the simple list */
+            List<RouteSegment> single = new ArrayList<>(1);
+            single.add(concatenated().toSegment(RouteSegment.Mode.BIKE));
+            return single;
+        }
+
+        List<GeoPosition> toRoute() {
+            return concatenated().toPositions();
+        }
+
+        private CoordBuffer concatenated() {
+            CoordBuffer all = new CoordBuffer(walk1.size() + bike.size() + walk2.size());
+            all.addAll(walk1);
+            all.addAll(bike);
+            all.addAll(walk2);
+
+            if (all.isEmpty()) {
+                all.add(originLat, originLon);
+                all.add(destLat, destLon);
+            }
+            return all;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package com.soc;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PushbackInputStream;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * How RoutingRestClient talks to the routing service over HTTP.
+ *
+ * One HttpClient for every call: HTTP/2 (one multiplexed connection) when the server offers it,
+ * otherwise a pool of kept-alive HTTP/1.1 connections. Requests have a connect and a request timeout,
+ * and ask for a compressed body (Accept-Encoding: gzip, deflate), inflated while it is read so the
+ * streaming decoder still starts on the first bytes; the coordinates are mostly digits and shrink
+ * several times. Accept lists the codecs by preference (q values), and the Content-Type of each
+ * response picks the codec: a server that knows no binary encoding simply answers JSON.
+ *
+ * Immutable: RoutingRestClient.setTransport replaces it as a whole. Build it with builder(),
+ * or fromSystemProperties() for the routing.* properties.
+ */
+public final class ItineraryTransport {
+
+    /* read after the decoder stops, so the connection goes back to the pool; a larger rest is not worth it */
+    private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+    private final HttpClient client;
+    private final Duration requestTimeout;
+    private final boolean compression;
+    private final List<ItineraryCodec> codecs;
+    private final ItineraryCodec fallback;
+    private final String accept;
+
+    private ItineraryTransport(Builder b) {
+        this.client = HttpClient.newBuilder()
+                .version(b.http2 ? HttpClient.Version.HTTP_2 : HttpClient.Version.HTTP_1_1)
+                .connectTimeout(b.connectTimeout)
+                .build();
+        this.requestTimeout = b.requestTimeout;
+        this.compression = b.compression;
+        this.codecs = List.copyOf(b.codecs);
+
+        ItineraryCodec json = null;
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < codecs.size(); i++) {
+            ItineraryCodec codec = codecs.get(i);
+            if (codec instanceof ItineraryCodecs.Json) {
+                json = codec;
+            }
+            if (i > 0) {
+                sb.append(", ");
+            }
+            sb.append(codec.mediaType());
+            if (i > 0) {
+                sb.append(";q=").append(String.format(Locale.ROOT, "%.1f", Math.max(0.1, 1.0 - 0.1 * i)));
+            }
+        }
+        // a response without Content-Type (or with one we did not ask for) is read as JSON (always listed, see build())
+        this.fallback = json;
+        this.accept = sb.toString();
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Transport configured by system properties:
+     * routing.http2 (default true), routing.compression (default true),
+     * routing.connectTimeoutMs (default 5000), routing.requestTimeoutMs (default 30000, 0 for none)
+     * and routing.codecs, a comma-separated preference list (default: every installed codec, JSON last).
+     */
+    public static ItineraryTransport fromSystemProperties() {
+        Builder b = builder()
+                .http2(Boolean.parseBoolean(System.getProperty("routing.http2", "true")))
+                .compression(Boolean.parseBoolean(System.getProperty("routing.compression", "true")))
+                .connectTimeout(Duration.ofMillis(Long.getLong("routing.connectTimeoutMs", 5000)));
+        long requestMillis = Long.getLong("routing.requestTimeoutMs", 30000);
+        b.requestTimeout(requestMillis > 0 ? Duration.ofMillis(requestMillis) : null);
+
+        String names = System.getProperty("routing.codecs");
+        if (names != null) {
+            List<ItineraryCodec> codecs = new ArrayList<>();
+            for (String name : names.split(",")) {
+                ItineraryCodec codec = ItineraryCodecs.named(name.trim());
+                if (codec != null) {
+                    codecs.add(codec);
+                } else {
+                    System.err.println("Unknown itinerary codec ignored: " + name.trim());
+                }
+            }
+            b.codecs(codecs);
+        }
+        return b.build();
+    }
+
+    public HttpClient getClient() {
+        return client;
+    }
+
+    /** Default time limit until the response headers arrive; null when there is none. */
+    public Duration getRequestTimeout() {
+        return requestTimeout;
+    }
+
+    public boolean isCompression() {
+        return compression;
+    }
+
+    /** Accepted codecs, most preferred first. */
+    public List<ItineraryCodec> getCodecs() {
+        return codecs;
+    }
+
+    /** Value of the Accept header, e.g. "application/x-jackson-smile, application/cbor;q=0.9, application/json;q=0.8". */
+    public String getAccept() {
+        return accept;
+    }
+
+    /**
+     * Request builder with the negotiation headers and a time limit: the given one,
+     * or the default request timeout when it is null.
+     */
+    public HttpRequest.Builder newRequest(URI uri, Duration timeout) {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(uri).header("Accept", accept);
+        if (compression) {
+            builder.header("Accept-Encoding", "gzip, deflate");
+        }
+        Duration t = timeout != null ? timeout : requestTimeout;
+        if (t != null) {
+            builder.timeout(t);
+        }
+        return builder;
+    }
+
+    /** The codec for the Content-Type of the response; JSON when it is missing or not one we accept. */
+    public ItineraryCodec codecFor(HttpResponse<?> response) {
+        String contentType = response.headers().firstValue("Content-Type").orElse(null);
+        if (contentType != null) {
+            String type = ItineraryCodecs.mediaTypeOf(contentType);
+            for (ItineraryCodec codec : codecs) {
+                if (codec.mediaType().equalsIgnoreCase(type)) {
+                    return codec;
+                }
+            }
+        }
+        return fallback;
+    }
+
+    /**
+     * The response body, inflated according to its Content-Encoding.
+     * The bytes received are counted in ClientMetrics (before inflating), and closing the stream
+     * reads what is left of a small body, so that the connection can be reused.
+     */
+    public InputStream openBody(HttpResponse<InputStream> response) throws IOException {
+        InputStream wire = new WireStream(response.body());
+        String encoding = response.headers().firstValue("Content-Encoding").orElse("identity")
+                .trim().toLowerCase(Locale.ROOT);
+        try {
+            return switch (encoding) {
+                case "identity", "" -> wire;
+                case "gzip", "x-gzip" -> new GZIPInputStream(wire, 8192);
+                case "deflate" -> inflate(wire);
+                default -> throw new IOException("Unsupported Content-Encoding: " + encoding);
+            };
+        } catch (IOException ex) {
+            wire.close();
+            throw ex;
+        }
+    }
+
+    /* "deflate" should be zlib-wrapped (RFC 9110), but some servers send raw deflate: the first two bytes tell */
+    private static InputStream inflate(InputStream in) throws IOException {
+        PushbackInputStream pushback = new PushbackInputStream(in, 2);
+        int b0 = pushback.read();
+        int b1 = pushback.read();
+        if (b1 >= 0) {
+            pushback.unread(b1);
+        }
+        if (b0 >= 0) {
+            pushback.unread(b0);
+        }
+        boolean zlib = b0 >= 0 && b1 >= 0 && (b0 & 0x0F) == 8 && ((b0 << 8) | b1) % 31 == 0;
+        Inflater inflater = new Inflater(!zlib);
+        return new InflaterInputStream(pushback, inflater, 8192) {
+            @Override
+            public void close() throws IOException {
+                try {
+                    super.close();
+                } finally {
+                    inflater.end(); // not done by InflaterInputStream for an Inflater it did not create
+                }
+            }
+        };
+    }
+
+    /** Counts the bytes read from the network; drains a short rest on close (unless interrupted). */
+    private static final class WireStream extends FilterInputStream {
+
+        WireStream(InputStream in) {
+            super(in);
+        }
+
+        @Override
+        public int read() throws IOException {
+            int b = in.read();
+            if (b >= 0) {
+                ClientMetrics.recordBytesReceived(1);
+            }
+            return b;
+        }
+
+        @Override
+        public int read(byte[] buf, int off, int len) throws IOException {
+            int n = in.read(buf, off, len);
+            if (n > 0) {
+                ClientMetrics.recordBytesReceived(n);
+            }
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            try {
+                if (!Thread.currentThread().isInterrupted()) {
+                    byte[] buf = new byte[8192];
+                    int drained = 0;
+                    int n;
+                    while (drained < MAX_DRAIN_BYTES && (n = read(buf, 0, buf.length)) >= 0) {
+                        drained += n;
+                    }
+                }
+            } catch (IOException ignored) {
+                // the connection is dropped instead of reused
+            } finally {
+                in.close();
+            }
+        }
+    }
+
+    public static final class Builder {
+
+        private boolean http2 = true;
+        private boolean compression = true;
+        private Duration connectTimeout = Duration.ofSeconds(5);
+        private Duration requestTimeout = Duration.ofSeconds(30);
+        private List<ItineraryCodec> codecs = defaultCodecs();
+
+        private Builder() {
+        }
+
+        /** false to stay on HTTP/1.1 (e.g. behind a proxy that mishandles the h2c upgrade). */
+        public Builder http2(boolean http2) {
+            this.http2 = http2;
+            return this;
+        }
+
+        public Builder compression(boolean compression) {
+            this.compression = compression;
+            return this;
+        }
+
+        public Builder connectTimeout(Duration connectTimeout) {
+            this.connectTimeout = connectTimeout;
+            return this;
+        }
+
+        /** Default time limit of a request until its response headers; null for none. */
+        public Builder requestTimeout(Duration requestTimeout) {
+            this.requestTimeout = requestTimeout;
+            return this;
+        }
+
+        /** Accepted codecs, most preferred first; JSON is always accepted, last when it is not listed. */
+        public Builder codecs(List<ItineraryCodec> codecs) {
+            this.codecs = new ArrayList<>(codecs);
+            return this;
+        }
+
+        public ItineraryTransport build() {
+            if (codecs.stream().noneMatch(c -> c instanceof ItineraryCodecs.Json)) {
+                codecs.add(new ItineraryCodecs.Json());
+            }
+            return new ItineraryTransport(this);
+        }
+
+        /* every installed codec, JSON last: it is the largest and slowest to decode */
+        private static List<ItineraryCodec> defaultCodecs() {
+            List<ItineraryCodec> codecs = new ArrayList<>(ItineraryCodecs.installed());
+            codecs.sort((a, b) -> Boolean.compare(a instanceof ItineraryCodecs.Json, b instanceof ItineraryCodecs.Json));
+            return codecs;
+        }
+    }
+}
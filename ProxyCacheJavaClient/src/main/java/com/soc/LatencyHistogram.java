@@ -0,0 +1,145 @@
+package com.soc;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Small log-linear histogram of latencies (same bucket layout idea as HdrHistogram, without the dependency).
+ * Values are recorded in microseconds with about 1% precision, from 0 up to Long.MAX_VALUE.
+ * Recording is lock-free, so many threads can record into the same histogram.
+ */
+public class LatencyHistogram {
+
+    // 2^7 = 128 sub-buckets per power of two -> relative error below 1/128
+    private static final int SUB_BITS = 7;
+    private static final int HALF = 1 << SUB_BITS;
+    private static final int BUCKETS = 64 - SUB_BITS;
+
+    private final AtomicLongArray counts = new AtomicLongArray((BUCKETS + 1) * HALF);
+    private final AtomicLong total = new AtomicLong();
+    private final AtomicLong sum = new AtomicLong();
+    private final AtomicLong max = new AtomicLong();
+
+    public void recordMicros(long micros) {
+        long v = Math.max(0, micros);
+        counts.incrementAndGet(indexOf(v));
+        total.incrementAndGet();
+        sum.addAndGet(v);
+        max.accumulateAndGet(v, Math::max);
+    }
+
+    public void recordNanos(long nanos) {
+        recordMicros(nanos / 1000);
+    }
+
+    /**
+     * Coordinated-omission correction for closed-loop measurements: a call that took longer
+     * than the expected interval between calls hid the calls that should have been sent meanwhile,
+     * so we also record the latencies those calls would have seen (value - interval, value - 2*interval, ...).
+     */
+    public void recordMicrosWithExpectedInterval(long micros, long expectedIntervalMicros) {
+        recordMicros(micros);
+        if (expectedIntervalMicros <= 0) {
+            return;
+        }
+        for (long missing = micros - expectedIntervalMicros; missing >= expectedIntervalMicros;
+             missing -= expectedIntervalMicros) {
+            recordMicros(missing);
+        }
+    }
+
+    /**
+     * Same correction as recordMicrosWithExpectedInterval, applied afterwards to a whole histogram
+     * (each bucket is treated as if all its values were equal to the bucket's upper bound).
+     */
+    public LatencyHistogram copyCorrectedForCoordinatedOmission(long expectedIntervalMicros) {
+        LatencyHistogram copy = new LatencyHistogram();
+        for (int i = 0; i < counts.length(); i++) {
+            long c = counts.get(i);
+            if (c == 0) {
+                continue;
+            }
+            long value = Math.min(highestValueAt(i), max.get());
+            for (long k = 0; k < c; k++) {
+                copy.recordMicrosWithExpectedInterval(value, expectedIntervalMicros);
+            }
+        }
+        return copy;
+    }
+
+    /** Adds all the values of other into this histogram. */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < counts.length(); i++) {
+            long c = other.counts.get(i);
+            if (c != 0) {
+                counts.addAndGet(i, c);
+            }
+        }
+        total.addAndGet(other.total.get());
+        sum.addAndGet(other.sum.get());
+        max.accumulateAndGet(other.max.get(), Math::max);
+    }
+
+    public void reset() {
+        for (int i = 0; i < counts.length(); i++) {
+            counts.set(i, 0);
+        }
+        total.set(0);
+        sum.set(0);
+        max.set(0);
+    }
+
+    public long getCount() {
+        return total.get();
+    }
+
+    public long getMaxMicros() {
+        return max.get();
+    }
+
+    public double getMeanMicros() {
+        long n = total.get();
+        return n == 0 ? 0.0 : (double) sum.get() / n;
+    }
+
+    /**
+     * Value (in microseconds) below or at which the given percentage of the recorded values fall,
+     * e.g. percentile(99.9). Returns the upper bound of the matching bucket, 0 if nothing was recorded.
+     */
+    public long percentileMicros(double percentile) {
+        long n = total.get();
+        if (n == 0) {
+            return 0;
+        }
+        long target = Math.max(1, (long) Math.ceil(Math.min(percentile, 100.0) / 100.0 * n));
+        long seen = 0;
+        for (int i = 0; i < counts.length(); i++) {
+            seen += counts.get(i);
+            if (seen >= target) {
+                return Math.min(highestValueAt(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /** One line summary in milliseconds, used by the load generator and the metrics. */
+    public String summary() {
+        return String.format("count=%d mean=%.2fms p50=%.2fms p90=%.2fms p99=%.2fms p99.9=%.2fms max=%.2fms",
+                getCount(), getMeanMicros() / 1000.0,
+                percentileMicros(50) / 1000.0, percentileMicros(90) / 1000.0,
+                percentileMicros(99) / 1000.0, percentileMicros(99.9) / 1000.0,
+                getMaxMicros() / 1000.0);
+    }
+
+    static int indexOf(long v) {
+        int bucket = Math.max(0, 63 - Long.numberOfLeadingZeros(v) - SUB_BITS);
+        int sub = (int) (v >>> bucket);
+        return bucket * HALF + sub;
+    }
+
+    static long highestValueAt(int index) {
+        int bucket = index < 2 * HALF ? 0 : index / HALF - 1;
+        long sub = index - (long) bucket * HALF;
+        return ((sub + 1) << bucket) - 1;
+    }
+}
@@ -0,0 +1,377 @@
+package com.soc;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.ConnectException;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Command line load generator for the /itinerary endpoint that RoutingRestClient calls.
+ * It replays origin/destination pairs from a file (one "origin;destination" per line) either
+ * - at a fixed rate (open model, --rate): latency is measured from the moment the request
+ *   should have been sent, so a slow server or a late generator cannot hide queueing time, or
+ * - with a fixed number of concurrent users (closed model, --concurrency): every user sends
+ *   its next request when the previous one is done; the report also shows the latencies
+ *   corrected for coordinated omission (--expected-interval, by default the median latency).
+ * The responses are decoded with ItineraryStreamDecoder, like the real client does, over the same
+ * ItineraryTransport (routing.* properties: HTTP version, compression, codecs), and the report shows
+ * the bytes received per response, e.g. to compare -Drouting.codecs=json with the binary codecs.
+ * With --resilient the calls go through RoutingResilience (routing.* properties: deadline, hedging,
+ * retries, circuit breaker), and the stub can inject errors and a latency tail to see what it changes.
+ *
+ * Example (no network needed):
+ *   java com.soc.LoadGenerator --stub --stub-points 5000 --rate 200 --duration 30s
+ *   java -Drouting.hedge=true com.soc.LoadGenerator --stub --stub-slow-rate 0.02 --stub-slow-ms 2000 --resilient --rate 50
+ *   java com.soc.LoadGenerator --pairs pairs.txt --concurrency 16 --duration 1m --url http://host:8733/.../itinerary
+ */
+public class LoadGenerator {
+
+    private static final int MAX_IN_FLIGHT = 10_000;
+
+    private final ItineraryTransport transport = ItineraryTransport.fromSystemProperties();
+    private final URI uri;
+    private final Duration timeout;
+    private final List<String[]> pairs;
+    private final RoutingResilience resilience;
+
+    private final LatencyHistogram histogram = new LatencyHistogram();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final LongAdder succeeded = new LongAdder();
+    private final LongAdder points = new LongAdder();
+    private long bytesAtReset = ClientMetrics.get().getHttpBytesReceived();
+
+    private volatile boolean recording;
+
+    LoadGenerator(String url, Duration timeout, List<String[]> pairs, RoutingResilience resilience) {
+        this.uri = URI.create(url);
+        this.timeout = timeout;
+        this.pairs = pairs;
+        this.resilience = resilience;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String url = RoutingRestClient.ITINERARY_URL;
+        Path pairsFile = null;
+        double rate = 0;
+        int concurrency = 0;
+        Duration duration = Duration.ofSeconds(30);
+        Duration warmup = Duration.ofSeconds(5);
+        Duration timeout = Duration.ofSeconds(30);
+        long expectedIntervalMicros = -1;
+        boolean stub = false;
+        int stubPoints = 2000;
+        long stubDelay = 0;
+        double stubErrorRate = 0;
+        double stubSlowRate = 0;
+        long stubSlowMillis = 0;
+        boolean resilient = false;
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--url" -> url = args[++i];
+                case "--pairs" -> pairsFile = Path.of(args[++i]);
+                case "--rate" -> rate = Double.parseDouble(args[++i]);
+                case "--concurrency" -> concurrency = Integer.parseInt(args[++i]);
+                case "--duration" -> duration = parseDuration(args[++i]);
+                case "--warmup" -> warmup = parseDuration(args[++i]);
+                case "--timeout" -> timeout = parseDuration(args[++i]);
+                case "--expected-interval" -> expectedIntervalMicros = parseDuration(args[++i]).toNanos() / 1000;
+                case "--stub" -> stub = true;
+                case "--stub-points" -> stubPoints = Integer.parseInt(args[++i]);
+                case "--stub-delay-ms" -> stubDelay = Long.parseLong(args[++i]);
+                case "--stub-error-rate" -> stubErrorRate = Double.parseDouble(args[++i]);
+                case "--stub-slow-rate" -> stubSlowRate = Double.parseDouble(args[++i]);
+                case "--stub-slow-ms" -> stubSlowMillis = Long.parseLong(args[++i]);
+                case "--resilient" -> resilient = true;
+                default -> {
+                    usage("Unknown option " + args[i]);
+                    return;
+                }
+            }
+        }
+
+        if ((rate > 0) == (concurrency > 0)) {
+            usage("Give exactly one of --rate (open model) or --concurrency (closed model)");
+            return;
+        }
+        if (pairsFile == null && !stub) {
+            usage("--pairs is required when the stub server is not used");
+            return;
+        }
+
+        List<String[]> pairs = pairsFile != null ? readPairs(pairsFile) : syntheticPairs(50);
+        if (pairs.isEmpty()) {
+            usage("No origin/destination pairs found");
+            return;
+        }
+
+        StubItineraryServer stubServer = null;
+        if (stub) {
+            stubServer = new StubItineraryServer(0, stubPoints, stubDelay);
+            stubServer.setFaults(stubErrorRate, stubSlowRate, stubSlowMillis);
+            url = stubServer.getItineraryUrl();
+            System.out.println("Started stub server: " + stubPoints + " points, " + stubDelay + " ms delay, "
+                    + stubServer.faults());
+        }
+
+        try {
+            LoadGenerator gen = new LoadGenerator(url, timeout, pairs,
+                    resilient ? RoutingResilience.fromSystemProperties() : null);
+            System.out.println("Target: " + url + " (" + pairs.size() + " pairs)");
+
+            if (!warmup.isZero()) {
+                System.out.println("Warmup for " + warmup.toSeconds() + "s...");
+                gen.runPhase(rate, concurrency, warmup);
+                gen.reset();
+            }
+
+            System.out.println("Measuring for " + duration.toSeconds() + "s...");
+            gen.recording = true;
+            long elapsed = gen.runPhase(rate, concurrency, duration);
+            gen.recording = false;
+
+            gen.report(rate, concurrency, elapsed, expectedIntervalMicros);
+        } finally {
+            if (stubServer != null) {
+                stubServer.close();
+            }
+        }
+    }
+
+    /** Runs one phase and returns its wall-clock duration in nanoseconds (until the last response). */
+    long runPhase(double rate, int concurrency, Duration duration) {
+        long start = System.nanoTime();
+        if (rate > 0) {
+            runOpen(rate, duration);
+        } else {
+            runClosed(concurrency, duration);
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** Open model: request i is due at start + i / rate, whatever happened to the previous ones. */
+    private void runOpen(double rate, Duration duration) {
+        long interval = (long) (1_000_000_000L / rate);
+        long start = System.nanoTime();
+        long end = start + duration.toNanos();
+        Semaphore inFlight = new Semaphore(MAX_IN_FLIGHT);
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (long i = 0; ; i++) {
+                long intended = start + i * interval;
+                if (intended >= end) {
+                    break;
+                }
+                long wait = intended - System.nanoTime();
+                if (wait > 0) {
+                    LockSupport.parkNanos(wait);
+                }
+
+                String[] pair = pairs.get((int) (i % pairs.size()));
+                if (!inFlight.tryAcquire()) {
+                    error("dropped (more than " + MAX_IN_FLIGHT + " in flight)");
+                    continue;
+                }
+                executor.submit(() -> {
+                    try {
+                        if (call(pair)) {
+                            histogram.recordNanos(System.nanoTime() - intended);
+                        }
+                    } finally {
+                        inFlight.release();
+                    }
+                });
+            }
+        }
+    }
+
+    /** Closed model: "concurrency" users, each one sending its next request as soon as it has an answer. */
+    private void runClosed(int concurrency, Duration duration) {
+        long end = System.nanoTime() + duration.toNanos();
+
+        try (ExecutorService executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            for (int u = 0; u < concurrency; u++) {
+                int user = u;
+                executor.submit(() -> {
+                    for (long i = user; System.nanoTime() < end; i += concurrency) {
+                        String[] pair = pairs.get((int) (i % pairs.size()));
+                        long t0 = System.nanoTime();
+                        if (call(pair)) {
+                            histogram.recordNanos(System.nanoTime() - t0);
+                        }
+                    }
+                });
+            }
+        }
+    }
+
+    /** Sends one request and decodes the response; returns false (and counts the error) on failure. */
+    private boolean call(String[] pair) {
+        try {
+            String bodyJson = RoutingRestClient.itineraryRequestJson(pair[0], pair[1]);
+            HttpResponse<InputStream> response;
+            if (resilience != null) {
+                // --timeout still bounds each attempt, routing.deadlineMs the whole call
+                response = resilience.exchange(transport,
+                        remaining -> newRequest(bodyJson, remaining.compareTo(timeout) < 0 ? remaining : timeout),
+                        pair[0], pair[1]);
+            } else {
+                response = transport.getClient().send(newRequest(bodyJson, timeout),
+                        HttpResponse.BodyHandlers.ofInputStream());
+            }
+            try (InputStream body = transport.openBody(response)) {
+                if (response.statusCode() != 200) {
+                    body.readAllBytes();
+                    error("HTTP " + response.statusCode());
+                    return false;
+                }
+                List<RouteSegment> segments = transport.codecFor(response).decodeSegments(body, null);
+                if (recording) {
+                    succeeded.increment();
+                    for (RouteSegment seg : segments) {
+                        points.add(seg.size());
+                    }
+                }
+                return true;
+            }
+        } catch (HttpTimeoutException ex) {
+            error("timeout");
+        } catch (ConnectException ex) {
+            error("connect refused");
+        } catch (JsonProcessingException ex) {
+            error("invalid JSON");
+        } catch (RoutingResilience.CircuitOpenException ex) {
+            error("circuit open");
+        } catch (RoutingServiceException ex) {
+            error("HTTP " + ex.getStatusCode());
+        } catch (IOException ex) {
+            error(ex.getClass().getSimpleName());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            error("interrupted");
+        }
+        return false;
+    }
+
+    private HttpRequest newRequest(String bodyJson, Duration requestTimeout) {
+        return transport.newRequest(uri, requestTimeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(bodyJson, StandardCharsets.UTF_8))
+                .build();
+    }
+
+    private void error(String kind) {
+        if (recording) {
+            errors.computeIfAbsent(kind, k -> new LongAdder()).increment();
+        }
+    }
+
+    private void reset() {
+        histogram.reset();
+        errors.clear();
+        succeeded.reset();
+        points.reset();
+        bytesAtReset = ClientMetrics.get().getHttpBytesReceived();
+    }
+
+    private void report(double rate, int concurrency, long elapsedNanos, long expectedIntervalMicros) {
+        double seconds = elapsedNanos / 1e9;
+        long ok = succeeded.sum();
+        long failed = errors.values().stream().mapToLong(LongAdder::sum).sum();
+
+        System.out.println();
+        System.out.println("=== Load test report ===");
+        System.out.println(rate > 0
+                ? String.format("Model: open, target rate %.1f req/s", rate)
+                : "Model: closed, " + concurrency + " concurrent users");
+        System.out.printf("Duration: %.1fs, requests: %d ok / %d failed%n", seconds, ok, failed);
+        System.out.printf("Throughput: %.1f req/s (%.0f points/s decoded)%n", ok / seconds, points.sum() / seconds);
+        long bytes = ClientMetrics.get().getHttpBytesReceived() - bytesAtReset;
+        System.out.printf("Received: %.1f KiB per response (codecs %s, compression %s)%n",
+                ok + failed > 0 ? bytes / 1024.0 / (ok + failed) : 0.0, transport.getAccept(),
+                transport.isCompression() ? "on" : "off");
+        System.out.println("Latency: " + histogram.summary());
+        if (concurrency > 0) {
+            // without --expected-interval, assume a user would normally send every median latency
+            long interval = expectedIntervalMicros > 0 ? expectedIntervalMicros : histogram.percentileMicros(50);
+            System.out.printf("Latency corrected for coordinated omission (expected interval %.2fms): %s%n",
+                    interval / 1000.0, histogram.copyCorrectedForCoordinatedOmission(interval).summary());
+        }
+
+        if (resilience != null) {
+            System.out.println("Resilience (warmup included): " + resilience.status());
+        }
+
+        if (failed > 0) {
+            System.out.println("Errors:");
+            new TreeMap<>(errors).forEach((kind, count) ->
+                    System.out.println("  " + kind + ": " + count.sum()));
+        }
+    }
+
+    static List<String[]> readPairs(Path file) throws IOException {
+        List<String[]> pairs = new ArrayList<>();
+        for (String line : Files.readAllLines(file, StandardCharsets.UTF_8)) {
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#")) {
+                continue;
+            }
+            String[] parts = trimmed.split("[;\t]", 2);
+            if (parts.length == 2 && !parts[0].isBlank() && !parts[1].isBlank()) {
+                pairs.add(new String[]{parts[0].trim(), parts[1].trim()});
+            }
+        }
+        return pairs;
+    }
+
+    private static List<String[]> syntheticPairs(int count) {
+        List<String[]> pairs = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            pairs.add(new String[]{"Origin " + i, "Destination " + i});
+        }
+        return pairs;
+    }
+
+    /** Accepts 500ms, 30s, 2m or a plain number of seconds. */
+    static Duration parseDuration(String text) {
+        String t = text.trim().toLowerCase();
+        if (t.endsWith("ms")) {
+            return Duration.ofMillis(Long.parseLong(t.substring(0, t.length() - 2)));
+        }
+        if (t.endsWith("s")) {
+            return Duration.ofSeconds(Long.parseLong(t.substring(0, t.length() - 1)));
+        }
+        if (t.endsWith("m")) {
+            return Duration.ofMinutes(Long.parseLong(t.substring(0, t.length() - 1)));
+        }
+        return Duration.ofSeconds(Long.parseLong(t));
+    }
+
+    private static void usage(String message) {
+        System.err.println(message);
+        System.err.println("Usage: LoadGenerator (--rate N | --concurrency N) [--pairs file] [--url url]");
+        System.err.println("         [--duration 30s] [--warmup 5s] [--timeout 30s] [--expected-interval 20ms]");
+        System.err.println("         [--stub [--stub-points 2000] [--stub-delay-ms 0]");
+        System.err.println("                 [--stub-error-rate 0.1] [--stub-slow-rate 0.05] [--stub-slow-ms 2000]]");
+        System.err.println("         [--resilient]");
+    }
+}
@@ -1,16 +1,38 @@
 package com.soc;
 
 import org.jxmapviewer.JXMapViewer;
-import org.jxmapviewer.viewer.DefaultTileFactory;
+import org.jxmapviewer.cache.LocalCache;
+import org.jxmapviewer.painter.CompoundPainter;
+import org.jxmapviewer.painter.Painter;
 import org.jxmapviewer.viewer.GeoPosition;
 import org.jxmapviewer.viewer.TileFactoryInfo;
 
 import javax.swing.*;
 import java.awt.*;
+import java.awt.geom.Point2D;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Consumer;
+import java.util.function.Function;
 
 public class MapViewerApp {
 
+    /* archived itineraries read (then rasterized in parallel) at a time when the heatmap is built */
+    private static final int DENSITY_BATCH = 4096;
+
+    /* pixels kept around a route fitted by centerAndZoom, and its most detailed zoom (OSM 16, streets) */
+    private static final int FIT_MARGIN = 40;
+    private static final int MAX_FIT_ZOOM = 16;
+
     public static void main(String[] args) {
         // User-Agent required for OpenStreetMap
         System.setProperty("http.agent", "MyJavaMapClient/1.0");
@@ -25,30 +47,36 @@ public class MapViewerApp {
         // Map
         JXMapViewer mapViewer = new JXMapViewer();
 
-        TileFactoryInfo info = new TileFactoryInfo(
-                0, 17, 18,
-                256, true, true,
-                "https://tile.openstreetmap.org",
-                "x", "y", "z") {
-
-            @Override
-            public String getTileUrl(int x, int y, int zoom) {
-                int z = getTotalMapZoom() - zoom;
-                return String.format("%s/%d/%d/%d.png", baseURL, z, x, y);
-            }
-        };
-
-        DefaultTileFactory tileFactory = new DefaultTileFactory(info);
+        // tile loads are timed in ClientMetrics (JMX com.soc:type=ClientMetrics, JFR events)
+        MeteredTileFactory tileFactory = new MeteredTileFactory(createTileFactoryInfo());
         tileFactory.setUserAgent("MyJavaMapClient/1.0");
         mapViewer.setTileFactory(tileFactory);
 
         mapViewer.setAddressLocation(new GeoPosition(46.5, 2.5));
         mapViewer.setZoom(11);
 
+        // -Dviewer.prefetch=true: tiles along a new route are downloaded in the background, once the store is open
+        TilePrefetcher[] prefetcher = new TilePrefetcher[1];
+        openTileStore(tileFactory, tileStore -> prefetcher[0] = createPrefetcher(tileFactory, tileStore));
+
+        // -Dviewer.rasterRoute=true: route drawn from cached raster tiles instead of vectors on every repaint
+        RasterRoutePainter rasterRoute = Boolean.getBoolean("viewer.rasterRoute") ? new RasterRoutePainter() : null;
+
+        // heatmap, then stations under the route; the route painter is added when an itinerary is loaded
+        RouteDensityPainter densityLayer = new RouteDensityPainter();
+        StationLayerPainter stationLayer = new StationLayerPainter();
+        List<Painter<JXMapViewer>> layers = List.of(densityLayer, stationLayer);
+        CompoundPainter<JXMapViewer> overlay = new CompoundPainter<>(layers);
+        mapViewer.setOverlayPainter(overlay);
+
         // Controls
         JTextField originField = new JTextField("Place du Capitole, Toulouse", 30);
         JTextField destField   = new JTextField("Gare Matabiau, Toulouse", 30);
         JButton getItineraryButton = new JButton("Get itinerary");
+        JTextField contractField = new JTextField("toulouse", 10);
+        JCheckBox stationsBox = new JCheckBox("Stations");
+        JComboBox<String> heatmapBox = new JComboBox<>(new String[]{
+                "No heatmap", "Bike heatmap", "Walk heatmap", "All trips heatmap"});
 
         JPanel controlPanel = new JPanel(new FlowLayout(FlowLayout.LEFT));
         controlPanel.add(new JLabel("Origin:"));
@@ -56,6 +84,45 @@ public class MapViewerApp {
         controlPanel.add(new JLabel("Destination:"));
         controlPanel.add(destField);
         controlPanel.add(getItineraryButton);
+        controlPanel.add(stationsBox);
+        controlPanel.add(contractField);
+        controlPanel.add(heatmapBox);
+
+        installStationLayer(mapViewer, stationLayer, stationsBox, contractField);
+
+        // Painter with walk/bike style: the raster one, or a new vector one, on top of the layers;
+        // the returned consumer adds the segments decoded later to it
+        Function<List<RouteSegment>, Consumer<RouteSegment>> showRoutePainter = segments -> {
+            Painter<JXMapViewer> route;
+            Consumer<RouteSegment> append;
+            if (rasterRoute != null) {
+                rasterRoute.setSegments(segments);
+                route = rasterRoute;
+                append = rasterRoute::addSegment;
+            } else {
+                SegmentedRoutePainter painter = new SegmentedRoutePainter(segments);
+                route = painter;
+                append = painter::addSegment;
+            }
+            overlay.setPainters(List.of(densityLayer, stationLayer, route));
+            return append;
+        };
+
+        Consumer<List<RouteSegment>> showRoute = segments -> {
+            showRoutePainter.apply(segments);
+            centerAndZoom(mapViewer, segments);
+            mapViewer.repaint();
+            if (prefetcher[0] != null) {
+                prefetcher[0].prefetch(segments, mapViewer.getZoom());
+            }
+        };
+
+        // every itinerary shown is archived; the last one is shown again at the next start
+        ItineraryArchive archive = openArchive();
+        Runnable densityUpdate = installDensityLayer(mapViewer, densityLayer, heatmapBox, archive);
+
+        // request in progress, cancelled (with its HTTP exchange) when a new one is asked
+        SwingWorker<?, ?>[] current = new SwingWorker<?, ?>[1];
 
         getItineraryButton.addActionListener(e -> {
             String origin = originField.getText().trim();
@@ -69,17 +136,52 @@ public class MapViewerApp {
                 return;
             }
 
-            getItineraryButton.setEnabled(false);
+            if (current[0] != null) {
+                current[0].cancel(true);
+            }
             getItineraryButton.setText("Loading...");
+            if (prefetcher[0] != null) {
+                prefetcher[0].cancel();
+            }
+
+            // segments are published as they are decoded, so the first leg is drawn before the body is complete
+            SwingWorker<List<RouteSegment>, RouteSegment> worker = new SwingWorker<>() {
+                private Consumer<RouteSegment> route;    // adds to the route being built (EDT)
+                private int shown;                       // segments handed to the painter so far
+                private boolean finished;                // done() ran: late process() calls are ignored
 
-            new SwingWorker<List<RouteSegment>, Void>() {
                 @Override
                 protected List<RouteSegment> doInBackground() throws Exception {
-                    return RoutingRestClient.fetchSegments(origin, destination);
+                    return RoutingRestClient.fetchSegmentsProgressive(origin, destination, this::publish);
+                }
+
+                @Override
+                protected void process(List<RouteSegment> decoded) {
+                    if (finished || isCancelled()) {
+                        return;
+                    }
+                    boolean first = shown == 0;
+                    decoded.forEach(this::append);
+                    if (first) {
+                        centerAndZoom(mapViewer, decoded); // the whole route is fitted at the end
+                    }
+                    mapViewer.repaint();
+                }
+
+                private void append(RouteSegment segment) {
+                    if (route == null) {
+                        route = showRoutePainter.apply(List.of());
+                    }
+                    route.accept(segment);
+                    shown++;
                 }
 
                 @Override
                 protected void done() {
+                    finished = true;
+                    if (isCancelled()) {
+                        return; // replaced by a newer request, which owns the button now
+                    }
                     try {
                         List<RouteSegment> segments = get();
                         if (segments.isEmpty()) {
@@ -90,12 +192,26 @@ public class MapViewerApp {
                             return;
                         }
 
-                        // Painter with walk/bike style
-                        SegmentedRoutePainter painter = new SegmentedRoutePainter(segments);
-                        mapViewer.setOverlayPainter(painter);
-
+                        // the last published segments may not have reached process() yet
+                        for (int i = shown; i < segments.size(); i++) {
+                            append(segments.get(i));
+                        }
                         centerAndZoom(mapViewer, segments);
                         mapViewer.repaint();
+                        if (prefetcher[0] != null) {
+                            prefetcher[0].prefetch(segments, mapViewer.getZoom());
+                        }
+                        if (archive != null) {
+                            Thread.ofVirtual().name("itinerary-archive").start(() -> {
+                                try {
+                                    archive.append(origin, destination, segments);
+                                    densityUpdate.run();
+                                } catch (IOException ex) {
+                                    ClientMetrics.recordStorageError("archive", "append", ex);
+                                    System.err.println("Could not archive the itinerary: " + ex.getMessage());
+                                }
+                            });
+                        }
                     } catch (Exception ex) {
                         ex.printStackTrace();
                         JOptionPane.showMessageDialog(frame,
@@ -103,11 +219,15 @@ public class MapViewerApp {
                                 "REST error",
                                 JOptionPane.ERROR_MESSAGE);
                     } finally {
-                        getItineraryButton.setEnabled(true);
-                        getItineraryButton.setText("Get itinerary");
+                        if (current[0] == this) {
+                            current[0] = null;
+                            getItineraryButton.setText("Get itinerary");
+                        }
                     }
                 }
-            }.execute();
+            };
+            current[0] = worker;
+            worker.execute();
         });
 
         frame.setLayout(new BorderLayout());
@@ -115,63 +235,284 @@ public class MapViewerApp {
         frame.add(mapViewer, BorderLayout.CENTER);
         frame.setLocationRelativeTo(null);
         frame.setVisible(true);
+
+        if (archive != null) {
+            restoreLastItinerary(archive, originField, destField, showRoute);
+        }
+    }
+
+    /* Shows the last archived itinerary, read and prepared off the EDT; the fields get its origin and destination */
+    private static void restoreLastItinerary(ItineraryArchive archive, JTextField originField, JTextField destField,
+                                             Consumer<List<RouteSegment>> showRoute) {
+        new SwingWorker<ItineraryArchive.Entry, Void>() {
+            @Override
+            protected ItineraryArchive.Entry doInBackground() throws Exception {
+                ItineraryArchive.Entry last = archive.last();
+                if (last != null) {
+                    RouteLevelOfDetail.prepare(last.getSegments());
+                }
+                return last;
+            }
+
+            @Override
+            protected void done() {
+                try {
+                    ItineraryArchive.Entry last = get();
+                    if (last != null && !last.getSegments().isEmpty()) {
+                        originField.setText(last.getOrigin());
+                        destField.setText(last.getDestination());
+                        showRoute.accept(last.getSegments());
+                    }
+                } catch (Exception ex) {
+                    System.err.println("Could not restore the last itinerary: " + ex.getMessage());
+                }
+            }
+        }.execute();
     }
 
-    private static void centerAndZoom(JXMapViewer mapViewer, List<RouteSegment> segments) {
-        double minLat = Double.POSITIVE_INFINITY, maxLat = Double.NEGATIVE_INFINITY;
-        double minLon = Double.POSITIVE_INFINITY, maxLon = Double.NEGATIVE_INFINITY;
+    /**
+     * The heatmap box shows where the archived itineraries go (RouteDensityGrid), for bike legs, walk legs or both.
+     * The grid is built the first time a heatmap is chosen: the archive is read in batches on one virtual thread,
+     * each batch rasterized in parallel, and the map is repainted as the counts grow.
+     * The returned task, run after each new itinerary is archived, adds what the grid has not seen yet;
+     * as it only reads the archive, an itinerary is never counted twice.
+     */
+    private static Runnable installDensityLayer(JXMapViewer mapViewer, RouteDensityPainter densityLayer,
+                                                JComboBox<String> heatmapBox, ItineraryArchive archive) {
+        if (archive == null) {
+            heatmapBox.setEnabled(false);
+            heatmapBox.setToolTipText("No itinerary archive");
+            return () -> { };
+        }
 
-        GeoPosition start = null;
-        GeoPosition end = null;
+        RouteDensityGrid grid = new RouteDensityGrid();
+        ExecutorService loader = Executors.newSingleThreadExecutor(Thread.ofVirtual().name("density-loader").factory());
+        int[] loaded = new int[1]; // archive entries in the grid, only used on the loader thread
 
-        for (RouteSegment seg : segments) {
-            for (GeoPosition gp : seg.getPoints()) {
-                minLat = Math.min(minLat, gp.getLatitude());
-                maxLat = Math.max(maxLat, gp.getLatitude());
-                minLon = Math.min(minLon, gp.getLongitude());
-                maxLon = Math.max(maxLon, gp.getLongitude());
+        Runnable sync = () -> {
+            try {
+                int size = archive.size();
+                while (loaded[0] < size) {
+                    int end = Math.min(size, loaded[0] + DENSITY_BATCH);
+                    List<List<RouteSegment>> batch = new ArrayList<>(end - loaded[0]);
+                    for (int i = loaded[0]; i < end; i++) {
+                        try {
+                            batch.add(archive.get(i).getSegments());
+                        } catch (IOException ex) {
+                            ClientMetrics.recordStorageError("archive", "read", ex);
+                            System.err.println("Archived itinerary " + i + " skipped: " + ex.getMessage());
+                        }
+                    }
+                    grid.addAll(batch);
+                    loaded[0] = end;
+                    SwingUtilities.invokeLater(mapViewer::repaint);
+                }
+            } catch (RuntimeException ex) {
+                ClientMetrics.recordStorageError("density", "load", ex);
+                System.err.println("Route density map not updated: " + ex);
             }
-            if (start == null && !seg.getPoints().isEmpty()) {
-                start = seg.getPoints().getFirst();
+        };
+
+        heatmapBox.addActionListener(e -> {
+            int choice = heatmapBox.getSelectedIndex();
+            if (choice == 0) {
+                densityLayer.setGrid(null);
+            } else {
+                densityLayer.setMode(choice == 1 ? RouteSegment.Mode.BIKE
+                        : choice == 2 ? RouteSegment.Mode.WALK : null);
+                if (densityLayer.getGrid() == null) {
+                    densityLayer.setGrid(grid);
+                    loader.execute(sync);
+                }
             }
-            if (!seg.getPoints().isEmpty()) {
-                end = seg.getPoints().getLast();
+            mapViewer.repaint();
+        });
+
+        return () -> {
+            if (densityLayer.getGrid() != null) {
+                loader.execute(sync);
             }
-        }
+        };
+    }
 
-        if (start == null || end == null) {
-            return;
+    /** -Dviewer.archive=<file> (default ~/.proxycache/itineraries.bin). Returns null if it cannot be opened. */
+    private static ItineraryArchive openArchive() {
+        try {
+            ItineraryArchive archive = new ItineraryArchive(ItineraryArchive.defaultFile());
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    archive.close();
+                } catch (IOException ex) {
+                    ClientMetrics.recordStorageError("archive", "close", ex);
+                    System.err.println("Itinerary archive not closed cleanly: " + ex.getMessage());
+                }
+            }));
+            return archive;
+        } catch (IOException ex) {
+            System.err.println("Itinerary archive unavailable, the session will not be kept: " + ex.getMessage());
+            return null;
         }
+    }
+
+    /**
+     * "Stations" shows the bike stations of the contract typed next to it, refreshed every minute in the background.
+     * The StationStore (and its SOAP port) is only created the first time the box is ticked.
+     * Each new snapshot is indexed on the refresh thread; the EDT only swaps the index in and repaints.
+     */
+    private static void installStationLayer(JXMapViewer mapViewer, StationLayerPainter stationLayer,
+                                            JCheckBox stationsBox, JTextField contractField) {
+        StationStore[] store = new StationStore[1];
+        String[] shown = new String[1];
 
-        double centerLat = (minLat + maxLat) / 2.0;
-        double centerLon = (minLon + maxLon) / 2.0;
-        mapViewer.setAddressLocation(new GeoPosition(centerLat, centerLon));
+        Runnable update = () -> {
+            if (shown[0] != null) {
+                store[0].untrack(shown[0]);
+                shown[0] = null;
+            }
+            stationLayer.setStations(null);
+            mapViewer.repaint();
 
-        double distKm = haversineKm(start.getLatitude(), start.getLongitude(),
-                end.getLatitude(), end.getLongitude());
+            String contract = contractField.getText().trim();
+            if (!stationsBox.isSelected() || contract.isEmpty()) {
+                return;
+            }
+            if (store[0] == null) {
+                store[0] = new StationStore(StationSource.soap());
+                store[0].addListener(snapshot -> {
+                    StationIndex index = StationIndex.build(snapshot);
+                    SwingUtilities.invokeLater(() -> {
+                        // a late refresh of a contract that is no longer shown
+                        if (shown[0] != null && shown[0].equalsIgnoreCase(snapshot.getContract())) {
+                            stationLayer.setStations(index);
+                            mapViewer.repaint();
+                        }
+                    });
+                });
+            }
+            shown[0] = contract;
+            store[0].track(contract, Duration.ofSeconds(60));
+        };
 
-        int zoom = chooseZoomFromDistanceKm(distKm);
-        mapViewer.setZoom(zoom);
+        stationsBox.addActionListener(e -> update.run());
+        contractField.addActionListener(e -> update.run());
     }
 
-    private static int chooseZoomFromDistanceKm(double distKm) {
-        if (distKm < 3) {
-            return 2;
-        } else if (distKm < 50) {
-            return 7;
-        } else {
-            return 11;
+    /**
+     * Tiles are kept on disk between runs (MappedTileStore, see -Dviewer.tileStore).
+     * With -Dviewer.offline=true only the tiles already stored are shown and nothing is downloaded.
+     * The store scans and checks its packs when it opens, so it is opened on a virtual thread, not the EDT:
+     * it is attached to the tile factory and handed to ready (on the EDT) once open, and the tiles loaded
+     * before come from the network. Offline, those loads wait for the store instead. If the store cannot
+     * be opened, ready gets null and the map works as before, from the network only.
+     */
+    private static void openTileStore(MeteredTileFactory tileFactory, Consumer<MappedTileStore> ready) {
+        boolean offline = Boolean.getBoolean("viewer.offline");
+        CompletableFuture<MappedTileStore> opened = new CompletableFuture<>();
+        if (offline) {
+            tileFactory.setLocalCache(new LocalCache() {
+                @Override
+                public InputStream get(URL url) throws IOException {
+                    try {
+                        return opened.join().get(url);  // on a tile loader thread
+                    } catch (CompletionException ex) {
+                        throw new FileNotFoundException("Offline: tile store unavailable: " + url);
+                    }
+                }
+
+                @Override
+                public void put(URL url, InputStream data) throws IOException {
+                    // nothing is downloaded offline
+                }
+            });
         }
+        Thread.ofVirtual().name("tile-store-open").start(() -> {
+            MappedTileStore store;
+            try {
+                store = new MappedTileStore(MappedTileStore.defaultDirectory(), offline);
+            } catch (IOException ex) {
+                System.err.println("Tile store unavailable, tiles will not be kept on disk: " + ex.getMessage());
+                opened.completeExceptionally(ex);
+                SwingUtilities.invokeLater(() -> ready.accept(null));
+                return;
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+                try {
+                    store.close();
+                } catch (IOException ex) {
+                    ClientMetrics.recordStorageError("tiles", "close", ex);
+                    System.err.println("Tile store not closed cleanly: " + ex.getMessage());
+                }
+            }));
+            opened.complete(store);
+            SwingUtilities.invokeLater(() -> {
+                tileFactory.setLocalCache(store);
+                ready.accept(store);
+            });
+        });
+    }
+
+    /**
+     * -Dviewer.prefetch=true downloads the tiles along each new route into the tile store (TilePrefetcher).
+     * Off by default, and refused for the public OpenStreetMap servers, whose tile usage policy forbids bulk
+     * downloads: it needs -Dviewer.tileUrl pointing to a tile server that allows them. Returns null without prefetch.
+     */
+    private static TilePrefetcher createPrefetcher(MeteredTileFactory tileFactory, MappedTileStore tileStore) {
+        if (!Boolean.getBoolean("viewer.prefetch")) {
+            return null;
+        }
+        String baseUrl = tileFactory.getInfo().getBaseURL();
+        if (TilePrefetcher.isPublicOsm(baseUrl)) {
+            System.err.println("Tile prefetch disabled: the OpenStreetMap tile usage policy forbids bulk downloads from "
+                    + baseUrl + " (set -Dviewer.tileUrl to a tile server that allows them)");
+            return null;
+        }
+        if (tileStore == null) {
+            System.err.println("Tile prefetch disabled: it needs the tile store");
+            return null;
+        }
+        return new TilePrefetcher(tileFactory, tileStore, 4, 2000, "MyJavaMapClient/1.0");
     }
 
-    private static double haversineKm(double lat1, double lon1, double lat2, double lon2) {
-        double R = 6371.0;
-        double dLat = Math.toRadians(lat2 - lat1);
-        double dLon = Math.toRadians(lon2 - lon1);
-        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
-                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
-                        Math.sin(dLon / 2) * Math.sin(dLon / 2);
-        double c = 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
-        return R * c;
+    /**
+     * OpenStreetMap tiles, or those of -Dviewer.tileUrl (same {z}/{x}/{y}.png layout);
+     * JXMapViewer zoom 0 is the most detailed level (OSM zoom 18).
+     */
+    static TileFactoryInfo createTileFactoryInfo() {
+        return new TileFactoryInfo(
+                0, 17, 18,
+                256, true, true,
+                System.getProperty("viewer.tileUrl", "https://tile.openstreetmap.org"),
+                "x", "y", "z") {
+
+            @Override
+            public String getTileUrl(int x, int y, int zoom) {
+                int z = getTotalMapZoom() - zoom;
+                return String.format("%s/%d/%d/%d.png", baseURL, z, x, y);
+            }
+        };
+    }
+
+    /**
+     * Centers the map on the bounding box of the route, at the most detailed zoom where the box fits the viewer
+     * (before the window is laid out, the size it opens with).
+     */
+    static void centerAndZoom(JXMapViewer mapViewer, List<RouteSegment> segments) {
+        RouteGeometry.Bounds bounds = RouteGeometry.bounds(segments);
+        if (bounds.isEmpty()) {
+            return;
+        }
+
+        int width = mapViewer.getWidth() > 0 ? mapViewer.getWidth() : 1200;
+        int height = mapViewer.getHeight() > 0 ? mapViewer.getHeight() : 800;
+        int osmZoom = RouteGeometry.fitZoom(bounds, width - 2 * FIT_MARGIN, height - 2 * FIT_MARGIN, MAX_FIT_ZOOM);
+
+        TileFactoryInfo info = mapViewer.getTileFactory().getInfo();
+        int zoom = Math.max(info.getMinimumZoomLevel(),
+                Math.min(info.getMaximumZoomLevel(), info.getTotalMapZoom() - osmZoom));
+        mapViewer.setZoom(zoom);
+
+        double worldPixels = mapViewer.getTileFactory().getMapSize(zoom).getWidth() * info.getTileSize(zoom);
+        mapViewer.setCenter(new Point2D.Double(bounds.getCenterMercatorX() * worldPixels,
+                bounds.getCenterMercatorY() * worldPixels));
     }
 }
@@ -0,0 +1,443 @@
+package com.soc;
+
+import org.jxmapviewer.cache.LocalCache;
+
+import java.io.ByteArrayInputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.invoke.VarHandle;
+import java.net.URL;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent map tile store for the tile factory (JXMapViewer LocalCache), so tiles survive a restart.
+ *
+ * Tiles are appended to a ring of memory-mapped pack files of fixed size (tiles-0.pack ... tiles-N.pack).
+ * When the current pack is full, the oldest pack is recycled: its tiles are dropped and it is overwritten.
+ * A tile read from the pack that will be recycled next is copied again to the current pack,
+ * so tiles still in use survive the rotation (an LRU at pack granularity, bounded by packCount * packSize).
+ *
+ * The index (z, x, y) -> (pack, offset) lives in memory and is rebuilt at startup by scanning the packs;
+ * every record carries its key and a CRC, so a record cut by a crash is simply ignored.
+ * put() only queues the tile: a background writer appends it (write-behind), and get() serves queued tiles too.
+ *
+ * In offline mode a missing tile throws FileNotFoundException, which makes the tile factory mark it
+ * as failed instead of downloading it: the viewer then runs without any network access.
+ */
+public class MappedTileStore implements LocalCache, Closeable {
+
+    public static final long DEFAULT_PACK_SIZE = 32L * 1024 * 1024;
+    public static final int DEFAULT_PACK_COUNT = 8;
+
+    private static final int PACK_MAGIC = 0x54504B31;    // "TPK1"
+    private static final int RECORD_MAGIC = 0x54494C45;  // "TILE"
+    private static final int PACK_HEADER = 16;           // magic, unused, sequence (long)
+    private static final int RECORD_HEADER = 24;         // magic, z, x, y, length, crc
+
+    /* tiles the writer has not appended yet; beyond that, put() drops tiles (it is only a cache) */
+    private static final int MAX_PENDING = 512;
+
+    private final Path directory;
+    private final long packSize;
+    private final boolean offline;
+    private final Pack[] packs;
+
+    private final Map<Long, Location> index = new ConcurrentHashMap<>();
+    private final Map<Long, byte[]> pending = new ConcurrentHashMap<>();
+    private final BlockingQueue<Write> writes = new LinkedBlockingQueue<>(MAX_PENDING);
+    private final Thread writer;
+
+    // only changed by the writer thread (and the constructor); current is also read by get()
+    private volatile int current;
+    private int writeOffset;
+    private long sequence;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private volatile boolean closed;
+
+    public MappedTileStore(Path directory, boolean offline) throws IOException {
+        this(directory, DEFAULT_PACK_SIZE, DEFAULT_PACK_COUNT, offline);
+    }
+
+    /**
+     * @param directory where the pack files live (created if needed)
+     * @param packSize  size of one pack file in bytes (at most 2 GB, the limit of one mapping)
+     * @param packCount number of pack files; disk use is at most packCount * packSize
+     * @param offline   serve only tiles already in the store
+     */
+    public MappedTileStore(Path directory, long packSize, int packCount, boolean offline) throws IOException {
+        if (packSize <= PACK_HEADER + RECORD_HEADER || packSize > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("packSize out of range: " + packSize);
+        }
+        if (packCount < 2) {
+            throw new IllegalArgumentException("packCount must be at least 2");
+        }
+        this.directory = directory;
+        this.packSize = packSize;
+        this.offline = offline;
+        this.packs = new Pack[packCount];
+
+        Files.createDirectories(directory);
+        for (int i = 0; i < packCount; i++) {
+            packs[i] = new Pack(i, directory.resolve("tiles-" + i + ".pack"), packSize);
+        }
+        load();
+
+        writer = Thread.ofVirtual().name("tile-store-writer").start(this::writeLoop);
+    }
+
+    /** Default location: ~/.proxycache/tiles, or the viewer.tileStore system property. */
+    public static Path defaultDirectory() {
+        String dir = System.getProperty("viewer.tileStore");
+        return dir != null ? Path.of(dir) : Path.of(System.getProperty("user.home"), ".proxycache", "tiles");
+    }
+
+    @Override
+    public InputStream get(URL url) throws IOException {
+        long key = keyOf(url);
+        if (key >= 0) {
+            byte[] queued = pending.get(key);
+            if (queued != null) {
+                hits.incrementAndGet();
+                return new ByteArrayInputStream(queued);
+            }
+
+            Location loc = index.get(key);
+            byte[] data = loc != null ? read(key, loc) : null;
+            if (data != null) {
+                hits.incrementAndGet();
+                if (loc.pack == next(current)) {
+                    // about to be recycled: keep it by writing it again to the current pack
+                    enqueue(key, data);
+                }
+                return new ByteArrayInputStream(data);
+            }
+        }
+
+        misses.incrementAndGet();
+        if (offline) {
+            throw new FileNotFoundException("Offline: tile not in local store: " + url);
+        }
+        return null;
+    }
+
+    @Override
+    public void put(URL url, InputStream data) throws IOException {
+        byte[] bytes = data.readAllBytes();
+        long key = keyOf(url);
+        if (key >= 0 && bytes.length > 0 && RECORD_HEADER + bytes.length <= packSize - PACK_HEADER) {
+            enqueue(key, bytes);
+        }
+    }
+
+    /** True if get(url) would return the tile without going to the network. */
+    public boolean contains(URL url) {
+        long key = keyOf(url);
+        return key >= 0 && (pending.containsKey(key) || index.containsKey(key));
+    }
+
+    public boolean isOffline() {
+        return offline;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /** Number of tiles that can be served (stored or waiting to be written). */
+    public int size() {
+        int extra = 0;
+        for (Long key : pending.keySet()) {
+            if (!index.containsKey(key)) {
+                extra++;
+            }
+        }
+        return index.size() + extra;
+    }
+
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /** Writes the queued tiles, flushes the packs to disk and stops the writer. */
+    @Override
+    public void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        writer.interrupt();
+        try {
+            writer.join();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        for (Pack pack : packs) {
+            pack.close();
+        }
+    }
+
+    private void enqueue(long key, byte[] bytes) {
+        if (!closed && pending.putIfAbsent(key, bytes) == null && !writes.offer(new Write(key, bytes))) {
+            pending.remove(key);
+        }
+    }
+
+    private void writeLoop() {
+        while (true) {
+            Write w;
+            try {
+                w = writes.take();
+            } catch (InterruptedException ex) {
+                // closing: write what is left, then stop
+                while ((w = writes.poll()) != null) {
+                    append(w);
+                }
+                return;
+            }
+            append(w);
+        }
+    }
+
+    private void append(Write w) {
+        try {
+            int recordSize = RECORD_HEADER + w.data.length;
+            if (writeOffset + recordSize > packSize) {
+                rotate();
+            }
+
+            Pack pack = packs[current];
+            MappedByteBuffer buf = pack.buffer;
+            int offset = writeOffset;
+
+            CRC32 crc = new CRC32();
+            crc.update(w.data);
+            buf.putInt(offset + 4, zoomOf(w.key));
+            buf.putInt(offset + 8, xOf(w.key));
+            buf.putInt(offset + 12, yOf(w.key));
+            buf.putInt(offset + 16, w.data.length);
+            buf.putInt(offset + 20, (int) crc.getValue());
+            buf.put(offset + RECORD_HEADER, w.data);
+            // the magic goes last: a record is only visible to load() once it is complete
+            buf.putInt(offset, RECORD_MAGIC);
+            if (offset + recordSize + 4 <= packSize) {
+                buf.putInt(offset + recordSize, 0);
+            }
+
+            writeOffset = offset + recordSize;
+            index.put(w.key, new Location(current, pack.generation, offset, w.data.length));
+        } finally {
+            pending.remove(w.key, w.data);
+        }
+    }
+
+    /* Moves to the next pack of the ring, dropping the tiles it held */
+    private void rotate() {
+        int next = next(current);
+        Pack pack = packs[next];
+
+        pack.generation++;
+        // readers compare the generation before and after copying a record (see read)
+        VarHandle.storeStoreFence();
+        index.values().removeIf(loc -> loc.pack == next);
+
+        pack.buffer.putInt(PACK_HEADER, 0);
+        pack.buffer.putLong(8, ++sequence);
+        pack.buffer.putInt(0, PACK_MAGIC);
+
+        current = next;
+        writeOffset = PACK_HEADER;
+    }
+
+    private int next(int pack) {
+        return (pack + 1) % packs.length;
+    }
+
+    /* Returns null if the record is no longer there (pack recycled meanwhile) or damaged */
+    private byte[] read(long key, Location loc) {
+        Pack pack = packs[loc.pack];
+        if (pack.generation != loc.generation) {
+            return null;
+        }
+        MappedByteBuffer buf = pack.buffer;
+        byte[] data = new byte[loc.length];
+        buf.get(loc.offset + RECORD_HEADER, data);
+
+        // the writer may have recycled the pack while we copied: check the record is still ours
+        VarHandle.loadLoadFence();
+        if (pack.generation != loc.generation
+                || buf.getInt(loc.offset) != RECORD_MAGIC
+                || buf.getInt(loc.offset + 4) != zoomOf(key)
+                || buf.getInt(loc.offset + 8) != xOf(key)
+                || buf.getInt(loc.offset + 12) != yOf(key)) {
+            return null;
+        }
+        return data;
+    }
+
+    /* Rebuilds the index from the packs, oldest first so newer copies of a tile win */
+    private void load() {
+        Integer[] order = new Integer[packs.length];
+        for (int i = 0; i < packs.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(packs[a].sequence(), packs[b].sequence()));
+
+        int newest = -1;
+        int newestEnd = PACK_HEADER;
+        for (int i : order) {
+            Pack pack = packs[i];
+            if (pack.sequence() < 0) {
+                continue;
+            }
+            newest = i;
+            newestEnd = scan(pack);
+            sequence = Math.max(sequence, pack.sequence());
+        }
+
+        if (newest < 0) {
+            // empty store: start at pack 0
+            current = packs.length - 1;
+            rotate();
+        } else {
+            current = newest;
+            writeOffset = newestEnd;
+        }
+    }
+
+    /* Indexes the valid records of a pack; returns the offset after the last one */
+    private int scan(Pack pack) {
+        MappedByteBuffer buf = pack.buffer;
+        int offset = PACK_HEADER;
+        while (offset + RECORD_HEADER <= packSize && buf.getInt(offset) == RECORD_MAGIC) {
+            int z = buf.getInt(offset + 4);
+            int x = buf.getInt(offset + 8);
+            int y = buf.getInt(offset + 12);
+            int length = buf.getInt(offset + 16);
+            if (length <= 0 || offset + RECORD_HEADER + (long) length > packSize) {
+                break;
+            }
+
+            byte[] data = new byte[length];
+            buf.get(offset + RECORD_HEADER, data);
+            CRC32 crc = new CRC32();
+            crc.update(data);
+            if ((int) crc.getValue() != buf.getInt(offset + 20)) {
+                break;
+            }
+
+            index.put(key(z, x, y), new Location(pack.number, pack.generation, offset, length));
+            offset += RECORD_HEADER + length;
+        }
+        return offset;
+    }
+
+    /*
+     * Tile URLs end with /z/x/y.png (see MapViewerApp.createTileFactoryInfo).
+     * Returns -1 for URLs we do not understand; those tiles are not stored.
+     */
+    static long keyOf(URL url) {
+        String path = url.getPath();
+        int dot = path.lastIndexOf('.');
+        int s3 = path.lastIndexOf('/');
+        int s2 = s3 > 0 ? path.lastIndexOf('/', s3 - 1) : -1;
+        int s1 = s2 > 0 ? path.lastIndexOf('/', s2 - 1) : -1;
+        if (s1 < 0 || dot < s3) {
+            return -1;
+        }
+        try {
+            int z = Integer.parseInt(path, s1 + 1, s2, 10);
+            int x = Integer.parseInt(path, s2 + 1, s3, 10);
+            int y = Integer.parseInt(path, s3 + 1, dot, 10);
+            if (z < 0 || z > 30 || x < 0 || y < 0 || x >= 1 << Math.min(z, 28) || y >= 1 << Math.min(z, 28)) {
+                return -1;
+            }
+            return key(z, x, y);
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /* 5 bits of zoom and 28 bits of x and y (OSM zooms go up to about 20) */
+    static long key(int z, int x, int y) {
+        return ((long) z << 56) | ((long) x << 28) | y;
+    }
+
+    private static int zoomOf(long key) {
+        return (int) (key >>> 56);
+    }
+
+    private static int xOf(long key) {
+        return (int) ((key >>> 28) & 0xFFFFFFF);
+    }
+
+    private static int yOf(long key) {
+        return (int) (key & 0xFFFFFFF);
+    }
+
+    private static final class Pack {
+        final int number;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+        volatile int generation;
+
+        Pack(int number, Path file, long size) throws IOException {
+            this.number = number;
+            this.channel = FileChannel.open(file,
+                    StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            this.buffer = channel.map(FileChannel.MapMode.READ_WRITE, 0, size);
+        }
+
+        /* -1 for a pack that was never written */
+        long sequence() {
+            return buffer.getInt(0) == PACK_MAGIC ? buffer.getLong(8) : -1;
+        }
+
+        void close() throws IOException {
+            buffer.force();
+            channel.close();
+        }
+    }
+
+    private static final class Location {
+        final int pack;
+        final int generation;
+        final int offset;
+        final int length;
+
+        Location(int pack, int generation, int offset, int length) {
+            this.pack = pack;
+            this.generation = generation;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    private static final class Write {
+        final long key;
+        final byte[] data;
+
+        Write(long key, byte[] data) {
+            this.key = key;
+            this.data = data;
+        }
+    }
+}
@@ -0,0 +1,29 @@
+package com.soc;
+
+import org.jxmapviewer.viewer.DefaultTileFactory;
+import org.jxmapviewer.viewer.Tile;
+import org.jxmapviewer.viewer.TileFactoryInfo;
+
+/**
+ * DefaultTileFactory that times every tile load (tile store or network) into ClientMetrics.
+ * Each loader task of the factory loads one tile from its queue, so timing the task times one load.
+ */
+public class MeteredTileFactory extends DefaultTileFactory {
+
+    public MeteredTileFactory(TileFactoryInfo info) {
+        super(info);
+    }
+
+    @Override
+    protected Runnable createTileRunner(Tile tile) {
+        Runnable load = super.createTileRunner(tile);
+        return () -> {
+            ClientEvents.TileLoad event = ClientMetrics.beginTileLoad();
+            try {
+                load.run();
+            } finally {
+                ClientMetrics.endTileLoad(event, getPendingTiles());
+            }
+        };
+    }
+}
@@ -0,0 +1,184 @@
+package com.soc;
+
+import com.soap.proxycache.client.generated.IProxyService;
+import com.soap.proxycache.client.generated.ProxyService;
+import com.sun.xml.ws.developer.JAXWSProperties;
+import jakarta.xml.ws.BindingProvider;
+import jakarta.xml.ws.WebServiceException;
+
+import java.time.Duration;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Concurrent facade over the ProxyCacheService SOAP port, for callers that make many proxy calls at once
+ * (e.g. polling the stations of several contracts).
+ *
+ * A JAX-WS port must not be used by two threads at a time (its request context is shared by its calls),
+ * and building one is expensive: the generated ProxyService parses the WSDL, and every port is a
+ * reflection-built proxy with its own binding. So the pool parses the WSDL once, from the copy bundled in the
+ * jar (no network call at startup, see pom.xml), and builds all its ports up front. A call borrows a port,
+ * uses it alone and gives it back: at most size calls are on the wire, the next ones wait for a free port
+ * (at most borrowTimeout, then a WebServiceException).
+ *
+ * The *Async methods run the call on a virtual thread: hundreds of them in flight cost a few KB each
+ * while they wait for a port or for the answer. Every call is timed in ClientMetrics.
+ */
+public class ProxyServicePool implements AutoCloseable {
+
+    private final int size;
+    private final Duration borrowTimeout;
+    private final BlockingQueue<IProxyService> idle;
+    private final ExecutorService executor =
+            Executors.newThreadPerTaskExecutor(Thread.ofVirtual().name("proxy-call-", 0).factory());
+
+    private volatile boolean closed;
+
+    /**
+     * @param size           number of ports, i.e. of SOAP calls in flight at most
+     * @param endpoint       address of the service; null for the one in the WSDL
+     * @param connectTimeout time limit to connect to the service
+     * @param requestTimeout time limit for the answer of a call
+     * @param borrowTimeout  how long a call may wait for a free port
+     */
+    public ProxyServicePool(int size, String endpoint, Duration connectTimeout, Duration requestTimeout,
+                            Duration borrowTimeout) {
+        if (size <= 0) {
+            throw new IllegalArgumentException("size must be positive");
+        }
+        this.size = size;
+        this.borrowTimeout = borrowTimeout;
+        this.idle = new ArrayBlockingQueue<>(size);
+
+        ProxyService service = new ProxyService();
+        for (int i = 0; i < size; i++) {
+            idle.add(newPort(service, endpoint, connectTimeout, requestTimeout));
+        }
+    }
+
+    /**
+     * Pool configured by system properties: proxy.poolSize (default 16), proxy.endpoint (default: the address
+     * in the WSDL), proxy.connectTimeoutMs (default 5000), proxy.requestTimeoutMs (default 30000) and
+     * proxy.borrowTimeoutMs (default 30000).
+     */
+    public static ProxyServicePool fromSystemProperties() {
+        return new ProxyServicePool(
+                Integer.getInteger("proxy.poolSize", 16),
+                System.getProperty("proxy.endpoint"),
+                Duration.ofMillis(Long.getLong("proxy.connectTimeoutMs", 5000)),
+                Duration.ofMillis(Long.getLong("proxy.requestTimeoutMs", 30000)),
+                Duration.ofMillis(Long.getLong("proxy.borrowTimeoutMs", 30000)));
+    }
+
+    /** A port of the service with the endpoint and timeouts set, timed by ClientMetrics. */
+    static IProxyService newPort(ProxyService service, String endpoint, Duration connectTimeout,
+                                 Duration requestTimeout) {
+        IProxyService port = service.getBasicHttpBindingIProxyService();
+        Map<String, Object> context = ((BindingProvider) port).getRequestContext();
+        if (endpoint != null) {
+            context.put(BindingProvider.ENDPOINT_ADDRESS_PROPERTY, endpoint);
+        }
+        context.put(JAXWSProperties.CONNECT_TIMEOUT, (int) connectTimeout.toMillis());
+        context.put(JAXWSProperties.REQUEST_TIMEOUT, (int) requestTimeout.toMillis());
+        return ClientMetrics.instrumentSoap(port, IProxyService.class);
+    }
+
+    /** Runs operation with a port of the pool, which nobody else uses until it returns. */
+    public <T> T call(Function<IProxyService, T> operation) {
+        IProxyService port = borrow();
+        try {
+            return operation.apply(port);
+        } finally {
+            idle.add(port);
+        }
+    }
+
+    /** Same as call, on a virtual thread; the future fails with the exception of the call. */
+    public <T> CompletableFuture<T> callAsync(Function<IProxyService, T> operation) {
+        if (closed) {
+            return CompletableFuture.failedFuture(new IllegalStateException("ProxyServicePool is closed"));
+        }
+        return CompletableFuture.supplyAsync(() -> call(operation), executor);
+    }
+
+    /** Raw GET through the proxy cache (default TTL of the proxy). */
+    public String get(String url) {
+        return call(port -> port.get(url));
+    }
+
+    public CompletableFuture<String> getAsync(String url) {
+        return callAsync(port -> port.get(url));
+    }
+
+    /** GET through the proxy cache with an explicit TTL; forceRefresh skips the cached copy, extendTtl renews it on a hit. */
+    public String getWithTtl(String url, double ttlSeconds, boolean forceRefresh, boolean extendTtl) {
+        return call(port -> port.getWithTtl(url, ttlSeconds, forceRefresh, extendTtl));
+    }
+
+    public CompletableFuture<String> getWithTtlAsync(String url, double ttlSeconds, boolean forceRefresh,
+                                                     boolean extendTtl) {
+        return callAsync(port -> port.getWithTtl(url, ttlSeconds, forceRefresh, extendTtl));
+    }
+
+    /** JCDecaux v3 JSON array of the stations of a contract, from the generic cache of the proxy. */
+    public String getJcdecauxStationsGeneric(String contract, int ttlSeconds) {
+        return call(port -> port.getJcdecauxStationsGeneric(contract, ttlSeconds));
+    }
+
+    public CompletableFuture<String> getJcdecauxStationsGenericAsync(String contract, int ttlSeconds) {
+        return callAsync(port -> port.getJcdecauxStationsGeneric(contract, ttlSeconds));
+    }
+
+    /** Cache counters of the proxy, as JSON. */
+    public String status() {
+        return call(IProxyService::status);
+    }
+
+    public CompletableFuture<String> statusAsync() {
+        return callAsync(IProxyService::status);
+    }
+
+    /** StationStore source that fetches through the pool, so several contracts can refresh at once. */
+    public StationSource asStationSource() {
+        return this::getJcdecauxStationsGeneric;
+    }
+
+    public int getSize() {
+        return size;
+    }
+
+    /** Ports not in use right now. */
+    public int getIdle() {
+        return idle.size();
+    }
+
+    /** New calls are refused; the calls in progress finish. */
+    @Override
+    public void close() {
+        closed = true;
+        executor.shutdown();
+    }
+
+    private IProxyService borrow() {
+        if (closed) {
+            throw new IllegalStateException("ProxyServicePool is closed");
+        }
+        try {
+            IProxyService port = idle.poll(borrowTimeout.toNanos(), TimeUnit.NANOSECONDS);
+            if (port == null) {
+                throw new WebServiceException("No free ProxyCacheService port within " + borrowTimeout.toMillis()
+                        + " ms (" + size + " calls in flight)");
+            }
+            return port;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            throw new WebServiceException("Interrupted while waiting for a ProxyCacheService port", ex);
+        }
+    }
+}
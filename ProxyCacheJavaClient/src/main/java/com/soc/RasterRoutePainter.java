@@ -0,0 +1,180 @@
+package com.soc;
+
+import org.jxmapviewer.JXMapViewer;
+import org.jxmapviewer.painter.Painter;
+import org.jxmapviewer.viewer.TileFactoryInfo;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Route overlay drawn from cached raster tiles instead of vectors on every frame.
+ *
+ * The route lines are rendered (by SegmentedRoutePainter) into transparent images of one map tile each,
+ * aligned on the same grid as the map tiles. While panning we only blit the tiles we already have and
+ * render the ones coming into view, so the antialiased dashed WALK lines are drawn once per tile, not per frame.
+ * Tiles are kept for every zoom in one LRU with a memory budget; tiles the route does not cross
+ * only cost a map entry. The origin/destination markers stay vectors (cheap, and always on top).
+ *
+ * Enabled in MapViewerApp with -Dviewer.rasterRoute=true. Like all painters, used on the EDT only.
+ */
+public class RasterRoutePainter implements Painter<JXMapViewer> {
+
+    /* 256 tiles of 256x256 ARGB */
+    public static final long DEFAULT_MAX_BYTES = 64L * 1024 * 1024;
+
+    /* marks a tile the route does not cross, so we do not render it again */
+    private static final BufferedImage EMPTY = new BufferedImage(1, 1, BufferedImage.TYPE_INT_ARGB_PRE);
+
+    private final long maxBytes;
+    // key: zoom, tile x, tile y packed in a long (see key())
+    private final Map<Long, BufferedImage> tiles = new LinkedHashMap<>(64, 0.75f, true);
+    private long bytes;
+
+    private SegmentedRoutePainter route;
+    private TileFactoryInfo tileFactoryInfo;
+    private int frameVertices;     // rendered into new tiles by the current paint, for ClientMetrics
+
+    // reused for tiles that turn out to be empty
+    private BufferedImage scratch;
+
+    public RasterRoutePainter() {
+        this(DEFAULT_MAX_BYTES);
+    }
+
+    public RasterRoutePainter(long maxBytes) {
+        this.maxBytes = maxBytes;
+    }
+
+    /** Shows a new itinerary; the tiles of the previous one are dropped. */
+    public void setSegments(List<RouteSegment> segments) {
+        route = segments == null ? null : new SegmentedRoutePainter(segments);
+        invalidate();
+    }
+
+    /** Appends a segment to the itinerary being shown (see SegmentedRoutePainter.addSegment). */
+    public void addSegment(RouteSegment segment) {
+        if (route == null) {
+            route = new SegmentedRoutePainter(List.of());
+        }
+        route.addSegment(segment);
+        invalidate();
+    }
+
+    /** Drops all rendered tiles. */
+    public void invalidate() {
+        tiles.clear();
+        bytes = 0;
+    }
+
+    /** Memory used by the rendered tiles, in bytes. */
+    public long getCachedBytes() {
+        return bytes;
+    }
+
+    public int getCachedTileCount() {
+        return tiles.size();
+    }
+
+    @Override
+    public void paint(Graphics2D g, JXMapViewer map, int w, int h) {
+        if (route == null) {
+            return;
+        }
+        if (map.getTileFactory().getInfo() != tileFactoryInfo) {
+            invalidate();
+            tileFactoryInfo = map.getTileFactory().getInfo();
+        }
+
+        ClientEvents.RoutePaint event = ClientMetrics.beginPaint("raster");
+        frameVertices = 0;
+        int drawnTiles = 0;
+        int zoom = map.getZoom();
+        int tileSize = map.getTileFactory().getTileSize(zoom);
+        Dimension mapSize = map.getTileFactory().getMapSize(zoom);
+        Rectangle viewportBounds = map.getViewportBounds();
+
+        int firstX = Math.max(0, Math.floorDiv(viewportBounds.x, tileSize));
+        int firstY = Math.max(0, Math.floorDiv(viewportBounds.y, tileSize));
+        int lastX = Math.min(mapSize.width - 1, Math.floorDiv(viewportBounds.x + viewportBounds.width - 1, tileSize));
+        int lastY = Math.min(mapSize.height - 1, Math.floorDiv(viewportBounds.y + viewportBounds.height - 1, tileSize));
+
+        Graphics2D g2 = (Graphics2D) g.create();
+        g2.translate(-viewportBounds.x, -viewportBounds.y);
+
+        for (int ty = firstY; ty <= lastY; ty++) {
+            for (int tx = firstX; tx <= lastX; tx++) {
+                BufferedImage tile = tile(map, zoom, tx, ty, tileSize);
+                if (tile != EMPTY) {
+                    g2.drawImage(tile, tx * tileSize, ty * tileSize, null);
+                    drawnTiles++;
+                }
+            }
+        }
+
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        route.paintMarkers(g2, map);
+        g2.dispose();
+        ClientMetrics.endPaint(event, zoom, drawnTiles, frameVertices);
+    }
+
+    private BufferedImage tile(JXMapViewer map, int zoom, int tx, int ty, int tileSize) {
+        Long key = key(zoom, tx, ty);
+        BufferedImage tile = tiles.get(key);
+        if (tile != null) {
+            return tile;
+        }
+
+        tile = render(map, tx, ty, tileSize);
+        tiles.put(key, tile);
+        bytes += sizeOf(tile);
+        evict();
+        return tile;
+    }
+
+    private BufferedImage render(JXMapViewer map, int tx, int ty, int tileSize) {
+        BufferedImage image = scratch != null && scratch.getWidth() == tileSize
+                ? scratch
+                : new BufferedImage(tileSize, tileSize, BufferedImage.TYPE_INT_ARGB_PRE);
+        scratch = null;
+
+        Graphics2D g2 = image.createGraphics();
+        g2.setComposite(AlphaComposite.Clear);
+        g2.fillRect(0, 0, tileSize, tileSize);
+        g2.setComposite(AlphaComposite.SrcOver);
+        g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g2.translate(-tx * tileSize, -ty * tileSize);
+
+        int drawn = route.paintRoute(g2, map, new Rectangle(tx * tileSize, ty * tileSize, tileSize, tileSize));
+        g2.dispose();
+        frameVertices += route.getVerticesDrawn();
+
+        if (drawn == 0) {
+            scratch = image;
+            return EMPTY;
+        }
+        return image;
+    }
+
+    private void evict() {
+        Iterator<BufferedImage> it = tiles.values().iterator();
+        while (bytes > maxBytes && it.hasNext()) {
+            bytes -= sizeOf(it.next());
+            it.remove();
+        }
+    }
+
+    /* an empty tile is charged for its map entry, so panning far away cannot grow the map forever */
+    private static long sizeOf(BufferedImage tile) {
+        return tile == EMPTY ? 64 : 4L * tile.getWidth() * tile.getHeight();
+    }
+
+    /* tile coordinates stay below 2^18 (OSM zoom 18), so 28 bits each are plenty */
+    private static long key(int zoom, int tx, int ty) {
+        return ((long) zoom << 56) | ((long) tx << 28) | ty;
+    }
+}
@@ -0,0 +1,208 @@
+package com.soc;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Splits the segments of a route into chunks of CHUNK_SIZE lines and indexes their bounding boxes
+ * in a uniform grid, so the painter can ask "which chunks touch the viewport?" without looking at the whole route.
+ *
+ * Consecutive chunks share their boundary vertex, so every line of a segment belongs to exactly one chunk
+ * and lies inside that chunk's box: a chunk whose box misses the viewport cannot draw anything in it.
+ * Boxes are in normalized Web Mercator coordinates (0..1 over the whole world), which is the map's pixel
+ * space divided by the world width, so a viewport converts with one division per edge at any zoom.
+ *
+ * Queries reuse internal buffers: use an index from one thread only (the EDT).
+ */
+final class RouteChunkIndex {
+
+    static final int CHUNK_SIZE = 64;
+
+    /* a grid of about sqrt(chunks)^2 cells keeps a few chunks per cell for usual routes */
+    private static final int MAX_GRID_SIDE = 256;
+
+    private final RouteSegment[] chunkSegment;
+    private final int[] chunkStart;    // first vertex of the chunk in its segment
+    private final int[] chunkEnd;      // last vertex (inclusive), also the first of the next chunk
+    private final double[] minX;
+    private final double[] minY;
+    private final double[] maxX;
+    private final double[] maxY;
+    private final int count;
+
+    // grid over the route's bounds, cells stored as CSR: chunks of cell c are cellChunks[cellStart[c] .. cellStart[c + 1])
+    private final double gridX;
+    private final double gridY;
+    private final double cellWidth;
+    private final double cellHeight;
+    private final int columns;
+    private final int rows;
+    private final int[] cellStart;
+    private final int[] cellChunks;
+
+    // a chunk already returned by the current query has seen[chunk] == queryStamp
+    private final int[] seen;
+    private int queryStamp;
+    private int[] result = new int[16];
+
+    RouteChunkIndex(List<RouteSegment> segments) {
+        int total = 0;
+        for (RouteSegment seg : segments) {
+            total += chunksIn(seg);
+        }
+        count = total;
+        chunkSegment = new RouteSegment[total];
+        chunkStart = new int[total];
+        chunkEnd = new int[total];
+        minX = new double[total];
+        minY = new double[total];
+        maxX = new double[total];
+        maxY = new double[total];
+        seen = new int[total];
+
+        double boundsMinX = Double.POSITIVE_INFINITY;
+        double boundsMinY = Double.POSITIVE_INFINITY;
+        double boundsMaxX = Double.NEGATIVE_INFINITY;
+        double boundsMaxY = Double.NEGATIVE_INFINITY;
+
+        int c = 0;
+        for (RouteSegment seg : segments) {
+            int chunks = chunksIn(seg);
+            for (int k = 0; k < chunks; k++, c++) {
+                int start = k * CHUNK_SIZE;
+                int end = Math.min(start + CHUNK_SIZE, seg.size() - 1);
+                chunkSegment[c] = seg;
+                chunkStart[c] = start;
+                chunkEnd[c] = end;
+
+                double x0 = Double.POSITIVE_INFINITY, y0 = Double.POSITIVE_INFINITY;
+                double x1 = Double.NEGATIVE_INFINITY, y1 = Double.NEGATIVE_INFINITY;
+                for (int i = start; i <= end; i++) {
+                    double x = RouteLevelOfDetail.mercatorX(seg.getLon(i));
+                    double y = RouteLevelOfDetail.mercatorY(seg.getLat(i));
+                    x0 = Math.min(x0, x);
+                    y0 = Math.min(y0, y);
+                    x1 = Math.max(x1, x);
+                    y1 = Math.max(y1, y);
+                }
+                minX[c] = x0;
+                minY[c] = y0;
+                maxX[c] = x1;
+                maxY[c] = y1;
+
+                boundsMinX = Math.min(boundsMinX, x0);
+                boundsMinY = Math.min(boundsMinY, y0);
+                boundsMaxX = Math.max(boundsMaxX, x1);
+                boundsMaxY = Math.max(boundsMaxY, y1);
+            }
+        }
+
+        int side = Math.max(1, Math.min(MAX_GRID_SIDE, (int) Math.ceil(Math.sqrt(total))));
+        if (total == 0) {
+            boundsMinX = boundsMinY = 0;
+            boundsMaxX = boundsMaxY = 0;
+        }
+        double spanX = boundsMaxX - boundsMinX;
+        double spanY = boundsMaxY - boundsMinY;
+        columns = spanX > 0 ? side : 1;
+        rows = spanY > 0 ? side : 1;
+        gridX = boundsMinX;
+        gridY = boundsMinY;
+        cellWidth = spanX > 0 ? spanX / columns : 1;
+        cellHeight = spanY > 0 ? spanY / rows : 1;
+
+        // first pass counts the chunks per cell, second pass fills them in
+        cellStart = new int[columns * rows + 1];
+        for (int i = 0; i < total; i++) {
+            for (int row = row(minY[i]); row <= row(maxY[i]); row++) {
+                for (int col = column(minX[i]); col <= column(maxX[i]); col++) {
+                    cellStart[row * columns + col + 1]++;
+                }
+            }
+        }
+        for (int cell = 0; cell < columns * rows; cell++) {
+            cellStart[cell + 1] += cellStart[cell];
+        }
+        cellChunks = new int[cellStart[columns * rows]];
+        int[] fill = Arrays.copyOf(cellStart, columns * rows);
+        for (int i = 0; i < total; i++) {
+            for (int row = row(minY[i]); row <= row(maxY[i]); row++) {
+                for (int col = column(minX[i]); col <= column(maxX[i]); col++) {
+                    cellChunks[fill[row * columns + col]++] = i;
+                }
+            }
+        }
+    }
+
+    private static int chunksIn(RouteSegment seg) {
+        return seg.size() < 2 ? 0 : (seg.size() - 2) / CHUNK_SIZE + 1;
+    }
+
+    int size() {
+        return count;
+    }
+
+    RouteSegment segmentOf(int chunk) {
+        return chunkSegment[chunk];
+    }
+
+    int startOf(int chunk) {
+        return chunkStart[chunk];
+    }
+
+    int endOf(int chunk) {
+        return chunkEnd[chunk];
+    }
+
+    /**
+     * Chunks whose box intersects the rectangle (normalized Mercator coordinates), in route order.
+     * Returns the number of chunks; their ids are in the first n entries of visibleChunks().
+     */
+    int query(double x0, double y0, double x1, double y1) {
+        if (count == 0 || x1 < gridX || y1 < gridY
+                || x0 > gridX + cellWidth * columns || y0 > gridY + cellHeight * rows) {
+            return 0;
+        }
+
+        if (++queryStamp == 0) {
+            Arrays.fill(seen, 0);
+            queryStamp = 1;
+        }
+
+        int n = 0;
+        for (int row = row(y0); row <= row(y1); row++) {
+            for (int col = column(x0); col <= column(x1); col++) {
+                int cell = row * columns + col;
+                for (int k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+                    int c = cellChunks[k];
+                    if (seen[c] == queryStamp) {
+                        continue;
+                    }
+                    seen[c] = queryStamp;
+                    if (maxX[c] >= x0 && minX[c] <= x1 && maxY[c] >= y0 && minY[c] <= y1) {
+                        if (n == result.length) {
+                            result = Arrays.copyOf(result, n * 2);
+                        }
+                        result[n++] = c;
+                    }
+                }
+            }
+        }
+        // cells return chunks out of order; route order keeps style changes and overlaps as before
+        Arrays.sort(result, 0, n);
+        return n;
+    }
+
+    /** Result buffer of the last query, only valid until the next one. */
+    int[] visibleChunks() {
+        return result;
+    }
+
+    private int column(double x) {
+        return Math.max(0, Math.min(columns - 1, (int) ((x - gridX) / cellWidth)));
+    }
+
+    private int row(double y) {
+        return Math.max(0, Math.min(rows - 1, (int) ((y - gridY) / cellHeight)));
+    }
+}
@@ -0,0 +1,387 @@
+package com.soc;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Route density of many itineraries: for each OSM zoom of a range and each mode (WALK / BIKE),
+ * a grid of CELL_PIXELS x CELL_PIXELS pixel cells counting the route segments that cross each cell.
+ *
+ * Every zoom is rasterized directly (not summed from the finer one), so a count is a number of trips at
+ * every zoom; the coarser levels together cost about as much as the finest one. Cells are walked exactly
+ * along each line (grid traversal), and a segment counts once per cell it enters. Consecutive segments of
+ * the same mode in an itinerary meet in one cell, which counts once; with mode null the two modes are added,
+ * so a cell where a trip changes mode counts once per mode.
+ * Cells are stored in sparse blocks of BLOCK x BLOCK counters, allocated where routes go.
+ *
+ * The grid only grows: add() for one itinerary on the calling thread, addAll() for many in parallel
+ * (fork-join, leaves of LEAF_ITINERARIES itineraries). Counters are atomic, so both can run
+ * while other threads add or read. When the blocks go over the memory budget the finest zoom is dropped
+ * (the painter then scales the finest remaining one), so a day of trips all over France cannot exhaust the heap.
+ */
+public final class RouteDensityGrid {
+
+    public static final int CELL_PIXELS = 4;
+    /* cells per world side at OSM zoom z: 256 * 2^z / CELL_PIXELS */
+    private static final int CELL_SHIFT = 6;
+
+    private static final int BLOCK_SHIFT = 5;
+    private static final int BLOCK = 1 << BLOCK_SHIFT;
+    private static final long BLOCK_BYTES = 4L * BLOCK * BLOCK + 64;
+
+    private static final int LEAF_ITINERARIES = 64;
+
+    private static final RouteSegment.Mode[] MODES = RouteSegment.Mode.values();
+
+    /* in place of a dropped zoom: never written, so a rasterizer still walking that zoom cannot refill it */
+    private static final Level DROPPED = new Level();
+
+    private static final System.Logger LOG = System.getLogger(RouteDensityGrid.class.getName());
+
+    private final int minZoom;
+    private volatile int maxZoom;
+    private final long maxBytes;
+
+    // levels[mode][z - minZoom]
+    private final Level[][] levels;
+
+    private final LongAdder itineraries = new LongAdder();
+    private final AtomicLong version = new AtomicLong();
+
+    /** OSM zooms 6 (whole country) to 15 (streets), at most 256 MB of counters. */
+    public RouteDensityGrid() {
+        this(6, 15, 256L * 1024 * 1024);
+    }
+
+    public RouteDensityGrid(int minZoom, int maxZoom, long maxBytes) {
+        if (minZoom < 0 || maxZoom < minZoom || maxZoom + CELL_SHIFT > 30) {
+            throw new IllegalArgumentException("Bad zoom range " + minZoom + ".." + maxZoom);
+        }
+        this.minZoom = minZoom;
+        this.maxZoom = maxZoom;
+        this.maxBytes = maxBytes;
+        this.levels = new Level[MODES.length][maxZoom - minZoom + 1];
+        for (Level[] byZoom : levels) {
+            for (int i = 0; i < byZoom.length; i++) {
+                byZoom[i] = new Level();
+            }
+        }
+    }
+
+    /** Adds one itinerary on the calling thread. */
+    public void add(List<RouteSegment> itinerary) {
+        new Rasterizer().add(itinerary);
+        itineraries.increment();
+        updated();
+    }
+
+    /**
+     * Adds many itineraries in parallel in the common fork-join pool, and returns when they are all counted.
+     * Readers see the counts grow while it runs (getVersion() changes after each leaf task).
+     */
+    public void addAll(List<? extends List<RouteSegment>> itineraries) {
+        if (!itineraries.isEmpty()) {
+            ForkJoinPool.commonPool().invoke(new AddTask(itineraries, 0, itineraries.size()));
+        }
+    }
+
+    public int getMinZoom() {
+        return minZoom;
+    }
+
+    /** Finest zoom kept; lower than asked when the memory budget was reached. */
+    public int getMaxZoom() {
+        return maxZoom;
+    }
+
+    /** The zoom of the range closest to osmZoom. */
+    public int nearestZoom(int osmZoom) {
+        return Math.max(minZoom, Math.min(maxZoom, osmZoom));
+    }
+
+    public static long cellsPerWorld(int osmZoom) {
+        return 1L << (osmZoom + CELL_SHIFT);
+    }
+
+    public long getItineraryCount() {
+        return itineraries.sum();
+    }
+
+    /** Changes whenever counts were added; painters compare it to know that their image is stale. */
+    public long getVersion() {
+        return version.get();
+    }
+
+    /** Approximate size of the counts; zooms dropped to stay in budget are not counted. */
+    public long getMemoryBytes() {
+        long n = 0;
+        int levelsKept = maxZoom - minZoom + 1;
+        for (Level[] byZoom : levels) {
+            for (int i = 0; i < levelsKept; i++) {
+                n += byZoom[i].blocks.size();
+            }
+        }
+        return n * BLOCK_BYTES;
+    }
+
+    /** Count of one cell; mode null for both modes. */
+    public int count(RouteSegment.Mode mode, int osmZoom, int cx, int cy) {
+        int[] one = new int[1];
+        copyWindow(mode, osmZoom, cx, cy, 1, 1, one);
+        return one[0];
+    }
+
+    /**
+     * Copies the counts of the w x h cells from (cx0, cy0) at osmZoom into dst, row by row;
+     * mode null adds both modes. Returns the largest count copied. A zoom out of the range
+     * (see nearestZoom) gives zeros. Works block by block, so a screenful of cells costs a few hundred map lookups.
+     */
+    public int copyWindow(RouteSegment.Mode mode, int osmZoom, long cx0, long cy0, int w, int h, int[] dst) {
+        Arrays.fill(dst, 0, w * h, 0);
+        int max = 0;
+        if (osmZoom < minZoom || osmZoom > maxZoom) {
+            return max;
+        }
+        for (RouteSegment.Mode m : MODES) {
+            if (mode == null || mode == m) {
+                max = Math.max(max, addWindow(levels[m.ordinal()][osmZoom - minZoom], osmZoom, cx0, cy0, w, h, dst));
+            }
+        }
+        return mode == null ? max(dst, w * h) : max;
+    }
+
+    private static int addWindow(Level level, int osmZoom, long cx0, long cy0, int w, int h, int[] dst) {
+        long world = cellsPerWorld(osmZoom);
+        long x0 = Math.max(0, cx0);
+        long y0 = Math.max(0, cy0);
+        long x1 = Math.min(world, cx0 + w);
+        long y1 = Math.min(world, cy0 + h);
+        int max = 0;
+        if (x0 >= x1 || y0 >= y1) {
+            return max;
+        }
+        for (long by = y0 >> BLOCK_SHIFT; by <= (y1 - 1) >> BLOCK_SHIFT; by++) {
+            for (long bx = x0 >> BLOCK_SHIFT; bx <= (x1 - 1) >> BLOCK_SHIFT; bx++) {
+                AtomicIntegerArray block = level.blocks.get(key(bx, by));
+                if (block == null) {
+                    continue;
+                }
+                long fromY = Math.max(y0, by << BLOCK_SHIFT);
+                long toY = Math.min(y1, (by + 1) << BLOCK_SHIFT);
+                long fromX = Math.max(x0, bx << BLOCK_SHIFT);
+                long toX = Math.min(x1, (bx + 1) << BLOCK_SHIFT);
+                for (long y = fromY; y < toY; y++) {
+                    int src = (int) ((y - (by << BLOCK_SHIFT)) << BLOCK_SHIFT) - (int) (bx << BLOCK_SHIFT);
+                    int row = (int) ((y - cy0) * w) - (int) cx0;
+                    for (long x = fromX; x < toX; x++) {
+                        int c = block.get(src + (int) x);
+                        if (c != 0) {
+                            int v = dst[row + (int) x] += c;
+                            max = Math.max(max, v);
+                        }
+                    }
+                }
+            }
+        }
+        return max;
+    }
+
+    private static int max(int[] a, int n) {
+        int max = 0;
+        for (int i = 0; i < n; i++) {
+            max = Math.max(max, a[i]);
+        }
+        return max;
+    }
+
+    private void updated() {
+        version.incrementAndGet();
+        // over budget: drop the finest zoom, which holds about half of the blocks
+        while (getMemoryBytes() > maxBytes && maxZoom > minZoom) {
+            synchronized (this) {
+                if (getMemoryBytes() <= maxBytes || maxZoom == minZoom) {
+                    break;
+                }
+                int dropped = maxZoom;
+                for (Level[] byZoom : levels) {
+                    byZoom[dropped - minZoom] = DROPPED;
+                }
+                maxZoom = dropped - 1; // after the levels: a rasterizer that reads it sees DROPPED
+                LOG.log(System.Logger.Level.INFO, "Route density grid over {0} MB, zoom {1} dropped",
+                        maxBytes >> 20, dropped);
+            }
+        }
+    }
+
+    private static long key(long bx, long by) {
+        return (bx << 32) | by;
+    }
+
+    /** The counts of one mode at one zoom: sparse blocks, by block x and y packed in a long (key). */
+    private static final class Level {
+        final ConcurrentHashMap<Long, AtomicIntegerArray> blocks = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Splits the list until LEAF_ITINERARIES itineraries, then rasterizes them with one Rasterizer.
+     * Never serialized (ForkJoinTask is Serializable only for exceptions crossing threads).
+     */
+    private final class AddTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final transient List<? extends List<RouteSegment>> list;
+        private final int from;
+        private final int to;
+
+        AddTask(List<? extends List<RouteSegment>> list, int from, int to) {
+            this.list = list;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from <= LEAF_ITINERARIES) {
+                Rasterizer r = new Rasterizer();
+                for (int i = from; i < to; i++) {
+                    r.add(list.get(i));
+                }
+                itineraries.add(to - from);
+                updated();
+                return;
+            }
+            int mid = (from + to) >>> 1;
+            invokeAll(new AddTask(list, from, mid), new AddTask(list, mid, to));
+        }
+    }
+
+    /**
+     * Walks segments through the cells of every zoom. One per thread: it keeps the projected points
+     * and the last block used (consecutive cells are nearly always in the same block).
+     */
+    private final class Rasterizer {
+        private double[] xs = new double[256];
+        private double[] ys = new double[256];
+        // last cell of the previous segment of the itinerary, by mode and zoom (-1: none)
+        private final long[][] lastCells = new long[MODES.length][levels[0].length];
+
+        private Level level;
+        private long blockKey = -1;
+        private AtomicIntegerArray block;
+        private int blockX;
+        private int blockY;
+
+        void add(List<RouteSegment> itinerary) {
+            for (long[] last : lastCells) {
+                Arrays.fill(last, -1);
+            }
+            for (RouteSegment seg : itinerary) {
+                int n = seg.size();
+                if (n == 0) {
+                    continue;
+                }
+                if (xs.length < n) {
+                    xs = new double[n];
+                    ys = new double[n];
+                }
+                for (int i = 0; i < n; i++) {
+                    xs[i] = RouteLevelOfDetail.mercatorX(seg.getLon(i));
+                    ys[i] = RouteLevelOfDetail.mercatorY(seg.getLat(i));
+                }
+                // the budget may drop the finest zoom meanwhile: its blocks must not be allocated again
+                Level[] byZoom = levels[seg.getMode().ordinal()];
+                long[] last = lastCells[seg.getMode().ordinal()];
+                int finest = maxZoom;
+                for (int z = minZoom; z <= finest; z++) {
+                    level = byZoom[z - minZoom];
+                    if (level == DROPPED) {
+                        break;
+                    }
+                    blockKey = -1;
+                    last[z - minZoom] = walk(n, cellsPerWorld(z), last[z - minZoom]);
+                }
+            }
+        }
+
+        /*
+         * Grid traversal (Amanatides & Woo): every cell the polyline enters, once per entry. The first cell is
+         * skipped if it is the junction, the last cell of the previous segment (cell key); returns the last cell.
+         */
+        private long walk(int n, long world, long junction) {
+            double scale = world;
+            long max = world - 1;
+            double px = xs[0] * scale;
+            double py = ys[0] * scale;
+            long cx = clamp((long) px, max);
+            long cy = clamp((long) py, max);
+            if (cellKey(cx, cy) != junction) {
+                increment(cx, cy);
+            }
+
+            for (int i = 1; i < n; i++) {
+                double nx = xs[i] * scale;
+                double ny = ys[i] * scale;
+                long tx = clamp((long) nx, max);
+                long ty = clamp((long) ny, max);
+                if (tx != cx || ty != cy) {
+                    double dx = nx - px;
+                    double dy = ny - py;
+                    int stepX = tx > cx ? 1 : -1;
+                    int stepY = ty > cy ? 1 : -1;
+                    double tDeltaX = dx != 0 ? Math.abs(1 / dx) : Double.POSITIVE_INFINITY;
+                    double tDeltaY = dy != 0 ? Math.abs(1 / dy) : Double.POSITIVE_INFINITY;
+                    double tMaxX = dx != 0 ? ((stepX > 0 ? cx + 1 : cx) - px) / dx : Double.POSITIVE_INFINITY;
+                    double tMaxY = dy != 0 ? ((stepY > 0 ? cy + 1 : cy) - py) / dy : Double.POSITIVE_INFINITY;
+                    long leftX = Math.abs(tx - cx);
+                    long leftY = Math.abs(ty - cy);
+                    // exactly leftX + leftY steps, so rounding can never overshoot the last cell
+                    while (leftX + leftY > 0) {
+                        if (leftY == 0 || (leftX > 0 && tMaxX < tMaxY)) {
+                            cx += stepX;
+                            tMaxX += tDeltaX;
+                            leftX--;
+                        } else {
+                            cy += stepY;
+                            tMaxY += tDeltaY;
+                            leftY--;
+                        }
+                        increment(cx, cy);
+                    }
+                }
+                px = nx;
+                py = ny;
+            }
+            return cellKey(cx, cy);
+        }
+
+        private static long cellKey(long cx, long cy) {
+            return cx << 32 | cy;
+        }
+
+        private void increment(long cx, long cy) {
+            long bx = cx >> BLOCK_SHIFT;
+            long by = cy >> BLOCK_SHIFT;
+            long k = key(bx, by);
+            if (k != blockKey) {
+                block = level.blocks.get(k);
+                if (block == null) {
+                    block = level.blocks.computeIfAbsent(k, unused -> new AtomicIntegerArray(BLOCK * BLOCK));
+                }
+                blockKey = k;
+                blockX = (int) (bx << BLOCK_SHIFT);
+                blockY = (int) (by << BLOCK_SHIFT);
+            }
+            block.incrementAndGet((((int) cy - blockY) << BLOCK_SHIFT) + ((int) cx - blockX));
+        }
+
+        private static long clamp(long c, long max) {
+            return Math.max(0, Math.min(max, c));
+        }
+    }
+}
@@ -0,0 +1,151 @@
+package com.soc;
+
+import org.jxmapviewer.JXMapViewer;
+import org.jxmapviewer.painter.Painter;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Heatmap of a RouteDensityGrid: the cells of the viewport, coloured by their count on a colour ramp.
+ *
+ * The grid zoom closest to the map zoom is used (cells of CELL_PIXELS pixels when they match, bigger or
+ * smaller otherwise). The counts go into an image of one pixel per cell, which is drawn scaled
+ * with bilinear filtering, so a frame is one drawImage. The ramp is logarithmic and relative to the
+ * busiest cell in view: a few main roads do not wash out everything else, wherever we look.
+ * The image is only rebuilt when the viewport, the zoom, the mode or the grid (getVersion) changed.
+ *
+ * setGrid and setMode can be called from any thread; painting happens on the EDT.
+ */
+public class RouteDensityPainter implements Painter<JXMapViewer> {
+
+    /* cells smaller than this on screen: too far out, the heatmap is not drawn */
+    private static final double MIN_CELL_PIXELS = 0.5;
+
+    private static final int[] HEAT_RAMP = ramp(new float[]{0f, 0.15f, 0.4f, 0.6f, 0.8f, 1f}, new Color[]{
+            new Color(0, 0, 255, 0), new Color(0, 60, 255, 110), new Color(0, 200, 255, 160),
+            new Color(60, 230, 60, 190), new Color(255, 230, 0, 215), new Color(230, 20, 0, 235)});
+    private static final int[] WALK_RAMP = ramp(new float[]{0f, 0.2f, 0.6f, 1f}, new Color[]{
+            new Color(120, 60, 200, 0), new Color(150, 120, 230, 100), new Color(110, 50, 200, 180),
+            new Color(60, 0, 120, 230)});
+
+    private volatile RouteDensityGrid grid;
+    private volatile RouteSegment.Mode mode = RouteSegment.Mode.BIKE;
+
+    // image of the last frame and what it was built for
+    private BufferedImage image;
+    private int[] counts = new int[0];
+    private RouteDensityGrid imageGrid;
+    private long imageVersion = -1;
+    private RouteSegment.Mode imageMode;
+    private int imageZoom = -1;
+    private long imageX;
+    private long imageY;
+
+    /** Grid to draw, null to draw nothing. Call repaint() on the map afterwards. */
+    public void setGrid(RouteDensityGrid grid) {
+        this.grid = grid;
+    }
+
+    public RouteDensityGrid getGrid() {
+        return grid;
+    }
+
+    /** BIKE or WALK, or null for both modes added together. */
+    public void setMode(RouteSegment.Mode mode) {
+        this.mode = mode;
+    }
+
+    public RouteSegment.Mode getMode() {
+        return mode;
+    }
+
+    @Override
+    public void paint(Graphics2D g, JXMapViewer map, int w, int h) {
+        RouteDensityGrid grid = this.grid;
+        if (grid == null) {
+            return;
+        }
+        RouteSegment.Mode mode = this.mode;
+
+        int zoom = map.getZoom();
+        double worldPixels = map.getTileFactory().getMapSize(zoom).getWidth()
+                * map.getTileFactory().getTileSize(zoom);
+        int osmZoom = (int) Math.round(Math.log(worldPixels / 256.0) / Math.log(2));
+        int gridZoom = grid.nearestZoom(osmZoom);
+        double cellPixels = worldPixels / RouteDensityGrid.cellsPerWorld(gridZoom);
+        if (cellPixels < MIN_CELL_PIXELS) {
+            return;
+        }
+
+        Rectangle viewport = map.getViewportBounds();
+        long cx0 = (long) Math.floor(viewport.x / cellPixels);
+        long cy0 = (long) Math.floor(viewport.y / cellPixels);
+        int cw = (int) Math.ceil((viewport.x + viewport.width) / cellPixels - cx0) + 1;
+        int ch = (int) Math.ceil((viewport.y + viewport.height) / cellPixels - cy0) + 1;
+
+        long version = grid.getVersion();
+        if (image == null || image.getWidth() != cw || image.getHeight() != ch || grid != imageGrid
+                || version != imageVersion || mode != imageMode || gridZoom != imageZoom
+                || cx0 != imageX || cy0 != imageY) {
+            render(grid, mode, gridZoom, cx0, cy0, cw, ch);
+            imageGrid = grid;
+            imageVersion = version;
+            imageMode = mode;
+            imageZoom = gridZoom;
+            imageX = cx0;
+            imageY = cy0;
+        }
+
+        Graphics2D g2 = (Graphics2D) g.create();
+        g2.translate(-viewport.x, -viewport.y);
+        if (cellPixels > 1) {
+            g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        }
+        int x = (int) Math.round(cx0 * cellPixels);
+        int y = (int) Math.round(cy0 * cellPixels);
+        g2.drawImage(image, x, y, (int) Math.round(cw * cellPixels), (int) Math.round(ch * cellPixels), null);
+        g2.dispose();
+    }
+
+    private void render(RouteDensityGrid grid, RouteSegment.Mode mode, int gridZoom, long cx0, long cy0,
+                        int cw, int ch) {
+        if (image == null || image.getWidth() != cw || image.getHeight() != ch) {
+            image = new BufferedImage(cw, ch, BufferedImage.TYPE_INT_ARGB_PRE);
+        }
+        if (counts.length < cw * ch) {
+            counts = new int[cw * ch];
+        }
+        int max = grid.copyWindow(mode, gridZoom, cx0, cy0, cw, ch, counts);
+
+        int[] pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+        int[] ramp = mode == RouteSegment.Mode.WALK ? WALK_RAMP : HEAT_RAMP;
+        double scale = max > 0 ? (ramp.length - 1) / Math.log1p(max) : 0;
+        for (int i = 0; i < cw * ch; i++) {
+            int c = counts[i];
+            pixels[i] = c == 0 ? 0 : ramp[Math.max(1, (int) (Math.log1p(c) * scale))];
+        }
+    }
+
+    /* 256 colours interpolated between the stops, premultiplied so that filtering does not darken the edges */
+    private static int[] ramp(float[] stops, Color[] colors) {
+        int[] lut = new int[256];
+        for (int i = 0; i < lut.length; i++) {
+            float t = i / 255f;
+            int k = 1;
+            while (k < stops.length - 1 && stops[k] < t) {
+                k++;
+            }
+            float f = (t - stops[k - 1]) / (stops[k] - stops[k - 1]);
+            Color a = colors[k - 1];
+            Color b = colors[k];
+            int alpha = Math.round(a.getAlpha() + f * (b.getAlpha() - a.getAlpha()));
+            int red = Math.round(a.getRed() + f * (b.getRed() - a.getRed()));
+            int green = Math.round(a.getGreen() + f * (b.getGreen() - a.getGreen()));
+            int blue = Math.round(a.getBlue() + f * (b.getBlue() - a.getBlue()));
+            lut[i] = (alpha << 24) | (red * alpha / 255 << 16) | (green * alpha / 255 << 8) | blue * alpha / 255;
+        }
+        return lut;
+    }
+}
@@ -0,0 +1,360 @@
+package com.soc;
+
+import java.util.List;
+
+/**
+ * Route metrics over the packed coordinates of RouteSegment: length, cumulative distance along the route,
+ * bounding box, and the zoom at which a bounding box fits a viewport.
+ *
+ * Distances are great-circle (haversine) distances, like the DistanceMeters of the routing service.
+ * The points are processed by blocks: each block is converted once to radians and cos(latitude) (every
+ * point is shared by two pairs), then the pairs are computed by a Kernel. With the JDK Vector API
+ * (built with mvn -Pvector, the JVM started with --add-modules jdk.incubator.vector) the kernel is
+ * VectorGeometryKernel, which computes a whole vector of pairs per instruction; otherwise, or with
+ * -Dgeometry.scalar=true, the plain Java loop below. Both give the same results (to a few ulps).
+ *
+ * Thread-safe and allocation-light: meant for batch callers too (e.g. analytics over the itinerary archive).
+ */
+public final class RouteGeometry {
+
+    /** Same mean Earth radius as the routing service. */
+    public static final double EARTH_RADIUS_METERS = 6_371_000.0;
+
+    /** Relative difference above which a segment does not match the DistanceMeters of the service. */
+    public static final double MAX_DISTANCE_DEVIATION = 0.05;
+
+    /* points converted to radians at a time: the three block arrays (24 KB) stay in the L1 cache */
+    private static final int BLOCK = 1024;
+    /* segments shorter than this are not checked: rounding of the service dominates */
+    private static final double MIN_CHECKED_METERS = 50;
+
+    private static final Kernel KERNEL = loadKernel();
+    private static final boolean CHECK_DISTANCES = Boolean.getBoolean("geometry.checkDistances");
+
+    private RouteGeometry() {
+    }
+
+    /** True when the Vector API kernel is used. */
+    public static boolean isVectorized() {
+        return !(KERNEL instanceof ScalarKernel);
+    }
+
+    /** True with -Dgeometry.checkDistances=true: decoded itineraries are then checked with checkDistances. */
+    public static boolean isDistanceCheckEnabled() {
+        return CHECK_DISTANCES;
+    }
+
+    /** Length of the polyline, in meters. */
+    public static double lengthMeters(RouteSegment segment) {
+        return lengthMeters(packed(segment), segment.size());
+    }
+
+    /** Length of the whole itinerary, in meters (the gaps between segments are not counted). */
+    public static double lengthMeters(List<RouteSegment> segments) {
+        double meters = 0;
+        for (RouteSegment seg : segments) {
+            meters += lengthMeters(seg);
+        }
+        return meters;
+    }
+
+    /** Length of the polyline of the first size points of an interleaved lat/lon array, in meters. */
+    public static double lengthMeters(double[] latLon, int size) {
+        return lengthMeters(KERNEL, latLon, size);
+    }
+
+    /* lengthMeters, cumulativeMeters and bounds with a given kernel (the tests compare the two kernels) */
+    static double lengthMeters(Kernel kernel, double[] latLon, int size) {
+        return pairs(kernel, latLon, size, null) * EARTH_RADIUS_METERS;
+    }
+
+    /** Distance along the segment from its first point to each point (result[0] = 0), in meters. */
+    public static double[] cumulativeMeters(RouteSegment segment) {
+        double[] dst = new double[segment.size()];
+        cumulativeMeters(packed(segment), segment.size(), dst);
+        return dst;
+    }
+
+    /** Distance from the first point to each point, for the first size points of latLon, into dst[0..size). */
+    public static void cumulativeMeters(double[] latLon, int size, double[] dst) {
+        cumulativeMeters(KERNEL, latLon, size, dst);
+    }
+
+    static void cumulativeMeters(Kernel kernel, double[] latLon, int size, double[] dst) {
+        if (size == 0) {
+            return;
+        }
+        // pair i (points i, i+1) is written at dst[i + 1], then summed in order
+        pairs(kernel, latLon, size, dst);
+        dst[0] = 0;
+        double total = 0;
+        for (int i = 1; i < size; i++) {
+            total += dst[i] * EARTH_RADIUS_METERS;
+            dst[i] = total;
+        }
+    }
+
+    /** Bounding box of all the points of the itinerary (empty if there are none). */
+    public static Bounds bounds(List<RouteSegment> segments) {
+        Bounds bounds = new Bounds();
+        for (RouteSegment seg : segments) {
+            bounds.add(packed(seg), seg.size());
+        }
+        return bounds;
+    }
+
+    public static Bounds bounds(RouteSegment segment) {
+        Bounds bounds = new Bounds();
+        bounds.add(packed(segment), segment.size());
+        return bounds;
+    }
+
+    static Bounds bounds(Kernel kernel, double[] latLon, int size) {
+        Bounds bounds = new Bounds();
+        bounds.add(kernel, latLon, size);
+        return bounds;
+    }
+
+    /**
+     * Most detailed OSM zoom (at most maxZoom, at least 0) at which the box fits in width x height pixels
+     * of 256-pixel tiles. The box is measured in the map projection, so a box far north needs a lower zoom
+     * than the same span of degrees at the equator.
+     */
+    public static int fitZoom(Bounds bounds, int width, int height, int maxZoom) {
+        if (bounds.isEmpty()) {
+            return maxZoom;
+        }
+        double spanX = RouteLevelOfDetail.mercatorX(bounds.maxLon) - RouteLevelOfDetail.mercatorX(bounds.minLon);
+        double spanY = RouteLevelOfDetail.mercatorY(bounds.minLat) - RouteLevelOfDetail.mercatorY(bounds.maxLat);
+        int zoom = maxZoom;
+        while (zoom > 0) {
+            double world = 256.0 * (1L << zoom);
+            if (spanX * world <= width && spanY * world <= height) {
+                break;
+            }
+            zoom--;
+        }
+        return zoom;
+    }
+
+    /**
+     * Relative difference between the length of the geometry and the DistanceMeters sent by the service
+     * (positive: the geometry is longer); NaN when the service sent no distance.
+     */
+    public static double distanceDeviation(RouteSegment segment) {
+        double announced = segment.getDistanceMeters();
+        if (!(announced > 0)) {
+            return Double.NaN;
+        }
+        return lengthMeters(segment) / announced - 1;
+    }
+
+    /**
+     * Compares every segment with its DistanceMeters; those that differ by more than MAX_DISTANCE_DEVIATION
+     * (a truncated geometry, or a distance computed on another path) are counted in ClientMetrics, with a
+     * JFR event each. Returns the number of such segments.
+     */
+    public static int checkDistances(List<RouteSegment> segments) {
+        int mismatches = 0;
+        for (int i = 0; i < segments.size(); i++) {
+            RouteSegment seg = segments.get(i);
+            double announced = seg.getDistanceMeters();
+            if (!(announced >= MIN_CHECKED_METERS)) {
+                continue;
+            }
+            double meters = lengthMeters(seg);
+            if (Math.abs(meters / announced - 1) > MAX_DISTANCE_DEVIATION) {
+                mismatches++;
+                ClientMetrics.recordDistanceMismatch(i, seg.getMode(), meters, announced);
+            }
+        }
+        return mismatches;
+    }
+
+    /* The interleaved lat/lon of the segment (a copy for a quantized one) */
+    private static double[] packed(RouteSegment segment) {
+        double[] latLon = segment.packedLatLon();
+        if (latLon == null) {
+            latLon = new double[segment.size() * 2];
+            segment.copyLatLon(latLon, 0);
+        }
+        return latLon;
+    }
+
+    /*
+     * Sum of the central angles (radians) between consecutive points; if angles is not null, the angle
+     * between points i and i+1 is also stored at angles[i + 1].
+     * Blocks overlap by one point, so that the pair across two blocks is counted once.
+     */
+    private static double pairs(Kernel kernel, double[] latLon, int size, double[] angles) {
+        if (size < 2) {
+            return 0;
+        }
+        int block = Math.min(size, BLOCK);
+        double[] phi = new double[block];
+        double[] lambda = new double[block];
+        double[] cosPhi = new double[block];
+
+        double sum = 0;
+        for (int start = 0; start < size - 1; start += block - 1) {
+            int n = Math.min(block, size - start);
+            for (int i = 0, k = 2 * start; i < n; i++, k += 2) {
+                phi[i] = Math.toRadians(latLon[k]);
+                lambda[i] = Math.toRadians(latLon[k + 1]);
+            }
+            kernel.cos(phi, cosPhi, n);
+            sum += kernel.centralAngles(phi, lambda, cosPhi, n, angles, start + 1);
+        }
+        return sum;
+    }
+
+    /** Latitude/longitude box; grows with add(). */
+    public static final class Bounds {
+        private double minLat = Double.POSITIVE_INFINITY;
+        private double minLon = Double.POSITIVE_INFINITY;
+        private double maxLat = Double.NEGATIVE_INFINITY;
+        private double maxLon = Double.NEGATIVE_INFINITY;
+
+        public boolean isEmpty() {
+            return minLat > maxLat;
+        }
+
+        public double getMinLat() {
+            return minLat;
+        }
+
+        public double getMinLon() {
+            return minLon;
+        }
+
+        public double getMaxLat() {
+            return maxLat;
+        }
+
+        public double getMaxLon() {
+            return maxLon;
+        }
+
+        /** Center of the box in the map projection (normalized mercator, see RouteLevelOfDetail). */
+        public double getCenterMercatorX() {
+            return (RouteLevelOfDetail.mercatorX(minLon) + RouteLevelOfDetail.mercatorX(maxLon)) / 2;
+        }
+
+        /** Not the mean latitude: the projection stretches to the north. */
+        public double getCenterMercatorY() {
+            return (RouteLevelOfDetail.mercatorY(minLat) + RouteLevelOfDetail.mercatorY(maxLat)) / 2;
+        }
+
+        /** Grows the box to the first size points of an interleaved lat/lon array. */
+        public void add(double[] latLon, int size) {
+            add(KERNEL, latLon, size);
+        }
+
+        void add(Kernel kernel, double[] latLon, int size) {
+            if (size == 0) {
+                return;
+            }
+            double[] box = {minLat, minLon, maxLat, maxLon};
+            kernel.bounds(latLon, size, box);
+            minLat = box[0];
+            minLon = box[1];
+            maxLat = box[2];
+            maxLon = box[3];
+        }
+
+        public void add(Bounds other) {
+            minLat = Math.min(minLat, other.minLat);
+            minLon = Math.min(minLon, other.minLon);
+            maxLat = Math.max(maxLat, other.maxLat);
+            maxLon = Math.max(maxLon, other.maxLon);
+        }
+
+        @Override
+        public String toString() {
+            return isEmpty() ? "Bounds[empty]"
+                    : "Bounds[" + minLat + ", " + minLon + " .. " + maxLat + ", " + maxLon + "]";
+        }
+    }
+
+    /** The loops that run over every point. */
+    interface Kernel {
+
+        /** dst[i] = cos(src[i]) for i < n. */
+        void cos(double[] src, double[] dst, int n);
+
+        /**
+         * Central angle (haversine) between points i and i+1 for i < n - 1, from latitudes phi and
+         * longitudes lambda in radians and cosPhi = cos(phi). Returns their sum; if angles is not null,
+         * stores the angle of pair i at angles[offset + i].
+         */
+        double centralAngles(double[] phi, double[] lambda, double[] cosPhi, int n, double[] angles, int offset);
+
+        /** Grows box {minLat, minLon, maxLat, maxLon} to the first size points of interleaved latLon. */
+        void bounds(double[] latLon, int size, double[] box);
+    }
+
+    static final class ScalarKernel implements Kernel {
+
+        @Override
+        public void cos(double[] src, double[] dst, int n) {
+            for (int i = 0; i < n; i++) {
+                dst[i] = Math.cos(src[i]);
+            }
+        }
+
+        @Override
+        public double centralAngles(double[] phi, double[] lambda, double[] cosPhi, int n,
+                                    double[] angles, int offset) {
+            double sum = 0;
+            for (int i = 0; i < n - 1; i++) {
+                double angle = centralAngle(phi, lambda, cosPhi, i);
+                if (angles != null) {
+                    angles[offset + i] = angle;
+                }
+                sum += angle;
+            }
+            return sum;
+        }
+
+        /* 2 asin(sqrt(a)), a clamped to 1 against rounding for antipodal points */
+        static double centralAngle(double[] phi, double[] lambda, double[] cosPhi, int i) {
+            double sinHalfDPhi = Math.sin((phi[i + 1] - phi[i]) * 0.5);
+            double sinHalfDLambda = Math.sin((lambda[i + 1] - lambda[i]) * 0.5);
+            double a = sinHalfDPhi * sinHalfDPhi + cosPhi[i] * cosPhi[i + 1] * sinHalfDLambda * sinHalfDLambda;
+            return 2 * Math.asin(Math.sqrt(Math.min(1.0, a)));
+        }
+
+        @Override
+        public void bounds(double[] latLon, int size, double[] box) {
+            double minLat = box[0], minLon = box[1], maxLat = box[2], maxLon = box[3];
+            for (int k = 0; k < 2 * size; k += 2) {
+                double lat = latLon[k];
+                double lon = latLon[k + 1];
+                minLat = Math.min(minLat, lat);
+                maxLat = Math.max(maxLat, lat);
+                minLon = Math.min(minLon, lon);
+                maxLon = Math.max(maxLon, lon);
+            }
+            box[0] = minLat;
+            box[1] = minLon;
+            box[2] = maxLat;
+            box[3] = maxLon;
+        }
+    }
+
+    /*
+     * The Vector API kernel when jdk.incubator.vector is in the boot layer and the class was built (vector
+     * profile, src/vector/java); it is only loaded then, since its class cannot even be linked without the module.
+     */
+    private static Kernel loadKernel() {
+        if (!Boolean.getBoolean("geometry.scalar")
+                && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (Kernel) Class.forName("com.soc.VectorGeometryKernel").getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError ex) {
+                System.err.println("Vector API geometry kernel unavailable, using the scalar one: " + ex);
+            }
+        }
+        return new ScalarKernel();
+    }
+}
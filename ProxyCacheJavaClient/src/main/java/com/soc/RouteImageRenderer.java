@@ -0,0 +1,384 @@
+package com.soc;
+
+import org.jxmapviewer.JXMapViewer;
+import org.jxmapviewer.viewer.DefaultTileFactory;
+import org.jxmapviewer.viewer.TileFactory;
+import org.jxmapviewer.viewer.TileFactoryInfo;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Renders itineraries to PNG files without a screen (java.awt.headless=true), e.g. route previews for
+ * reports and notifications, like the screenshots of the viewer but in bulk.
+ *
+ * An image shows the map tiles under the route and the route drawn by SegmentedRoutePainter, at the
+ * most detailed zoom where the bounding box of the route fits in the image (with a margin).
+ * Tiles only come from a local directory, so it runs without network: either a {z}/{x}/{y}.png tree
+ * (the usual layout of downloaded OSM tiles) or the MappedTileStore of the viewer, read offline.
+ * A missing tile is left blank and counted (getMissingTiles).
+ *
+ * Images are rendered by a fixed pool of worker threads. Each render borrows a canvas (image buffer,
+ * Graphics and an off-screen JXMapViewer for the projection), so buffers are allocated once per worker,
+ * not per image. Decoded tiles are shared by the workers in a small LRU: routes of a city reuse the same tiles.
+ *
+ *   java com.soc.RouteImageRenderer --tiles ~/tiles --out previews --archive ~/.proxycache/itineraries.bin
+ *   java com.soc.RouteImageRenderer --tiles ~/tiles --out previews --json route1.json --json route2.json
+ *   java com.soc.RouteImageRenderer --tiles ~/tiles --out previews --stub 500 --workers 8
+ */
+public class RouteImageRenderer implements Closeable {
+
+    public static final int DEFAULT_WIDTH = 1200;
+    public static final int DEFAULT_HEIGHT = 800;
+
+    /* space kept between the route and the image border, in pixels */
+    private static final int MARGIN = 40;
+    /* decoded 256x256 tiles kept (256 KB each) */
+    private static final int MAX_CACHED_TILES = 256;
+    private static final Color MISSING_TILE = new Color(0xE5E3DF);
+    private static final Font ATTRIBUTION_FONT = new Font(Font.SANS_SERIF, Font.PLAIN, 11);
+    private static final String ATTRIBUTION = "© OpenStreetMap contributors";
+
+    private final int width;
+    private final int height;
+    private final int maxZoom;
+    private final TileFactory tileFactory;
+    private final Path tileDirectory;
+    private final MappedTileStore tileStore;    // null for a {z}/{x}/{y}.png directory
+
+    private final ExecutorService workers;
+    private final BlockingQueue<Canvas> canvases;
+
+    private final Map<Long, BufferedImage> tiles = new LinkedHashMap<>(MAX_CACHED_TILES, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<Long, BufferedImage> eldest) {
+            return size() > MAX_CACHED_TILES;
+        }
+    };
+    private final AtomicLong missingTiles = new AtomicLong();
+
+    /**
+     * @param tileDirectory {z}/{x}/{y}.png tree, or a MappedTileStore directory (tiles-N.pack files)
+     * @param width         image size in pixels
+     * @param height        image size in pixels
+     * @param maxZoom       most detailed OSM zoom used (a short walk is not shown at house level)
+     * @param workerCount   images rendered at the same time
+     */
+    public RouteImageRenderer(Path tileDirectory, int width, int height, int maxZoom, int workerCount)
+            throws IOException {
+        if (!Files.isDirectory(tileDirectory)) {
+            throw new FileNotFoundException("No tile directory: " + tileDirectory);
+        }
+        this.width = width;
+        this.height = height;
+        this.tileDirectory = tileDirectory;
+        this.tileStore = Files.exists(tileDirectory.resolve("tiles-0.pack"))
+                ? new MappedTileStore(tileDirectory, true)
+                : null;
+
+        TileFactoryInfo info = MapViewerApp.createTileFactoryInfo();
+        this.maxZoom = Math.min(maxZoom, info.getTotalMapZoom());
+        // only used for the projection: nothing is loaded through it
+        this.tileFactory = new DefaultTileFactory(info);
+
+        AtomicInteger n = new AtomicInteger();
+        this.workers = Executors.newFixedThreadPool(workerCount,
+                r -> new Thread(r, "route-render-" + n.incrementAndGet()));
+        this.canvases = new ArrayBlockingQueue<>(workerCount);
+        for (int i = 0; i < workerCount; i++) {
+            canvases.add(new Canvas());
+        }
+    }
+
+    /** Renders the itinerary to a PNG file in the pool; the future completes with the file. */
+    public CompletableFuture<Path> submit(List<RouteSegment> segments, Path output) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                writePng(segments, output);
+                return output;
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted", ex);
+            }
+        }, workers);
+    }
+
+    /** Renders the itinerary to a PNG file on the calling thread (which waits for a free canvas). */
+    public void writePng(List<RouteSegment> segments, Path output) throws IOException, InterruptedException {
+        Canvas canvas = canvases.take();
+        try {
+            canvas.draw(segments);
+            ByteArrayOutputStream png = canvas.png;
+            png.reset();
+            if (!ImageIO.write(canvas.image, "png", png)) {
+                throw new IOException("No PNG writer available");
+            }
+            Files.write(output, png.toByteArray());
+        } finally {
+            canvases.add(canvas);
+        }
+    }
+
+    /** Renders the itinerary into a new image (a copy: the canvas goes back to the pool). */
+    public BufferedImage render(List<RouteSegment> segments) throws InterruptedException {
+        Canvas canvas = canvases.take();
+        try {
+            canvas.draw(segments);
+            BufferedImage copy = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+            canvas.image.copyData(copy.getRaster());
+            return copy;
+        } finally {
+            canvases.add(canvas);
+        }
+    }
+
+    /** Tiles that were not in the tile directory, since the renderer was created. */
+    public long getMissingTiles() {
+        return missingTiles.get();
+    }
+
+    /** Waits for the images submitted so far, then stops the workers. */
+    @Override
+    public void close() throws IOException {
+        workers.shutdown();
+        try {
+            while (!workers.awaitTermination(1, TimeUnit.MINUTES)) {
+                System.err.println("Still rendering...");
+            }
+        } catch (InterruptedException ex) {
+            workers.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+        if (tileStore != null) {
+            tileStore.close();
+        }
+    }
+
+    private BufferedImage tile(int zoom, int x, int y) {
+        long key = ((long) zoom << 58) | ((long) x << 29) | y;
+        synchronized (tiles) {
+            BufferedImage cached = tiles.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        // decoded outside the lock; two workers may decode the same tile once, which is harmless
+        BufferedImage image = readTile(zoom, x, y);
+        if (image != null) {
+            synchronized (tiles) {
+                tiles.put(key, image);
+            }
+        } else {
+            missingTiles.incrementAndGet();
+        }
+        return image;
+    }
+
+    private BufferedImage readTile(int zoom, int x, int y) {
+        try {
+            if (tileStore != null) {
+                // keyed by the URL the viewer downloads the tile from
+                TileFactoryInfo info = tileFactory.getInfo();
+                URL url = URI.create(info.getTileUrl(x, y, info.getTotalMapZoom() - zoom)).toURL();
+                try (InputStream in = tileStore.get(url)) {
+                    return in != null ? ImageIO.read(in) : null;
+                }
+            }
+            Path file = tileDirectory.resolve(zoom + "/" + x + "/" + y + ".png");
+            return Files.exists(file) ? ImageIO.read(file.toFile()) : null;
+        } catch (FileNotFoundException ex) {
+            return null;
+        } catch (IOException ex) {
+            System.err.println("Unreadable tile " + zoom + "/" + x + "/" + y + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /** Image buffer and map of one worker, reused for every image it renders. */
+    private final class Canvas {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = image.createGraphics();
+        final JXMapViewer map = new JXMapViewer();
+        final ByteArrayOutputStream png = new ByteArrayOutputStream(width * height);
+
+        Canvas() {
+            map.setTileFactory(tileFactory);
+            map.setSize(width, height);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+        }
+
+        void draw(List<RouteSegment> segments) {
+            RouteGeometry.Bounds bounds = RouteGeometry.bounds(segments);
+            if (bounds.isEmpty()) {
+                throw new IllegalArgumentException("Empty itinerary");
+            }
+
+            int zoom = RouteGeometry.fitZoom(bounds, width - 2 * MARGIN, height - 2 * MARGIN, maxZoom);
+            double world = 256.0 * (1L << zoom);
+            map.setZoom(tileFactory.getInfo().getTotalMapZoom() - zoom);
+            map.setCenter(new Point2D.Double(bounds.getCenterMercatorX() * world, bounds.getCenterMercatorY() * world));
+
+            drawTiles(zoom, map.getViewportBounds());
+            new SegmentedRoutePainter(segments).paint(g, map, width, height);
+            drawAttribution();
+        }
+
+        private void drawTiles(int zoom, Rectangle viewport) {
+            g.setColor(MISSING_TILE);
+            g.fillRect(0, 0, width, height);
+            int tilesPerSide = 1 << zoom;
+            int tx0 = Math.floorDiv(viewport.x, 256);
+            int ty0 = Math.floorDiv(viewport.y, 256);
+            int tx1 = Math.floorDiv(viewport.x + viewport.width - 1, 256);
+            int ty1 = Math.floorDiv(viewport.y + viewport.height - 1, 256);
+            for (int ty = Math.max(0, ty0); ty <= Math.min(tilesPerSide - 1, ty1); ty++) {
+                for (int tx = tx0; tx <= tx1; tx++) {
+                    BufferedImage tile = tile(zoom, Math.floorMod(tx, tilesPerSide), ty);
+                    if (tile != null) {
+                        g.drawImage(tile, tx * 256 - viewport.x, ty * 256 - viewport.y, 256, 256, null);
+                    }
+                }
+            }
+        }
+
+        private void drawAttribution() {
+            g.setFont(ATTRIBUTION_FONT);
+            FontMetrics fm = g.getFontMetrics();
+            int w = fm.stringWidth(ATTRIBUTION) + 8;
+            int h = fm.getHeight() + 2;
+            g.setColor(new Color(255, 255, 255, 190));
+            g.fillRect(width - w, height - h, w, h);
+            g.setColor(Color.DARK_GRAY);
+            g.drawString(ATTRIBUTION, width - w + 4, height - 2 - fm.getDescent());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        // before any AWT class is loaded
+        System.setProperty("java.awt.headless", System.getProperty("java.awt.headless", "true"));
+
+        Path tilesDir = null;
+        Path outDir = Path.of(".");
+        Path archiveFile = null;
+        List<Path> jsonFiles = new ArrayList<>();
+        int last = 0;
+        int stub = 0;
+        int stubPoints = 2000;
+        int width = DEFAULT_WIDTH;
+        int height = DEFAULT_HEIGHT;
+        int maxZoom = 17;
+        int workerCount = Runtime.getRuntime().availableProcessors();
+
+        for (int i = 0; i < args.length; i++) {
+            switch (args[i]) {
+                case "--tiles" -> tilesDir = Path.of(args[++i]);
+                case "--out" -> outDir = Path.of(args[++i]);
+                case "--archive" -> archiveFile = Path.of(args[++i]);
+                case "--last" -> last = Integer.parseInt(args[++i]);
+                case "--json" -> jsonFiles.add(Path.of(args[++i]));
+                case "--stub" -> stub = Integer.parseInt(args[++i]);
+                case "--stub-points" -> stubPoints = Integer.parseInt(args[++i]);
+                case "--size" -> {
+                    String[] wh = args[++i].split("x");
+                    width = Integer.parseInt(wh[0]);
+                    height = Integer.parseInt(wh[1]);
+                }
+                case "--max-zoom" -> maxZoom = Integer.parseInt(args[++i]);
+                case "--workers" -> workerCount = Integer.parseInt(args[++i]);
+                default -> {
+                    usage("Unknown option " + args[i]);
+                    return;
+                }
+            }
+        }
+        if (tilesDir == null) {
+            usage("--tiles is required");
+            return;
+        }
+        if (archiveFile == null && jsonFiles.isEmpty() && stub == 0) {
+            archiveFile = ItineraryArchive.defaultFile();
+        }
+        Files.createDirectories(outDir);
+
+        List<CompletableFuture<Path>> results = new ArrayList<>();
+        long start = System.nanoTime();
+        try (RouteImageRenderer renderer = new RouteImageRenderer(tilesDir, width, height, maxZoom, workerCount)) {
+            if (archiveFile != null) {
+                try (ItineraryArchive archive = new ItineraryArchive(archiveFile)) {
+                    int size = archive.size();
+                    for (int i = last > 0 ? Math.max(0, size - last) : 0; i < size; i++) {
+                        List<RouteSegment> segments = archive.get(i).getSegments();
+                        results.add(renderer.submit(segments, outDir.resolve("itinerary-" + i + ".png")));
+                    }
+                }
+            }
+            for (Path json : jsonFiles) {
+                List<RouteSegment> segments;
+                try (InputStream in = Files.newInputStream(json)) {
+                    segments = ItineraryStreamDecoder.decodeSegments(in);
+                }
+                String name = json.getFileName().toString().replaceFirst("\\.json$", "");
+                results.add(renderer.submit(segments, outDir.resolve(name + ".png")));
+            }
+            for (int i = 0; i < stub; i++) {
+                ByteArrayOutputStream body = new ByteArrayOutputStream(stubPoints * 80);
+                StubItineraryServer.writeItinerary(body, 1000L + i, stubPoints);
+                List<RouteSegment> segments = ItineraryStreamDecoder.decodeSegments(
+                        new ByteArrayInputStream(body.toByteArray()));
+                results.add(renderer.submit(segments, outDir.resolve("stub-" + i + ".png")));
+            }
+
+            int failed = 0;
+            for (CompletableFuture<Path> result : results) {
+                try {
+                    result.join();
+                } catch (RuntimeException ex) {
+                    failed++;
+                    System.err.println("Render failed: " + (ex.getCause() != null ? ex.getCause() : ex));
+                }
+            }
+
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.out.printf("Rendered %d images (%d failed) in %.1f s with %d workers: %.1f images/s, %d missing tiles%n",
+                    results.size() - failed, failed, seconds, workerCount,
+                    (results.size() - failed) / seconds, renderer.getMissingTiles());
+            System.out.println("Output: " + outDir.toAbsolutePath());
+        }
+    }
+
+    private static void usage(String error) {
+        System.err.println(error);
+        System.err.println("Usage: RouteImageRenderer --tiles <dir> [--out <dir>] [--archive <file> [--last <n>]]"
+                + " [--json <file>]... [--stub <count> [--stub-points <n>]]"
+                + " [--size <w>x<h>] [--max-zoom <z>] [--workers <n>]");
+        System.err.println("  --tiles: {z}/{x}/{y}.png tree or MappedTileStore directory; images of the viewer's"
+                + " itinerary archive by default");
+    }
+}
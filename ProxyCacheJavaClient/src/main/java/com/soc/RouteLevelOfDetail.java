@@ -0,0 +1,175 @@
+package com.soc;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Level-of-detail pyramid of one RouteSegment, built once with Douglas-Peucker.
+ *
+ * Level z keeps the vertices needed to draw the segment within half a pixel at OSM zoom z
+ * (a world of 256 * 2^z pixels). The simplification works in normalized Web Mercator coordinates
+ * (the projection of the map tiles), so "half a pixel" means the same thing everywhere on the map.
+ * Each level is simplified from the previous (finer) one, and the first and last vertices are always kept,
+ * so segment endpoints and the walk/bike boundaries stay exact.
+ * Levels are stored as indices into the segment: the coordinates themselves are not copied.
+ */
+final class RouteLevelOfDetail {
+
+    /* OSM zoom 18 is the most detailed level the map viewer shows */
+    private static final int MAX_OSM_ZOOM = 18;
+    private static final double PIXEL_TOLERANCE = 0.5;
+
+    // levels[z] = indices kept at OSM zoom z, null when every vertex is kept;
+    // coarser levels share arrays when nothing more is removed
+    private final int[][] levels = new int[MAX_OSM_ZOOM + 1][];
+    private final int size;
+
+    private RouteLevelOfDetail(RouteSegment seg) {
+        size = seg.size();
+
+        double[] x = new double[size];
+        double[] y = new double[size];
+        for (int i = 0; i < size; i++) {
+            x[i] = mercatorX(seg.getLon(i));
+            y[i] = mercatorY(seg.getLat(i));
+        }
+
+        int[] all = new int[size];
+        for (int i = 0; i < size; i++) {
+            all[i] = i;
+        }
+
+        int[] current = all;
+        for (int z = MAX_OSM_ZOOM; z >= 0; z--) {
+            double tolerance = PIXEL_TOLERANCE / worldPixels(z);
+            int[] simplified = simplify(x, y, current, tolerance);
+            current = simplified.length == current.length ? current : simplified;
+            levels[z] = current == all ? null : current;
+        }
+    }
+
+    static RouteLevelOfDetail build(RouteSegment seg) {
+        return new RouteLevelOfDetail(seg);
+    }
+
+    /** Builds the pyramids of all segments now (e.g. on the loading thread, not on the EDT). */
+    static void prepare(List<RouteSegment> segments) {
+        for (RouteSegment seg : segments) {
+            seg.getLevelOfDetail();
+        }
+    }
+
+    /**
+     * Indices of the vertices to draw when the whole world is worldPixelWidth pixels wide
+     * (TileFactory.getMapSize(zoom).width * tile size), or null if every vertex is needed.
+     * Do not modify the returned array.
+     */
+    int[] indicesFor(double worldPixelWidth) {
+        for (int z = 0; z <= MAX_OSM_ZOOM; z++) {
+            if (worldPixels(z) >= worldPixelWidth) {
+                return levels[z];
+            }
+        }
+        return levels[MAX_OSM_ZOOM];
+    }
+
+    /** Number of vertices drawn at each OSM zoom (0 = whole world on one tile), for diagnostics. */
+    int[] vertexCounts() {
+        int[] counts = new int[levels.length];
+        for (int z = 0; z < levels.length; z++) {
+            counts[z] = levels[z] == null ? size : levels[z].length;
+        }
+        return counts;
+    }
+
+    int size() {
+        return size;
+    }
+
+    private static double worldPixels(int osmZoom) {
+        return 256.0 * (1L << osmZoom);
+    }
+
+    static double mercatorX(double lon) {
+        return (lon + 180.0) / 360.0;
+    }
+
+    static double mercatorY(double lat) {
+        double clamped = Math.max(-85.05112878, Math.min(85.05112878, lat));
+        double sin = Math.sin(Math.toRadians(clamped));
+        return 0.5 - Math.log((1 + sin) / (1 - sin)) / (4 * Math.PI);
+    }
+
+    /**
+     * Douglas-Peucker over the subset of vertices given by indices (iterative, so 100k-point
+     * segments cannot overflow the stack). Returns the kept indices, first and last included.
+     */
+    static int[] simplify(double[] x, double[] y, int[] indices, double tolerance) {
+        int n = indices.length;
+        if (n <= 2) {
+            return indices;
+        }
+
+        boolean[] keep = new boolean[n];
+        keep[0] = true;
+        keep[n - 1] = true;
+
+        double tol2 = tolerance * tolerance;
+        int[] stack = new int[64];
+        int top = 0;
+        stack[top++] = 0;
+        stack[top++] = n - 1;
+
+        while (top > 0) {
+            int last = stack[--top];
+            int first = stack[--top];
+
+            double maxDist = -1;
+            int maxAt = -1;
+            for (int k = first + 1; k < last; k++) {
+                double d = segmentDistanceSq(x, y, indices[k], indices[first], indices[last]);
+                if (d > maxDist) {
+                    maxDist = d;
+                    maxAt = k;
+                }
+            }
+
+            if (maxDist > tol2) {
+                keep[maxAt] = true;
+                if (top + 4 > stack.length) {
+                    stack = Arrays.copyOf(stack, stack.length * 2);
+                }
+                stack[top++] = first;
+                stack[top++] = maxAt;
+                stack[top++] = maxAt;
+                stack[top++] = last;
+            }
+        }
+
+        int count = 0;
+        for (boolean k : keep) {
+            if (k) count++;
+        }
+        int[] result = new int[count];
+        for (int k = 0, r = 0; k < n; k++) {
+            if (keep[k]) {
+                result[r++] = indices[k];
+            }
+        }
+        return result;
+    }
+
+    /** Squared distance from point p to the segment [a, b]. */
+    private static double segmentDistanceSq(double[] x, double[] y, int p, int a, int b) {
+        double dx = x[b] - x[a];
+        double dy = y[b] - y[a];
+        double len2 = dx * dx + dy * dy;
+
+        double t = len2 == 0 ? 0 : ((x[p] - x[a]) * dx + (y[p] - y[a]) * dy) / len2;
+        t = Math.max(0, Math.min(1, t));
+
+        double ex = x[a] + t * dx - x[p];
+        double ey = y[a] + t * dy - y[p];
+        return ex * ex + ey * ey;
+    }
+}
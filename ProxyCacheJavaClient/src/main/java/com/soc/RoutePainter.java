@@ -10,13 +10,18 @@ import java.util.List;
 
 /**
  * Draw a route on the map + markers for origin/destination.
+ * Only the vertices needed at the current zoom are drawn (see RouteLevelOfDetail).
  */
 public class RoutePainter implements Painter<JXMapViewer> {
 
     private final List<GeoPosition> track;
+    private final RouteLevelOfDetail levelOfDetail;
 
     public RoutePainter(List<GeoPosition> track) {
         this.track = track;
+        this.levelOfDetail = track != null && track.size() >= 2
+                ? new RouteSegment(RouteSegment.Mode.BIKE, track).getLevelOfDetail()
+                : null;
     }
 
     @Override
@@ -34,12 +39,19 @@ public class RoutePainter implements Painter<JXMapViewer> {
         g2.setColor(Color.RED);
         g2.setStroke(new BasicStroke(3f));
 
+        int zoom = map.getZoom();
+        double worldPixelWidth = map.getTileFactory().getMapSize(zoom).getWidth()
+                * map.getTileFactory().getTileSize(zoom);
+        int[] indices = levelOfDetail.indicesFor(worldPixelWidth);
+        int n = indices != null ? indices.length : track.size();
+
         Point2D prev = null;
         Point2D first = null;
         Point2D last = null;
 
-        for (GeoPosition gp : track) {
-            Point2D pt = map.getTileFactory().geoToPixel(gp, map.getZoom());
+        for (int k = 0; k < n; k++) {
+            GeoPosition gp = track.get(indices != null ? indices[k] : k);
+            Point2D pt = map.getTileFactory().geoToPixel(gp, zoom);
 
             if (first == null) {
                 first = pt;
@@ -2,8 +2,17 @@ package com.soc;
 
 import org.jxmapviewer.viewer.GeoPosition;
 
+import java.util.AbstractList;
 import java.util.List;
+import java.util.RandomAccess;
 
+/**
+ * One WALK or BIKE part of an itinerary.
+ * The points are packed in a single primitive array of interleaved lat/lon values
+ * (double[] by default, or int[] micro-degrees with quantize()), so a vertex costs 16 or 8 bytes
+ * instead of a GeoPosition object plus a list slot.
+ * A segment can also carry the details sent by the routing service (length, duration, station names, contract).
+ */
 public class RouteSegment {
 
     public enum Mode {
@@ -11,19 +20,265 @@ public class RouteSegment {
         BIKE
     }
 
+    /** Receives the points of a segment in order, without creating GeoPosition objects. */
+    @FunctionalInterface
+    public interface PointConsumer {
+        void accept(int index, double lat, double lon);
+    }
+
+    /* 1e-6 degrees is about 11 cm, far below what ORS geometry or the map can show */
+    private static final double QUANTUM = 1e-6;
+
     private final Mode mode;
-    private final List<GeoPosition> points;
+    private final int size;
+    private final double[] latLon;     // interleaved lat, lon (null when quantized)
+    private final int[] quantized;     // interleaved lat, lon in micro-degrees (null otherwise)
+
+    // details from the routing service: NaN / null when unknown
+    private final double distanceMeters;
+    private final double durationSec;
+    private final String fromName;
+    private final String toName;
+    private final String contract;
 
+    private List<GeoPosition> pointsView;
+    private volatile RouteLevelOfDetail levelOfDetail;
+
+    /** Compatibility constructor: the positions are copied into the packed array. */
     public RouteSegment(Mode mode, List<GeoPosition> points) {
         this.mode = mode;
-        this.points = points;
+        this.size = points.size();
+        this.latLon = new double[size * 2];
+        this.quantized = null;
+        this.distanceMeters = Double.NaN;
+        this.durationSec = Double.NaN;
+        this.fromName = null;
+        this.toName = null;
+        this.contract = null;
+
+        int k = 0;
+        for (GeoPosition gp : points) {
+            latLon[k++] = gp.getLatitude();
+            latLon[k++] = gp.getLongitude();
+        }
+    }
+
+    /**
+     * Wraps an interleaved lat/lon array without copying it.
+     * Only the first size pairs are used; the caller must not modify the array afterwards.
+     */
+    public RouteSegment(Mode mode, double[] latLon, int size) {
+        if (size < 0 || latLon.length < size * 2) {
+            throw new IllegalArgumentException("latLon holds fewer than " + size + " points");
+        }
+        this.mode = mode;
+        this.size = size;
+        this.latLon = latLon;
+        this.quantized = null;
+        this.distanceMeters = Double.NaN;
+        this.durationSec = Double.NaN;
+        this.fromName = null;
+        this.toName = null;
+        this.contract = null;
+    }
+
+    private RouteSegment(Mode mode, int[] quantized, int size) {
+        this.mode = mode;
+        this.size = size;
+        this.latLon = null;
+        this.quantized = quantized;
+        this.distanceMeters = Double.NaN;
+        this.durationSec = Double.NaN;
+        this.fromName = null;
+        this.toName = null;
+        this.contract = null;
+    }
+
+    /* Same points (shared, as is the level of detail), other details */
+    private RouteSegment(RouteSegment points, double distanceMeters, double durationSec,
+                         String fromName, String toName, String contract) {
+        this.mode = points.mode;
+        this.size = points.size;
+        this.latLon = points.latLon;
+        this.quantized = points.quantized;
+        this.levelOfDetail = points.levelOfDetail;
+        this.distanceMeters = distanceMeters;
+        this.durationSec = durationSec;
+        this.fromName = fromName;
+        this.toName = toName;
+        this.contract = contract;
+    }
+
+    /**
+     * Wraps an interleaved lat/lon array in micro-degrees (as built by quantize()) without copying it.
+     * Used by ItineraryArchive, which stores coordinates at that precision anyway.
+     */
+    static RouteSegment ofMicroDegrees(Mode mode, int[] quantized, int size) {
+        if (size < 0 || quantized.length < size * 2) {
+            throw new IllegalArgumentException("quantized holds fewer than " + size + " points");
+        }
+        return new RouteSegment(mode, quantized, size);
+    }
+
+    /**
+     * Returns this segment with the details given by the routing service; the points are shared, not copied.
+     * Pass NaN or null for what is unknown.
+     */
+    public RouteSegment withDetails(double distanceMeters, double durationSec,
+                                    String fromName, String toName, String contract) {
+        return new RouteSegment(this, distanceMeters, durationSec, fromName, toName, contract);
+    }
+
+    /**
+     * Returns a copy of this segment stored as int[] micro-degrees (half the memory of double[]).
+     * Coordinates are rounded to 1e-6 degrees.
+     */
+    public RouteSegment quantize() {
+        if (quantized != null) {
+            return this;
+        }
+        int[] q = new int[size * 2];
+        for (int k = 0; k < q.length; k++) {
+            q[k] = (int) Math.round(latLon[k] / QUANTUM);
+        }
+        return new RouteSegment(mode, q, size).withDetails(distanceMeters, durationSec, fromName, toName, contract);
     }
 
     public Mode getMode() {
         return mode;
     }
 
+    public int size() {
+        return size;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    public boolean isQuantized() {
+        return quantized != null;
+    }
+
+    /** Length announced by the routing service, NaN if it did not send one. */
+    public double getDistanceMeters() {
+        return distanceMeters;
+    }
+
+    /** Duration announced by the routing service, NaN if it did not send one. */
+    public double getDurationSec() {
+        return durationSec;
+    }
+
+    /** Where the segment starts (origin or station name), or null. */
+    public String getFromName() {
+        return fromName;
+    }
+
+    public String getToName() {
+        return toName;
+    }
+
+    /** JCDecaux contract of a BIKE segment, or null. */
+    public String getContract() {
+        return contract;
+    }
+
+    public double getLat(int i) {
+        checkIndex(i);
+        return latLon != null ? latLon[2 * i] : quantized[2 * i] * QUANTUM;
+    }
+
+    public double getLon(int i) {
+        checkIndex(i);
+        return latLon != null ? latLon[2 * i + 1] : quantized[2 * i + 1] * QUANTUM;
+    }
+
+    public GeoPosition getPosition(int i) {
+        return new GeoPosition(getLat(i), getLon(i));
+    }
+
+    public GeoPosition getFirst() {
+        return getPosition(0);
+    }
+
+    public GeoPosition getLast() {
+        return getPosition(size - 1);
+    }
+
+    /** Bulk iteration over the packed array (no bounds check or object per point). */
+    public void forEachPoint(PointConsumer consumer) {
+        if (latLon != null) {
+            for (int i = 0, k = 0; i < size; i++, k += 2) {
+                consumer.accept(i, latLon[k], latLon[k + 1]);
+            }
+        } else {
+            for (int i = 0, k = 0; i < size; i++, k += 2) {
+                consumer.accept(i, quantized[k] * QUANTUM, quantized[k + 1] * QUANTUM);
+            }
+        }
+    }
+
+    /** Copies the points as interleaved lat/lon into dst, starting at dst[offset]. */
+    public void copyLatLon(double[] dst, int offset) {
+        if (latLon != null) {
+            System.arraycopy(latLon, 0, dst, offset, size * 2);
+        } else {
+            for (int k = 0; k < size * 2; k++) {
+                dst[offset + k] = quantized[k] * QUANTUM;
+            }
+        }
+    }
+
+    /* The packed array itself (read-only for the caller), or null when quantized */
+    double[] packedLatLon() {
+        return latLon;
+    }
+
+    /**
+     * Simplified versions of this segment for each zoom level, built on first use and then kept.
+     * RoutingRestClient builds them right after decoding, so the EDT never pays for it.
+     */
+    RouteLevelOfDetail getLevelOfDetail() {
+        RouteLevelOfDetail lod = levelOfDetail;
+        if (lod == null) {
+            synchronized (this) {
+                lod = levelOfDetail;
+                if (lod == null) {
+                    lod = RouteLevelOfDetail.build(this);
+                    levelOfDetail = lod;
+                }
+            }
+        }
+        return lod;
+    }
+
+    /**
+     * Read-only GeoPosition view, kept for code written against the old List-based segment.
+     * Positions are created on access, so prefer getLat/getLon or forEachPoint in hot paths.
+     */
     public List<GeoPosition> getPoints() {
-        return points;
+        if (pointsView == null) {
+            pointsView = new PointsView();
+        }
+        return pointsView;
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for " + size + " points");
+        }
+    }
+
+    private final class PointsView extends AbstractList<GeoPosition> implements RandomAccess {
+        @Override
+        public GeoPosition get(int index) {
+            return getPosition(index);
+        }
+
+        @Override
+        public int size() {
+            return size;
+        }
     }
 }
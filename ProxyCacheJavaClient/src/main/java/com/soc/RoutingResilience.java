@@ -0,0 +1,557 @@
+package com.soc;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.Function;
+
+/**
+ * Deadline, hedged requests, retries and circuit breaker around the POST /itinerary call of RoutingRestClient.
+ *
+ * - deadline: the response headers of a call must arrive within it, whatever the number of attempts,
+ *   hedges and backoffs; each attempt gets what is left (at most the request timeout of the transport).
+ * - hedging (optional, off by default: every hedge is one more ORS request on the service's quota):
+ *   when an attempt has no answer after the p95 of the recent call latencies, the same request is sent
+ *   a second time, the first answer is used and the other exchange is aborted. About one call in twenty
+ *   is sent twice, and those are the slow ones. No hedge until MIN_HEDGE_SAMPLES calls were measured.
+ * - retries: connection errors, timeouts and 408/429/502/503/504 are sent again after a full-jitter
+ *   exponential backoff (random between 0 and backoff * 2^(attempt-1), at most maxBackoff, at least the
+ *   Retry-After of the server), as long as the deadline allows it. The itinerary POST is a read-only
+ *   query, so sending it twice is harmless.
+ * - circuit breaker: after breakerFailures consecutive failed attempts (errors, timeouts, server
+ *   failure statuses, see RoutingServiceException), calls fail at once with a CircuitOpenException
+ *   for breakerOpen; then one trial call goes through and closes the circuit if it succeeds.
+ *   With serveStale, RoutingRestClient answers those calls with the last cached itinerary of the pair.
+ *   The state changes are logged (System.Logger) and the openings counted (getCircuitOpens).
+ *
+ * Thread-safe. The latencies and the breaker describe one service, so there is one instance per service
+ * (RoutingRestClient.setResilience replaces it). Build it with builder(), or fromSystemProperties()
+ * for the routing.* properties.
+ */
+public final class RoutingResilience {
+
+    /** Calls measured before the first hedge; the p95 is taken over windows of WINDOW_SAMPLES calls. */
+    static final int MIN_HEDGE_SAMPLES = 20;
+    private static final int WINDOW_SAMPLES = 1000;
+
+    /* only the start of an error body is kept in the exception */
+    private static final int MAX_ERROR_BODY = 4096;
+
+    private static final System.Logger LOG = System.getLogger(RoutingResilience.class.getName());
+
+    public enum State { CLOSED, OPEN, HALF_OPEN }
+
+    private final Duration deadline;
+    private final int maxAttempts;
+    private final long backoffNanos;
+    private final long maxBackoffNanos;
+    private final boolean hedging;
+    private final double hedgePercentile;
+    private final long minHedgeDelayNanos;
+    private final int breakerFailures;
+    private final long breakerOpenNanos;
+    private final boolean serveStale;
+
+    // circuit breaker, guarded by this
+    private State state = State.CLOSED;
+    private int consecutiveFailures;
+    private long openedAt;
+    private boolean probing;
+
+    // latency of the successful calls: the last full window, and the one being filled
+    private volatile LatencyHistogram previousWindow;
+    private volatile LatencyHistogram window = new LatencyHistogram();
+
+    private final LongAdder calls = new LongAdder();
+    private final LongAdder retries = new LongAdder();
+    private final LongAdder hedges = new LongAdder();
+    private final LongAdder hedgeWins = new LongAdder();
+    private final LongAdder rejected = new LongAdder();
+    private final LongAdder staleServed = new LongAdder();
+    private final LongAdder opens = new LongAdder();
+
+    private RoutingResilience(Builder b) {
+        this.deadline = b.deadline;
+        this.maxAttempts = b.maxAttempts;
+        this.backoffNanos = b.backoff.toNanos();
+        this.maxBackoffNanos = b.maxBackoff.toNanos();
+        this.hedging = b.hedging;
+        this.hedgePercentile = b.hedgePercentile;
+        this.minHedgeDelayNanos = b.minHedgeDelay.toNanos();
+        this.breakerFailures = b.breakerFailures;
+        this.breakerOpenNanos = b.breakerOpen.toNanos();
+        this.serveStale = b.serveStale;
+    }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Resilience configured by system properties:
+     * routing.deadlineMs (default 20000), routing.maxAttempts (default 3),
+     * routing.backoffMs and routing.maxBackoffMs (default 100 and 2000),
+     * routing.hedge (default false), routing.hedgePercentile (default 95), routing.minHedgeDelayMs (default 50),
+     * routing.breakerFailures (default 5, 0 disables the breaker), routing.breakerOpenMs (default 30000)
+     * and routing.serveStale (default true).
+     */
+    public static RoutingResilience fromSystemProperties() {
+        return builder()
+                .deadline(Duration.ofMillis(Long.getLong("routing.deadlineMs", 20000)))
+                .maxAttempts(Integer.getInteger("routing.maxAttempts", 3))
+                .backoff(Duration.ofMillis(Long.getLong("routing.backoffMs", 100)),
+                        Duration.ofMillis(Long.getLong("routing.maxBackoffMs", 2000)))
+                .hedging(Boolean.getBoolean("routing.hedge"))
+                .hedgePercentile(Double.parseDouble(System.getProperty("routing.hedgePercentile", "95")))
+                .minHedgeDelay(Duration.ofMillis(Long.getLong("routing.minHedgeDelayMs", 50)))
+                .circuitBreaker(Integer.getInteger("routing.breakerFailures", 5),
+                        Duration.ofMillis(Long.getLong("routing.breakerOpenMs", 30000)))
+                .serveStale(Boolean.parseBoolean(System.getProperty("routing.serveStale", "true")))
+                .build();
+    }
+
+    /**
+     * Sends the request built by requestFor (given the time limit of the attempt) until a response can be
+     * used, and returns it: always HTTP 200, the caller reads and closes its body.
+     * Fails with a RoutingServiceException for a status that is not retried (or still failing after the
+     * last attempt), an HttpTimeoutException when the deadline passes, a CircuitOpenException when the
+     * circuit is open, or the IOException of the last attempt.
+     * Interrupting the calling thread aborts the exchanges in progress.
+     */
+    public HttpResponse<InputStream> exchange(ItineraryTransport t, Function<Duration, HttpRequest> requestFor,
+                                              String origin, String destination)
+            throws IOException, InterruptedException {
+        calls.increment();
+        long deadlineAt = System.nanoTime() + deadline.toNanos();
+        IOException failure = null;
+
+        for (int attempt = 1; ; attempt++) {
+            long remaining = deadlineAt - System.nanoTime();
+            if (remaining <= 0) {
+                HttpTimeoutException timeout = new HttpTimeoutException(
+                        "No answer from the routing service within " + deadline.toMillis() + " ms");
+                timeout.initCause(failure);
+                throw timeout;
+            }
+            if (!tryAcquire()) {
+                rejected.increment();
+                throw new CircuitOpenException(failure);
+            }
+
+            Duration attemptTimeout = Duration.ofNanos(remaining);
+            if (t.getRequestTimeout() != null && t.getRequestTimeout().compareTo(attemptTimeout) < 0) {
+                attemptTimeout = t.getRequestTimeout();
+            }
+
+            HttpResponse<InputStream> response = null;
+            try {
+                response = hedged(t, requestFor.apply(attemptTimeout), remaining, origin, destination);
+            } catch (IOException ex) {
+                onFailure(ex);
+                failure = ex;
+            } catch (InterruptedException | RuntimeException ex) {
+                onAbandoned();
+                throw ex;
+            }
+
+            long retryAfter = 0;
+            if (response != null) {
+                if (response.statusCode() == 200) {
+                    onSuccess();
+                    return response;
+                }
+                RoutingServiceException error = readError(t, response);
+                if (!error.isServerFailure()) {
+                    onSuccess(); // the service is fine, the request is not
+                    throw error;
+                }
+                onFailure(error);
+                if (!error.isRetryable()) {
+                    throw error;
+                }
+                failure = error;
+                retryAfter = retryAfterNanos(response);
+            }
+
+            // no retry when the server asks for more time than the deadline leaves; the backoff is cut
+            // at the deadline, and the next attempt then ends the call with an HttpTimeoutException
+            long left = deadlineAt - System.nanoTime();
+            if (attempt >= maxAttempts || retryAfter >= left) {
+                throw failure;
+            }
+            retries.increment();
+            TimeUnit.NANOSECONDS.sleep(Math.min(Math.max(retryAfter, jitteredBackoff(attempt)), left));
+        }
+    }
+
+    /*
+     * One attempt: the request, and maybe its hedge. The first usable answer is returned (a response that
+     * is not a server failure, or the last one); the other call is cancelled, which aborts its exchange,
+     * or its response is closed.
+     */
+    private HttpResponse<InputStream> hedged(ItineraryTransport t, HttpRequest request, long remainingNanos,
+                                             String origin, String destination)
+            throws IOException, InterruptedException {
+        long start = System.nanoTime();
+        CompletableFuture<HttpResponse<InputStream>> primary = sendAsync(t, request, origin, destination);
+        CompletableFuture<HttpResponse<InputStream>> hedge = null;
+        CompletableFuture<HttpResponse<InputStream>> answer = primary;
+        HttpResponse<InputStream> response = null;
+        try {
+            long delay = hedging && isClosed() ? hedgeDelayNanos() : -1;
+            if (delay >= 0 && delay < remainingNanos && !isDoneWithin(primary, delay)) {
+                hedges.increment();
+                hedge = sendAsync(t, request, origin, destination);
+                answer = firstAnswer(primary, hedge);
+            }
+
+            response = answer.get(remainingNanos - (System.nanoTime() - start), TimeUnit.NANOSECONDS);
+            if (response.statusCode() == 200) {
+                // when the hedge wins, the time so far is a lower bound of the primary's: still a slow call
+                recordLatency(System.nanoTime() - start);
+                if (hedge != null && hedge.getNow(null) == response) {
+                    hedgeWins.increment();
+                }
+            }
+            return response;
+        } catch (TimeoutException ex) {
+            throw new HttpTimeoutException("No answer from the routing service within " + deadline.toMillis() + " ms");
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            throw new IOException(cause);
+        } finally {
+            if (hedge != null || response == null) {
+                abandon(primary, response);
+                abandon(hedge, response);
+            }
+        }
+    }
+
+    /* Timed in ClientMetrics like a blocking send; the future itself is returned so that cancel() aborts the exchange */
+    private static CompletableFuture<HttpResponse<InputStream>> sendAsync(ItineraryTransport t, HttpRequest request,
+                                                                         String origin, String destination) {
+        ClientEvents.ItineraryFetch event = ClientMetrics.beginFetch(origin, destination);
+        CompletableFuture<HttpResponse<InputStream>> call =
+                t.getClient().sendAsync(request, HttpResponse.BodyHandlers.ofInputStream());
+        call.whenComplete((response, ex) -> ClientMetrics.endFetch(event, response != null ? response.statusCode() : -1));
+        return call;
+    }
+
+    /* Completes with the first response that is not a server failure, or with the outcome of the last call */
+    private static CompletableFuture<HttpResponse<InputStream>> firstAnswer(
+            CompletableFuture<HttpResponse<InputStream>> a, CompletableFuture<HttpResponse<InputStream>> b) {
+        CompletableFuture<HttpResponse<InputStream>> answer = new CompletableFuture<>();
+        AtomicInteger pending = new AtomicInteger(2);
+        BiConsumer<HttpResponse<InputStream>, Throwable> onDone = (response, ex) -> {
+            boolean last = pending.decrementAndGet() == 0;
+            if (ex == null && (last || !RoutingServiceException.isServerFailure(response.statusCode()))) {
+                answer.complete(response);
+            } else if (last) {
+                answer.completeExceptionally(ex);
+            }
+        };
+        a.whenComplete(onDone);
+        b.whenComplete(onDone);
+        return answer;
+    }
+
+    private static boolean isDoneWithin(CompletableFuture<?> call, long nanos) throws InterruptedException {
+        try {
+            call.get(nanos, TimeUnit.NANOSECONDS);
+        } catch (TimeoutException ex) {
+            return false;
+        } catch (ExecutionException ex) {
+            // reported by the caller
+        }
+        return true;
+    }
+
+    /* Aborts a call whose answer is not used, or closes the response it already has */
+    private static void abandon(CompletableFuture<HttpResponse<InputStream>> call, HttpResponse<InputStream> kept) {
+        if (call == null) {
+            return;
+        }
+        call.cancel(true);
+        call.thenAccept(response -> {
+            if (response != kept) {
+                try {
+                    response.body().close();
+                } catch (IOException ex) {
+                    // the connection is dropped anyway
+                }
+            }
+        });
+    }
+
+    private static RoutingServiceException readError(ItineraryTransport t, HttpResponse<InputStream> response)
+            throws IOException {
+        try (InputStream body = t.openBody(response)) {
+            return new RoutingServiceException(response.statusCode(),
+                    new String(body.readNBytes(MAX_ERROR_BODY), StandardCharsets.UTF_8));
+        }
+    }
+
+    /* Retry-After in seconds (the HTTP-date form is ignored) */
+    private static long retryAfterNanos(HttpResponse<?> response) {
+        String value = response.headers().firstValue("Retry-After").orElse(null);
+        if (value != null) {
+            try {
+                return TimeUnit.SECONDS.toNanos(Math.max(0, Long.parseLong(value.trim())));
+            } catch (NumberFormatException ex) {
+                // not a number of seconds
+            }
+        }
+        return 0;
+    }
+
+    /* Full jitter: spreads the retries of many clients that failed at the same moment */
+    private long jitteredBackoff(int attempt) {
+        long cap = Math.min(maxBackoffNanos, backoffNanos << Math.min(attempt - 1, 20));
+        return cap > 0 ? ThreadLocalRandom.current().nextLong(cap + 1) : 0;
+    }
+
+    private void recordLatency(long nanos) {
+        LatencyHistogram w = window;
+        w.recordNanos(nanos);
+        if (w.getCount() >= WINDOW_SAMPLES) {
+            synchronized (this) {
+                if (window == w) {
+                    previousWindow = w;
+                    window = new LatencyHistogram();
+                }
+            }
+        }
+    }
+
+    /** Time after which an unanswered attempt is hedged, in nanoseconds; -1 while too few calls were measured. */
+    long hedgeDelayNanos() {
+        LatencyHistogram h = previousWindow;
+        if (h == null) {
+            h = window;
+            if (h.getCount() < MIN_HEDGE_SAMPLES) {
+                return -1;
+            }
+        }
+        return Math.max(minHedgeDelayNanos, h.percentileMicros(hedgePercentile) * 1000);
+    }
+
+    private synchronized boolean tryAcquire() {
+        if (breakerFailures <= 0 || state == State.CLOSED) {
+            return true;
+        }
+        if (state == State.OPEN) {
+            if (System.nanoTime() - openedAt < breakerOpenNanos) {
+                return false;
+            }
+            state = State.HALF_OPEN;
+        } else if (probing) {
+            return false; // one trial call at a time
+        }
+        probing = true;
+        return true;
+    }
+
+    private synchronized void onSuccess() {
+        consecutiveFailures = 0;
+        probing = false;
+        if (state != State.CLOSED) {
+            state = State.CLOSED;
+            LOG.log(System.Logger.Level.INFO, "Routing service answers again, circuit closed");
+        }
+    }
+
+    private synchronized void onFailure(IOException cause) {
+        consecutiveFailures++;
+        probing = false;
+        if (breakerFailures > 0 && (state == State.HALF_OPEN
+                || state == State.CLOSED && consecutiveFailures >= breakerFailures)) {
+            state = State.OPEN;
+            openedAt = System.nanoTime();
+            opens.increment();
+            LOG.log(System.Logger.Level.WARNING, "Routing service failed {0} times in a row, circuit open for {1} ms: {2}",
+                    consecutiveFailures, TimeUnit.NANOSECONDS.toMillis(breakerOpenNanos), cause.getMessage());
+        }
+    }
+
+    /* The caller gave up (interrupt): says nothing about the service, but frees the trial slot */
+    private synchronized void onAbandoned() {
+        probing = false;
+    }
+
+    private synchronized boolean isClosed() {
+        return state == State.CLOSED;
+    }
+
+    public synchronized State getState() {
+        return state;
+    }
+
+    public Duration getDeadline() {
+        return deadline;
+    }
+
+    public boolean isServeStale() {
+        return serveStale;
+    }
+
+    /** Current hedge delay, or null when hedging is off or has not enough measurements yet. */
+    public Duration getHedgeDelay() {
+        long nanos = hedging ? hedgeDelayNanos() : -1;
+        return nanos >= 0 ? Duration.ofNanos(nanos) : null;
+    }
+
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    public long getRetries() {
+        return retries.sum();
+    }
+
+    public long getHedges() {
+        return hedges.sum();
+    }
+
+    /** Hedged calls answered by the hedge rather than by the first request. */
+    public long getHedgeWins() {
+        return hedgeWins.sum();
+    }
+
+    /** Calls failed at once because the circuit was open. */
+    public long getRejected() {
+        return rejected.sum();
+    }
+
+    /** Times the circuit opened (after breakerFailures failures in a row, or a failed trial call). */
+    public long getCircuitOpens() {
+        return opens.sum();
+    }
+
+    /** Failed calls answered with the last cached itinerary instead. */
+    public long getStaleServed() {
+        return staleServed.sum();
+    }
+
+    void recordStaleServed() {
+        staleServed.increment();
+    }
+
+    /** Counters as a small JSON blob, like ItineraryCache.status(). */
+    public String status() {
+        Duration hedgeDelay = getHedgeDelay();
+        return "{\"state\":\"" + getState() + "\""
+                + ",\"calls\":" + calls.sum()
+                + ",\"retries\":" + retries.sum()
+                + ",\"hedges\":" + hedges.sum()
+                + ",\"hedgeWins\":" + hedgeWins.sum()
+                + ",\"hedgeDelayMs\":" + (hedgeDelay != null ? hedgeDelay.toMillis() : -1)
+                + ",\"circuitOpens\":" + opens.sum()
+                + ",\"rejected\":" + rejected.sum()
+                + ",\"staleServed\":" + staleServed.sum() + "}";
+    }
+
+    /** The circuit is open: the call was not sent. The cause is the last failure of this call, if any. */
+    public static class CircuitOpenException extends IOException {
+        private static final long serialVersionUID = 1L;
+
+        CircuitOpenException(IOException cause) {
+            super("Routing service unavailable (circuit open)", cause);
+        }
+    }
+
+    public static final class Builder {
+        private Duration deadline = Duration.ofSeconds(20);
+        private int maxAttempts = 3;
+        private Duration backoff = Duration.ofMillis(100);
+        private Duration maxBackoff = Duration.ofSeconds(2);
+        private boolean hedging;
+        private double hedgePercentile = 95;
+        private Duration minHedgeDelay = Duration.ofMillis(50);
+        private int breakerFailures = 5;
+        private Duration breakerOpen = Duration.ofSeconds(30);
+        private boolean serveStale = true;
+
+        private Builder() {
+        }
+
+        /** Time limit of a whole call, until the response headers. */
+        public Builder deadline(Duration deadline) {
+            this.deadline = deadline;
+            return this;
+        }
+
+        /** 1 disables the retries. */
+        public Builder maxAttempts(int maxAttempts) {
+            this.maxAttempts = maxAttempts;
+            return this;
+        }
+
+        /** Backoff before the first retry (doubled for each next one, with jitter), and its upper bound. */
+        public Builder backoff(Duration backoff, Duration maxBackoff) {
+            this.backoff = backoff;
+            this.maxBackoff = maxBackoff;
+            return this;
+        }
+
+        public Builder hedging(boolean hedging) {
+            this.hedging = hedging;
+            return this;
+        }
+
+        /** Latency percentile after which an attempt is hedged. */
+        public Builder hedgePercentile(double hedgePercentile) {
+            this.hedgePercentile = hedgePercentile;
+            return this;
+        }
+
+        /** Lower bound of the hedge delay: on a fast service, hedging a few ms late is pure waste. */
+        public Builder minHedgeDelay(Duration minHedgeDelay) {
+            this.minHedgeDelay = minHedgeDelay;
+            return this;
+        }
+
+        /** Consecutive failures that open the circuit (0 disables the breaker), and how long it stays open. */
+        public Builder circuitBreaker(int failures, Duration open) {
+            this.breakerFailures = failures;
+            this.breakerOpen = open;
+            return this;
+        }
+
+        /** Whether a failed call may be answered with the last cached itinerary of the pair. */
+        public Builder serveStale(boolean serveStale) {
+            this.serveStale = serveStale;
+            return this;
+        }
+
+        public RoutingResilience build() {
+            if (deadline.isNegative() || deadline.isZero()) {
+                throw new IllegalArgumentException("deadline must be positive");
+            }
+            if (maxAttempts < 1) {
+                throw new IllegalArgumentException("maxAttempts must be at least 1");
+            }
+            if (backoff.isNegative() || maxBackoff.isNegative() || minHedgeDelay.isNegative() || breakerOpen.isNegative()) {
+                throw new IllegalArgumentException("durations must not be negative");
+            }
+            if (!(hedgePercentile > 0 && hedgePercentile < 100)) {
+                throw new IllegalArgumentException("hedgePercentile must be between 0 and 100");
+            }
+            return new RoutingResilience(this);
+        }
+    }
+}
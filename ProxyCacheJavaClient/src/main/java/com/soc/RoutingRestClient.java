@@ -1,26 +1,60 @@
 package com.soc;
 
-import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import org.jxmapviewer.viewer.GeoPosition;
 
 import java.io.IOException;
+import java.io.InputStream;
 import java.net.URI;
-import java.net.http.HttpClient;
 import java.net.http.HttpRequest;
 import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
 import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
+import java.time.Duration;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
 
 public class RoutingRestClient {
 
-    private static final String ITINERARY_URL =
+    static final String ITINERARY_URL =
             "http://localhost:8733/Design_Time_Addresses/RoutingServiceREST/Service1/itinerary";
 
     private static final ObjectMapper MAPPER = new ObjectMapper();
-    private static final HttpClient CLIENT = HttpClient.newHttpClient();
+
+    private static final System.Logger LOG = System.getLogger(RoutingRestClient.class.getName());
+
+    /* HTTP client, timeouts, compression and body codecs (routing.* system properties by default) */
+    private static volatile ItineraryTransport transport = ItineraryTransport.fromSystemProperties();
+
+    /* Deadline, hedging, retries and circuit breaker of every call (routing.* system properties by default) */
+    private static volatile RoutingResilience resilience = RoutingResilience.fromSystemProperties();
+
+    /* Decoding reads the body InputStream (blocking), so async calls decode on virtual threads */
+    private static final ExecutorService DECODE_EXECUTOR = Executors.newVirtualThreadPerTaskExecutor();
+
+    /* Ends the calls of fetchSegments(origin, destination, timeout) whose time is up */
+    private static final ScheduledExecutorService TIMEOUTS =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("routing-timeout").factory());
+
+    /*
+     * Identical requests in flight at the same time share one HTTP call (key: the normalized pair, as in the cache).
+     * The shared call has its own time limit (the deadline of RoutingResilience), whatever the timeouts
+     * of the callers waiting for it.
+     */
+    private static final SingleFlight<String, List<RouteSegment>> IN_FLIGHT = new SingleFlight<>();
+
+    /* Operators switch between a few standard routes, so a small cache absorbs most of the repeat clicks */
+    private static volatile ItineraryCache cache = new ItineraryCache(
+            128, 64L * 1024 * 1024, Duration.ofMinutes(10), Duration.ofMinutes(2));
 
     /**
      * In the initial version we printed the route in a single color
@@ -30,128 +64,350 @@ public class RoutingRestClient {
     public static List<GeoPosition> fetchRoute(String origin, String destination)
             throws IOException, InterruptedException {
 
-        ObjectNode req = MAPPER.createObjectNode();
-        req.put("Origin", origin);
-        req.put("Destination", destination);
-        req.put("Debug", true);
+        ItineraryTransport t = transport;
+        HttpResponse<InputStream> response = exchange(t, origin, destination);
+
+        try (InputStream body = t.openBody(response)) {
+            return t.codecFor(response).decodeRoute(body);
+        }
+    }
 
-        String bodyJson = MAPPER.writeValueAsString(req);
+    /**
+     * Return a list of segments, each with Mode = WALK/BIKE and its points.
+     * Repeated origin/destination pairs are served from the client-side ItineraryCache, and concurrent
+     * identical requests share one call (the returned list cannot be modified, it can be shared with other callers).
+     * When the routing service is down, the last itinerary cached for the pair is returned, however old
+     * (see RoutingResilience.isServeStale).
+     */
+    public static List<RouteSegment> fetchSegments(String origin, String destination)
+            throws IOException, InterruptedException {
+        ItineraryCache c = cache;
+        try {
+            if (c == null) {
+                return fetchSegmentsShared(origin, destination);
+            }
+            return c.get(origin, destination, RoutingRestClient::fetchSegmentsShared);
+        } catch (IOException ex) {
+            return lastKnownOrThrow(ex, origin, destination);
+        }
+    }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(ITINERARY_URL))
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(bodyJson, StandardCharsets.UTF_8))
-                .build();
+    /* Joins the identical call in progress, or starts it on a virtual thread; interrupting the caller only stops its wait */
+    private static List<RouteSegment> fetchSegmentsShared(String origin, String destination)
+            throws IOException, InterruptedException {
+        CompletableFuture<List<RouteSegment>> future = IN_FLIGHT.execute(ItineraryCache.key(origin, destination),
+                () -> startSharedCall(origin, destination));
+        try {
+            return future.get();
+        } catch (ExecutionException ex) {
+            Throwable cause = ex.getCause();
+            if (cause instanceof IOException io) {
+                throw io;
+            }
+            if (cause instanceof RuntimeException re) {
+                throw re;
+            }
+            throw new IOException(cause);
+        }
+    }
 
-        HttpResponse<String> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+    /**
+     * Like fetchSegments, but the call is not shared with identical ones and has its own time limit:
+     * when timeout passes (request + decoding), its HTTP exchange is aborted and an HttpTimeoutException
+     * thrown, so nothing is left on the wire once this returns. A null timeout means no limit.
+     * Interrupting the calling thread aborts the exchange too.
+     */
+    public static List<RouteSegment> fetchSegments(String origin, String destination, Duration timeout)
+            throws IOException, InterruptedException {
+        ItineraryCache c = cache;
+        if (c != null) {
+            List<RouteSegment> cached = c.getIfPresent(origin, destination);
+            if (cached != null) {
+                return cached;
+            }
+        }
 
-        if (response.statusCode() != 200) {
-            throw new RuntimeException("REST call failed: " + response.statusCode()
-                    + " body=" + response.body());
+        List<RouteSegment> segments;
+        CallTimeout limit = timeout == null ? null : new CallTimeout(timeout);
+        try {
+            segments = List.copyOf(fetchSegmentsFromServer(origin, destination));
+        } catch (InterruptedException ex) {
+            if (limit == null || !limit.close()) {
+                throw ex;
+            }
+            return lastKnownOrThrow(timedOut(timeout, ex), origin, destination);
+        } catch (IOException ex) {
+            return lastKnownOrThrow(limit != null && limit.close() ? timedOut(timeout, ex) : ex, origin, destination);
+        } finally {
+            if (limit != null) {
+                limit.close();
+            }
+        }
+        if (c != null) {
+            c.put(origin, destination, segments);
         }
+        return segments;
+    }
 
-        JsonNode root = MAPPER.readTree(response.body());
+    private static HttpTimeoutException timedOut(Duration timeout, Exception cause) {
+        HttpTimeoutException ex = new HttpTimeoutException("No itinerary within " + timeout.toMillis() + " ms");
+        ex.initCause(cause);
+        return ex;
+    }
 
-        List<GeoPosition> points = new ArrayList<>();
-        appendCoordsArray(root.get("Walk1Coords"), points);
-        appendCoordsArray(root.get("BikeCoords"), points);
-        appendCoordsArray(root.get("Walk2Coords"), points);
+    /* Interrupts the calling thread when the time is up, unless closed before; close() clears that interrupt */
+    private static final class CallTimeout {
+        private final Thread caller = Thread.currentThread();
+        private final ScheduledFuture<?> alarm;
+        private boolean closed;
+        private boolean expired;
 
-        if (points.isEmpty()) {
-            double oLat = root.path("OriginResolvedLat").asDouble();
-            double oLon = root.path("OriginResolvedLon").asDouble();
-            double dLat = root.path("DestResolvedLat").asDouble();
-            double dLon = root.path("DestResolvedLon").asDouble();
+        CallTimeout(Duration timeout) {
+            alarm = TIMEOUTS.schedule(this::expire, timeout.toNanos(), TimeUnit.NANOSECONDS);
+        }
 
-            points.add(new GeoPosition(oLat, oLon));
-            points.add(new GeoPosition(dLat, dLon));
+        private synchronized void expire() {
+            if (!closed) {
+                expired = true;
+                caller.interrupt();
+            }
         }
 
-        return points;
+        /* True if the time ran out (the interrupt came from here) */
+        synchronized boolean close() {
+            if (!closed) {
+                closed = true;
+                alarm.cancel(false);
+                if (expired) {
+                    Thread.interrupted();
+                }
+            }
+            return expired;
+        }
     }
 
     /**
-     * Return a list of segments, each with Mode = WALK/BIKE and its points.
+     * Always calls the routing service (no cache).
      * We use the "Segments" field in the JSON directly.
+     * The body is decoded while it is read (ItineraryStreamDecoder),
+     * so we never hold the whole response as a String or as a JsonNode tree.
      */
-    public static List<RouteSegment> fetchSegments(String origin, String destination)
+    public static List<RouteSegment> fetchSegmentsFromServer(String origin, String destination)
             throws IOException, InterruptedException {
+        ItineraryTransport t = transport;
+        return readSegments(t, exchange(t, origin, destination), null);
+    }
 
-        ObjectNode req = MAPPER.createObjectNode();
-        req.put("Origin", origin);
-        req.put("Destination", destination);
-        req.put("Debug", true);
+    /* The call shared by the identical requests, on a virtual thread (only the first caller starts it) */
+    private static CompletableFuture<List<RouteSegment>> startSharedCall(String origin, String destination) {
+        return CompletableFuture.supplyAsync(() -> {
+            try {
+                ItineraryTransport t = transport;
+                return List.copyOf(readSegments(t, exchange(t, origin, destination), null));
+            } catch (IOException | InterruptedException ex) {
+                throw new CompletionException(ex);
+            }
+        }, DECODE_EXECUTOR);
+    }
 
-        String bodyJson = MAPPER.writeValueAsString(req);
+    /**
+     * Like fetchSegments, but onSegment receives each segment as soon as it is decoded (with its level of detail
+     * already built), on the calling thread, so a viewer can draw the first leg while the rest is still arriving.
+     * A cached itinerary is handed out at once. The call is not shared with identical ones: each caller
+     * streams its own response. Interrupting the calling thread aborts the HTTP exchange and the decoding.
+     * If the routing service is down before any segment was handed out, so is the last cached itinerary of the pair.
+     */
+    public static List<RouteSegment> fetchSegmentsProgressive(String origin, String destination,
+                                                              Consumer<RouteSegment> onSegment)
+            throws IOException, InterruptedException {
+        ItineraryCache c = cache;
+        if (c != null) {
+            List<RouteSegment> cached = c.getIfPresent(origin, destination);
+            if (cached != null) {
+                cached.forEach(onSegment);
+                return cached;
+            }
+        }
 
-        HttpRequest request = HttpRequest.newBuilder()
-                .uri(URI.create(ITINERARY_URL))
-                .header("Content-Type", "application/json")
-                .POST(HttpRequest.BodyPublishers.ofString(bodyJson, StandardCharsets.UTF_8))
-                .build();
+        ItineraryTransport t = transport;
+        int[] handedOut = new int[1];
+        List<RouteSegment> segments;
+        try {
+            segments = List.copyOf(readSegments(t, exchange(t, origin, destination), segment -> {
+                handedOut[0]++;
+                onSegment.accept(segment);
+            }));
+        } catch (IOException ex) {
+            if (handedOut[0] > 0) {
+                throw ex; // the viewer already shows part of the new route
+            }
+            List<RouteSegment> last = lastKnownOrThrow(ex, origin, destination);
+            last.forEach(onSegment);
+            return last;
+        }
+        if (c != null) {
+            c.put(origin, destination, segments);
+        }
+        return segments;
+    }
 
-        HttpResponse<String> response = CLIENT.send(request, HttpResponse.BodyHandlers.ofString());
+    /* The body of a 200 response inflated and decoded with the codec of its Content-Type */
+    private static List<RouteSegment> readSegments(ItineraryTransport t, HttpResponse<InputStream> response,
+                                                   Consumer<RouteSegment> onSegment) throws IOException {
+        try (InputStream body = t.openBody(response)) {
+            return decodeForDisplay(t.codecFor(response), body, onSegment);
+        }
+    }
 
-        if (response.statusCode() != 200) {
-            throw new RuntimeException("REST call failed: " + response.statusCode()
-                    + " body=" + response.body());
+    /* The simplification pyramids are built here, on the calling thread, rather than on the EDT at first paint */
+    private static List<RouteSegment> decodeForDisplay(ItineraryCodec codec, InputStream body,
+                                                       Consumer<RouteSegment> onSegment) throws IOException {
+        ClientEvents.ItineraryDecode event = ClientMetrics.beginDecode();
+        List<RouteSegment> segments = null;
+        try {
+            segments = codec.decodeSegments(body, onSegment == null ? null : segment -> {
+                segment.getLevelOfDetail();
+                onSegment.accept(segment);
+            });
+            RouteLevelOfDetail.prepare(segments);
+            if (RouteGeometry.isDistanceCheckEnabled()) {
+                RouteGeometry.checkDistances(segments);
+            }
+            return segments;
+        } finally {
+            ClientMetrics.endDecode(event, segments);
         }
+    }
 
-        JsonNode root = MAPPER.readTree(response.body());
-        JsonNode segmentsNode = root.get("Segments");
+    /*
+     * POST /itinerary through RoutingResilience (deadline, hedging, retries, circuit breaker):
+     * only a 200 response comes back. Each HTTP exchange is timed in ClientMetrics until its headers arrive.
+     */
+    private static HttpResponse<InputStream> exchange(ItineraryTransport t, String origin, String destination)
+            throws IOException, InterruptedException {
+        String bodyJson = itineraryRequestJson(origin, destination);
+        return resilience.exchange(t, timeout -> buildItineraryRequest(t, bodyJson, timeout), origin, destination);
+    }
 
-        List<RouteSegment> segments = new ArrayList<>();
+    /* When the service is unhealthy, the last itinerary cached for the pair, however old, rather than the error */
+    private static List<RouteSegment> lastKnownOrThrow(IOException failure, String origin, String destination)
+            throws IOException {
+        RoutingResilience r = resilience;
+        ItineraryCache c = cache;
+        boolean callerError = failure instanceof RoutingServiceException rse && !rse.isServerFailure();
+        if (r.isServeStale() && c != null && !callerError) {
+            List<RouteSegment> last = c.getLastKnown(origin, destination);
+            if (last != null) {
+                r.recordStaleServed();
+                LOG.log(System.Logger.Level.WARNING, "Using the last cached itinerary for {0} -> {1}: {2}",
+                        origin, destination, failure.getMessage());
+                return last;
+            }
+        }
+        throw failure;
+    }
 
-        if (segmentsNode != null && segmentsNode.isArray()) {
-            for (JsonNode segNode : segmentsNode) {
-                String modeStr = segNode.path("Mode").asText("walk");
-                RouteSegment.Mode mode =
-                        "bike".equalsIgnoreCase(modeStr)
-                                ? RouteSegment.Mode.BIKE
-                                : RouteSegment.Mode.WALK;
+    /**
+     * Non-blocking version of fetchSegments: the call runs on a virtual thread, so the future is never
+     * completed on the HttpClient threads. A cached itinerary completes the future immediately,
+     * and a call identical to one in flight joins it.
+     */
+    public static CompletableFuture<List<RouteSegment>> fetchSegmentsAsync(String origin, String destination) {
+        return fetchSegmentsAsync(origin, destination, null);
+    }
 
-                JsonNode coords = segNode.get("Coords");
-                List<GeoPosition> pts = new ArrayList<>();
-                appendCoordsArray(coords, pts);
+    /**
+     * Same as fetchSegmentsAsync(origin, destination), but the future fails with a TimeoutException
+     * if the whole call (request + decoding) takes longer than timeout. A null timeout means no limit.
+     * Cancelling the future or its timeout only gives up waiting: a call shared with other callers goes on.
+     */
+    public static CompletableFuture<List<RouteSegment>> fetchSegmentsAsync(String origin, String destination,
+                                                                           Duration timeout) {
+        ItineraryCache c = cache;
+        if (c != null) {
+            List<RouteSegment> cached = c.getIfPresent(origin, destination);
+            if (cached != null) {
+                return CompletableFuture.completedFuture(cached);
+            }
+        }
 
-                if (!pts.isEmpty()) {
-                    segments.add(new RouteSegment(mode, pts));
+        CompletableFuture<List<RouteSegment>> future = IN_FLIGHT.execute(ItineraryCache.key(origin, destination), () -> {
+            CompletableFuture<List<RouteSegment>> call = startSharedCall(origin, destination);
+
+            // once per call, not per waiter; a result that arrives after every caller gave up still fills the cache
+            if (c != null) {
+                call = call.thenApply(segments -> {
+                    c.put(origin, destination, segments);
+                    return segments;
+                });
+            }
+            return call;
+        });
+
+        future = future.exceptionally(ex -> {
+            Throwable cause = ex instanceof CompletionException && ex.getCause() != null ? ex.getCause() : ex;
+            if (cause instanceof IOException io) {
+                try {
+                    return lastKnownOrThrow(io, origin, destination);
+                } catch (IOException failure) {
+                    throw new CompletionException(failure);
                 }
             }
+            throw new CompletionException(cause);
+        });
+        if (timeout != null) {
+            future = future.orTimeout(timeout.toMillis(), TimeUnit.MILLISECONDS);
         }
+        return future;
+    }
 
-        /* fallback: if we don't have "Segments", we build a unique segment from the simple list */
-        if (segments.isEmpty()) {
-            List<GeoPosition> all = new ArrayList<>();
-            appendCoordsArray(root.get("Walk1Coords"), all);
-            appendCoordsArray(root.get("BikeCoords"), all);
-            appendCoordsArray(root.get("Walk2Coords"), all);
+    /** Coalescing counters: calls started and callers that joined one in progress. */
+    public static SingleFlight<String, List<RouteSegment>> getInFlight() {
+        return IN_FLIGHT;
+    }
 
-            if (all.isEmpty()) {
-                double oLat = root.path("OriginResolvedLat").asDouble();
-                double oLon = root.path("OriginResolvedLon").asDouble();
-                double dLat = root.path("DestResolvedLat").asDouble();
-                double dLon = root.path("DestResolvedLon").asDouble();
+    public static ItineraryCache getCache() {
+        return cache;
+    }
 
-                all.add(new GeoPosition(oLat, oLon));
-                all.add(new GeoPosition(dLat, dLon));
-            }
+    /** Replaces the itinerary cache (e.g. with another TTL or size); null disables caching. */
+    public static void setCache(ItineraryCache newCache) {
+        cache = newCache;
+    }
 
-            segments.add(new RouteSegment(RouteSegment.Mode.BIKE, all));
-        }
+    public static RoutingResilience getResilience() {
+        return resilience;
+    }
 
-        return segments;
+    /** Replaces the deadline / hedging / retry / circuit breaker settings, with a fresh breaker and latency window. */
+    public static void setResilience(RoutingResilience newResilience) {
+        resilience = newResilience;
     }
 
-    private static void appendCoordsArray(JsonNode arr, List<GeoPosition> target) {
-        if (arr == null || !arr.isArray()) return;
+    public static ItineraryTransport getTransport() {
+        return transport;
+    }
 
-        for (JsonNode pair : arr) {
-            if (pair.isArray() && pair.size() >= 2) {
-                double lat = pair.get(0).asDouble();
-                double lon = pair.get(1).asDouble();
-                target.add(new GeoPosition(lat, lon));
-            }
-        }
+    /** Replaces the HTTP transport (client, timeouts, compression, codecs) for the calls started afterwards. */
+    public static void setTransport(ItineraryTransport newTransport) {
+        transport = newTransport;
+    }
+
+    /* The request body stays JSON whatever the response codec: it is a few bytes */
+    private static HttpRequest buildItineraryRequest(ItineraryTransport t, String bodyJson, Duration timeout) {
+        return t.newRequest(URI.create(ITINERARY_URL), timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(bodyJson, StandardCharsets.UTF_8))
+                .build();
+    }
+
+    /** JSON body of POST /itinerary (ItineraryRequest on the C# side). */
+    static String itineraryRequestJson(String origin, String destination) throws IOException {
+        ObjectNode req = MAPPER.createObjectNode();
+        req.put("Origin", origin);
+        req.put("Destination", destination);
+        req.put("Debug", true);
+
+        return MAPPER.writeValueAsString(req);
     }
 }
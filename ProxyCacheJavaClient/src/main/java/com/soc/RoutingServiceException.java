@@ -0,0 +1,47 @@
+package com.soc;
+
+import java.io.IOException;
+
+/**
+ * The routing service answered, but not with HTTP 200.
+ * The status tells RoutingResilience whether the call may be retried (the service is overloaded or
+ * a gateway timed out) and whether it counts against the health of the service (any 5xx, 408, 429);
+ * a 4xx such as a bad address is the caller's problem and is neither retried nor counted.
+ */
+public class RoutingServiceException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final int statusCode;
+    private final String body;
+
+    public RoutingServiceException(int statusCode, String body) {
+        super("REST call failed: " + statusCode + " body=" + body);
+        this.statusCode = statusCode;
+        this.body = body;
+    }
+
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /** Body of the error response, as text. */
+    public String getBody() {
+        return body;
+    }
+
+    /** True when the same request may succeed if sent again. */
+    public boolean isRetryable() {
+        return statusCode == 408 || statusCode == 429
+                || statusCode == 502 || statusCode == 503 || statusCode == 504;
+    }
+
+    /** True when the status says the service is unhealthy rather than the request wrong. */
+    public boolean isServerFailure() {
+        return isServerFailure(statusCode);
+    }
+
+    static boolean isServerFailure(int statusCode) {
+        return statusCode >= 500 || statusCode == 408 || statusCode == 429;
+    }
+}
@@ -3,23 +3,114 @@ package com.soc;
 import org.jxmapviewer.JXMapViewer;
 import org.jxmapviewer.painter.Painter;
 import org.jxmapviewer.viewer.GeoPosition;
+import org.jxmapviewer.viewer.TileFactoryInfo;
+import org.jxmapviewer.viewer.util.GeoUtil;
 
 import java.awt.*;
+import java.awt.geom.AffineTransform;
+import java.awt.geom.Path2D;
 import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Draws the route in segments:
  * - WALK: gray, dotted line
  * - BIKE: green, solid line
  * + markers for origin (green) and destination (red)
+ *
+ * The segments are cut into chunks indexed by bounding box (RouteChunkIndex); a repaint only
+ * looks at the chunks that touch the viewport, so zoomed in on one street the cost depends on
+ * what is on screen, not on the length of the route.
+ * The projection to map pixels only changes with the zoom, so for each zoom level the Path2D
+ * of a chunk is built the first time the chunk is visible and then kept; a repaint (pan, drag, hover)
+ * then only translates to the current viewport and draws the cached paths.
+ * The WALK dashes run on from one chunk to the next: a chunk's dash phase is the length of its segment
+ * before it, summed over the same projected vertices that are drawn, so it does not depend on which
+ * chunks are culled (panning, or the tiles of RasterRoutePainter).
+ * Only the vertices of the segment's level of detail for that zoom are projected
+ * (see RouteLevelOfDetail), so a long route seen from far away is a few hundred points, not tens of thousands.
+ * Segments can be appended with addSegment while the itinerary is still being decoded.
  */
 public class SegmentedRoutePainter implements Painter<JXMapViewer> {
 
-    private final List<RouteSegment> segments;
+    private static final Color BIKE_COLOR = new Color(0, 170, 0);
+    private static final Color WALK_COLOR = Color.DARK_GRAY;
+    private static final Stroke BIKE_STROKE = new BasicStroke(3f);
+    private static final float[] WALK_DASH = {8f, 8f};
+    private static final float WALK_DASH_PERIOD = 16f;
+
+    /* A user usually goes back and forth between a few zoom levels; older ones are rebuilt if needed */
+    private static final int MAX_CACHED_ZOOMS = 4;
+
+    /* Pixels added around the viewport so the stroke of a line just outside it is still drawn */
+    private static final double VIEWPORT_MARGIN = 4.0;
+
+    // replaced (not modified) by addSegment, on the EDT
+    private List<RouteSegment> segments;
+    private RouteChunkIndex chunks;
+    private GeoPosition origin;
+    private GeoPosition dest;
+
+    // per zoom, projected chunks indexed like RouteChunkIndex (null until the chunk is first visible)
+    private final Map<Integer, ZoomPaths> projectedByZoom =
+            new LinkedHashMap<>(8, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, ZoomPaths> eldest) {
+                    return size() > MAX_CACHED_ZOOMS;
+                }
+            };
+    private TileFactoryInfo projectedFor;
+    private int verticesDrawn;     // by the last paintRoute, for ClientMetrics
 
     public SegmentedRoutePainter(List<RouteSegment> segments) {
         this.segments = segments;
+        this.chunks = new RouteChunkIndex(segments != null ? segments : List.of());
+
+        GeoPosition first = null;
+        GeoPosition last = null;
+        if (segments != null) {
+            for (RouteSegment seg : segments) {
+                if (seg.size() < 2) continue;
+                if (first == null) {
+                    first = seg.getFirst();
+                }
+                last = seg.getLast();
+            }
+        }
+        this.origin = first;
+        this.dest = last;
+    }
+
+    /**
+     * Appends a segment to the route, e.g. as soon as it is decoded. Call from the EDT, then repaint.
+     * Chunks are numbered in route order, so the paths already projected for the previous segments are kept.
+     */
+    public void addSegment(RouteSegment segment) {
+        List<RouteSegment> all = new ArrayList<>(segments != null ? segments.size() + 1 : 1);
+        if (segments != null) {
+            all.addAll(segments);
+        }
+        all.add(segment);
+        segments = all;
+        chunks = new RouteChunkIndex(all);
+        projectedByZoom.values().forEach(paths -> paths.resize(chunks.size()));
+
+        if (segment.size() >= 2) {
+            if (origin == null) {
+                origin = segment.getFirst();
+            }
+            dest = segment.getLast();
+        }
+    }
+
+    /** The segments drawn so far. */
+    public List<RouteSegment> getSegments() {
+        return segments != null ? segments : List.of();
     }
 
     @Override
@@ -28,69 +119,165 @@ public class SegmentedRoutePainter implements Painter<JXMapViewer> {
             return;
         }
 
+        ClientEvents.RoutePaint event = ClientMetrics.beginPaint("segmented");
         Graphics2D g2 = (Graphics2D) g.create();
         g2.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
 
         Rectangle viewportBounds = map.getViewportBounds();
         g2.translate(-viewportBounds.x, -viewportBounds.y);
 
-        GeoPosition origin = null;
-        GeoPosition dest = null;
-
-        for (RouteSegment seg : segments) {
-            List<GeoPosition> pts = seg.getPoints();
-            if (pts.size() < 2) continue;
-
-            // Set the style according to the mode
-            if (seg.getMode() == RouteSegment.Mode.BIKE) {
-                // green solid line
-                g2.setColor(new Color(0, 170, 0));
-                g2.setStroke(new BasicStroke(3f));
-            } else {
-                // WALK: gry dotted line
-                float[] dash = {8f, 8f};
-                g2.setColor(Color.DARK_GRAY);
-                g2.setStroke(new BasicStroke(
-                        3f,
-                        BasicStroke.CAP_BUTT,
-                        BasicStroke.JOIN_ROUND,
-                        10f,
-                        dash,
-                        0f
-                ));
+        int drawn = paintRoute(g2, map, viewportBounds);
+        paintMarkers(g2, map);
+
+        g2.dispose();
+        ClientMetrics.endPaint(event, map.getZoom(), drawn, verticesDrawn);
+    }
+
+    /**
+     * Draws the lines of the route that cross area, a rectangle in map pixels at the map's current zoom.
+     * g2 must already map those pixels to the target (e.g. translated by the viewport or tile origin);
+     * its transform is restored on return. Returns the number of chunks drawn (0: nothing in area).
+     */
+    int paintRoute(Graphics2D g2, JXMapViewer map, Rectangle2D area) {
+        verticesDrawn = 0;
+        if (chunks.size() == 0) {
+            return 0;
+        }
+
+        TileFactoryInfo info = map.getTileFactory().getInfo();
+        int zoom = map.getZoom();
+        double worldPixelWidth = map.getTileFactory().getMapSize(zoom).getWidth() * info.getTileSize(zoom);
+        ZoomPaths paths = projected(info, zoom);
+
+        int visible = chunks.query(
+                (area.getMinX() - VIEWPORT_MARGIN) / worldPixelWidth,
+                (area.getMinY() - VIEWPORT_MARGIN) / worldPixelWidth,
+                (area.getMaxX() + VIEWPORT_MARGIN) / worldPixelWidth,
+                (area.getMaxY() + VIEWPORT_MARGIN) / worldPixelWidth);
+        int[] ids = chunks.visibleChunks();
+
+        AffineTransform base = g2.getTransform();
+        RouteSegment.Mode currentMode = null;
+        for (int k = 0; k < visible; k++) {
+            int c = ids[k];
+            ProjectedChunk p = paths.projected[c];
+            if (p == null) {
+                double before = lengthBefore(paths, c, worldPixelWidth, zoom, info);
+                p = project(chunks, c, worldPixelWidth, zoom, info, before);
+                paths.projected[c] = p;
             }
 
-            Point2D prev = null;
-            for (GeoPosition gp : pts) {
-                Point2D pt = map.getTileFactory().geoToPixel(gp, map.getZoom());
-                if (prev != null) {
-                    g2.drawLine(
-                            (int) prev.getX(),
-                            (int) prev.getY(),
-                            (int) pt.getX(),
-                            (int) pt.getY()
-                    );
+            // Set the style according to the mode (chunks come in route order, so it rarely changes)
+            if (p.mode != currentMode) {
+                currentMode = p.mode;
+                if (p.mode == RouteSegment.Mode.BIKE) {
+                    // green solid line
+                    g2.setColor(BIKE_COLOR);
+                    g2.setStroke(BIKE_STROKE);
+                } else {
+                    // WALK: gray dotted line
+                    g2.setColor(WALK_COLOR);
                 }
-                prev = pt;
             }
-
-            if (origin == null) {
-                origin = pts.getFirst();
+            if (p.mode == RouteSegment.Mode.WALK) {
+                // the dashes go on where the previous chunk of the segment stopped, not from a new dash
+                g2.setStroke(walkStroke(p.dashPhase));
             }
-            dest = pts.getLast();
+
+            g2.translate(p.originX, p.originY);
+            g2.draw(p.path);
+            g2.setTransform(base);
+            verticesDrawn += p.vertices;
         }
+        return visible;
+    }
+
+    private static Stroke walkStroke(float dashPhase) {
+        return new BasicStroke(3f, BasicStroke.CAP_BUTT, BasicStroke.JOIN_ROUND, 10f, WALK_DASH, dashPhase);
+    }
+
+    /** Vertices drawn by the last paintRoute call. */
+    int getVerticesDrawn() {
+        return verticesDrawn;
+    }
 
-        // origin / destination markers
-        if (origin != null || dest != null) {
-            if (origin != null) {
-                drawMarker(g2, map, origin, Color.GREEN);
+    /** Origin / destination markers, in map pixels (g2 translated like for paintRoute). */
+    void paintMarkers(Graphics2D g2, JXMapViewer map) {
+        if (origin != null) {
+            drawMarker(g2, map, origin, Color.GREEN);
+        }
+        if (dest != null) {
+            drawMarker(g2, map, dest, Color.RED);
+        }
+    }
+
+    /** Chunk paths of the given zoom (filled in as chunks become visible). Called on the EDT only. */
+    private ZoomPaths projected(TileFactoryInfo info, int zoom) {
+        if (info != projectedFor) {
+            projectedByZoom.clear();
+            projectedFor = info;
+        }
+        return projectedByZoom.computeIfAbsent(zoom, z -> new ZoomPaths(chunks.size()));
+    }
+
+    /*
+     * Pixel length of the chunk's segment before the chunk, at this zoom and over the vertices that are drawn.
+     * Goes back to the last chunk whose length is known (at worst the segment's first one) and measures
+     * the chunks in between without keeping their paths; the lengths are then kept for the zoom.
+     */
+    private double lengthBefore(ZoomPaths paths, int chunk, double worldPixelWidth, int zoom, TileFactoryInfo info) {
+        int k = chunk;
+        while (Double.isNaN(paths.lengthBefore[k]) && chunks.startOf(k) > 0) {
+            k--;
+        }
+        if (Double.isNaN(paths.lengthBefore[k])) {
+            paths.lengthBefore[k] = 0; // first chunk of its segment
+        }
+        for (; k < chunk; k++) {
+            ProjectedChunk p = paths.projected[k];
+            double length = p != null ? p.length : trace(chunks, k, worldPixelWidth, zoom, info, false).length;
+            paths.lengthBefore[k + 1] = paths.lengthBefore[k] + length;
+        }
+        return paths.lengthBefore[chunk];
+    }
+
+    /*
+     * Map pixel coordinates reach 2^26 at the most detailed zoom, more than a float can hold exactly,
+     * so the path stores float offsets from the chunk's first vertex and keeps that vertex in doubles.
+     * The chunk's own endpoints are always drawn, so neighbouring chunks join exactly;
+     * in between we keep the vertices of the level of detail that fall inside the chunk.
+     */
+    private static ProjectedChunk project(RouteChunkIndex chunks, int chunk, double worldPixelWidth,
+                                          int zoom, TileFactoryInfo info, double lengthBefore) {
+        Tracer t = trace(chunks, chunk, worldPixelWidth, zoom, info, true);
+        float dashPhase = (float) (lengthBefore % WALK_DASH_PERIOD);
+        return new ProjectedChunk(chunks.segmentOf(chunk).getMode(), t.originX, t.originY, t.path, t.vertices,
+                t.length, dashPhase);
+    }
+
+    /* Walks the vertices drawn for a chunk, building its path or (withPath false) only measuring it */
+    private static Tracer trace(RouteChunkIndex chunks, int chunk, double worldPixelWidth,
+                                int zoom, TileFactoryInfo info, boolean withPath) {
+        RouteSegment seg = chunks.segmentOf(chunk);
+        int start = chunks.startOf(chunk);
+        int end = chunks.endOf(chunk);
+        int[] indices = seg.getLevelOfDetail().indicesFor(worldPixelWidth);
+
+        Point2D first = GeoUtil.getBitmapCoordinate(seg.getLat(start), seg.getLon(start), zoom, info);
+        Tracer t = new Tracer(first.getX(), first.getY(), zoom, info,
+                withPath ? new Path2D.Float(Path2D.WIND_NON_ZERO, end - start + 1) : null);
+        if (indices == null) {
+            for (int i = start + 1; i < end; i++) {
+                t.lineTo(seg, i);
             }
-            if (dest != null) {
-                drawMarker(g2, map, dest, Color.RED);
+        } else {
+            int k = Arrays.binarySearch(indices, start + 1);
+            for (k = k >= 0 ? k : -k - 1; k < indices.length && indices[k] < end; k++) {
+                t.lineTo(seg, indices[k]);
             }
         }
-
-        g2.dispose();
+        t.lineTo(seg, end);
+        return t;
     }
 
     private void drawMarker(Graphics2D g2, JXMapViewer map, GeoPosition gp, Color color) {
@@ -108,4 +295,84 @@ public class SegmentedRoutePainter implements Painter<JXMapViewer> {
         g2.setColor(Color.BLACK);
         g2.drawOval(x, y, size, size);
     }
+
+    private static final class ProjectedChunk {
+        final RouteSegment.Mode mode;
+        final double originX;
+        final double originY;
+        final Path2D.Float path;
+        final int vertices;
+        final double length;     // in pixels, as drawn
+        final float dashPhase;   // where the WALK dash pattern stands at the chunk's first vertex
+
+        ProjectedChunk(RouteSegment.Mode mode, double originX, double originY, Path2D.Float path, int vertices,
+                       double length, float dashPhase) {
+            this.mode = mode;
+            this.originX = originX;
+            this.originY = originY;
+            this.path = path;
+            this.vertices = vertices;
+            this.length = length;
+            this.dashPhase = dashPhase;
+        }
+    }
+
+    /* The chunks of one zoom level, and the length of their segment before each of them (NaN until measured) */
+    private static final class ZoomPaths {
+        ProjectedChunk[] projected;
+        double[] lengthBefore;
+
+        ZoomPaths(int chunks) {
+            projected = new ProjectedChunk[chunks];
+            lengthBefore = new double[chunks];
+            Arrays.fill(lengthBefore, Double.NaN);
+        }
+
+        void resize(int chunks) {
+            int old = lengthBefore.length;
+            projected = Arrays.copyOf(projected, chunks);
+            lengthBefore = Arrays.copyOf(lengthBefore, chunks);
+            Arrays.fill(lengthBefore, old, chunks, Double.NaN);
+        }
+    }
+
+    /*
+     * Float offsets from the chunk's first vertex, and the length of the lines between them
+     * (as stored, so the dashes of the next chunk line up with what the stroker drew)
+     */
+    private static final class Tracer {
+        final double originX;
+        final double originY;
+        final int zoom;
+        final TileFactoryInfo info;
+        final Path2D.Float path;
+        float x;
+        float y;
+        double length;
+        int vertices = 1;
+
+        Tracer(double originX, double originY, int zoom, TileFactoryInfo info, Path2D.Float path) {
+            this.originX = originX;
+            this.originY = originY;
+            this.zoom = zoom;
+            this.info = info;
+            this.path = path;
+            if (path != null) {
+                path.moveTo(0f, 0f);
+            }
+        }
+
+        void lineTo(RouteSegment seg, int i) {
+            Point2D pt = GeoUtil.getBitmapCoordinate(seg.getLat(i), seg.getLon(i), zoom, info);
+            float nx = (float) (pt.getX() - originX);
+            float ny = (float) (pt.getY() - originY);
+            if (path != null) {
+                path.lineTo(nx, ny);
+            }
+            length += Point2D.distance(x, y, nx, ny);
+            x = nx;
+            y = ny;
+            vertices++;
+        }
+    }
 }
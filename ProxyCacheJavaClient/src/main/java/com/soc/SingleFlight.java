@@ -0,0 +1,68 @@
+package com.soc;
+
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Coalesces concurrent calls for the same key ("single flight"): while a call for a key is in progress,
+ * other callers asking for that key wait for its result instead of starting their own.
+ * The key is forgotten as soon as the call completes, so this is not a cache: the next caller starts a new call.
+ *
+ * Every caller gets its own copy of the shared future. A failure reaches all of them, but cancelling
+ * a copy or letting it time out (orTimeout) only affects that caller: the shared call goes on for the others.
+ */
+public class SingleFlight<K, V> {
+
+    private final Map<K, CompletableFuture<V>> inFlight = new ConcurrentHashMap<>();
+
+    private final AtomicLong calls = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    /**
+     * Joins the call in progress for the key, or starts one with call.get() if there is none.
+     * call.get() runs on the calling thread and should only start the work (return a future quickly).
+     */
+    public CompletableFuture<V> execute(K key, Supplier<? extends CompletableFuture<V>> call) {
+        CompletableFuture<V> shared = new CompletableFuture<>();
+        CompletableFuture<V> existing = inFlight.putIfAbsent(key, shared);
+        if (existing != null) {
+            coalesced.incrementAndGet();
+            return existing.copy();
+        }
+
+        calls.incrementAndGet();
+        try {
+            call.get().whenComplete((value, ex) -> {
+                // removed before completing, so a caller woken by the result never joins the finished call
+                inFlight.remove(key, shared);
+                if (ex != null) {
+                    shared.completeExceptionally(ex);
+                } else {
+                    shared.complete(value);
+                }
+            });
+        } catch (RuntimeException ex) {
+            inFlight.remove(key, shared);
+            shared.completeExceptionally(ex);
+        }
+        return shared.copy();
+    }
+
+    /** Calls actually started. */
+    public long getCalls() {
+        return calls.get();
+    }
+
+    /** Callers that joined a call already in progress. */
+    public long getCoalesced() {
+        return coalesced.get();
+    }
+
+    /** Keys with a call in progress right now. */
+    public int getInFlight() {
+        return inFlight.size();
+    }
+}
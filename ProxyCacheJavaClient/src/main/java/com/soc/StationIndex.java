@@ -0,0 +1,295 @@
+package com.soc;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * k-d tree over the stations of one StationSnapshot, for "nearest stations with a bike" style queries.
+ *
+ * A contract covers one city, so the stations are projected once on a local equirectangular plane
+ * (x = lon * cos(mean lat), y = lat, both in degrees): over a few tens of kilometres distances on this plane
+ * are within a fraction of a percent of the great-circle distance, and comparing them needs no trigonometry.
+ * The tree is implicit: a permutation of the station indices where each range's median splits it
+ * alternately on x and y, so it is two double[] and one int[] whatever the number of stations.
+ *
+ * Query results are station indices in the snapshot (use getName(i), getBikes(i), ...), closest first.
+ * An index is immutable and can be queried from any thread.
+ */
+public final class StationIndex {
+
+    /* metres per degree of latitude (and of x on the projected plane) */
+    private static final double METERS_PER_DEGREE = 111_320.0;
+
+    private final StationSnapshot snapshot;
+    private final double cosLat;
+    private final double[] x;      // projected coordinates, indexed by station
+    private final double[] y;
+    private final int[] tree;      // station indices in k-d order
+
+    private StationIndex(StationSnapshot snapshot) {
+        this.snapshot = snapshot;
+        int n = snapshot.size();
+
+        double meanLat = 0;
+        for (int i = 0; i < n; i++) {
+            meanLat += snapshot.getLat(i);
+        }
+        cosLat = Math.cos(Math.toRadians(n == 0 ? 0 : meanLat / n));
+
+        x = new double[n];
+        y = new double[n];
+        tree = new int[n];
+        for (int i = 0; i < n; i++) {
+            x[i] = snapshot.getLon(i) * cosLat;
+            y[i] = snapshot.getLat(i);
+            tree[i] = i;
+        }
+        build(0, n, 0);
+    }
+
+    public static StationIndex build(StationSnapshot snapshot) {
+        return new StationIndex(snapshot);
+    }
+
+    public StationSnapshot getSnapshot() {
+        return snapshot;
+    }
+
+    /**
+     * The k stations closest to (lat, lon) that are open and have at least minBikes bikes
+     * and minStands free stands (0 for no condition), closest first.
+     */
+    public int[] nearest(double lat, double lon, int k, int minBikes, int minStands) {
+        if (k <= 0 || tree.length == 0) {
+            return new int[0];
+        }
+        Nearest best = new Nearest(k);
+        nearest(0, tree.length, 0, lon * cosLat, lat, minBikes, minStands, best);
+        return best.sorted();
+    }
+
+    /** Stations within radiusMeters of (lat, lon) matching the same conditions as nearest(), closest first. */
+    public int[] withinRadius(double lat, double lon, double radiusMeters, int minBikes, int minStands) {
+        double qx = lon * cosLat;
+        double r = radiusMeters / METERS_PER_DEGREE;
+        Found found = new Found();
+        forEachInBox(lat - r, lat + r, qx - r, qx + r, 0, tree.length, 0, i -> {
+            double d = distanceSq(i, qx, lat);
+            if (d <= r * r && matches(i, minBikes, minStands)) {
+                found.add(i, d);
+            }
+        });
+        return sortByDistance(found.stations, found.dist, found.size);
+    }
+
+    /** Calls action with every station inside the lat/lon box (no condition on bikes or stands). */
+    public void forEachInBox(double minLat, double maxLat, double minLon, double maxLon, IntConsumer action) {
+        forEachInBox(minLat, maxLat, minLon * cosLat, maxLon * cosLat, 0, tree.length, 0, action);
+    }
+
+    /** Distance in metres from station i to (lat, lon), on the same plane as the queries. */
+    public double distanceMeters(int station, double lat, double lon) {
+        return Math.sqrt(distanceSq(station, lon * cosLat, lat)) * METERS_PER_DEGREE;
+    }
+
+    private boolean matches(int i, int minBikes, int minStands) {
+        return snapshot.isOpen(i) && snapshot.getBikes(i) >= minBikes && snapshot.getStands(i) >= minStands;
+    }
+
+    private double distanceSq(int i, double qx, double qy) {
+        double dx = x[i] - qx;
+        double dy = y[i] - qy;
+        return dx * dx + dy * dy;
+    }
+
+    private double coord(int station, int axis) {
+        return axis == 0 ? x[station] : y[station];
+    }
+
+    /* Median split of tree[lo, hi) on the axis, then the two halves on the other axis */
+    private void build(int lo, int hi, int axis) {
+        if (hi - lo <= 1) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        select(lo, hi - 1, mid, axis);
+        build(lo, mid, 1 - axis);
+        build(mid + 1, hi, 1 - axis);
+    }
+
+    /* Quickselect: puts the k-th smallest of tree[lo..hi] (on the axis) at position k */
+    private void select(int lo, int hi, int k, int axis) {
+        while (hi > lo) {
+            double pivot = coord(tree[(lo + hi) >>> 1], axis);
+            int i = lo;
+            int j = hi;
+            while (i <= j) {
+                while (coord(tree[i], axis) < pivot) i++;
+                while (coord(tree[j], axis) > pivot) j--;
+                if (i <= j) {
+                    int t = tree[i];
+                    tree[i] = tree[j];
+                    tree[j] = t;
+                    i++;
+                    j--;
+                }
+            }
+            if (k <= j) {
+                hi = j;
+            } else if (k >= i) {
+                lo = i;
+            } else {
+                return;
+            }
+        }
+    }
+
+    private void nearest(int lo, int hi, int axis, double qx, double qy,
+                         int minBikes, int minStands, Nearest best) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int station = tree[mid];
+        if (matches(station, minBikes, minStands)) {
+            best.offer(station, distanceSq(station, qx, qy));
+        }
+
+        double diff = (axis == 0 ? qx : qy) - coord(station, axis);
+        // the side of the query point first, the other side only if it can still hold something closer
+        if (diff < 0) {
+            nearest(lo, mid, 1 - axis, qx, qy, minBikes, minStands, best);
+            if (diff * diff < best.worst()) {
+                nearest(mid + 1, hi, 1 - axis, qx, qy, minBikes, minStands, best);
+            }
+        } else {
+            nearest(mid + 1, hi, 1 - axis, qx, qy, minBikes, minStands, best);
+            if (diff * diff < best.worst()) {
+                nearest(lo, mid, 1 - axis, qx, qy, minBikes, minStands, best);
+            }
+        }
+    }
+
+    /* Box in projected coordinates (x already multiplied by cosLat) */
+    private void forEachInBox(double minY, double maxY, double minX, double maxX,
+                              int lo, int hi, int axis, IntConsumer action) {
+        if (lo >= hi) {
+            return;
+        }
+        int mid = (lo + hi) >>> 1;
+        int station = tree[mid];
+        double sx = x[station];
+        double sy = y[station];
+        if (sx >= minX && sx <= maxX && sy >= minY && sy <= maxY) {
+            action.accept(station);
+        }
+
+        double c = axis == 0 ? sx : sy;
+        double min = axis == 0 ? minX : minY;
+        double max = axis == 0 ? maxX : maxY;
+        if (min <= c) {
+            forEachInBox(minY, maxY, minX, maxX, lo, mid, 1 - axis, action);
+        }
+        if (max >= c) {
+            forEachInBox(minY, maxY, minX, maxX, mid + 1, hi, 1 - axis, action);
+        }
+    }
+
+    private static int[] sortByDistance(int[] stations, double[] dist, int n) {
+        Integer[] order = new Integer[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> Double.compare(dist[a], dist[b]));
+        int[] result = new int[n];
+        for (int i = 0; i < n; i++) {
+            result[i] = stations[order[i]];
+        }
+        return result;
+    }
+
+    /* Growable list of (station, squared distance) */
+    private static final class Found {
+        int[] stations = new int[16];
+        double[] dist = new double[16];
+        int size;
+
+        void add(int station, double d) {
+            if (size == stations.length) {
+                stations = Arrays.copyOf(stations, size * 2);
+                dist = Arrays.copyOf(dist, size * 2);
+            }
+            stations[size] = station;
+            dist[size] = d;
+            size++;
+        }
+    }
+
+    /* The k best candidates so far, as a max-heap on the distance (root = worst kept) */
+    private static final class Nearest {
+        final int[] stations;
+        final double[] dist;
+        int size;
+
+        Nearest(int k) {
+            stations = new int[k];
+            dist = new double[k];
+        }
+
+        double worst() {
+            return size < stations.length ? Double.POSITIVE_INFINITY : dist[0];
+        }
+
+        void offer(int station, double d) {
+            if (size < stations.length) {
+                int i = size++;
+                stations[i] = station;
+                dist[i] = d;
+                siftUp(i);
+            } else if (d < dist[0]) {
+                stations[0] = station;
+                dist[0] = d;
+                siftDown(0);
+            }
+        }
+
+        int[] sorted() {
+            return sortByDistance(stations, dist, size);
+        }
+
+        private void siftUp(int i) {
+            while (i > 0) {
+                int parent = (i - 1) / 2;
+                if (dist[parent] >= dist[i]) {
+                    return;
+                }
+                swap(i, parent);
+                i = parent;
+            }
+        }
+
+        private void siftDown(int i) {
+            while (true) {
+                int l = 2 * i + 1;
+                int r = l + 1;
+                int largest = i;
+                if (l < size && dist[l] > dist[largest]) largest = l;
+                if (r < size && dist[r] > dist[largest]) largest = r;
+                if (largest == i) {
+                    return;
+                }
+                swap(i, largest);
+                i = largest;
+            }
+        }
+
+        private void swap(int a, int b) {
+            int s = stations[a];
+            stations[a] = stations[b];
+            stations[b] = s;
+            double d = dist[a];
+            dist[a] = dist[b];
+            dist[b] = d;
+        }
+    }
+}
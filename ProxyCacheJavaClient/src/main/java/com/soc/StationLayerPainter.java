@@ -0,0 +1,190 @@
+package com.soc;
+
+import org.jxmapviewer.JXMapViewer;
+import org.jxmapviewer.painter.Painter;
+import org.jxmapviewer.viewer.GeoPosition;
+import org.jxmapviewer.viewer.TileFactory;
+import org.jxmapviewer.viewer.util.GeoUtil;
+
+import java.awt.*;
+import java.awt.geom.Point2D;
+import java.awt.image.BufferedImage;
+import java.util.Arrays;
+
+/**
+ * Draws the bike stations of a contract (a StationIndex) on the map.
+ *
+ * Only the stations inside the viewport are looked at (a box query on the k-d tree).
+ * Below street level the screen is cut into CLUSTER_CELL pixel cells and the stations of a cell are drawn
+ * as one circle with their count, so a whole city stays readable and costs a few dozen markers.
+ * Single stations are coloured by availability: green (bikes), orange (few bikes), red (no bike), gray (closed).
+ * Markers are pre-rendered images, so a frame is a few hundred drawImage calls and no antialiased shapes.
+ *
+ * setStations can be called from any thread; painting happens on the EDT.
+ */
+public class StationLayerPainter implements Painter<JXMapViewer> {
+
+    /* JXMapViewer zoom 0-2 is OSM 18-16 (street level): stations are far enough apart to draw them all */
+    private static final int MAX_ZOOM_WITHOUT_CLUSTERS = 2;
+    private static final int CLUSTER_CELL = 48;
+    private static final int FEW_BIKES = 3;
+
+    private static final int MARKER_SIZE = 12;
+    private static final Color BIKES_COLOR = new Color(0, 160, 60);
+    private static final Color FEW_BIKES_COLOR = new Color(240, 140, 0);
+    private static final Color NO_BIKES_COLOR = new Color(210, 30, 30);
+    private static final Color CLOSED_COLOR = Color.GRAY;
+    private static final Color CLUSTER_COLOR = new Color(30, 100, 200, 210);
+
+    // sprites, built on first paint
+    private BufferedImage[] stationSprites;
+    private BufferedImage[] clusterSprites;
+
+    private volatile StationIndex index;
+
+    // per-frame cluster grid, reused between frames
+    private int[] cellCount = new int[0];
+    private int[] cellStation = new int[0];
+    private double[] cellX = new double[0];
+    private double[] cellY = new double[0];
+
+    public StationLayerPainter() {
+    }
+
+    public StationLayerPainter(StationIndex index) {
+        this.index = index;
+    }
+
+    /** Stations to draw, null to draw none. Call repaint() on the map afterwards. */
+    public void setStations(StationIndex index) {
+        this.index = index;
+    }
+
+    public StationIndex getStations() {
+        return index;
+    }
+
+    @Override
+    public void paint(Graphics2D g, JXMapViewer map, int w, int h) {
+        StationIndex idx = index;
+        if (idx == null || idx.getSnapshot().size() == 0) {
+            return;
+        }
+        if (stationSprites == null) {
+            createSprites();
+        }
+
+        StationSnapshot stations = idx.getSnapshot();
+        TileFactory tileFactory = map.getTileFactory();
+        int zoom = map.getZoom();
+        Rectangle vp = map.getViewportBounds();
+        int margin = MARKER_SIZE;
+
+        GeoPosition topLeft = tileFactory.pixelToGeo(new Point2D.Double(vp.x - margin, vp.y - margin), zoom);
+        GeoPosition bottomRight = tileFactory.pixelToGeo(
+                new Point2D.Double(vp.x + vp.width + margin, vp.y + vp.height + margin), zoom);
+
+        boolean cluster = zoom > MAX_ZOOM_WITHOUT_CLUSTERS;
+        int cols = vp.width / CLUSTER_CELL + 1;
+        int rows = vp.height / CLUSTER_CELL + 1;
+        if (cluster) {
+            resetGrid(cols * rows);
+        }
+
+        Graphics2D g2 = (Graphics2D) g.create();
+        idx.forEachInBox(bottomRight.getLatitude(), topLeft.getLatitude(),
+                topLeft.getLongitude(), bottomRight.getLongitude(), i -> {
+                    Point2D pt = GeoUtil.getBitmapCoordinate(stations.getLat(i), stations.getLon(i),
+                            zoom, tileFactory.getInfo());
+                    double sx = pt.getX() - vp.x;
+                    double sy = pt.getY() - vp.y;
+                    if (!cluster) {
+                        drawStation(g2, stations, i, sx, sy);
+                        return;
+                    }
+                    int col = Math.max(0, Math.min(cols - 1, (int) Math.floor(sx / CLUSTER_CELL)));
+                    int row = Math.max(0, Math.min(rows - 1, (int) Math.floor(sy / CLUSTER_CELL)));
+                    int cell = row * cols + col;
+                    cellCount[cell]++;
+                    cellStation[cell] = i;
+                    cellX[cell] += sx;
+                    cellY[cell] += sy;
+                });
+
+        if (cluster) {
+            g2.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g2.setFont(g2.getFont().deriveFont(Font.BOLD, 11f));
+            FontMetrics fm = g2.getFontMetrics();
+            g2.setColor(Color.WHITE);
+            for (int cell = 0; cell < cols * rows; cell++) {
+                int n = cellCount[cell];
+                if (n == 1) {
+                    drawStation(g2, stations, cellStation[cell], cellX[cell], cellY[cell]);
+                } else if (n > 1) {
+                    drawCluster(g2, fm, n, cellX[cell] / n, cellY[cell] / n);
+                }
+            }
+        }
+        g2.dispose();
+    }
+
+    private void resetGrid(int cells) {
+        if (cellCount.length != cells) {
+            cellCount = new int[cells];
+            cellStation = new int[cells];
+            cellX = new double[cells];
+            cellY = new double[cells];
+        } else {
+            Arrays.fill(cellCount, 0);
+            Arrays.fill(cellX, 0);
+            Arrays.fill(cellY, 0);
+        }
+    }
+
+    private void drawStation(Graphics2D g2, StationSnapshot stations, int i, double x, double y) {
+        BufferedImage sprite;
+        if (!stations.isOpen(i)) {
+            sprite = stationSprites[3];
+        } else if (stations.getBikes(i) == 0) {
+            sprite = stationSprites[2];
+        } else if (stations.getBikes(i) < FEW_BIKES) {
+            sprite = stationSprites[1];
+        } else {
+            sprite = stationSprites[0];
+        }
+        g2.drawImage(sprite, (int) x - sprite.getWidth() / 2, (int) y - sprite.getHeight() / 2, null);
+    }
+
+    private void drawCluster(Graphics2D g2, FontMetrics fm, int count, double x, double y) {
+        BufferedImage sprite = clusterSprites[count < 10 ? 0 : count < 100 ? 1 : 2];
+        g2.drawImage(sprite, (int) x - sprite.getWidth() / 2, (int) y - sprite.getHeight() / 2, null);
+
+        String text = Integer.toString(count);
+        g2.drawString(text, (int) x - fm.stringWidth(text) / 2, (int) y + fm.getAscent() / 2 - 1);
+    }
+
+    private void createSprites() {
+        Color[] colors = {BIKES_COLOR, FEW_BIKES_COLOR, NO_BIKES_COLOR, CLOSED_COLOR};
+        stationSprites = new BufferedImage[colors.length];
+        for (int k = 0; k < colors.length; k++) {
+            stationSprites[k] = circle(MARKER_SIZE, colors[k], Color.WHITE);
+        }
+        clusterSprites = new BufferedImage[]{
+                circle(22, CLUSTER_COLOR, Color.WHITE),
+                circle(28, CLUSTER_COLOR, Color.WHITE),
+                circle(34, CLUSTER_COLOR, Color.WHITE)
+        };
+    }
+
+    private static BufferedImage circle(int size, Color fill, Color border) {
+        BufferedImage image = new BufferedImage(size + 2, size + 2, BufferedImage.TYPE_INT_ARGB_PRE);
+        Graphics2D g = image.createGraphics();
+        g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+        g.setColor(border);
+        g.fillOval(0, 0, size + 1, size + 1);
+        g.setColor(fill);
+        g.fillOval(2, 2, size - 3, size - 3);
+        g.dispose();
+        return image;
+    }
+}
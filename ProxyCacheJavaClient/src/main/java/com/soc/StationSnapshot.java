@@ -0,0 +1,297 @@
+package com.soc;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParseException;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.util.Arrays;
+
+/**
+ * The stations of one JCDecaux contract at one point in time, stored column by column:
+ * one primitive array per field (lat, lon, bikes, stands, ...) and all the names in a single string table,
+ * so a contract of 1500 stations is a dozen objects instead of several thousand.
+ *
+ * A snapshot is immutable: StationStore replaces it as a whole when the contract is refreshed,
+ * so readers can keep using the one they have without any locking.
+ * Built by parse() from the JCDecaux v3 JSON returned by getJcdecauxStationsGeneric.
+ */
+public final class StationSnapshot {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+
+    private final String contract;
+    private final Instant fetchedAt;
+    private final int size;
+    private final int[] numbers;
+    private final double[] lat;
+    private final double[] lon;
+    private final int[] bikes;
+    private final int[] stands;
+    private final int[] capacity;
+    private final boolean[] open;
+    private final String nameTable;    // all names one after the other
+    private final int[] nameStart;     // name i is nameTable[nameStart[i] .. nameStart[i + 1])
+
+    // SHA-256 of the raw payload, to skip parsing when the proxy returns the same cached JSON again
+    // (32 bytes instead of keeping the whole JSON; a 32-bit hashCode could take a changed payload for the old one)
+    private final byte[] sourceDigest;
+
+    private StationSnapshot(String contract, Instant fetchedAt, Columns c, String source) {
+        this.contract = contract;
+        this.fetchedAt = fetchedAt;
+        this.size = c.size;
+        this.numbers = Arrays.copyOf(c.numbers, size);
+        this.lat = Arrays.copyOf(c.lat, size);
+        this.lon = Arrays.copyOf(c.lon, size);
+        this.bikes = Arrays.copyOf(c.bikes, size);
+        this.stands = Arrays.copyOf(c.stands, size);
+        this.capacity = Arrays.copyOf(c.capacity, size);
+        this.open = Arrays.copyOf(c.open, size);
+        this.nameTable = c.names.toString();
+        this.nameStart = Arrays.copyOf(c.nameStart, size + 1);
+        this.sourceDigest = digest(source);
+    }
+
+    /** Parses the JSON array of stations of a contract (token by token, no tree). */
+    public static StationSnapshot parse(String contract, String json) throws IOException {
+        return parse(contract, json, Instant.now());
+    }
+
+    static StationSnapshot parse(String contract, String json, Instant fetchedAt) throws IOException {
+        Columns c = new Columns();
+        try (JsonParser p = FACTORY.createParser(json)) {
+            if (p.nextToken() != JsonToken.START_ARRAY) {
+                throw new JsonParseException(p, "Expected the JSON array of stations");
+            }
+            while (p.nextToken() == JsonToken.START_OBJECT) {
+                readStation(p, c);
+            }
+        }
+        return new StationSnapshot(contract, fetchedAt, c, json);
+    }
+
+    /* Same payload as the one this snapshot was parsed from (the proxy often returns its cached copy) */
+    boolean isSameSource(String json) {
+        return MessageDigest.isEqual(sourceDigest, digest(json));
+    }
+
+    private static byte[] digest(String json) {
+        try {
+            return MessageDigest.getInstance("SHA-256").digest(json.getBytes(StandardCharsets.UTF_8));
+        } catch (NoSuchAlgorithmException ex) {
+            throw new IllegalStateException("SHA-256 is required by the Java platform", ex);
+        }
+    }
+
+    /** Same stations with a new fetch time (nothing changed on the server); the columns are shared. */
+    StationSnapshot withFetchedAt(Instant time) {
+        return new StationSnapshot(this, time);
+    }
+
+    private StationSnapshot(StationSnapshot other, Instant fetchedAt) {
+        this.contract = other.contract;
+        this.fetchedAt = fetchedAt;
+        this.size = other.size;
+        this.numbers = other.numbers;
+        this.lat = other.lat;
+        this.lon = other.lon;
+        this.bikes = other.bikes;
+        this.stands = other.stands;
+        this.capacity = other.capacity;
+        this.open = other.open;
+        this.nameTable = other.nameTable;
+        this.nameStart = other.nameStart;
+        this.sourceDigest = other.sourceDigest;
+    }
+
+    public String getContract() {
+        return contract;
+    }
+
+    public Instant getFetchedAt() {
+        return fetchedAt;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int getNumber(int i) {
+        checkIndex(i);
+        return numbers[i];
+    }
+
+    public double getLat(int i) {
+        checkIndex(i);
+        return lat[i];
+    }
+
+    public double getLon(int i) {
+        checkIndex(i);
+        return lon[i];
+    }
+
+    public int getBikes(int i) {
+        checkIndex(i);
+        return bikes[i];
+    }
+
+    public int getStands(int i) {
+        checkIndex(i);
+        return stands[i];
+    }
+
+    public int getCapacity(int i) {
+        checkIndex(i);
+        return capacity[i];
+    }
+
+    public boolean isOpen(int i) {
+        checkIndex(i);
+        return open[i];
+    }
+
+    /** Creates the String on each call; compare or search with the other columns first. */
+    public String getName(int i) {
+        checkIndex(i);
+        return nameTable.substring(nameStart[i], nameStart[i + 1]);
+    }
+
+    /** Index of the station with this JCDecaux number, or -1. */
+    public int indexOfNumber(int number) {
+        for (int i = 0; i < size; i++) {
+            if (numbers[i] == number) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** Total bikes available in the contract (open stations only). */
+    public int totalBikes() {
+        int total = 0;
+        for (int i = 0; i < size; i++) {
+            if (open[i]) {
+                total += bikes[i];
+            }
+        }
+        return total;
+    }
+
+    /** Approximate memory used by the columns, in bytes. */
+    public long estimatedBytes() {
+        return (long) size * (4 + 8 + 8 + 4 + 4 + 4 + 1 + 4) + 2L * nameTable.length();
+    }
+
+    private void checkIndex(int i) {
+        if (i < 0 || i >= size) {
+            throw new IndexOutOfBoundsException("Index " + i + " out of bounds for " + size + " stations");
+        }
+    }
+
+    private static void readStation(JsonParser p, Columns c) throws IOException {
+        int number = 0;
+        String name = "";
+        double latitude = Double.NaN;
+        double longitude = Double.NaN;
+        int availableBikes = 0;
+        int availableStands = 0;
+        int totalCapacity = 0;
+        boolean isOpen = true;
+
+        while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String field = p.currentName();
+            if (p.nextToken() != JsonToken.START_OBJECT && ("position".equals(field) || "totalStands".equals(field))) {
+                p.skipChildren(); // null or unexpected value: nothing to read
+                continue;
+            }
+            switch (field) {
+                case "number" -> number = p.getValueAsInt(0);
+                case "name" -> name = p.getValueAsString("");
+                case "status" -> isOpen = "OPEN".equals(p.getValueAsString());
+                case "position" -> {
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String f = p.currentName();
+                        p.nextToken();
+                        switch (f) {
+                            case "latitude" -> latitude = p.getValueAsDouble(Double.NaN);
+                            case "longitude" -> longitude = p.getValueAsDouble(Double.NaN);
+                            default -> p.skipChildren();
+                        }
+                    }
+                }
+                case "totalStands" -> {
+                    while (p.nextToken() == JsonToken.FIELD_NAME) {
+                        String f = p.currentName();
+                        p.nextToken();
+                        if ("availabilities".equals(f) && p.currentToken() == JsonToken.START_OBJECT) {
+                            while (p.nextToken() == JsonToken.FIELD_NAME) {
+                                String a = p.currentName();
+                                p.nextToken();
+                                switch (a) {
+                                    case "bikes" -> availableBikes = p.getValueAsInt(0);
+                                    case "stands" -> availableStands = p.getValueAsInt(0);
+                                    default -> p.skipChildren();
+                                }
+                            }
+                        } else if ("capacity".equals(f)) {
+                            totalCapacity = p.getValueAsInt(0);
+                        } else {
+                            p.skipChildren();
+                        }
+                    }
+                }
+                default -> p.skipChildren();
+            }
+        }
+
+        // a station without a position cannot be shown or searched
+        if (!Double.isNaN(latitude) && !Double.isNaN(longitude)) {
+            c.add(number, name, latitude, longitude, availableBikes, availableStands, totalCapacity, isOpen);
+        }
+    }
+
+    /* Growable columns used while parsing */
+    private static final class Columns {
+        int size;
+        int[] numbers = new int[256];
+        double[] lat = new double[256];
+        double[] lon = new double[256];
+        int[] bikes = new int[256];
+        int[] stands = new int[256];
+        int[] capacity = new int[256];
+        boolean[] open = new boolean[256];
+        StringBuilder names = new StringBuilder();
+        int[] nameStart = new int[257];
+
+        void add(int number, String name, double la, double lo, int b, int s, int cap, boolean isOpen) {
+            if (size == numbers.length) {
+                int n = size * 2;
+                numbers = Arrays.copyOf(numbers, n);
+                lat = Arrays.copyOf(lat, n);
+                lon = Arrays.copyOf(lon, n);
+                bikes = Arrays.copyOf(bikes, n);
+                stands = Arrays.copyOf(stands, n);
+                capacity = Arrays.copyOf(capacity, n);
+                open = Arrays.copyOf(open, n);
+                nameStart = Arrays.copyOf(nameStart, n + 1);
+            }
+            numbers[size] = number;
+            lat[size] = la;
+            lon[size] = lo;
+            bikes[size] = b;
+            stands[size] = s;
+            capacity[size] = cap;
+            open[size] = isOpen;
+            names.append(name);
+            size++;
+            nameStart[size] = names.length();
+        }
+    }
+}
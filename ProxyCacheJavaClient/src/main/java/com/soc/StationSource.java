@@ -0,0 +1,44 @@
+package com.soc;
+
+import com.soap.proxycache.client.generated.IProxyService;
+import com.soap.proxycache.client.generated.ProxyService;
+
+/**
+ * Where StationStore gets the raw station JSON of a contract.
+ * In the application this is the ProxyCacheService SOAP port (soap()); a test or a benchmark can
+ * give a lambda returning a fixed payload instead.
+ */
+@FunctionalInterface
+public interface StationSource {
+
+    /**
+     * JCDecaux v3 JSON array of the stations of the contract.
+     * ttlSeconds is how long the proxy may serve its cached copy.
+     */
+    String fetchStationsJson(String contract, int ttlSeconds) throws Exception;
+
+    /** Stations through ProxyCacheService (getJcdecauxStationsGeneric); wrap the port with ClientMetrics.instrumentSoap to time the calls. */
+    static StationSource soap(IProxyService port) {
+        return port::getJcdecauxStationsGeneric;
+    }
+
+    /**
+     * Same, with the port created on the first fetch: creating it parses the WSDL and builds the port
+     * (tens of ms), which must not happen on the EDT (the fetches run on StationStore's refresh thread).
+     * For many contracts refreshed at once, use ProxyServicePool.asStationSource() instead.
+     */
+    static StationSource soap() {
+        return new StationSource() {
+            private IProxyService port;
+
+            @Override
+            public synchronized String fetchStationsJson(String contract, int ttlSeconds) {
+                if (port == null) {
+                    port = ClientMetrics.instrumentSoap(
+                            new ProxyService().getBasicHttpBindingIProxyService(), IProxyService.class);
+                }
+                return port.getJcdecauxStationsGeneric(contract, ttlSeconds);
+            }
+        };
+    }
+}
@@ -0,0 +1,192 @@
+package com.soc;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/**
+ * Latest StationSnapshot of each tracked JCDecaux contract, kept up to date in the background.
+ *
+ * track(contract, ttl) loads the contract once and then refreshes it every ttl on a scheduler
+ * (the same ttl is passed to the proxy, so its cache and ours expire together).
+ * Each refresh parses the payload once and swaps the new snapshot in: get() is a map read that never waits
+ * for the network or the parser, and readers keep a consistent snapshot for as long as they hold it.
+ * When the proxy returns the same JSON as last time, the previous columns are reused without parsing.
+ * A failed refresh keeps the previous snapshot and is retried at the next period; it is counted in
+ * ClientMetrics (StationRefreshErrors) with a JFR event.
+ */
+public class StationStore implements AutoCloseable {
+
+    private final StationSource source;
+    private final ScheduledExecutorService scheduler =
+            Executors.newSingleThreadScheduledExecutor(Thread.ofVirtual().name("station-refresh").factory());
+
+    private final Map<String, StationSnapshot> snapshots = new ConcurrentHashMap<>();
+    private final Map<String, Tracked> tracked = new ConcurrentHashMap<>();
+    private final List<Consumer<StationSnapshot>> listeners = new CopyOnWriteArrayList<>();
+
+    private final AtomicLong refreshes = new AtomicLong();
+    private final AtomicLong parses = new AtomicLong();
+    private final AtomicLong failures = new AtomicLong();
+
+    public StationStore(StationSource source) {
+        this.source = source;
+    }
+
+    /**
+     * Starts keeping the contract up to date (first load now, in the background).
+     * Tracking a contract again only changes its refresh period.
+     */
+    public void track(String contract, Duration ttl) {
+        String key = normalize(contract);
+        long periodMillis = Math.max(1000, ttl.toMillis());
+
+        // registered before the first run, which checks that it is still the tracked entry
+        Tracked t = new Tracked(key, (int) Math.max(1, ttl.toSeconds()));
+        Tracked old = tracked.put(key, t);
+        if (old != null) {
+            old.cancel();
+        }
+        t.task = scheduler.scheduleWithFixedDelay(() -> refresh(t), 0, periodMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /** Stops refreshing the contract and forgets its snapshot. */
+    public void untrack(String contract) {
+        String key = normalize(contract);
+        Tracked t = tracked.remove(key);
+        if (t != null) {
+            t.cancel();
+        }
+        snapshots.remove(key);
+    }
+
+    /** Current snapshot of the contract, or null if it was never loaded. Never blocks. */
+    public StationSnapshot get(String contract) {
+        return snapshots.get(normalize(contract));
+    }
+
+    /**
+     * Waits (at most timeout) for the first snapshot of a tracked contract.
+     * Returns at once if one is already there.
+     */
+    public StationSnapshot await(String contract, Duration timeout) throws InterruptedException, TimeoutException {
+        String key = normalize(contract);
+        Tracked t = tracked.get(key);
+        StationSnapshot s = snapshots.get(key);
+        if (s != null || t == null) {
+            return s;
+        }
+        try {
+            return t.firstLoad.get(timeout.toMillis(), TimeUnit.MILLISECONDS);
+        } catch (ExecutionException ex) {
+            return snapshots.get(key);
+        }
+    }
+
+    /** Refreshes a tracked contract now instead of waiting for its next period. */
+    public CompletableFuture<StationSnapshot> refreshNow(String contract) {
+        Tracked t = tracked.get(normalize(contract));
+        if (t == null) {
+            return CompletableFuture.failedFuture(new IllegalStateException("Contract not tracked: " + contract));
+        }
+        return CompletableFuture.supplyAsync(() -> {
+            refresh(t);
+            return snapshots.get(t.contract);
+        }, scheduler);
+    }
+
+    /** Called (on the refresh thread) with every new snapshot, e.g. to repaint a station layer. */
+    public void addListener(Consumer<StationSnapshot> listener) {
+        listeners.add(listener);
+    }
+
+    public void removeListener(Consumer<StationSnapshot> listener) {
+        listeners.remove(listener);
+    }
+
+    public long getRefreshCount() {
+        return refreshes.get();
+    }
+
+    /** Refreshes that actually parsed JSON (the others got the same payload as before). */
+    public long getParseCount() {
+        return parses.get();
+    }
+
+    public long getFailureCount() {
+        return failures.get();
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+    }
+
+    private void refresh(Tracked t) {
+        refreshes.incrementAndGet();
+        try {
+            String json = source.fetchStationsJson(t.contract, t.ttlSeconds);
+            StationSnapshot previous = snapshots.get(t.contract);
+
+            StationSnapshot next;
+            if (previous != null && previous.isSameSource(json)) {
+                next = previous.withFetchedAt(Instant.now());
+            } else {
+                next = StationSnapshot.parse(t.contract, json);
+                parses.incrementAndGet();
+            }
+
+            if (tracked.get(t.contract) != t) {
+                return; // untracked or re-tracked meanwhile
+            }
+            snapshots.put(t.contract, next);
+            t.firstLoad.complete(next);
+            for (Consumer<StationSnapshot> listener : listeners) {
+                listener.accept(next);
+            }
+        } catch (Exception ex) {
+            failures.incrementAndGet();
+            ClientMetrics.recordStationRefreshError(t.contract, ex);
+            if (!snapshots.containsKey(t.contract)) {
+                t.firstLoad.completeExceptionally(ex);
+            }
+        }
+    }
+
+    /* JCDecaux contract names are lower case ("lyon", "toulouse") */
+    private static String normalize(String contract) {
+        return contract.trim().toLowerCase(Locale.ROOT);
+    }
+
+    private static final class Tracked {
+        final String contract;
+        final int ttlSeconds;
+        final CompletableFuture<StationSnapshot> firstLoad = new CompletableFuture<>();
+        volatile ScheduledFuture<?> task;
+
+        Tracked(String contract, int ttlSeconds) {
+            this.contract = contract;
+            this.ttlSeconds = ttlSeconds;
+        }
+
+        void cancel() {
+            ScheduledFuture<?> f = task;
+            if (f != null) {
+                f.cancel(false);
+            }
+        }
+    }
+}
@@ -0,0 +1,356 @@
+package com.soc;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Local stand-in for the RoutingServiceREST /itinerary endpoint (JDK HttpServer, no network needed).
+ * It answers every POST with a synthetic walk / bike / walk itinerary of a configurable number of points,
+ * in the same JSON shape as ItineraryResponse on the C# side. The route only depends on the
+ * origin/destination, so the same request always gives the same response.
+ * Like a server that supports them, it answers in Smile or CBOR when Accept asks for it,
+ * and gzip-compresses the body when Accept-Encoding allows it (see ItineraryTransport).
+ * Faults can be injected to exercise RoutingResilience (setFaults): a share of the requests answered
+ * 503, and a share made slower, for a latency tail; or, for a reproducible tail, the next few requests
+ * made slower (delayNext).
+ *
+ * Standalone: java com.soc.StubItineraryServer [port] [points] [delayMs] [errorRate] [slowRate] [slowMs]
+ */
+public class StubItineraryServer implements AutoCloseable {
+
+    private static final JsonFactory FACTORY = new JsonFactory();
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private static final ItineraryCodecs.Jackson JSON = new ItineraryCodecs.Json();
+    private static final List<ItineraryCodecs.Jackson> CODECS =
+            List.of(JSON, new ItineraryCodecs.Smile(), new ItineraryCodecs.Cbor());
+
+    private final HttpServer server;
+    private final int points;
+    private final long delayMillis;
+
+    private volatile double errorRate;
+    private volatile double slowRate;
+    private volatile long slowDelayMillis;
+    private final AtomicInteger delayedNext = new AtomicInteger();
+    private volatile long nextDelayMillis;
+    private final LongAdder requests = new LongAdder();
+
+    /**
+     * @param port        0 for any free port
+     * @param points      number of coordinates in the whole itinerary
+     * @param delayMillis artificial server time added to every response
+     */
+    public StubItineraryServer(int port, int points, long delayMillis) throws IOException {
+        this.points = Math.max(2, points);
+        this.delayMillis = delayMillis;
+
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8733;
+        int points = args.length > 1 ? Integer.parseInt(args[1]) : 2000;
+        long delay = args.length > 2 ? Long.parseLong(args[2]) : 0;
+        double errorRate = args.length > 3 ? Double.parseDouble(args[3]) : 0;
+        double slowRate = args.length > 4 ? Double.parseDouble(args[4]) : 0;
+        long slowMillis = args.length > 5 ? Long.parseLong(args[5]) : 0;
+
+        StubItineraryServer stub = new StubItineraryServer(port, points, delay);
+        stub.setFaults(errorRate, slowRate, slowMillis);
+        System.out.println("Stub itinerary server listening on " + stub.getItineraryUrl()
+                + " (" + points + " points, " + delay + " ms delay, " + stub.faults() + ")");
+    }
+
+    /**
+     * Fault injection, can be changed while the server runs.
+     *
+     * @param errorRate       share of the requests answered 503 (0 to 1)
+     * @param slowRate        share of the requests delayed by slowDelayMillis more (0 to 1)
+     * @param slowDelayMillis extra delay of the slow requests
+     */
+    public void setFaults(double errorRate, double slowRate, long slowDelayMillis) {
+        this.errorRate = errorRate;
+        this.slowRate = slowRate;
+        this.slowDelayMillis = slowDelayMillis;
+    }
+
+    /** The next count requests (whatever the fault rates) are delayed by millis more. */
+    public void delayNext(int count, long millis) {
+        nextDelayMillis = millis;
+        delayedNext.set(count);
+    }
+
+    String faults() {
+        return "errors " + Math.round(errorRate * 100) + "%, " + Math.round(slowRate * 100) + "% slower by "
+                + slowDelayMillis + " ms";
+    }
+
+    /** Requests received so far (hedges and retries included). */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /** URL to use instead of the real /itinerary endpoint. */
+    public String getItineraryUrl() {
+        return "http://localhost:" + server.getAddress().getPort()
+                + "/Design_Time_Addresses/RoutingServiceREST/Service1/itinerary";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+
+            String origin = "";
+            String destination = "";
+            try (InputStream in = exchange.getRequestBody()) {
+                JsonNode req = MAPPER.readTree(in);
+                if (req != null) {
+                    origin = req.path("Origin").asText("");
+                    destination = req.path("Destination").asText("");
+                }
+            }
+
+            requests.increment();
+
+            ThreadLocalRandom rnd = ThreadLocalRandom.current();
+            long delay = delayMillis + (rnd.nextDouble() < slowRate ? slowDelayMillis : 0);
+            if (delayedNext.getAndUpdate(n -> Math.max(0, n - 1)) > 0) {
+                delay += nextDelayMillis;
+            }
+            if (delay > 0) {
+                try {
+                    Thread.sleep(delay);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    exchange.sendResponseHeaders(503, -1);
+                    return;
+                }
+            }
+
+            if (rnd.nextDouble() < errorRate) {
+                byte[] message = "Injected failure (stub server)".getBytes(StandardCharsets.UTF_8);
+                exchange.getResponseHeaders().set("Content-Type", "text/plain; charset=utf-8");
+                exchange.sendResponseHeaders(503, message.length);
+                try (OutputStream out = exchange.getResponseBody()) {
+                    out.write(message);
+                }
+                return;
+            }
+
+            ItineraryCodecs.Jackson codec = negotiate(exchange.getRequestHeaders().getFirst("Accept"));
+            boolean gzip = accepts(exchange.getRequestHeaders().getFirst("Accept-Encoding"), "gzip");
+
+            // built in memory first: small chunked writes would stall on Nagle/delayed ACK over loopback
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream(points * (gzip ? 20 : 48));
+            try (OutputStream out = gzip ? new GZIPOutputStream(buffer, 8192) : buffer) {
+                writeItinerary(codec.getFactory(), out, seedOf(origin, destination), points);
+            }
+
+            if (codec instanceof ItineraryCodecs.Json) {
+                exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            } else {
+                exchange.getResponseHeaders().set("Content-Type", codec.mediaType());
+            }
+            if (gzip) {
+                exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+            }
+            exchange.getResponseHeaders().set("Vary", "Accept, Accept-Encoding");
+            exchange.sendResponseHeaders(200, buffer.size());
+            try (OutputStream out = exchange.getResponseBody()) {
+                buffer.writeTo(out);
+            }
+        }
+    }
+
+    /* The codec of the first listed media type we can write (highest q first), JSON otherwise */
+    private static ItineraryCodecs.Jackson negotiate(String accept) {
+        ItineraryCodecs.Jackson best = JSON;
+        double bestQ = 0;
+        if (accept != null) {
+            for (String range : accept.split(",")) {
+                String type = ItineraryCodecs.mediaTypeOf(range);
+                double q = quality(range);
+                for (ItineraryCodecs.Jackson codec : CODECS) {
+                    if (codec.mediaType().equals(type) && q > bestQ) {
+                        best = codec;
+                        bestQ = q;
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    private static boolean accepts(String acceptEncoding, String coding) {
+        if (acceptEncoding == null) {
+            return false;
+        }
+        for (String range : acceptEncoding.split(",")) {
+            if (ItineraryCodecs.mediaTypeOf(range).equals(coding) && quality(range) > 0) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static double quality(String range) {
+        for (String param : range.split(";")) {
+            String p = param.trim();
+            if (p.startsWith("q=")) {
+                try {
+                    return Double.parseDouble(p.substring(2));
+                } catch (NumberFormatException ex) {
+                    return 0;
+                }
+            }
+        }
+        return 1;
+    }
+
+    static long seedOf(String origin, String destination) {
+        return ItineraryCache.key(origin, destination).hashCode();
+    }
+
+    /**
+     * Writes a synthetic itinerary of the given number of points as JSON:
+     * a walk to a station, a bike ride (about 80% of the points) and a walk to the destination.
+     * Used by the stub server and by the benchmarks to build fixtures.
+     */
+    public static void writeItinerary(OutputStream out, long seed, int points) throws IOException {
+        writeItinerary(FACTORY, out, seed, points);
+    }
+
+    /** Same itinerary in the format of the factory (JSON, Smile, CBOR). */
+    public static void writeItinerary(JsonFactory factory, OutputStream out, long seed, int points)
+            throws IOException {
+        SplittableRandom rnd = new SplittableRandom(seed);
+
+        // start somewhere in France, then a random walk with a general direction
+        double lat = 43.0 + rnd.nextDouble() * 6.0;
+        double lon = -1.0 + rnd.nextDouble() * 7.0;
+        double heading = rnd.nextDouble() * 2 * Math.PI;
+
+        int walk1 = Math.max(1, points / 10);
+        int walk2 = Math.max(1, points / 10);
+        int bike = Math.max(1, points - walk1 - walk2);
+
+        double[][] parts = new double[3][];
+        int[] sizes = {walk1, bike, walk2};
+        for (int s = 0; s < 3; s++) {
+            double step = s == 1 ? 0.0008 : 0.0002; // bike legs move faster than walk legs
+            double[] coords = new double[sizes[s] * 2];
+            for (int i = 0; i < sizes[s]; i++) {
+                if (i > 0 || s > 0) {
+                    heading += (rnd.nextDouble() - 0.5) * 0.6;
+                    lat += Math.cos(heading) * step;
+                    lon += Math.sin(heading) * step;
+                }
+                coords[2 * i] = lat;
+                coords[2 * i + 1] = lon;
+            }
+            parts[s] = coords;
+        }
+
+        try (JsonGenerator g = factory.createGenerator(out, JsonEncoding.UTF8)) {
+            g.writeStartObject();
+            g.writeBooleanField("Success", true);
+            g.writeStringField("Message", "Synthetic itinerary (stub server)");
+            g.writeArrayFieldStart("Instructions");
+            g.writeString("Walk to the station");
+            g.writeString("Ride to the station");
+            g.writeString("Walk to the destination");
+            g.writeEndArray();
+            g.writeBooleanField("UseBike", true);
+
+            writeCoords(g, "Walk1Coords", parts[0]);
+            writeCoords(g, "BikeCoords", parts[1]);
+            writeCoords(g, "Walk2Coords", parts[2]);
+
+            g.writeArrayFieldStart("Segments");
+            String[] modes = {"walk", "bike", "walk"};
+            String[] names = {"Origin", "Station A", "Station B", "Destination"};
+            for (int s = 0; s < 3; s++) {
+                double meters = lengthMeters(parts[s]);
+                g.writeStartObject();
+                g.writeStringField("Mode", modes[s]);
+                if (s == 1) {
+                    g.writeStringField("Contract", "stub");
+                } else {
+                    g.writeNullField("Contract");
+                }
+                g.writeStringField("FromName", names[s]);
+                g.writeStringField("ToName", names[s + 1]);
+                writeCoords(g, "Coords", parts[s]);
+                g.writeNumberField("DistanceMeters", meters);
+                g.writeNumberField("DurationSec", meters / (s == 1 ? 4.2 : 1.4));
+                g.writeEndObject();
+            }
+            g.writeEndArray();
+
+            g.writeNumberField("OriginResolvedLat", parts[0][0]);
+            g.writeNumberField("OriginResolvedLon", parts[0][1]);
+            g.writeNumberField("DestResolvedLat", parts[2][parts[2].length - 2]);
+            g.writeNumberField("DestResolvedLon", parts[2][parts[2].length - 1]);
+            g.writeEndObject();
+        }
+    }
+
+    private static void writeCoords(JsonGenerator g, String field, double[] coords) throws IOException {
+        g.writeArrayFieldStart(field);
+        for (int k = 0; k < coords.length; k += 2) {
+            g.writeStartArray();
+            g.writeNumber(coords[k]);
+            g.writeNumber(coords[k + 1]);
+            g.writeEndArray();
+        }
+        g.writeEndArray();
+    }
+
+    private static double lengthMeters(double[] coords) {
+        double total = 0;
+        for (int k = 2; k < coords.length; k += 2) {
+            total += haversineMeters(coords[k - 2], coords[k - 1], coords[k], coords[k + 1]);
+        }
+        return total;
+    }
+
+    private static double haversineMeters(double lat1, double lon1, double lat2, double lon2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLon = Math.toRadians(lon2 - lon1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2) +
+                Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2)) *
+                        Math.sin(dLon / 2) * Math.sin(dLon / 2);
+        return 6371000.0 * 2 * Math.atan2(Math.sqrt(a), Math.sqrt(1 - a));
+    }
+}
@@ -0,0 +1,132 @@
+package com.soc;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Local stand-in for the ProxyCacheService SOAP endpoint (JDK HttpServer, no network needed), to exercise
+ * ProxyServicePool and the SOAP benchmarks. It answers every operation of IProxyService (SOAP 1.1,
+ * operation taken from the SOAPAction header) with a fixed result: a small JSON document, "[]" for the
+ * stations. Point the client at getEndpoint() (e.g. -Dproxy.endpoint=...).
+ *
+ * Standalone: java com.soc.StubProxyServer [port] [delayMs]
+ */
+public class StubProxyServer implements AutoCloseable {
+
+    private static final String ACTION_PREFIX = "http://tempuri.org/IProxyService/";
+
+    static {
+        // headers and a small body leave in two writes: with Nagle the body waits for the client's delayed ACK
+        // (about 40 ms per call on loopback). Read once by the JDK server, so it must be set before the first one.
+        if (System.getProperty("sun.net.httpserver.nodelay") == null) {
+            System.setProperty("sun.net.httpserver.nodelay", "true");
+        }
+    }
+
+    private final HttpServer server;
+    private final long delayMillis;
+    private final LongAdder calls = new LongAdder();
+
+    /**
+     * @param port        0 for any free port
+     * @param delayMillis artificial server time added to every response
+     */
+    public StubProxyServer(int port, long delayMillis) throws IOException {
+        this.delayMillis = delayMillis;
+
+        server = HttpServer.create(new InetSocketAddress("localhost", port), 0);
+        server.createContext("/", this::handle);
+        server.setExecutor(Executors.newVirtualThreadPerTaskExecutor());
+        server.start();
+    }
+
+    public static void main(String[] args) throws IOException {
+        int port = args.length > 0 ? Integer.parseInt(args[0]) : 8734;
+        long delay = args.length > 1 ? Long.parseLong(args[1]) : 0;
+
+        StubProxyServer stub = new StubProxyServer(port, delay);
+        System.out.println("Stub proxy server listening on " + stub.getEndpoint() + " (" + delay + " ms delay)");
+    }
+
+    /** Address to use instead of the real ProxyCacheService endpoint. */
+    public String getEndpoint() {
+        return "http://localhost:" + server.getAddress().getPort()
+                + "/Design_Time_Addresses/ProxyCacheService/Service1/";
+    }
+
+    /** SOAP calls answered so far. */
+    public long getCalls() {
+        return calls.sum();
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try (exchange) {
+            if (!"POST".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(405, -1);
+                return;
+            }
+            try (InputStream in = exchange.getRequestBody()) {
+                in.readAllBytes();
+            }
+
+            String action = exchange.getRequestHeaders().getFirst("SOAPAction");
+            String operation = action == null ? "" : action.replace("\"", "");
+            if (!operation.startsWith(ACTION_PREFIX)) {
+                exchange.sendResponseHeaders(400, -1);
+                return;
+            }
+            operation = operation.substring(ACTION_PREFIX.length());
+            calls.increment();
+
+            if (delayMillis > 0) {
+                try {
+                    Thread.sleep(delayMillis);
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    exchange.sendResponseHeaders(503, -1);
+                    return;
+                }
+            }
+
+            byte[] body = envelope(operation).getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().set("Content-Type", "text/xml; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream out = exchange.getResponseBody()) {
+                out.write(body);
+            }
+        }
+    }
+
+    /* <OpResponse><OpResult>..</OpResult></OpResponse>, as WCF writes it; Evict and EvictGeneric return nothing */
+    private static String envelope(String operation) {
+        String result;
+        if (operation.startsWith("Evict")) {
+            result = "";
+        } else {
+            String value = operation.equals("GetJcdecauxStationsGeneric") || operation.equals("GetJcdecauxContractsGeneric")
+                    ? "[]"
+                    : "{\"stub\":true,\"operation\":\"" + operation + "\"}";
+            result = "<" + operation + "Result>" + escape(value) + "</" + operation + "Result>";
+        }
+        return "<s:Envelope xmlns:s=\"http://schemas.xmlsoap.org/soap/envelope/\"><s:Body>"
+                + "<" + operation + "Response xmlns=\"http://tempuri.org/\">" + result + "</" + operation + "Response>"
+                + "</s:Body></s:Envelope>";
+    }
+
+    private static String escape(String text) {
+        return text.replace("&", "&amp;").replace("<", "&lt;").replace(">", "&gt;");
+    }
+}
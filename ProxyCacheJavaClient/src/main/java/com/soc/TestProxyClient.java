@@ -3,15 +3,20 @@ package com.soc;
 import com.soap.proxycache.client.generated.IProxyService;
 import com.soap.proxycache.client.generated.ProxyService;
 
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
 public class TestProxyClient {
 
     public static void main(String[] args) {
         System.out.println("Testing Java heavy SOAP client for ProxyCacheService...");
 
-        // The ProxyService class is generate by WSDL
+        // The ProxyService class is generate by WSDL (read from the copy in the jar, see pom.xml)
         ProxyService service = new ProxyService();
-        // Obtain the proxy's port for this service
-        IProxyService port = service.getBasicHttpBindingIProxyService();
+        // Obtain the proxy's port for this service (every call is timed in ClientMetrics)
+        IProxyService port = ClientMetrics.instrumentSoap(service.getBasicHttpBindingIProxyService(), IProxyService.class);
 
         // Get JCDecaux contracts from generic cache
         String contractsJson = port.getJcdecauxContractsGeneric(3600);
@@ -56,5 +61,39 @@ public class TestProxyClient {
         System.out.println(meta3);
         System.out.println("Stats after third call:");
         System.out.println(port.status());
+
+        // Station store: the stations of a contract are parsed once, then read from compact columns
+        System.out.println("\n=== Station store (lyon) ===");
+        try (StationStore stations = new StationStore(StationSource.soap(port))) {
+            stations.track("lyon", Duration.ofSeconds(30));
+            StationSnapshot lyon = stations.await("lyon", Duration.ofSeconds(10));
+            if (lyon == null) {
+                System.out.println("No stations received for lyon.");
+            } else {
+                System.out.println(lyon.size() + " stations, " + lyon.totalBikes() + " bikes available, ~"
+                        + lyon.estimatedBytes() / 1024 + " KB in memory");
+            }
+        } catch (Exception ex) {
+            System.out.println("Station store demo failed: " + ex.getMessage());
+        }
+
+        // Concurrent calls: each one borrows a port of the pool and runs on a virtual thread
+        System.out.println("\n=== Concurrent station calls (ProxyServicePool) ===");
+        try (ProxyServicePool pool = ProxyServicePool.fromSystemProperties()) {
+            List<String> contracts = List.of("lyon", "toulouse", "nantes", "marseille", "rouen");
+            List<CompletableFuture<String>> calls = new ArrayList<>();
+            for (String contract : contracts) {
+                calls.add(pool.getJcdecauxStationsGenericAsync(contract, 30));
+            }
+            for (int i = 0; i < contracts.size(); i++) {
+                System.out.println(contracts.get(i) + ": " + calls.get(i).join().length() + " characters of JSON");
+            }
+            System.out.println(pool.statusAsync().join());
+        } catch (Exception ex) {
+            System.out.println("Concurrent calls demo failed: " + ex.getMessage());
+        }
+
+        System.out.println("\n=== Client metrics ===");
+        System.out.println(ClientMetrics.get().summary());
     }
 }
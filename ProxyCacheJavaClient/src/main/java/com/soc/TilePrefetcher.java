@@ -0,0 +1,257 @@
+package com.soc;
+
+import org.jxmapviewer.viewer.AbstractTileFactory;
+import org.jxmapviewer.viewer.TileFactoryInfo;
+import org.jxmapviewer.viewer.util.GeoUtil;
+
+import java.awt.geom.Point2D;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Downloads, in the background, the map tiles along a route so that panning along it does not wait for the network.
+ *
+ * Once an itinerary is shown, prefetch() works out the tiles covering a corridor of CORRIDOR_TILES tiles
+ * around the route at the current zoom, then at the neighbouring zooms (the ones a user reaches with one
+ * wheel step), up to maxTiles tiles. They are fetched on virtual threads, at most maxParallel at a time,
+ * and written to the MappedTileStore, where the tile factory finds them later without any network call.
+ *
+ * Tiles the user is looking at come first: a download only starts when the tile factory has no pending tile.
+ * A new prefetch() (new itinerary) or cancel() stops the previous one.
+ *
+ * This is a bulk download, which the OpenStreetMap tile usage policy forbids on its public servers:
+ * the prefetcher refuses a tile factory that loads from them (isPublicOsm). Use it with a tile server
+ * of your own, or a provider whose terms allow it.
+ */
+public class TilePrefetcher {
+
+    /* tiles kept on each side of the route */
+    private static final int CORRIDOR_TILES = 1;
+    /* zoom levels prefetched on each side of the current one */
+    private static final int NEIGHBOUR_ZOOMS = 1;
+    private static final long BACKOFF_MILLIS = 100;
+
+    private final AbstractTileFactory tileFactory;
+    private final MappedTileStore store;
+    private final int maxParallel;
+    private final int maxTiles;
+    private final String userAgent;
+    private final HttpClient client = HttpClient.newBuilder()
+            .connectTimeout(Duration.ofSeconds(10))
+            .followRedirects(HttpClient.Redirect.NORMAL)
+            .build();
+
+    private Job current;
+
+    /**
+     * @param maxParallel concurrent downloads (tile servers such as OSM ask clients to keep this low)
+     * @param maxTiles    most tiles fetched for one itinerary
+     */
+    public TilePrefetcher(AbstractTileFactory tileFactory, MappedTileStore store,
+                          int maxParallel, int maxTiles, String userAgent) {
+        String baseUrl = tileFactory.getInfo().getBaseURL();
+        if (isPublicOsm(baseUrl)) {
+            throw new IllegalArgumentException("No tile prefetch from the public OpenStreetMap servers (" + baseUrl
+                    + "): their tile usage policy forbids bulk downloads");
+        }
+        this.tileFactory = tileFactory;
+        this.store = store;
+        this.maxParallel = maxParallel;
+        this.maxTiles = maxTiles;
+        this.userAgent = userAgent;
+    }
+
+    /** True for the tile servers of openstreetmap.org, which may not be prefetched from. */
+    static boolean isPublicOsm(String baseUrl) {
+        String host = URI.create(baseUrl).getHost();
+        return host != null && (host.equalsIgnoreCase("openstreetmap.org")
+                || host.toLowerCase(Locale.ROOT).endsWith(".openstreetmap.org"));
+    }
+
+    /** Starts prefetching the corridor of the route around the given (JXMapViewer) zoom, replacing any previous prefetch. */
+    public synchronized void prefetch(List<RouteSegment> segments, int zoom) {
+        cancel();
+        if (store.isOffline() || segments == null || segments.isEmpty()) {
+            return;
+        }
+        current = new Job(segments, zoom);
+        current.thread = Thread.ofVirtual().name("tile-prefetch").start(current::run);
+    }
+
+    /** Stops the current prefetch, including the downloads in progress. */
+    public synchronized void cancel() {
+        if (current != null) {
+            current.cancel();
+            current = null;
+        }
+    }
+
+    /** Tiles downloaded by the current (or last) prefetch. */
+    public synchronized int getFetchedTiles() {
+        return current != null ? current.fetched.get() : 0;
+    }
+
+    /**
+     * Tiles of the corridor, current zoom first, then the neighbouring zooms, in route order, at most maxTiles.
+     * Keys are packed as in MappedTileStore.key (zoom is the JXMapViewer zoom here).
+     */
+    Set<Long> corridor(List<RouteSegment> segments, int zoom) {
+        TileFactoryInfo info = tileFactory.getInfo();
+        Set<Long> tiles = new LinkedHashSet<>();
+
+        addCorridor(tiles, segments, zoom, info);
+        for (int d = 1; d <= NEIGHBOUR_ZOOMS && tiles.size() < maxTiles; d++) {
+            if (zoom - d >= info.getMinimumZoomLevel()) {
+                addCorridor(tiles, segments, zoom - d, info);
+            }
+            if (zoom + d <= info.getMaximumZoomLevel()) {
+                addCorridor(tiles, segments, zoom + d, info);
+            }
+        }
+        return tiles;
+    }
+
+    private void addCorridor(Set<Long> tiles, List<RouteSegment> segments, int zoom, TileFactoryInfo info) {
+        int tileSize = info.getTileSize(zoom);
+        int mapTiles = tileFactory.getMapSize(zoom).width;
+        double worldPixelWidth = (double) mapTiles * tileSize;
+
+        for (RouteSegment seg : segments) {
+            if (seg.isEmpty()) {
+                continue;
+            }
+            int[] indices = seg.getLevelOfDetail().indicesFor(worldPixelWidth);
+            int n = indices != null ? indices.length : seg.size();
+
+            double prevX = 0;
+            double prevY = 0;
+            for (int k = 0; k < n; k++) {
+                int i = indices != null ? indices[k] : k;
+                Point2D pt = GeoUtil.getBitmapCoordinate(seg.getLat(i), seg.getLon(i), zoom, info);
+                double x = pt.getX();
+                double y = pt.getY();
+
+                // long lines cross several tiles: walk them in half-tile steps
+                int steps = k == 0 ? 1 : (int) Math.ceil(Math.hypot(x - prevX, y - prevY) / (tileSize / 2.0));
+                for (int s = k == 0 ? 0 : 1; s <= steps; s++) {
+                    double t = k == 0 ? 1 : (double) s / steps;
+                    int tx = (int) Math.floor((prevX + (x - prevX) * t) / tileSize);
+                    int ty = (int) Math.floor((prevY + (y - prevY) * t) / tileSize);
+                    for (int dy = -CORRIDOR_TILES; dy <= CORRIDOR_TILES; dy++) {
+                        for (int dx = -CORRIDOR_TILES; dx <= CORRIDOR_TILES; dx++) {
+                            int cx = tx + dx;
+                            int cy = ty + dy;
+                            if (tiles.size() >= maxTiles) {
+                                return;
+                            }
+                            if (cx >= 0 && cy >= 0 && cx < mapTiles && cy < mapTiles) {
+                                tiles.add(MappedTileStore.key(zoom, cx, cy));
+                            }
+                        }
+                    }
+                }
+                prevX = x;
+                prevY = y;
+            }
+        }
+    }
+
+    private final class Job {
+        final List<RouteSegment> segments;
+        final int zoom;
+        final AtomicInteger fetched = new AtomicInteger();
+        final ExecutorService downloads = Executors.newVirtualThreadPerTaskExecutor();
+        volatile boolean cancelled;
+        Thread thread;
+
+        Job(List<RouteSegment> segments, int zoom) {
+            this.segments = segments;
+            this.zoom = zoom;
+        }
+
+        void run() {
+            Semaphore permits = new Semaphore(maxParallel);
+            TileFactoryInfo info = tileFactory.getInfo();
+            try {
+                for (long key : corridor(segments, zoom)) {
+                    int z = (int) (key >>> 56);
+                    int x = (int) ((key >>> 28) & 0xFFFFFFF);
+                    int y = (int) (key & 0xFFFFFFF);
+                    URL url = URI.create(info.getTileUrl(x, y, z)).toURL();
+                    if (store.contains(url)) {
+                        continue;
+                    }
+
+                    // visible tiles first: wait until the tile factory has nothing left to load
+                    while (tileFactory.getPendingTiles() > 0) {
+                        Thread.sleep(BACKOFF_MILLIS);
+                    }
+                    permits.acquire();
+                    if (cancelled) {
+                        permits.release();
+                        return;
+                    }
+                    try {
+                        downloads.execute(() -> {
+                            try {
+                                download(url);
+                            } finally {
+                                permits.release();
+                            }
+                        });
+                    } catch (RejectedExecutionException ex) {
+                        return; // cancelled meanwhile
+                    }
+                }
+            } catch (InterruptedException ex) {
+                // cancelled
+            } catch (IOException ex) {
+                System.err.println("Tile prefetch stopped: " + ex.getMessage());
+            } finally {
+                downloads.shutdown();
+            }
+        }
+
+        void download(URL url) {
+            try {
+                HttpRequest request = HttpRequest.newBuilder(url.toURI())
+                        .timeout(Duration.ofSeconds(30))
+                        .header("User-Agent", userAgent)
+                        .GET()
+                        .build();
+                HttpResponse<byte[]> response = client.send(request, HttpResponse.BodyHandlers.ofByteArray());
+                if (response.statusCode() == 200 && !cancelled) {
+                    store.put(url, new ByteArrayInputStream(response.body()));
+                    fetched.incrementAndGet();
+                }
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            } catch (Exception ex) {
+                // a tile we could not prefetch is simply loaded on demand later
+            }
+        }
+
+        void cancel() {
+            cancelled = true;
+            if (thread != null) {
+                thread.interrupt();
+            }
+            downloads.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,161 @@
+package com.soc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * ItineraryArchive on disk: what was appended comes back after a reopen, and a damaged file
+ * loses only the damaged record.
+ */
+class ItineraryArchiveTest {
+
+    private static final int FILE_HEADER = 16;
+    private static final int RECORD_HEADER = 12;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void appendedItinerariesSurviveAReopen() throws IOException {
+        Path file = dir.resolve("itineraries.bin");
+        List<RouteSegment> first = itinerary(1, 300);
+        List<RouteSegment> second = itinerary(2, 5);
+        try (ItineraryArchive archive = new ItineraryArchive(file)) {
+            assertNull(archive.last());
+            assertEquals(0, archive.append("Capitole", "Gare Matabiau", first));
+            assertEquals(1, archive.append("Compans", "Jean Jaurès", second));
+        }
+
+        try (ItineraryArchive archive = new ItineraryArchive(file)) {
+            assertEquals(2, archive.size());
+            ItineraryArchive.Entry e = archive.get(0);
+            assertEquals("Capitole", e.getOrigin());
+            assertEquals("Gare Matabiau", e.getDestination());
+            assertSameSegments(first, e.getSegments());
+            assertEquals("Jean Jaurès", archive.last().getDestination());
+            assertSameSegments(second, archive.last().getSegments());
+        }
+    }
+
+    @Test
+    void truncatedLastRecordIsDroppedAtOpen() throws IOException {
+        Path file = dir.resolve("itineraries.bin");
+        long firstEnd;
+        try (ItineraryArchive archive = new ItineraryArchive(file)) {
+            archive.append("A", "B", itinerary(1, 50));
+            firstEnd = archive.sizeBytes();
+            archive.append("C", "D", itinerary(2, 50));
+        }
+        // a crash in the middle of the second record
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(firstEnd + RECORD_HEADER + 10);
+        }
+
+        try (ItineraryArchive archive = new ItineraryArchive(file)) {
+            assertEquals(1, archive.size());
+            assertEquals(firstEnd, archive.sizeBytes());
+            assertEquals("B", archive.last().getDestination());
+
+            // the next append goes over the torn record
+            assertEquals(1, archive.append("E", "F", itinerary(3, 10)));
+        }
+        try (ItineraryArchive archive = new ItineraryArchive(file)) {
+            assertEquals(2, archive.size());
+            assertEquals("F", archive.get(1).getDestination());
+        }
+    }
+
+    @Test
+    void lastRecordWithABadCrcIsDroppedAtOpen() throws IOException {
+        Path file = dir.resolve("itineraries.bin");
+        long firstEnd;
+        try (ItineraryArchive archive = new ItineraryArchive(file)) {
+            archive.append("A", "B", itinerary(1, 50));
+            firstEnd = archive.sizeBytes();
+            archive.append("C", "D", itinerary(2, 50));
+        }
+        flipByte(file, firstEnd + RECORD_HEADER + 3);
+
+        try (ItineraryArchive archive = new ItineraryArchive(file)) {
+            assertEquals(1, archive.size());
+            assertEquals("B", archive.last().getDestination());
+        }
+    }
+
+    @Test
+    void corruptedRecordFailsOnReadAndLeavesTheOthers() throws IOException {
+        Path file = dir.resolve("itineraries.bin");
+        try (ItineraryArchive archive = new ItineraryArchive(file)) {
+            archive.append("A", "B", itinerary(1, 50));
+            archive.append("C", "D", itinerary(2, 50));
+        }
+        flipByte(file, FILE_HEADER + RECORD_HEADER + 3);
+
+        try (ItineraryArchive archive = new ItineraryArchive(file)) {
+            // only the last record is checked at open
+            assertEquals(2, archive.size());
+            assertThrows(IOException.class, () -> archive.get(0));
+            assertEquals("D", archive.get(1).getDestination());
+        }
+    }
+
+    @Test
+    void foreignFileIsRefused() throws IOException {
+        Path file = dir.resolve("other.bin");
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE)) {
+            channel.write(ByteBuffer.wrap("not an itinerary archive".getBytes()));
+        }
+        assertThrows(IOException.class, () -> new ItineraryArchive(file));
+    }
+
+    /* A stub itinerary decoded like the client does, so segments carry distances and names */
+    static List<RouteSegment> itinerary(long seed, int points) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        StubItineraryServer.writeItinerary(out, seed, points);
+        return ItineraryStreamDecoder.decodeSegments(new ByteArrayInputStream(out.toByteArray()));
+    }
+
+    private static void flipByte(Path file, long position) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer b = ByteBuffer.allocate(1);
+            channel.read(b, position);
+            b.put(0, (byte) ~b.get(0));
+            b.rewind();
+            channel.write(b, position);
+        }
+    }
+
+    /* The archive keeps coordinates to 1e-6 degrees and details to 0.1 */
+    private static void assertSameSegments(List<RouteSegment> expected, List<RouteSegment> actual) {
+        assertEquals(expected.size(), actual.size(), "segments");
+        for (int s = 0; s < expected.size(); s++) {
+            RouteSegment e = expected.get(s);
+            RouteSegment a = actual.get(s);
+            String where = "segment " + s;
+            assertEquals(e.getMode(), a.getMode(), where);
+            assertEquals(e.size(), a.size(), where);
+            for (int i = 0; i < e.size(); i++) {
+                assertEquals(e.getLat(i), a.getLat(i), 1e-6, where + " lat " + i);
+                assertEquals(e.getLon(i), a.getLon(i), 1e-6, where + " lon " + i);
+            }
+            assertEquals(e.getDistanceMeters(), a.getDistanceMeters(), 0.05, where);
+            assertEquals(e.getDurationSec(), a.getDurationSec(), 0.05, where);
+            assertEquals(e.getFromName(), a.getFromName(), where);
+            assertEquals(e.getToName(), a.getToName(), where);
+            assertEquals(e.getContract(), a.getContract(), where);
+        }
+    }
+}
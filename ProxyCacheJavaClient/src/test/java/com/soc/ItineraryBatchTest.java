@@ -0,0 +1,97 @@
+package com.soc;
+
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.net.http.HttpTimeoutException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ItineraryBatch against StubItineraryServer, listening where RoutingRestClient calls (port 8733).
+ */
+class ItineraryBatchTest {
+
+    private static StubItineraryServer stub;
+
+    @BeforeAll
+    static void startStub() throws IOException {
+        stub = new StubItineraryServer(8733, 20, 0);
+    }
+
+    @AfterAll
+    static void stopStub() {
+        stub.close();
+    }
+
+    @Test
+    void orderedResultsComeInInputOrder() throws InterruptedException {
+        List<ItineraryBatch.Result> results = new ItineraryBatch(4, Duration.ofSeconds(10)).run(pairs(12).toList());
+
+        assertEquals(12, results.size());
+        for (int i = 0; i < results.size(); i++) {
+            ItineraryBatch.Result r = results.get(i);
+            assertEquals(i, r.getIndex());
+            assertTrue(r.isSuccess(), () -> "failed: " + r.getError());
+        }
+    }
+
+    @Test
+    void slowRequestTimesOutOnceAndIsAborted() throws InterruptedException {
+        stub.delayNext(1, 3000);
+        ItineraryBatch.Pair pair = new ItineraryBatch.Pair("Slow origin", "Slow destination");
+
+        // before the fix, the timeout was applied twice (call, then wait) and the exchange went on after it
+        List<ItineraryBatch.Result> results = new ItineraryBatch(1, Duration.ofMillis(300)).run(List.of(pair));
+
+        ItineraryBatch.Result r = results.get(0);
+        assertInstanceOf(HttpTimeoutException.class, r.getError());
+        assertTrue(r.getElapsed().toMillis() < 1500, "took " + r.getElapsed());
+        assertFalse(Thread.currentThread().isInterrupted());
+    }
+
+    @Test
+    void failingSinkStopsTheOrderedBatch() {
+        assertSinkFailureStopsTheBatch(true);
+    }
+
+    @Test
+    void failingSinkStopsTheUnorderedBatch() {
+        assertSinkFailureStopsTheBatch(false);
+    }
+
+    private static void assertSinkFailureStopsTheBatch(boolean ordered) {
+        ItineraryBatch batch = new ItineraryBatch(3, Duration.ofSeconds(10));
+        IllegalStateException boom = new IllegalStateException("sink failed");
+        List<ItineraryBatch.Result> delivered = new ArrayList<>();
+
+        // before the fix, the exception stayed in the executor's future and run() returned normally
+        // (ordered: with the later results never delivered)
+        IllegalStateException thrown = assertThrows(IllegalStateException.class,
+                () -> batch.run(pairs(200), ordered, r -> {
+                    delivered.add(r);
+                    if (delivered.size() == 3) {
+                        throw boom;
+                    }
+                }));
+
+        assertSame(boom, thrown);
+        assertEquals(3, delivered.size(), "nothing delivered after the failure");
+    }
+
+    private static Stream<ItineraryBatch.Pair> pairs(int count) {
+        return IntStream.range(0, count).mapToObj(i -> new ItineraryBatch.Pair("Origin " + i, "Destination " + i));
+    }
+}
@@ -0,0 +1,149 @@
+package com.soc;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * ItineraryCache expiration, stale-while-revalidate and LRU eviction.
+ */
+class ItineraryCacheTest {
+
+    private final List<RouteSegment> route1 = ItineraryArchiveTest.itinerary(1, 20);
+    private final List<RouteSegment> route2 = ItineraryArchiveTest.itinerary(2, 20);
+
+    ItineraryCacheTest() throws IOException {
+    }
+
+    @Test
+    void freshEntryIsAHitAndExpiredEntryIsReloaded() throws Exception {
+        ItineraryCache cache = new ItineraryCache(10, 1 << 20, Duration.ofMillis(100), Duration.ZERO);
+        AtomicInteger loads = new AtomicInteger();
+        ItineraryCache.Loader loader = (o, d) -> loads.incrementAndGet() == 1 ? route1 : route2;
+
+        assertEquals(route1, cache.get("Capitole", "Compans", loader));
+        // the key is normalized
+        assertEquals(route1, cache.get("  capitole ", "COMPANS", loader));
+        assertEquals(1, loads.get());
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        Thread.sleep(150);
+        assertNull(cache.getIfPresent("Capitole", "Compans"));
+        assertEquals(route1, cache.getLastKnown("Capitole", "Compans"), "expired entries stay for getLastKnown");
+        assertEquals(route2, cache.get("Capitole", "Compans", loader));
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    void staleEntryIsServedWhileItIsReloaded() throws Exception {
+        ItineraryCache cache = new ItineraryCache(10, 1 << 20, Duration.ofMillis(50), Duration.ofSeconds(10));
+        cache.put("A", "B", route1);
+        Thread.sleep(100);
+
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger loads = new AtomicInteger();
+        ItineraryCache.Loader slow = (o, d) -> {
+            loads.incrementAndGet();
+            release.await();
+            return route2;
+        };
+
+        // returns at once with the old route; only one reload for both calls
+        assertEquals(route1, cache.get("A", "B", slow));
+        assertEquals(route1, cache.get("A", "B", slow));
+        assertEquals(2, cache.getStaleHits());
+        assertEquals(0, cache.getMisses());
+
+        release.countDown();
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (cache.getIfPresent("A", "B") == null && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(route2, cache.getIfPresent("A", "B"));
+        assertEquals(1, loads.get());
+    }
+
+    @Test
+    void missReturnsTheStoredCopy() throws Exception {
+        ItineraryCache cache = new ItineraryCache(10, 1 << 20, Duration.ofMinutes(1), Duration.ZERO);
+        List<RouteSegment> loaded = new ArrayList<>(route1);
+
+        // before the fix, a miss returned the loader's own list, which the caller could still change
+        List<RouteSegment> first = cache.get("A", "B", (o, d) -> loaded);
+        assertSame(cache.getLastKnown("A", "B"), first);
+        assertThrows(UnsupportedOperationException.class, () -> first.remove(0));
+        assertSame(first, cache.get("A", "B", (o, d) -> loaded));
+    }
+
+    @Test
+    void failedRevalidationKeepsTheStaleEntryAndIsCounted() throws Exception {
+        ItineraryCache cache = new ItineraryCache(10, 1 << 20, Duration.ofMillis(20), Duration.ofSeconds(10));
+        cache.put("A", "B", route1);
+        Thread.sleep(50);
+
+        long errors = ClientMetrics.get().getRevalidationErrors();
+        assertEquals(route1, cache.get("A", "B", (o, d) -> {
+            throw new IOException("routing service down");
+        }));
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+        while (ClientMetrics.get().getRevalidationErrors() == errors && System.nanoTime() < deadline) {
+            Thread.sleep(10);
+        }
+        assertEquals(errors + 1, ClientMetrics.get().getRevalidationErrors());
+        assertEquals(route1, cache.getLastKnown("A", "B"));
+    }
+
+    @Test
+    void entryPastTheStaleWindowIsAMiss() throws Exception {
+        ItineraryCache cache = new ItineraryCache(10, 1 << 20, Duration.ofMillis(20), Duration.ofMillis(20));
+        cache.put("A", "B", route1);
+        Thread.sleep(100);
+
+        assertEquals(route2, cache.get("A", "B", (o, d) -> route2));
+        assertEquals(0, cache.getStaleHits());
+        assertEquals(1, cache.getMisses());
+    }
+
+    @Test
+    void leastRecentlyUsedEntryIsEvictedFirst() {
+        ItineraryCache cache = new ItineraryCache(2, 1 << 20, Duration.ofMinutes(1), Duration.ZERO);
+        cache.put("A", "B", route1);
+        cache.put("C", "D", route1);
+        assertNotNull(cache.getIfPresent("A", "B"));
+        cache.put("E", "F", route2);
+
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.getLastKnown("C", "D"));
+        assertEquals(route1, cache.getLastKnown("A", "B"));
+        assertNotNull(cache.getLastKnown("E", "F"));
+    }
+
+    @Test
+    void byteBudgetEvictsAndEmptyResultsAreNotCached() {
+        long oneRoute = ItineraryCache.estimateBytes(route1);
+        ItineraryCache cache = new ItineraryCache(100, oneRoute * 2 + oneRoute / 2, Duration.ofMinutes(1), Duration.ZERO);
+        cache.put("A", "B", route1);
+        cache.put("C", "D", route1);
+        cache.put("E", "F", route1);
+        assertEquals(1, cache.getEvictions());
+        assertNull(cache.getLastKnown("A", "B"));
+
+        cache.put("G", "H", List.of());
+        assertNull(cache.getLastKnown("G", "H"));
+        assertTrue(cache.status().contains("\"items\":2"), cache.status());
+    }
+}
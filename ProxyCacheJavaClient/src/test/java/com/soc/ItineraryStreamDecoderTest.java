@@ -0,0 +1,110 @@
+package com.soc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * The streaming decoder must give the same segments as the tree decoder it replaced
+ * (ItineraryTreeDecoder), on real bodies and on the edge cases of the format.
+ */
+class ItineraryStreamDecoderTest {
+
+    @ParameterizedTest
+    @ValueSource(ints = {2, 3, 10, 257, 2000})
+    void stubItinerariesDecodeLikeTheTree(int points) throws IOException {
+        for (long seed = 0; seed < 5; seed++) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            StubItineraryServer.writeItinerary(out, seed, points);
+            assertSameSegments(out.toString(StandardCharsets.UTF_8));
+        }
+    }
+
+    @Test
+    void emptySegmentsFallBackToTheCoordinateLists() throws IOException {
+        List<RouteSegment> segments = assertSameSegments("""
+                {"Segments": [],
+                 "Walk1Coords": [[43.6, 1.44], [43.61, 1.45]],
+                 "BikeCoords": [[43.62, 1.46]],
+                 "Walk2Coords": []}""");
+        assertEquals(1, segments.size());
+        assertEquals(3, segments.get(0).size());
+    }
+
+    @Test
+    void noCoordinatesAtAllGiveOriginAndDestination() throws IOException {
+        List<RouteSegment> segments = assertSameSegments("""
+                {"Segments": [], "OriginResolvedLat": 43.6, "OriginResolvedLon": 1.44,
+                 "DestResolvedLat": 43.61, "DestResolvedLon": 1.45}""");
+        assertEquals(2, segments.get(0).size());
+    }
+
+    @Test
+    void missingDetailsAreUnknown() throws IOException {
+        List<RouteSegment> segments = assertSameSegments("""
+                {"Segments": [
+                  {"Mode": "bike", "Coords": [[43.6, 1.44], [43.61, 1.45]]},
+                  {"Mode": "walk", "Coords": [[43.61, 1.45], [43.62, 1.46]], "DistanceMeters": null,
+                   "DurationSec": "12.5", "FromName": null, "Contract": {"name": "toulouse"}}]}""");
+        assertEquals(Double.NaN, segments.get(0).getDistanceMeters());
+        assertEquals(12.5, segments.get(1).getDurationSec());
+    }
+
+    @Test
+    void segmentsWithoutPointsAreDroppedAndSinglePointsKept() throws IOException {
+        List<RouteSegment> segments = assertSameSegments("""
+                {"Segments": [
+                  {"Mode": "walk", "Coords": []},
+                  {"Mode": "bike", "Coords": [[43.6, 1.44]], "DistanceMeters": 0},
+                  {"Mode": "walk"},
+                  {"Mode": "walk", "Coords": [[43.6, 1.44], [43.61, 1.45]], "DistanceMeters": 1300}]}""");
+        assertEquals(2, segments.size());
+        assertEquals(1, segments.get(0).size());
+    }
+
+    @Test
+    void unknownFieldsAndMalformedPairsAreSkipped() throws IOException {
+        assertSameSegments("""
+                {"Success": true, "Instructions": ["Walk", {"step": [1, 2]}], "Extra": {"a": [[1, 2]]},
+                 "Segments": [
+                   "not a segment",
+                   {"Legs": [[0, 0]], "Mode": "BIKE", "Unknown": {"Coords": [[1, 2]]},
+                    "Coords": [[43.6, 1.44], [43.61], [43.62, 1.46, 12.0], "x", [[1, 2], 3], ["43.63", "1.47"]],
+                    "DistanceMeters": "1200", "ToName": "Station B"}],
+                 "UseBike": true}""");
+    }
+
+    /* Decodes with both decoders, checks every field of every segment, returns the streamed ones */
+    private static List<RouteSegment> assertSameSegments(String json) throws IOException {
+        List<RouteSegment> tree = ItineraryTreeDecoder.parseSegments(json);
+        List<RouteSegment> streamed = ItineraryStreamDecoder.decodeSegments(
+                new ByteArrayInputStream(json.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals(tree.size(), streamed.size(), "segments");
+        for (int s = 0; s < tree.size(); s++) {
+            RouteSegment expected = tree.get(s);
+            RouteSegment actual = streamed.get(s);
+            String where = "segment " + s;
+            assertEquals(expected.getMode(), actual.getMode(), where);
+            assertEquals(expected.size(), actual.size(), where);
+            for (int i = 0; i < expected.size(); i++) {
+                assertEquals(expected.getLat(i), actual.getLat(i), where + " lat " + i);
+                assertEquals(expected.getLon(i), actual.getLon(i), where + " lon " + i);
+            }
+            assertEquals(expected.getDistanceMeters(), actual.getDistanceMeters(), where);
+            assertEquals(expected.getDurationSec(), actual.getDurationSec(), where);
+            assertEquals(expected.getFromName(), actual.getFromName(), where);
+            assertEquals(expected.getToName(), actual.getToName(), where);
+            assertEquals(expected.getContract(), actual.getContract(), where);
+        }
+        return streamed;
+    }
+}
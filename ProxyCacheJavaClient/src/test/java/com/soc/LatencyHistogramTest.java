@@ -0,0 +1,91 @@
+package com.soc;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * LatencyHistogram percentiles (about 1% precision) and the coordinated-omission correction.
+ */
+class LatencyHistogramTest {
+
+    @Test
+    void emptyHistogramAnswersZero() {
+        LatencyHistogram h = new LatencyHistogram();
+        assertEquals(0, h.getCount());
+        assertEquals(0, h.percentileMicros(99));
+        assertEquals(0.0, h.getMeanMicros());
+    }
+
+    @Test
+    void percentilesAreWithinOnePercent() {
+        LatencyHistogram h = new LatencyHistogram();
+        for (long v = 1; v <= 100_000; v++) {
+            h.recordMicros(v);
+        }
+        assertEquals(100_000, h.getCount());
+        assertEquals(100_000, h.getMaxMicros());
+        assertEquals(50_000.5, h.getMeanMicros(), 1e-9);
+        assertWithinOnePercent(50_000, h.percentileMicros(50));
+        assertWithinOnePercent(99_000, h.percentileMicros(99));
+        assertWithinOnePercent(99_900, h.percentileMicros(99.9));
+        assertEquals(100_000, h.percentileMicros(100));
+    }
+
+    @Test
+    void smallAndHugeValuesAreKept() {
+        LatencyHistogram h = new LatencyHistogram();
+        h.recordMicros(-5);
+        h.recordMicros(0);
+        h.recordMicros(3);
+        h.recordNanos(Long.MAX_VALUE);
+        assertEquals(0, h.percentileMicros(50));
+        assertEquals(3, h.percentileMicros(75));
+        assertEquals(Long.MAX_VALUE / 1000, h.percentileMicros(100));
+        for (long v : new long[] {0, 1, 127, 128, 255, 1 << 20, Long.MAX_VALUE}) {
+            int index = LatencyHistogram.indexOf(v);
+            assertTrue(LatencyHistogram.highestValueAt(index) >= v, "bucket of " + v);
+        }
+    }
+
+    @Test
+    void addAndResetKeepTheCounters() {
+        LatencyHistogram a = new LatencyHistogram();
+        LatencyHistogram b = new LatencyHistogram();
+        a.recordMicros(1000);
+        b.recordMicros(3000);
+        a.add(b);
+        assertEquals(2, a.getCount());
+        assertEquals(3000, a.getMaxMicros());
+        assertEquals(2000.0, a.getMeanMicros());
+
+        a.reset();
+        assertEquals(0, a.getCount());
+        assertEquals(0, a.getMaxMicros());
+    }
+
+    @Test
+    void stalledCallRecordsTheCallsItHid() {
+        // 10 ms expected between calls, one call stalled 100 ms: 9 more calls waited 90, 80, ... 10 ms
+        LatencyHistogram h = new LatencyHistogram();
+        h.recordMicrosWithExpectedInterval(100_000, 10_000);
+        assertEquals(10, h.getCount());
+        assertWithinOnePercent(10_000, h.percentileMicros(10));
+        assertWithinOnePercent(50_000, h.percentileMicros(50));
+
+        LatencyHistogram raw = new LatencyHistogram();
+        raw.recordMicros(100_000);
+        for (int i = 0; i < 9; i++) {
+            raw.recordMicros(1_000);
+        }
+        LatencyHistogram corrected = raw.copyCorrectedForCoordinatedOmission(10_000);
+        assertEquals(19, corrected.getCount());
+        assertEquals(raw.getMaxMicros(), corrected.getMaxMicros());
+        assertTrue(corrected.percentileMicros(50) > raw.percentileMicros(50));
+    }
+
+    private static void assertWithinOnePercent(long expected, long actual) {
+        assertTrue(Math.abs(actual - expected) <= expected / 100, "expected about " + expected + ", got " + actual);
+    }
+}
@@ -0,0 +1,107 @@
+package com.soc;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.ByteArrayInputStream;
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.URL;
+import java.nio.file.Path;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * MappedTileStore: tiles survive a restart, the ring of packs drops the oldest tiles,
+ * and offline mode never lets the tile factory download.
+ */
+class MappedTileStoreTest {
+
+    private static final long PACK_SIZE = 4096;
+
+    @TempDir
+    Path dir;
+
+    @Test
+    void tilesSurviveAReopen() throws IOException {
+        try (MappedTileStore store = new MappedTileStore(dir, PACK_SIZE, 3, false)) {
+            assertNull(store.get(tile(12, 2077, 1495)));
+            store.put(tile(12, 2077, 1495), new ByteArrayInputStream(bytes(1, 500)));
+            store.put(tile(13, 4154, 2990), new ByteArrayInputStream(bytes(2, 800)));
+            // served from the write-behind queue or the pack, whichever holds it now
+            assertArrayEquals(bytes(1, 500), read(store, tile(12, 2077, 1495)));
+        }
+
+        try (MappedTileStore store = new MappedTileStore(dir, PACK_SIZE, 3, true)) {
+            assertEquals(2, store.size());
+            assertTrue(store.contains(tile(13, 4154, 2990)));
+            assertArrayEquals(bytes(1, 500), read(store, tile(12, 2077, 1495)));
+            assertArrayEquals(bytes(2, 800), read(store, tile(13, 4154, 2990)));
+        }
+    }
+
+    @Test
+    void offlineStoreRefusesMissingTiles() throws IOException {
+        try (MappedTileStore store = new MappedTileStore(dir, PACK_SIZE, 2, true)) {
+            assertThrows(FileNotFoundException.class, () -> store.get(tile(5, 1, 1)));
+            assertEquals(1, store.getMisses());
+        }
+    }
+
+    @Test
+    void fullRingDropsTheOldestPack() throws IOException {
+        // about 3 tiles of 1000 bytes per pack, 2 packs
+        try (MappedTileStore store = new MappedTileStore(dir, PACK_SIZE, 2, false)) {
+            for (int i = 0; i < 12; i++) {
+                store.put(tile(10, i, 0), new ByteArrayInputStream(bytes(i, 1000)));
+            }
+        }
+
+        try (MappedTileStore store = new MappedTileStore(dir, PACK_SIZE, 2, false)) {
+            assertTrue(store.size() <= 2 * (int) (PACK_SIZE / 1000), "bounded by the ring: " + store.size());
+            assertFalse(store.contains(tile(10, 0, 0)));
+            assertTrue(store.contains(tile(10, 11, 0)));
+            assertArrayEquals(bytes(11, 1000), read(store, tile(10, 11, 0)));
+        }
+    }
+
+    @Test
+    void onlyZxyTileUrlsAreStored() throws IOException {
+        assertEquals(MappedTileStore.key(12, 2077, 1495), MappedTileStore.keyOf(tile(12, 2077, 1495)));
+        assertEquals(-1, MappedTileStore.keyOf(URI.create("https://tiles.example.org/tile.png").toURL()));
+        assertEquals(-1, MappedTileStore.keyOf(URI.create("https://tiles.example.org/a/b/c.png").toURL()));
+        // x out of range for zoom 2
+        assertEquals(-1, MappedTileStore.keyOf(URI.create("https://tiles.example.org/2/4/0.png").toURL()));
+
+        try (MappedTileStore store = new MappedTileStore(dir, PACK_SIZE, 2, false)) {
+            URL odd = URI.create("https://tiles.example.org/tile.png").toURL();
+            store.put(odd, new ByteArrayInputStream(bytes(0, 10)));
+            assertFalse(store.contains(odd));
+        }
+    }
+
+    private static URL tile(int z, int x, int y) throws IOException {
+        return URI.create("https://tiles.example.org/" + z + "/" + x + "/" + y + ".png").toURL();
+    }
+
+    private static byte[] bytes(int seed, int length) {
+        byte[] b = new byte[length];
+        Arrays.fill(b, (byte) seed);
+        b[0] = (byte) length;
+        return b;
+    }
+
+    private static byte[] read(MappedTileStore store, URL url) throws IOException {
+        try (InputStream in = store.get(url)) {
+            return in.readAllBytes();
+        }
+    }
+}
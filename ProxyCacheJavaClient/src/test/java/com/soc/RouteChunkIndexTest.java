@@ -0,0 +1,106 @@
+package com.soc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * RouteChunkIndex: chunk boundaries, and grid queries checked against a scan of every chunk.
+ */
+class RouteChunkIndexTest {
+
+    @Test
+    void chunksShareTheirBoundaryVertex() {
+        RouteSegment walk = segment(RouteSegment.Mode.WALK, 200, 1);
+        RouteSegment bike = segment(RouteSegment.Mode.BIKE, 65, 2);
+        RouteSegment single = segment(RouteSegment.Mode.WALK, 1, 3);
+        RouteChunkIndex index = new RouteChunkIndex(List.of(walk, single, bike));
+
+        // 199 lines of the walk in chunks of 64, the single point has none, the 64 lines of the bike fit one
+        assertEquals(5, index.size());
+        int[][] expected = {{0, 64}, {64, 128}, {128, 192}, {192, 199}, {0, 64}};
+        for (int c = 0; c < expected.length; c++) {
+            assertEquals(expected[c][0], index.startOf(c), "start of " + c);
+            assertEquals(expected[c][1], index.endOf(c), "end of " + c);
+        }
+        assertSame(walk, index.segmentOf(3));
+        assertSame(bike, index.segmentOf(4));
+    }
+
+    @Test
+    void queriesMatchAScanOfEveryChunk() {
+        List<RouteSegment> segments = new ArrayList<>();
+        for (int s = 0; s < 6; s++) {
+            segments.add(segment(s % 2 == 0 ? RouteSegment.Mode.WALK : RouteSegment.Mode.BIKE, 50 + s * 97, s));
+        }
+        RouteChunkIndex index = new RouteChunkIndex(segments);
+
+        Random random = new Random(42);
+        double x = RouteLevelOfDetail.mercatorX(1.44);
+        double y = RouteLevelOfDetail.mercatorY(43.6);
+        for (int q = 0; q < 500; q++) {
+            double size = 1e-6 * Math.pow(10, random.nextInt(4));
+            double x0 = x + (random.nextDouble() - 0.5) * 1e-3;
+            double y0 = y + (random.nextDouble() - 0.5) * 1e-3;
+            int n = index.query(x0, y0, x0 + size, y0 + size);
+            int[] actual = Arrays.copyOf(index.visibleChunks(), n);
+            assertArrayEquals(scan(index, x0, y0, x0 + size, y0 + size), actual, "query " + q);
+        }
+
+        int all = index.query(0, 0, 1, 1);
+        assertEquals(index.size(), all);
+        assertEquals(0, index.query(0, 0, 0.1, 0.1));
+    }
+
+    @Test
+    void emptyRouteHasNoChunks() {
+        RouteChunkIndex index = new RouteChunkIndex(List.of());
+        assertEquals(0, index.size());
+        assertEquals(0, index.query(0, 0, 1, 1));
+    }
+
+    /* Chunks whose vertices' box meets the rectangle, in route order */
+    private static int[] scan(RouteChunkIndex index, double x0, double y0, double x1, double y1) {
+        int[] found = new int[index.size()];
+        int n = 0;
+        for (int c = 0; c < index.size(); c++) {
+            RouteSegment seg = index.segmentOf(c);
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            for (int i = index.startOf(c); i <= index.endOf(c); i++) {
+                double x = RouteLevelOfDetail.mercatorX(seg.getLon(i));
+                double y = RouteLevelOfDetail.mercatorY(seg.getLat(i));
+                minX = Math.min(minX, x);
+                minY = Math.min(minY, y);
+                maxX = Math.max(maxX, x);
+                maxY = Math.max(maxY, y);
+            }
+            if (maxX >= x0 && minX <= x1 && maxY >= y0 && minY <= y1) {
+                found[n++] = c;
+            }
+        }
+        return Arrays.copyOf(found, n);
+    }
+
+    /* A random walk around Toulouse */
+    private static RouteSegment segment(RouteSegment.Mode mode, int points, long seed) {
+        Random random = new Random(seed);
+        double[] latLon = new double[points * 2];
+        double lat = 43.6;
+        double lon = 1.44;
+        for (int i = 0; i < points; i++) {
+            lat += (random.nextDouble() - 0.5) * 1e-3;
+            lon += (random.nextDouble() - 0.5) * 1e-3;
+            latLon[2 * i] = lat;
+            latLon[2 * i + 1] = lon;
+        }
+        return new RouteSegment(mode, latLon, points);
+    }
+}
@@ -0,0 +1,74 @@
+package com.soc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * RouteDensityGrid counts trips: one per cell a segment enters, and junctions between segments count once.
+ */
+class RouteDensityGridTest {
+
+    private static final int ZOOM = 12;
+
+    @Test
+    void junctionOfTwoSegmentsOfTheSameModeCountsOnce() {
+        RouteDensityGrid grid = new RouteDensityGrid(ZOOM, ZOOM, 1 << 20);
+        // east along a parallel, split in two walks in the middle of a cell
+        double lat = 43.6;
+        double junction = cellCenterLon(1.44);
+        RouteSegment first = line(RouteSegment.Mode.WALK, lat, junction - 0.01, junction);
+        RouteSegment second = line(RouteSegment.Mode.WALK, lat, junction, junction + 0.01);
+        grid.add(List.of(first, second));
+
+        long cy = cell(RouteLevelOfDetail.mercatorY(lat));
+        long from = cell(RouteLevelOfDetail.mercatorX(junction - 0.01));
+        long to = cell(RouteLevelOfDetail.mercatorX(junction + 0.01));
+        for (long cx = from; cx <= to; cx++) {
+            assertEquals(1, grid.count(RouteSegment.Mode.WALK, ZOOM, (int) cx, (int) cy), "cell " + cx);
+        }
+    }
+
+    @Test
+    void junctionBetweenModesCountsOncePerMode() {
+        RouteDensityGrid grid = new RouteDensityGrid(ZOOM, ZOOM, 1 << 20);
+        double lat = 43.6;
+        double junction = cellCenterLon(1.44);
+        grid.add(List.of(line(RouteSegment.Mode.WALK, lat, junction - 0.01, junction),
+                line(RouteSegment.Mode.BIKE, lat, junction, junction + 0.01),
+                line(RouteSegment.Mode.WALK, lat, junction + 0.01, junction + 0.02)));
+
+        int cx = (int) cell(RouteLevelOfDetail.mercatorX(junction));
+        int cy = (int) cell(RouteLevelOfDetail.mercatorY(lat));
+        assertEquals(1, grid.count(RouteSegment.Mode.WALK, ZOOM, cx, cy));
+        assertEquals(1, grid.count(RouteSegment.Mode.BIKE, ZOOM, cx, cy));
+        assertEquals(2, grid.count(null, ZOOM, cx, cy));
+
+        // two itineraries through the same cell are two trips
+        grid.add(List.of(line(RouteSegment.Mode.WALK, lat, junction - 0.01, junction + 0.01)));
+        assertEquals(2, grid.count(RouteSegment.Mode.WALK, ZOOM, cx, cy));
+    }
+
+    private static long cell(double mercator) {
+        return (long) (mercator * RouteDensityGrid.cellsPerWorld(ZOOM));
+    }
+
+    /* Longitude of the center of the cell holding lon */
+    private static double cellCenterLon(double lon) {
+        long world = RouteDensityGrid.cellsPerWorld(ZOOM);
+        double x = (cell(RouteLevelOfDetail.mercatorX(lon)) + 0.5) / world;
+        return x * 360 - 180;
+    }
+
+    private static RouteSegment line(RouteSegment.Mode mode, double lat, double lon0, double lon1) {
+        int points = 20;
+        double[] latLon = new double[points * 2];
+        for (int i = 0; i < points; i++) {
+            latLon[2 * i] = lat;
+            latLon[2 * i + 1] = lon0 + (lon1 - lon0) * i / (points - 1);
+        }
+        return new RouteSegment(mode, latLon, points);
+    }
+}
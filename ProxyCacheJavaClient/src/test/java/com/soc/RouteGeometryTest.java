@@ -0,0 +1,39 @@
+package com.soc;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * RouteGeometry.fitZoom: the box is measured in the map projection, not in degrees.
+ */
+class RouteGeometryTest {
+
+    @Test
+    void sameSpanOfDegreesNeedsALowerZoomFarNorth() {
+        // 0.1 x 0.1 degree in 800 x 600 pixels: about 11 km square at the equator
+        RouteGeometry.Bounds equator = box(0.0, 10.0, 0.1);
+        assertEquals(13, RouteGeometry.fitZoom(equator, 800, 600, 18));
+
+        // at 70 degrees north the same span is about three times as tall on the map
+        RouteGeometry.Bounds north = box(70.0, 20.0, 0.1);
+        assertEquals(11, RouteGeometry.fitZoom(north, 800, 600, 18));
+    }
+
+    @Test
+    void zoomStaysWithinItsLimits() {
+        RouteGeometry.Bounds tiny = box(43.6, 1.44, 1e-6);
+        assertEquals(16, RouteGeometry.fitZoom(tiny, 800, 600, 16));
+
+        RouteGeometry.Bounds world = box(-80, -179, 160);
+        assertEquals(0, RouteGeometry.fitZoom(world, 100, 100, 18));
+
+        assertEquals(18, RouteGeometry.fitZoom(new RouteGeometry.Bounds(), 800, 600, 18));
+    }
+
+    private static RouteGeometry.Bounds box(double lat, double lon, double span) {
+        RouteGeometry.Bounds bounds = new RouteGeometry.Bounds();
+        bounds.add(new double[]{lat, lon, lat + span, lon + span}, 2);
+        return bounds;
+    }
+}
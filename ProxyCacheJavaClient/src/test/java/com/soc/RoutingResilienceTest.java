@@ -0,0 +1,144 @@
+package com.soc;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.net.http.HttpTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * RoutingResilience against StubItineraryServer and its fault injection.
+ */
+class RoutingResilienceTest {
+
+    private StubItineraryServer stub;
+    private ItineraryTransport transport;
+
+    @BeforeEach
+    void startStub() throws IOException {
+        stub = new StubItineraryServer(0, 50, 0);
+        transport = ItineraryTransport.builder().build();
+    }
+
+    @AfterEach
+    void stopStub() {
+        stub.close();
+    }
+
+    @Test
+    void deadlinePassedDuringBackoffIsATimeout() throws Exception {
+        RoutingResilience r = RoutingResilience.builder()
+                .deadline(Duration.ofMillis(500))
+                .maxAttempts(100)
+                .backoff(Duration.ofMillis(200), Duration.ofMillis(200))
+                .circuitBreaker(0, Duration.ZERO)
+                .build();
+        call(RoutingResilience.builder().build()).body().close(); // warm: the deadline goes to the retries
+        stub.setFaults(1, 0, 0);
+
+        long start = System.nanoTime();
+        // before the deadline check, the attempt after the last backoff got a negative timeout
+        // (IllegalArgumentException from HttpRequest.Builder)
+        assertThrows(HttpTimeoutException.class, () -> call(r));
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertTrue(r.getRetries() > 0, "retried before the deadline");
+        assertTrue(elapsedMillis < 1200, "gave up at the deadline, not " + elapsedMillis + " ms later");
+    }
+
+    @Test
+    void hedgeAnswersWhenThePrimaryIsSlow() throws Exception {
+        RoutingResilience r = RoutingResilience.builder()
+                .hedging(true)
+                .minHedgeDelay(Duration.ofMillis(20))
+                .circuitBreaker(0, Duration.ZERO)
+                .build();
+        for (int i = 0; i < RoutingResilience.MIN_HEDGE_SAMPLES + 5; i++) {
+            call(r).body().close();
+        }
+        long hedges = r.getHedges();
+        long wins = r.getHedgeWins();
+
+        stub.delayNext(1, 3000);
+        long start = System.nanoTime();
+        try (InputStream body = call(r).body()) {
+            body.readAllBytes();
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start);
+
+        assertEquals(hedges + 1, r.getHedges());
+        assertEquals(wins + 1, r.getHedgeWins());
+        assertTrue(elapsedMillis < 1500, "answered by the hedge, not after " + elapsedMillis + " ms");
+    }
+
+    @Test
+    void circuitOpensThenClosesAfterASuccessfulTrial() throws Exception {
+        stub.setFaults(1, 0, 0);
+        RoutingResilience r = RoutingResilience.builder()
+                .maxAttempts(1)
+                .circuitBreaker(2, Duration.ofMillis(300))
+                .build();
+
+        assertThrows(RoutingServiceException.class, () -> call(r));
+        assertEquals(RoutingResilience.State.CLOSED, r.getState());
+        assertThrows(RoutingServiceException.class, () -> call(r));
+        assertEquals(RoutingResilience.State.OPEN, r.getState());
+
+        long requests = stub.getRequests();
+        assertThrows(RoutingResilience.CircuitOpenException.class, () -> call(r));
+        assertEquals(requests, stub.getRequests(), "no request while the circuit is open");
+        assertEquals(1, r.getRejected());
+
+        // a failed trial opens the circuit again
+        Thread.sleep(350);
+        assertThrows(RoutingServiceException.class, () -> call(r));
+        assertEquals(RoutingResilience.State.OPEN, r.getState());
+        assertEquals(2, r.getCircuitOpens());
+
+        // a successful one closes it; other calls are refused while it runs
+        Thread.sleep(350);
+        stub.setFaults(0, 0, 0);
+        stub.delayNext(1, 500);
+        requests = stub.getRequests();
+        try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+            CompletableFuture<HttpResponse<InputStream>> trial =
+                    CompletableFuture.supplyAsync(() -> {
+                        try {
+                            return call(r);
+                        } catch (Exception ex) {
+                            throw new IllegalStateException(ex);
+                        }
+                    }, executor);
+            while (stub.getRequests() == requests) {
+                Thread.sleep(5);
+            }
+            assertEquals(RoutingResilience.State.HALF_OPEN, r.getState());
+            assertThrows(RoutingResilience.CircuitOpenException.class, () -> call(r));
+
+            trial.get(5, TimeUnit.SECONDS).body().close();
+        }
+        assertEquals(RoutingResilience.State.CLOSED, r.getState());
+    }
+
+    private HttpResponse<InputStream> call(RoutingResilience r) throws IOException, InterruptedException {
+        String body = RoutingRestClient.itineraryRequestJson("A", "B");
+        return r.exchange(transport, timeout -> transport.newRequest(URI.create(stub.getItineraryUrl()), timeout)
+                .header("Content-Type", "application/json")
+                .POST(HttpRequest.BodyPublishers.ofString(body, StandardCharsets.UTF_8))
+                .build(), "A", "B");
+    }
+}
@@ -0,0 +1,81 @@
+package com.soc;
+
+import org.jxmapviewer.JXMapViewer;
+import org.jxmapviewer.viewer.DefaultTileFactory;
+import org.jxmapviewer.viewer.TileFactoryInfo;
+import org.jxmapviewer.viewer.util.GeoUtil;
+import org.junit.jupiter.api.Test;
+
+import java.awt.Graphics2D;
+import java.awt.geom.Point2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * SegmentedRoutePainter draws the same dashes whichever chunks are culled.
+ */
+class SegmentedRoutePainterTest {
+
+    private static final int OSM_ZOOM = 15;
+
+    @Test
+    void walkDashesDoNotDependOnTheCulledChunks() {
+        // a walk going east with sub-pixel noise, so the level of detail drops most vertices at this zoom
+        Random random = new Random(7);
+        int points = 2000;
+        double[] latLon = new double[points * 2];
+        for (int i = 0; i < points; i++) {
+            latLon[2 * i] = 43.6 + (random.nextDouble() - 0.5) * 2e-6;
+            latLon[2 * i + 1] = 1.40 + i * 2e-5;
+        }
+        RouteSegment walk = new RouteSegment(RouteSegment.Mode.WALK, latLon, points);
+
+        JXMapViewer map = new JXMapViewer();
+        TileFactoryInfo info = MapViewerApp.createTileFactoryInfo();
+        map.setTileFactory(new DefaultTileFactory(info));
+        map.setZoom(info.getTotalMapZoom() - OSM_ZOOM);
+        int zoom = map.getZoom();
+
+        Point2D first = GeoUtil.getBitmapCoordinate(walk.getLat(0), walk.getLon(0), zoom, info);
+        Point2D last = GeoUtil.getBitmapCoordinate(walk.getLat(points - 1), walk.getLon(points - 1), zoom, info);
+        Point2D secondChunk = GeoUtil.getBitmapCoordinate(walk.getLat(RouteChunkIndex.CHUNK_SIZE),
+                walk.getLon(RouteChunkIndex.CHUNK_SIZE), zoom, info);
+        double x0 = Math.floor(first.getX()) - 10;
+        double y0 = Math.floor(first.getY()) - 20;
+        int width = (int) (last.getX() - x0) + 10;
+        int height = 40;
+
+        // whole route, then from just after the first chunk (a pan, or the next raster tile)
+        BufferedImage all = draw(map, walk, x0, y0, width, height, new Rectangle2D.Double(x0, y0, width, height));
+        double cut = secondChunk.getX() + 10;
+        BufferedImage culled = draw(map, walk, x0, y0, width, height,
+                new Rectangle2D.Double(cut, y0, last.getX() - cut, height));
+
+        int drawn = 0;
+        for (int x = (int) (secondChunk.getX() - x0) + 4; x < width; x++) {
+            for (int y = 0; y < height; y++) {
+                assertEquals(all.getRGB(x, y), culled.getRGB(x, y), "pixel " + x + "," + y);
+                if (all.getRGB(x, y) != 0) {
+                    drawn++;
+                }
+            }
+        }
+        assertTrue(drawn > 0, "the walk is drawn after the first chunk");
+    }
+
+    /* Fresh painter, so nothing projected for the other area is reused */
+    private static BufferedImage draw(JXMapViewer map, RouteSegment walk, double x0, double y0,
+                                      int width, int height, Rectangle2D area) {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = image.createGraphics();
+        g.translate(-x0, -y0);
+        new SegmentedRoutePainter(List.of(walk)).paintRoute(g, map, area);
+        g.dispose();
+        return image;
+    }
+}
@@ -0,0 +1,94 @@
+package com.soc;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+/**
+ * SingleFlight coalescing, failures and per-caller cancellation.
+ */
+class SingleFlightTest {
+
+    private final SingleFlight<String, String> flight = new SingleFlight<>();
+
+    @Test
+    void concurrentCallersShareOneCall() throws Exception {
+        CompletableFuture<String> call = new CompletableFuture<>();
+        CompletableFuture<String> first = flight.execute("A", () -> call);
+        CompletableFuture<String> second = flight.execute("A", () -> CompletableFuture.completedFuture("other"));
+        CompletableFuture<String> otherKey = flight.execute("B", () -> CompletableFuture.completedFuture("b"));
+
+        assertEquals(2, flight.getCalls());
+        assertEquals(1, flight.getCoalesced());
+        assertEquals(1, flight.getInFlight());
+        assertEquals("b", otherKey.get());
+
+        call.complete("a");
+        assertEquals("a", first.get());
+        assertEquals("a", second.get());
+        assertEquals(0, flight.getInFlight());
+
+        // not a cache: the next caller starts a new call
+        assertEquals("again", flight.execute("A", () -> CompletableFuture.completedFuture("again")).get());
+        assertEquals(3, flight.getCalls());
+    }
+
+    @Test
+    void failureReachesEveryCaller() {
+        CompletableFuture<String> call = new CompletableFuture<>();
+        CompletableFuture<String> first = flight.execute("A", () -> call);
+        CompletableFuture<String> second = flight.execute("A", () -> call);
+
+        call.completeExceptionally(new IllegalStateException("down"));
+        ExecutionException ex = assertThrows(ExecutionException.class, first::get);
+        assertInstanceOf(IllegalStateException.class, ex.getCause());
+        assertThrows(ExecutionException.class, second::get);
+        assertEquals(0, flight.getInFlight());
+    }
+
+    @Test
+    void supplierThrowingFailsTheCallAndForgetsTheKey() {
+        CompletableFuture<String> f = flight.execute("A", () -> {
+            throw new IllegalArgumentException("bad key");
+        });
+        assertThrows(ExecutionException.class, f::get);
+        assertEquals(0, flight.getInFlight());
+    }
+
+    @Test
+    void cancellingOneCallerLeavesTheOthers() throws Exception {
+        CompletableFuture<String> call = new CompletableFuture<>();
+        CompletableFuture<String> first = flight.execute("A", () -> call);
+        CompletableFuture<String> second = flight.execute("A", () -> call);
+
+        first.cancel(true);
+        assertThrows(ExecutionException.class,
+                () -> second.copy().orTimeout(10, TimeUnit.MILLISECONDS).get());
+        assertFalse(call.isDone());
+
+        call.complete("a");
+        assertEquals("a", second.get(1, TimeUnit.SECONDS));
+        assertThrows(CancellationException.class, first::get);
+    }
+
+    @Test
+    void timeoutOfOneCallerLeavesTheCallRunning() throws Exception {
+        CompletableFuture<String> call = new CompletableFuture<>();
+        CompletableFuture<String> impatient = flight.execute("A", () -> call).orTimeout(10, TimeUnit.MILLISECONDS);
+        CompletableFuture<String> patient = flight.execute("A", () -> call);
+
+        ExecutionException ex = assertThrows(ExecutionException.class, impatient::get);
+        assertInstanceOf(TimeoutException.class, ex.getCause());
+        call.complete("a");
+        assertEquals("a", patient.get(1, TimeUnit.SECONDS));
+    }
+}
@@ -0,0 +1,151 @@
+package com.soc;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * StationIndex queries checked against a scan of every station, on random snapshots with duplicate points.
+ */
+class StationIndexTest {
+
+    /* {stations, distinct points}: fewer points than stations gives duplicates, down to all on one point */
+    private static final int[][] SHAPES = {{1, 1}, {2, 1}, {7, 7}, {64, 1}, {300, 300}, {1000, 120}, {3000, 3000}};
+
+    @Test
+    void nearestMatchesAScan() throws IOException {
+        for (int[] shape : SHAPES) {
+            Random random = new Random(shape[0] * 31L + shape[1]);
+            StationIndex index = StationIndex.build(snapshot(random, shape[0], shape[1]));
+            for (int q = 0; q < 200; q++) {
+                double lat = 43.6 + (random.nextDouble() - 0.5) * 0.12;
+                double lon = 1.44 + (random.nextDouble() - 0.5) * 0.12;
+                int k = 1 + random.nextInt(12);
+                int minBikes = random.nextInt(4);
+                int minStands = random.nextInt(4);
+
+                int[] found = index.nearest(lat, lon, k, minBikes, minStands);
+                int[] expected = scan(index, lat, lon, Double.POSITIVE_INFINITY, minBikes, minStands);
+                String query = shape[0] + " stations, query " + q;
+                assertEquals(Math.min(k, expected.length), found.length, query);
+                // ties (duplicate points) may come in any order: compare the distances, then the conditions
+                for (int i = 0; i < found.length; i++) {
+                    assertEquals(index.distanceMeters(expected[i], lat, lon), index.distanceMeters(found[i], lat, lon),
+                            query + ", rank " + i);
+                    assertTrue(matches(index.getSnapshot(), found[i], minBikes, minStands), query);
+                }
+                assertEquals(found.length, Arrays.stream(found).distinct().count(), query);
+            }
+        }
+    }
+
+    @Test
+    void withinRadiusMatchesAScan() throws IOException {
+        for (int[] shape : SHAPES) {
+            Random random = new Random(shape[0] * 17L + shape[1]);
+            StationIndex index = StationIndex.build(snapshot(random, shape[0], shape[1]));
+            for (int q = 0; q < 200; q++) {
+                double lat = 43.6 + (random.nextDouble() - 0.5) * 0.12;
+                double lon = 1.44 + (random.nextDouble() - 0.5) * 0.12;
+                double radius = 50 + random.nextDouble() * 3000;
+                int minBikes = random.nextInt(4);
+                int minStands = random.nextInt(4);
+
+                int[] found = index.withinRadius(lat, lon, radius, minBikes, minStands);
+                String query = shape[0] + " stations, query " + q;
+                for (int i = 1; i < found.length; i++) {
+                    assertTrue(index.distanceMeters(found[i - 1], lat, lon) <= index.distanceMeters(found[i], lat, lon),
+                            query + ": closest first");
+                }
+                int[] expected = scan(index, lat, lon, radius, minBikes, minStands);
+                Arrays.sort(expected);
+                int[] sorted = found.clone();
+                Arrays.sort(sorted);
+                assertArrayEquals(expected, sorted, query);
+            }
+        }
+    }
+
+    @Test
+    void forEachInBoxMatchesAScan() throws IOException {
+        Random random = new Random(5);
+        StationIndex index = StationIndex.build(snapshot(random, 800, 40));
+        StationSnapshot s = index.getSnapshot();
+        for (int q = 0; q < 100; q++) {
+            double minLat = 43.55 + random.nextDouble() * 0.1;
+            double minLon = 1.39 + random.nextDouble() * 0.1;
+            double maxLat = minLat + random.nextDouble() * 0.03;
+            double maxLon = minLon + random.nextDouble() * 0.03;
+
+            List<Integer> found = new ArrayList<>();
+            index.forEachInBox(minLat, maxLat, minLon, maxLon, found::add);
+            int[] expected = new int[s.size()];
+            int n = 0;
+            for (int i = 0; i < s.size(); i++) {
+                if (s.getLat(i) >= minLat && s.getLat(i) <= maxLat && s.getLon(i) >= minLon && s.getLon(i) <= maxLon) {
+                    expected[n++] = i;
+                }
+            }
+            assertArrayEquals(Arrays.copyOf(expected, n), found.stream().mapToInt(Integer::intValue).sorted().toArray(),
+                    "box " + q);
+        }
+    }
+
+    @Test
+    void emptySnapshotFindsNothing() throws IOException {
+        StationIndex index = StationIndex.build(StationSnapshot.parse("toulouse", "[]"));
+        assertEquals(0, index.nearest(43.6, 1.44, 5, 0, 0).length);
+        assertEquals(0, index.withinRadius(43.6, 1.44, 1000, 0, 0).length);
+    }
+
+    /* Open stations with the bikes and stands within radius, closest first */
+    private static int[] scan(StationIndex index, double lat, double lon, double radius, int minBikes, int minStands) {
+        StationSnapshot s = index.getSnapshot();
+        List<Integer> stations = new ArrayList<>();
+        for (int i = 0; i < s.size(); i++) {
+            if (matches(s, i, minBikes, minStands) && index.distanceMeters(i, lat, lon) <= radius) {
+                stations.add(i);
+            }
+        }
+        stations.sort((a, b) -> Double.compare(index.distanceMeters(a, lat, lon), index.distanceMeters(b, lat, lon)));
+        return stations.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    private static boolean matches(StationSnapshot s, int i, int minBikes, int minStands) {
+        return s.isOpen(i) && s.getBikes(i) >= minBikes && s.getStands(i) >= minStands;
+    }
+
+    /* JCDecaux v3 JSON of count stations around Toulouse, on points distinct positions */
+    private static StationSnapshot snapshot(Random random, int count, int points) throws IOException {
+        double[][] positions = new double[points][];
+        for (int i = 0; i < points; i++) {
+            positions[i] = new double[]{43.6 + (random.nextDouble() - 0.5) * 0.1, 1.44 + (random.nextDouble() - 0.5) * 0.1};
+        }
+        StringBuilder json = new StringBuilder("[");
+        for (int i = 0; i < count; i++) {
+            double[] p = positions[i % points];
+            int capacity = 10 + random.nextInt(20);
+            int bikes = random.nextInt(capacity + 1);
+            // 0 to 4 bikes and stands, so that the minBikes / minStands conditions of the queries rule many out
+            if (i > 0) {
+                json.append(',');
+            }
+            json.append(String.format(Locale.ROOT,
+                    "{\"number\":%d,\"name\":\"Station %d\",\"status\":\"%s\",\"position\":{\"latitude\":%.7f,\"longitude\":%.7f},"
+                            + "\"totalStands\":{\"availabilities\":{\"bikes\":%d,\"stands\":%d},\"capacity\":%d}}",
+                    i + 1, i + 1, random.nextInt(10) == 0 ? "CLOSED" : "OPEN", p[0], p[1],
+                    bikes % 5, (capacity - bikes) % 5, capacity));
+        }
+        return StationSnapshot.parse("toulouse", json.append(']').toString(), Instant.EPOCH);
+    }
+}
@@ -0,0 +1,93 @@
+package com.soc;
+
+import com.fasterxml.jackson.core.JsonParseException;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+/**
+ * StationSnapshot.parse on the JCDecaux v3 JSON, including the incomplete stations the API sends.
+ */
+class StationSnapshotTest {
+
+    @Test
+    void completeStationIsRead() throws IOException {
+        StationSnapshot s = StationSnapshot.parse("toulouse", "[" + station(42, "Capitole", "OPEN",
+                "{\"latitude\":43.6045,\"longitude\":1.4440}",
+                "{\"availabilities\":{\"bikes\":5,\"stands\":12,\"mechanicalBikes\":5},\"capacity\":17}") + "]");
+
+        assertEquals(1, s.size());
+        assertEquals(42, s.getNumber(0));
+        assertEquals("Capitole", s.getName(0));
+        assertEquals(43.6045, s.getLat(0));
+        assertEquals(1.4440, s.getLon(0));
+        assertEquals(5, s.getBikes(0));
+        assertEquals(12, s.getStands(0));
+        assertEquals(17, s.getCapacity(0));
+        assertTrue(s.isOpen(0));
+        assertEquals(0, s.indexOfNumber(42));
+        assertEquals(-1, s.indexOfNumber(7));
+    }
+
+    @Test
+    void incompleteStationsAreReadOrDropped() throws IOException {
+        String json = "["
+                + station(1, "No position", "OPEN", "null", "{\"availabilities\":{\"bikes\":3,\"stands\":4},\"capacity\":7}")
+                + "," + station(2, "No latitude", "OPEN", "{\"longitude\":1.44}", "null")
+                + "," + station(3, "No stands", "OPEN", "{\"latitude\":43.61,\"longitude\":1.45}", "null")
+                + "," + "{\"number\":4,\"name\":\"Missing stands\",\"status\":\"OPEN\","
+                + "\"position\":{\"latitude\":43.62,\"longitude\":1.46}}"
+                + "," + station(5, "Closed", "CLOSED", "{\"latitude\":43.63,\"longitude\":1.47}",
+                "{\"availabilities\":{\"bikes\":2,\"stands\":0},\"capacity\":2}")
+                + "]";
+        StationSnapshot s = StationSnapshot.parse("toulouse", json);
+
+        // stations without coordinates cannot be shown or searched
+        assertEquals(3, s.size());
+        assertEquals(-1, s.indexOfNumber(1));
+        assertEquals(-1, s.indexOfNumber(2));
+
+        int noStands = s.indexOfNumber(3);
+        assertEquals(0, s.getBikes(noStands));
+        assertEquals(0, s.getStands(noStands));
+        assertEquals(0, s.getCapacity(noStands));
+        assertTrue(s.isOpen(noStands));
+        assertEquals(0, s.getCapacity(s.indexOfNumber(4)));
+
+        int closed = s.indexOfNumber(5);
+        assertFalse(s.isOpen(closed));
+        assertEquals(2, s.getBikes(closed));
+        assertEquals(0, s.totalBikes(), "only open stations count");
+    }
+
+    @Test
+    void unknownFieldsAreSkippedAndBadJsonRejected() throws IOException {
+        StationSnapshot s = StationSnapshot.parse("toulouse", "[{\"number\":9,\"extra\":{\"a\":[1,{\"b\":2}]},"
+                + "\"position\":{\"latitude\":43.6,\"altitude\":150,\"longitude\":1.4},\"name\":\"After\"}]");
+        assertEquals(1, s.size());
+        assertEquals("After", s.getName(0));
+
+        assertEquals(0, StationSnapshot.parse("toulouse", "[]").size());
+        assertThrows(JsonParseException.class, () -> StationSnapshot.parse("toulouse", "{\"error\":\"no contract\"}"));
+    }
+
+    @Test
+    void sameSourceIsRecognizedByContent() throws IOException {
+        String json = "[" + station(1, "A", "OPEN", "{\"latitude\":43.6,\"longitude\":1.4}", "null") + "]";
+        StationSnapshot s = StationSnapshot.parse("toulouse", json);
+
+        assertTrue(s.isSameSource(new String(json.toCharArray())));
+        assertFalse(s.isSameSource(json.replace("\"A\"", "\"B\"")));
+        assertTrue(s.withFetchedAt(s.getFetchedAt().plusSeconds(60)).isSameSource(json));
+    }
+
+    static String station(int number, String name, String status, String position, String totalStands) {
+        return "{\"number\":" + number + ",\"name\":\"" + name + "\",\"status\":\"" + status + "\","
+                + "\"position\":" + position + ",\"totalStands\":" + totalStands + "}";
+    }
+}
@@ -0,0 +1,65 @@
+package com.soc;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNotSame;
+import static org.junit.jupiter.api.Assertions.assertSame;
+
+/**
+ * StationStore refreshes: an unchanged payload reuses the parsed snapshot, a failure keeps it.
+ */
+class StationStoreTest {
+
+    private static final String CAPITOLE = "[" + StationSnapshotTest.station(1, "Capitole", "OPEN",
+            "{\"latitude\":43.6045,\"longitude\":1.4440}", "{\"availabilities\":{\"bikes\":5,\"stands\":12},\"capacity\":17}") + "]";
+
+    @Test
+    void unchangedPayloadIsNotParsedAgain() throws Exception {
+        AtomicReference<String> payload = new AtomicReference<>(CAPITOLE);
+        try (StationStore store = new StationStore((contract, ttl) -> payload.get())) {
+            store.track("Toulouse", Duration.ofHours(1));
+            StationSnapshot first = store.await("toulouse", Duration.ofSeconds(5));
+            assertNotNull(first);
+
+            // a new String with the same content, as the proxy sends its cached copy again
+            payload.set(new String(CAPITOLE.toCharArray()));
+            StationSnapshot same = store.refreshNow("toulouse").get();
+            assertEquals(1, store.getParseCount());
+            assertNotSame(first, same);
+            assertEquals(first.getName(0), same.getName(0));
+            assertEquals(2, store.getRefreshCount());
+
+            payload.set(CAPITOLE.replace("\"bikes\":5", "\"bikes\":4"));
+            StationSnapshot changed = store.refreshNow("toulouse").get();
+            assertEquals(2, store.getParseCount());
+            assertEquals(4, changed.getBikes(0));
+        }
+    }
+
+    @Test
+    void failedRefreshKeepsTheSnapshotAndIsCounted() throws Exception {
+        AtomicReference<String> payload = new AtomicReference<>(CAPITOLE);
+        try (StationStore store = new StationStore((contract, ttl) -> {
+            String json = payload.get();
+            if (json == null) {
+                throw new IOException("proxy unreachable");
+            }
+            return json;
+        })) {
+            store.track("toulouse", Duration.ofHours(1));
+            StationSnapshot first = store.await("toulouse", Duration.ofSeconds(5));
+
+            long errors = ClientMetrics.get().getStationRefreshErrors();
+            payload.set(null);
+            assertSame(first, store.refreshNow("toulouse").get());
+            assertEquals(1, store.getFailureCount());
+            assertEquals(errors + 1, ClientMetrics.get().getStationRefreshErrors());
+        }
+    }
+}
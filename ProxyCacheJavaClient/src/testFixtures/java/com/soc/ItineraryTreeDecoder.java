@@ -0,0 +1,95 @@
+package com.soc;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import org.jxmapviewer.viewer.GeoPosition;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Tree-based decoding of a full itinerary response body (the original implementation of
+ * RoutingRestClient.fetchSegments). No longer used for HTTP calls: it is the reference the streaming
+ * decoder must agree with (ItineraryStreamDecoderTest) and the baseline of DecodeBenchmark.
+ * Test and bench sources only (src/testFixtures/java).
+ */
+final class ItineraryTreeDecoder {
+
+    private static final ObjectMapper MAPPER = new ObjectMapper();
+
+    private ItineraryTreeDecoder() {
+    }
+
+    static List<RouteSegment> parseSegments(String json) throws IOException {
+        JsonNode root = MAPPER.readTree(json);
+        JsonNode segmentsNode = root.get("Segments");
+
+        List<RouteSegment> segments = new ArrayList<>();
+
+        if (segmentsNode != null && segmentsNode.isArray()) {
+            for (JsonNode segNode : segmentsNode) {
+                String modeStr = segNode.path("Mode").asText("walk");
+                RouteSegment.Mode mode =
+                        "bike".equalsIgnoreCase(modeStr)
+                                ? RouteSegment.Mode.BIKE
+                                : RouteSegment.Mode.WALK;
+
+                JsonNode coords = segNode.get("Coords");
+                List<GeoPosition> pts = new ArrayList<>();
+                appendCoordsArray(coords, pts);
+
+                if (!pts.isEmpty()) {
+                    segments.add(new RouteSegment(mode, pts).withDetails(
+                            doubleOrNaN(segNode.get("DistanceMeters")),
+                            doubleOrNaN(segNode.get("DurationSec")),
+                            textOrNull(segNode.get("FromName")),
+                            textOrNull(segNode.get("ToName")),
+                            textOrNull(segNode.get("Contract"))));
+                }
+            }
+        }
+
+        /* fallback: if we don't have "Segments", we build a unique segment from the simple list */
+        if (segments.isEmpty()) {
+            List<GeoPosition> all = new ArrayList<>();
+            appendCoordsArray(root.get("Walk1Coords"), all);
+            appendCoordsArray(root.get("BikeCoords"), all);
+            appendCoordsArray(root.get("Walk2Coords"), all);
+
+            if (all.isEmpty()) {
+                double oLat = root.path("OriginResolvedLat").asDouble();
+                double oLon = root.path("OriginResolvedLon").asDouble();
+                double dLat = root.path("DestResolvedLat").asDouble();
+                double dLon = root.path("DestResolvedLon").asDouble();
+
+                all.add(new GeoPosition(oLat, oLon));
+                all.add(new GeoPosition(dLat, dLon));
+            }
+
+            segments.add(new RouteSegment(RouteSegment.Mode.BIKE, all));
+        }
+
+        return segments;
+    }
+
+    private static double doubleOrNaN(JsonNode node) {
+        return node == null || node.isNull() || node.isContainerNode() ? Double.NaN : node.asDouble(Double.NaN);
+    }
+
+    private static String textOrNull(JsonNode node) {
+        return node == null || node.isNull() || node.isContainerNode() ? null : node.asText();
+    }
+
+    private static void appendCoordsArray(JsonNode arr, List<GeoPosition> target) {
+        if (arr == null || !arr.isArray()) return;
+
+        for (JsonNode pair : arr) {
+            if (pair.isArray() && pair.size() >= 2) {
+                double lat = pair.get(0).asDouble();
+                double lon = pair.get(1).asDouble();
+                target.add(new GeoPosition(lat, lon));
+            }
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package com.soc;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * RouteGeometry kernel on the JDK Vector API (incubator module jdk.incubator.vector): the widest vectors
+ * of the CPU (4 doubles with AVX2, 8 with AVX-512), with the trigonometric lanes computed by the
+ * vectorized math library of the JIT where it has one. The last points that do not fill a vector go
+ * through the scalar code.
+ *
+ * Only instantiated by RouteGeometry when the module is in the boot layer.
+ */
+final class VectorGeometryKernel implements RouteGeometry.Kernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    /* lanes holding latitudes in an interleaved lat/lon vector (the species has an even length) */
+    private static final VectorMask<Double> LAT_LANES = VectorMask.fromLong(SPECIES, 0x5555_5555_5555_5555L);
+    private static final VectorMask<Double> LON_LANES = LAT_LANES.not();
+
+    VectorGeometryKernel() {
+        if (SPECIES.length() < 2) {
+            throw new UnsupportedOperationException("No SIMD registers for doubles");
+        }
+    }
+
+    @Override
+    public void cos(double[] src, double[] dst, int n) {
+        int i = 0;
+        for (int bound = SPECIES.loopBound(n); i < bound; i += SPECIES.length()) {
+            DoubleVector.fromArray(SPECIES, src, i).lanewise(VectorOperators.COS).intoArray(dst, i);
+        }
+        for (; i < n; i++) {
+            dst[i] = Math.cos(src[i]);
+        }
+    }
+
+    @Override
+    public double centralAngles(double[] phi, double[] lambda, double[] cosPhi, int n,
+                                double[] angles, int offset) {
+        int pairs = n - 1;
+        DoubleVector sum = DoubleVector.zero(SPECIES);
+        int i = 0;
+        for (int bound = SPECIES.loopBound(pairs); i < bound; i += SPECIES.length()) {
+            DoubleVector sinHalfDPhi = DoubleVector.fromArray(SPECIES, phi, i + 1)
+                    .sub(DoubleVector.fromArray(SPECIES, phi, i))
+                    .mul(0.5).lanewise(VectorOperators.SIN);
+            DoubleVector sinHalfDLambda = DoubleVector.fromArray(SPECIES, lambda, i + 1)
+                    .sub(DoubleVector.fromArray(SPECIES, lambda, i))
+                    .mul(0.5).lanewise(VectorOperators.SIN);
+            DoubleVector cosCos = DoubleVector.fromArray(SPECIES, cosPhi, i)
+                    .mul(DoubleVector.fromArray(SPECIES, cosPhi, i + 1));
+            DoubleVector a = sinHalfDLambda.mul(sinHalfDLambda).fma(cosCos, sinHalfDPhi.mul(sinHalfDPhi)).min(1.0);
+            DoubleVector angle = a.sqrt().lanewise(VectorOperators.ASIN).mul(2.0);
+            if (angles != null) {
+                angle.intoArray(angles, offset + i);
+            }
+            sum = sum.add(angle);
+        }
+
+        double total = sum.reduceLanes(VectorOperators.ADD);
+        for (; i < pairs; i++) {
+            double angle = RouteGeometry.ScalarKernel.centralAngle(phi, lambda, cosPhi, i);
+            if (angles != null) {
+                angles[offset + i] = angle;
+            }
+            total += angle;
+        }
+        return total;
+    }
+
+    @Override
+    public void bounds(double[] latLon, int size, double[] box) {
+        int length = 2 * size;
+        DoubleVector min = DoubleVector.broadcast(SPECIES, Double.POSITIVE_INFINITY);
+        DoubleVector max = DoubleVector.broadcast(SPECIES, Double.NEGATIVE_INFINITY);
+        int k = 0;
+        for (int bound = SPECIES.loopBound(length); k < bound; k += SPECIES.length()) {
+            DoubleVector v = DoubleVector.fromArray(SPECIES, latLon, k);
+            min = min.min(v);
+            max = max.max(v);
+        }
+
+        double minLat = Math.min(box[0], min.reduceLanes(VectorOperators.MIN, LAT_LANES));
+        double minLon = Math.min(box[1], min.reduceLanes(VectorOperators.MIN, LON_LANES));
+        double maxLat = Math.max(box[2], max.reduceLanes(VectorOperators.MAX, LAT_LANES));
+        double maxLon = Math.max(box[3], max.reduceLanes(VectorOperators.MAX, LON_LANES));
+        for (; k < length; k += 2) {
+            minLat = Math.min(minLat, latLon[k]);
+            maxLat = Math.max(maxLat, latLon[k]);
+            minLon = Math.min(minLon, latLon[k + 1]);
+            maxLon = Math.max(maxLon, latLon[k + 1]);
+        }
+        box[0] = minLat;
+        box[1] = minLon;
+        box[2] = maxLat;
+        box[3] = maxLon;
+    }
+}
@@ -0,0 +1,58 @@
+package com.soc;
+
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+/**
+ * VectorGeometryKernel gives the results of the scalar kernel, around the blocks of RouteGeometry (1024 points,
+ * overlapping by one) and the tail lanes that do not fill a vector.
+ */
+class VectorGeometryKernelTest {
+
+    private final RouteGeometry.Kernel vector = new VectorGeometryKernel();
+    private final RouteGeometry.Kernel scalar = new RouteGeometry.ScalarKernel();
+
+    @ParameterizedTest
+    @ValueSource(ints = {1, 2, 3, 1023, 1024, 1025, 2047, 5000})
+    void matchesTheScalarKernel(int points) {
+        double[] latLon = route(points, points);
+
+        double expected = RouteGeometry.lengthMeters(scalar, latLon, points);
+        assertEquals(expected, RouteGeometry.lengthMeters(vector, latLon, points), expected * 1e-12, "length");
+
+        double[] scalarMeters = new double[points];
+        double[] vectorMeters = new double[points];
+        RouteGeometry.cumulativeMeters(scalar, latLon, points, scalarMeters);
+        RouteGeometry.cumulativeMeters(vector, latLon, points, vectorMeters);
+        for (int i = 0; i < points; i++) {
+            assertEquals(scalarMeters[i], vectorMeters[i], scalarMeters[i] * 1e-12 + 1e-9, "cumulative at " + i);
+        }
+
+        // min and max are exact
+        RouteGeometry.Bounds s = RouteGeometry.bounds(scalar, latLon, points);
+        RouteGeometry.Bounds v = RouteGeometry.bounds(vector, latLon, points);
+        assertEquals(s.getMinLat(), v.getMinLat());
+        assertEquals(s.getMinLon(), v.getMinLon());
+        assertEquals(s.getMaxLat(), v.getMaxLat());
+        assertEquals(s.getMaxLon(), v.getMaxLon());
+    }
+
+    /* A random walk around Toulouse, steps of up to about 50 m */
+    private static double[] route(int points, long seed) {
+        Random random = new Random(seed);
+        double[] latLon = new double[points * 2];
+        double lat = 43.6;
+        double lon = 1.44;
+        for (int i = 0; i < points; i++) {
+            lat += (random.nextDouble() - 0.5) * 1e-3;
+            lon += (random.nextDouble() - 0.5) * 1e-3;
+            latLon[2 * i] = lat;
+            latLon[2 * i + 1] = lon;
+        }
+        return latLon;
+    }
+}